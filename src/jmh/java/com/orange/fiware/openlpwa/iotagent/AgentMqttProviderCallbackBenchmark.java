@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.iotagent;
+
+import com.orange.fiware.openlpwa.domain.DeviceEntity;
+import com.orange.fiware.openlpwa.ngsi.StubNgsiClient;
+import com.orange.fiware.openlpwa.provider.OpenLpwaJsonMapper;
+import com.orange.fiware.openlpwa.provider.model.DeviceIncomingMessage;
+import com.orange.fiware.openlpwa.repository.CachedDeviceEntityRepository;
+import com.orange.fiware.openlpwa.repository.DeviceEntityRepository;
+import com.orange.ngsi.model.ContextAttribute;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Processing of a decoded uplink by the agent: cached device lookup, payload conversion and updateContext request building
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class AgentMqttProviderCallbackBenchmark {
+
+    private static final String deviceEUI = "0018B20000000001";
+    private Agent.AgentMqttProviderCallback callback;
+    private DeviceIncomingMessage incomingMessage;
+
+    @Setup
+    public void setup() throws Exception {
+        DeviceEntity device = new DeviceEntity();
+        device.setDeviceEUI(deviceEUI);
+        device.setName("Room1");
+        device.setType("Room");
+        device.setPort(1);
+        // The stub repository is only called when the device is saved, lookups are served by the cache
+        DeviceEntityRepository stubRepository = mock(DeviceEntityRepository.class);
+        when(stubRepository.save(device)).thenReturn(device);
+        CachedDeviceEntityRepository deviceRepository = new CachedDeviceEntityRepository(stubRepository, null, 100, false, 0);
+        deviceRepository.save(device);
+
+        Agent agent = new Agent();
+        ReflectionTestUtils.setField(agent, "deviceRepository", deviceRepository);
+        ReflectionTestUtils.setField(agent, "ngsiManager", StubNgsiClient.newNgsiManager());
+        ReflectionTestUtils.setField(agent, "converter", new StubConverter());
+        callback = agent.new AgentMqttProviderCallback();
+        incomingMessage = OpenLpwaJsonMapper.readIncomingMessage(("{\"timestamp\":\"2016-05-23T13:05:18.307Z\","
+                + "\"value\":{\"port\":1,\"fcnt\":8,\"payload\":\"ae2109000cf3\"}}").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public void newMessageArrived() {
+        callback.newMessageArrived(deviceEUI, incomingMessage);
+    }
+
+    private static class StubConverter implements OpenLpwaNgsiConverter {
+
+        @Override
+        public List<ContextAttribute> decodeData(String deviceEUI, String data) {
+            return Collections.singletonList(new ContextAttribute("temperature", "float", data.substring(0, 4)));
+        }
+
+        @Override
+        public String encodeDataForCommand(String deviceEUI, String commandName, ContextAttribute attribute) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+package com.orange.fiware.openlpwa.iotagent;
+
+import com.orange.fiware.openlpwa.domain.DeviceEntity;
+import com.orange.fiware.openlpwa.ngsi.StubNgsiClient;
+import com.orange.fiware.openlpwa.repository.CachedDeviceEntityRepository;
+import com.orange.fiware.openlpwa.repository.DeviceEntityRepository;
+import com.orange.ngsi.model.*;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Processing of a notification carrying several commands: command launch and aggregation of the command statuses
+ * into a single updateContext request. The notification is built by each invocation, its attributes being renamed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class NgsiRestControllerBenchmark {
+
+    private static final String deviceEUI = "0018B20000000001";
+    private static final String subscriptionId = "subscription1";
+    @Param({"1", "10", "100"})
+    private int commandCount;
+    private NgsiRestController controller;
+
+    @Setup
+    public void setup() throws Exception {
+        DeviceEntity device = new DeviceEntity();
+        device.setDeviceEUI(deviceEUI);
+        device.setName("Room1");
+        device.setType("Room");
+        device.setPort(1);
+        device.setSubscriptionId(subscriptionId);
+        DeviceEntityRepository stubRepository = mock(DeviceEntityRepository.class);
+        when(stubRepository.save(device)).thenReturn(device);
+        CachedDeviceEntityRepository deviceRepository = new CachedDeviceEntityRepository(stubRepository, null, 100, false, 0);
+        deviceRepository.save(device);
+
+        controller = new NgsiRestController();
+        ReflectionTestUtils.setField(controller, "manager", StubNgsiClient.newNgsiManager());
+        ReflectionTestUtils.setField(controller, "agent", new StubAgent());
+        ReflectionTestUtils.setField(controller, "deviceRepository", deviceRepository);
+    }
+
+    @Benchmark
+    public ResponseEntity<NotifyContextResponse> notifyContextRequest() throws Exception {
+        return controller.notifyContextRequest(newNotifyContext(), deviceEUI, null);
+    }
+
+    private NotifyContext newNotifyContext() {
+        List<ContextAttribute> attributes = new ArrayList<>(commandCount);
+        for (int i = 0; i < commandCount; i++) {
+            attributes.add(new ContextAttribute("led" + i + "_command", "command", "on"));
+        }
+        ContextElement contextElement = new ContextElement();
+        contextElement.setEntityId(new EntityId("Room1", "Room", false));
+        contextElement.setContextAttributeList(attributes);
+        ContextElementResponse contextElementResponse = new ContextElementResponse();
+        contextElementResponse.setStatusCode(new StatusCode(CodeEnum.CODE_200));
+        contextElementResponse.setContextElement(contextElement);
+        NotifyContext notifyContext = new NotifyContext();
+        notifyContext.setSubscriptionId(subscriptionId);
+        notifyContext.setContextElementResponseList(Collections.singletonList(contextElementResponse));
+        return notifyContext;
+    }
+
+    /**
+     * Agent sending the commands at once
+     */
+    private static class StubAgent extends Agent {
+
+        private final Date commandDate = new Date();
+
+        @Override
+        void executeCommand(String deviceEUI, String commandName, ContextAttribute attribute, BiConsumer<Boolean, Date> callback) {
+            callback.accept(true, commandDate);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import com.orange.fiware.openlpwa.domain.DeviceEntity;
+import com.orange.fiware.openlpwa.exception.AgentException;
+import com.orange.ngsi.model.ContextAttribute;
+import com.orange.ngsi.model.UpdateContextResponse;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the updateContext request of a device update, the request is not sent
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class NgsiManagerBenchmark {
+
+    private NgsiManager ngsiManager;
+    private DeviceEntity device;
+    private List<ContextAttribute> attributes;
+
+    @Setup
+    public void setup() {
+        ngsiManager = StubNgsiClient.newNgsiManager();
+        device = new DeviceEntity();
+        device.setDeviceEUI("0018B20000000001");
+        device.setName("Room1");
+        device.setType("Room");
+        device.setPort(1);
+        attributes = Arrays.asList(new ContextAttribute("temperature", "float", "21.5"),
+                new ContextAttribute("humidity", "float", "40"));
+    }
+
+    @Benchmark
+    public ListenableFuture<UpdateContextResponse> updateDeviceAttributes() throws AgentException {
+        return ngsiManager.updateDeviceAttributes(device, attributes);
+    }
+}
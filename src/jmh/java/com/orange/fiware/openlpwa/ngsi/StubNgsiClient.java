@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import com.orange.ngsi.client.NgsiClient;
+import com.orange.ngsi.model.UpdateContext;
+import com.orange.ngsi.model.UpdateContextResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+/**
+ * NgsiClient answering updateContext requests without network access
+ */
+public class StubNgsiClient extends NgsiClient {
+
+    private final SettableListenableFuture<UpdateContextResponse> updateContextResponse = new SettableListenableFuture<>();
+
+    public StubNgsiClient() {
+        updateContextResponse.set(new UpdateContextResponse());
+    }
+
+    /**
+     * Creates a NgsiManager sending its requests to a stub client
+     * @return The NgsiManager
+     */
+    public static NgsiManager newNgsiManager() {
+        NgsiManager ngsiManager = new NgsiManager();
+        ReflectionTestUtils.setField(ngsiManager, "ngsiClient", new StubNgsiClient());
+        ReflectionTestUtils.setField(ngsiManager, "contextBrokerRemoteUrl", "http://localhost:1026");
+        ReflectionTestUtils.setField(ngsiManager, "contextBrokerRemoteFiwareService", "service");
+        ReflectionTestUtils.setField(ngsiManager, "contextBrokerRemoteFiwareServicePath", "/");
+        return ngsiManager;
+    }
+
+    @Override
+    public ListenableFuture<UpdateContextResponse> updateContext(String url, HttpHeaders httpHeaders, UpdateContext updateContext) {
+        return updateContextResponse;
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import com.orange.ngsi.model.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of the updateContext journal: each operation appends a device update, and reads and removes
+ * the oldest pending updates by batches of 100, as the replay does (the replayed requests are not sent)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class UpdateContextJournalBenchmark {
+
+    // Fsync policy name, the journal classes are not visible from the generated benchmark code
+    @Param({"NONE", "INTERVAL"})
+    private String fsync;
+    private UpdateContextJournal.FsyncPolicy fsyncPolicy;
+    private Path directory;
+    private UpdateContextJournal journal;
+    private UpdateContext context;
+    private int appendedCount;
+
+    @Setup
+    public void setup() throws Exception {
+        fsyncPolicy = UpdateContextJournal.FsyncPolicy.valueOf(fsync);
+        directory = Files.createTempDirectory("ngsi-journal");
+        journal = new UpdateContextJournal(directory.toString(), 16 * 1024 * 1024, 8, fsyncPolicy);
+        journal.open();
+        ContextElement element = new ContextElement();
+        element.setEntityId(new EntityId("Room1", "Room", false));
+        element.setContextAttributeList(Arrays.asList(new ContextAttribute("temperature", "float", "21.5"),
+                new ContextAttribute("humidity", "float", "40")));
+        context = new UpdateContext(UpdateAction.APPEND);
+        context.setContextElements(Collections.singletonList(element));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        journal.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void appendReplay() throws IOException {
+        journal.append(context);
+        if (++appendedCount % 100 == 0) {
+            List<UpdateContextJournal.Entry> entries = journal.peek(100);
+            journal.remove(entries, entries.size());
+            if (fsyncPolicy == UpdateContextJournal.FsyncPolicy.INTERVAL && appendedCount % 10000 == 0) {
+                journal.force();
+            }
+        }
+    }
+}
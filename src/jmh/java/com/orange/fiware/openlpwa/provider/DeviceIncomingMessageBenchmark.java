@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.provider;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.orange.fiware.openlpwa.provider.model.DeviceIncomingMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the incoming message deserialization strategies:
+ * a new ObjectMapper per message (previous behavior), the shared ObjectReader and the streaming parser
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class DeviceIncomingMessageBenchmark {
+
+    static final byte[] uplinkPayload = ("{\"streamId\":\"urn:lora:0018B20000000001!uplink\",\"timestamp\":\"2016-05-23T13:05:18.307Z\","
+            + "\"model\":\"lora_v0\",\"value\":{\"port\":1,\"fcnt\":8,\"signalLevel\":2,\"payload\":\"ae2109000cf3\"},"
+            + "\"tags\":[\"Lyon\",\"Test\"],\"metadata\":{\"source\":\"urn:lora:0018B20000000001\"}}").getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public DeviceIncomingMessage newObjectMapper() throws IOException {
+        return new ObjectMapper().readValue(uplinkPayload, DeviceIncomingMessage.class);
+    }
+
+    @Benchmark
+    public DeviceIncomingMessage sharedReader() throws IOException {
+        return OpenLpwaJsonMapper.bindIncomingMessage(uplinkPayload);
+    }
+
+    @Benchmark
+    public DeviceIncomingMessage streamingParser() throws IOException {
+        return OpenLpwaJsonMapper.readIncomingMessage(uplinkPayload);
+    }
+}
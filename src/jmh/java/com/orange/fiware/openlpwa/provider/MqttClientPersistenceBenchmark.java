@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.provider;
+
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.eclipse.paho.client.mqttv3.internal.MqttPersistentData;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Write throughput of the Mqtt client persistences: each operation stores an in-flight message and removes it
+ * when acknowledged, as the Paho client does for a QoS 1 message
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class MqttClientPersistenceBenchmark {
+
+    @Param({"MEMORY", "FILE", "MAPPED_FILE"})
+    private OpenLpwaMqttProvider.PersistenceType persistenceType;
+    private Path directory;
+    private MqttClientPersistence persistence;
+    private MqttPersistentData message;
+    private int messageId;
+
+    @Setup
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("mqtt-persistence");
+        switch (persistenceType) {
+            case FILE:
+                persistence = new MqttDefaultFilePersistence(directory.toString());
+                break;
+            case MAPPED_FILE:
+                persistence = new MappedFileMqttPersistence(directory.toString());
+                break;
+            default:
+                persistence = new MemoryPersistence();
+        }
+        persistence.open("benchmark", "tcp://localhost:1883");
+        byte[] header = new byte[4];
+        message = new MqttPersistentData("s-1", header, 0, header.length, DeviceIncomingMessageBenchmark.uplinkPayload, 0, DeviceIncomingMessageBenchmark.uplinkPayload.length);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        persistence.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void putRemove() throws MqttPersistenceException {
+        String key = "s-" + (messageId++ & 0xFFFF);
+        persistence.put(key, message);
+        persistence.remove(key);
+    }
+}
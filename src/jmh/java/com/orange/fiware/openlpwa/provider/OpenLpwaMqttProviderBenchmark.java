@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.provider;
+
+import com.orange.fiware.openlpwa.provider.model.DeviceIncomingMessage;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uplink reception benchmarks: device EUI extraction from the topic and the whole messageArrived processing
+ * (lanes disabled, the callback is called on the benchmark thread)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class OpenLpwaMqttProviderBenchmark {
+
+    private static final String uplinkTopic = "router/~event/v1/data/new/urn/lora/0018B20000000001/!uplink";
+    private OpenLpwaMqttProvider fullMessageProvider;
+    private OpenLpwaMqttProvider partialMessageProvider;
+    private MqttMessage mqttMessage;
+
+    @Setup
+    public void setup(Blackhole blackhole) throws Exception {
+        fullMessageProvider = new OpenLpwaMqttProvider("tcp://localhost:1883", "benchmark", "apiKey", new BlackholeCallback(blackhole, false));
+        partialMessageProvider = new OpenLpwaMqttProvider("tcp://localhost:1883", "benchmark", "apiKey", new BlackholeCallback(blackhole, true));
+        mqttMessage = new MqttMessage(DeviceIncomingMessageBenchmark.uplinkPayload);
+    }
+
+    @Benchmark
+    public String deviceEUIFromTopic() {
+        return OpenLpwaMqttProvider.getDeviceEUIFromTopic(uplinkTopic);
+    }
+
+    @Benchmark
+    public void messageArrivedFullMessage() {
+        fullMessageProvider.messageArrived(uplinkTopic, mqttMessage);
+    }
+
+    @Benchmark
+    public void messageArrivedPartialMessage() {
+        partialMessageProvider.messageArrived(uplinkTopic, mqttMessage);
+    }
+
+    private static class BlackholeCallback implements OpenLpwaMqttProviderCallback {
+
+        private final Blackhole blackhole;
+        private final boolean partialMessage;
+
+        BlackholeCallback(Blackhole blackhole, boolean partialMessage) {
+            this.blackhole = blackhole;
+            this.partialMessage = partialMessage;
+        }
+
+        @Override
+        public void connectionLost(Throwable throwable) {
+        }
+
+        @Override
+        public boolean supportsPartialMessage() {
+            return partialMessage;
+        }
+
+        @Override
+        public void newMessageArrived(String deviceEUI, DeviceIncomingMessage incomingMessage) {
+            blackhole.consume(incomingMessage);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.loadtest;
+
+import com.orange.fiware.openlpwa.iotagent.Agent;
+import com.orange.fiware.openlpwa.iotagent.Device;
+import com.orange.fiware.openlpwa.iotagent.OpenLpwaNgsiConverter;
+import com.orange.fiware.openlpwa.ngsi.NgsiHttpTransport;
+import com.orange.fiware.openlpwa.ngsi.NgsiManager;
+import com.orange.fiware.openlpwa.provider.MqttMessagePipeline;
+import com.orange.ngsi.model.ContextAttribute;
+import io.moquette.broker.Server;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load test of one agent instance.
+ * An embedded Mqtt broker receives the uplinks of the simulated devices at a fixed rate,
+ * the agent decodes them and sends updateContext requests to a stub context broker which measures the latency.
+ * The agent uses the fake Mongo database of the tests.
+ * <p>
+ * Load test parameters (system properties):
+ * <ul>
+ * <li>loadtest.devices: number of devices (default 1000)</li>
+ * <li>loadtest.rate: uplinks per second for all devices (default 1000)</li>
+ * <li>loadtest.durationSeconds: publishing duration (default 30)</li>
+ * <li>loadtest.qos: Mqtt QoS of the published uplinks (default 0)</li>
+ * <li>loadtest.drainSeconds: maximum time waiting for the pending uplinks after publishing (default 10)</li>
+ * <li>loadtest.orionDelayMs: response delay of the stub context broker (default 0)</li>
+ * <li>loadtest.orionThreads: threads of the stub context broker (default 16)</li>
+ * </ul>
+ * The agent properties (openLpwaProvider.pipeline.*, contextBroker.batch.*, ngsi.http.*, ...) can also be given as system properties.
+ */
+public class LoadTest {
+
+    private static final String sequenceAttribute = "seq";
+    private static final String topicPrefix = "router/~event/v1/data/new/urn/lora/";
+    private static final long firstDeviceEUI = 0x0018B20000000000L;
+
+    private final int deviceCount = Integer.getInteger("loadtest.devices", 1000);
+    private final int rate = Integer.getInteger("loadtest.rate", 1000);
+    private final int durationSeconds = Integer.getInteger("loadtest.durationSeconds", 30);
+    private final int qos = Integer.getInteger("loadtest.qos", 0);
+    private final int drainSeconds = Integer.getInteger("loadtest.drainSeconds", 10);
+    private final long orionDelayMillis = Long.getLong("loadtest.orionDelayMs", 0);
+    private final int orionThreads = Integer.getInteger("loadtest.orionThreads", 16);
+    private final int messageCount = (int) Math.min(Integer.MAX_VALUE - 8, (long) rate * durationSeconds);
+    // Publication time and end-to-end latency (ns) of each message, indexed by sequence number
+    private final AtomicLongArray sendTimes = new AtomicLongArray(messageCount);
+    private final AtomicLongArray latencies = new AtomicLongArray(messageCount);
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong duplicateCount = new AtomicLong();
+    private final AtomicLong publishFailureCount = new AtomicLong();
+    private volatile long lastReceiveTime;
+
+    public static void main(String[] args) throws Exception {
+        new LoadTest().run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        int mqttPort = freePort();
+        Server broker = new Server();
+        Properties brokerProperties = new Properties();
+        brokerProperties.setProperty("host", "localhost");
+        brokerProperties.setProperty("port", Integer.toString(mqttPort));
+        brokerProperties.setProperty("websocket_port", "disabled");
+        brokerProperties.setProperty("allow_anonymous", "true");
+        brokerProperties.setProperty("persistent_store", "");
+        brokerProperties.setProperty("immediate_buffer_flush", "true");
+        broker.startServer(brokerProperties);
+        StubHttpServer stubServer = new StubHttpServer(orionThreads, orionDelayMillis, sequenceAttribute, this::messageReceived);
+
+        Map<String, Object> agentProperties = new HashMap<>();
+        agentProperties.put("openLpwaProvider.mqttUri", "tcp://localhost:" + mqttPort);
+        agentProperties.put("openLpwaProvider.restUrl", stubServer.getUrl());
+        agentProperties.put("openLpwaProvider.apiKey", "loadtest");
+        agentProperties.put("contextBroker.remoteUrl", stubServer.getUrl());
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("loadtest", agentProperties));
+        context.register(LoadTestConfiguration.class);
+        context.refresh();
+
+        Agent agent = context.getBean(Agent.class);
+        MqttAsyncClient publisher = null;
+        try {
+            CompletableFuture<Void> started = new CompletableFuture<>();
+            agent.start(new SequenceConverter(), () -> started.complete(null), started::completeExceptionally);
+            started.get(30, TimeUnit.SECONDS);
+            registerDevices(agent);
+            System.out.printf("%d devices registered (%d subscribeContext requests)%n", deviceCount, stubServer.getSubscribeContextCount());
+
+            publisher = new MqttAsyncClient("tcp://localhost:" + mqttPort, "loadtest-publisher", new MemoryPersistence());
+            MqttConnectOptions connectOptions = new MqttConnectOptions();
+            connectOptions.setMaxInflight(65535);
+            publisher.connect(connectOptions).waitForCompletion();
+
+            long publishDuration = publish(publisher);
+            long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds);
+            while (receivedCount.get() < messageCount && System.nanoTime() < drainDeadline) {
+                Thread.sleep(100);
+            }
+            report(publishDuration, context.getBean(MqttMessagePipeline.class), context.getBean(NgsiHttpTransport.class),
+                    context.getBean(NgsiManager.class), stubServer);
+        } finally {
+            if (publisher != null && publisher.isConnected()) {
+                publisher.disconnect().waitForCompletion();
+            }
+            CompletableFuture<Void> stopped = new CompletableFuture<>();
+            agent.stop(() -> stopped.complete(null), stopped::completeExceptionally);
+            stopped.get(10, TimeUnit.SECONDS);
+            context.close();
+            stubServer.stop();
+            broker.stopServer();
+        }
+    }
+
+    /**
+     * Registers the simulated devices through the agent, as a REST client would do
+     */
+    private void registerDevices(Agent agent) throws InterruptedException {
+        Semaphore pendingRegistrations = new Semaphore(64);
+        AtomicLong failureCount = new AtomicLong();
+        for (int i = 0; i < deviceCount; i++) {
+            Device device = new Device();
+            device.setDeviceEUI(deviceEUI(i));
+            device.setPort(1);
+            device.setEntityName("Device" + i);
+            device.setEntityType("LoadTest");
+            device.setCommands(Collections.singletonList("led"));
+            pendingRegistrations.acquire();
+            agent.register(device, pendingRegistrations::release, ex -> {
+                failureCount.incrementAndGet();
+                pendingRegistrations.release();
+            });
+        }
+        pendingRegistrations.acquire(64);
+        if (failureCount.get() > 0) {
+            throw new IllegalStateException(failureCount.get() + " devices not registered");
+        }
+    }
+
+    /**
+     * Publishes the uplinks at a constant rate, the devices send in turn
+     * @return Publishing duration (ns)
+     */
+    private long publish(MqttAsyncClient publisher) {
+        System.out.printf("Publishing %d uplinks at %d msg/s (QoS %d)%n", messageCount, rate, qos);
+        String[] topics = new String[deviceCount];
+        for (int i = 0; i < deviceCount; i++) {
+            topics[i] = topicPrefix + deviceEUI(i) + "/!uplink";
+        }
+        double intervalNanos = 1e9 / rate;
+        long start = System.nanoTime();
+        long nextReport = start + TimeUnit.SECONDS.toNanos(1);
+        for (int sequence = 0; sequence < messageCount; sequence++) {
+            long sendTime = start + (long) (sequence * intervalNanos);
+            long now;
+            while ((now = System.nanoTime()) < sendTime) {
+                if (sendTime - now > 100_000) {
+                    LockSupport.parkNanos(sendTime - now - 50_000);
+                }
+            }
+            if (now >= nextReport) {
+                System.out.printf("  sent: %d, received: %d%n", sequence, receivedCount.get());
+                nextReport += TimeUnit.SECONDS.toNanos(1);
+            }
+            int device = sequence % deviceCount;
+            byte[] payload = uplink(deviceEUI(device), sequence);
+            sendTimes.set(sequence, System.nanoTime());
+            try {
+                publisher.publish(topics[device], payload, qos, false);
+            } catch (MqttException e) {
+                publishFailureCount.incrementAndGet();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void messageReceived(long sequence) {
+        if (sequence < 0 || sequence >= messageCount) {
+            return;
+        }
+        long now = System.nanoTime();
+        long latency = Math.max(1, now - sendTimes.get((int) sequence));
+        if (latencies.compareAndSet((int) sequence, 0, latency)) {
+            receivedCount.incrementAndGet();
+            lastReceiveTime = now;
+        } else {
+            duplicateCount.incrementAndGet();
+        }
+    }
+
+    private void report(long publishDuration, MqttMessagePipeline pipeline, NgsiHttpTransport transport, NgsiManager ngsiManager,
+                        StubHttpServer stubServer) {
+        long[] receivedLatencies = new long[(int) receivedCount.get()];
+        int received = 0;
+        for (int i = 0; i < messageCount && received < receivedLatencies.length; i++) {
+            long latency = latencies.get(i);
+            if (latency != 0) {
+                receivedLatencies[received++] = latency;
+            }
+        }
+        Arrays.sort(receivedLatencies, 0, received);
+        long processingDuration = Math.max(publishDuration, lastReceiveTime - sendTimes.get(0));
+
+        System.out.println();
+        System.out.printf("Devices:              %d%n", deviceCount);
+        System.out.printf("Target rate:          %d msg/s during %d s%n", rate, durationSeconds);
+        System.out.printf("Published:            %d (%d publish failures)%n", messageCount, publishFailureCount.get());
+        System.out.printf("Received by Orion:    %d (%d duplicates)%n", received, duplicateCount.get());
+        System.out.printf("Dropped:              %d (lanes: %d dropped, %d rejected)%n",
+                messageCount - received, pipeline.getDroppedCount(), pipeline.getRejectedCount());
+        System.out.printf("Publish rate:         %.0f msg/s%n", messageCount * 1e9 / publishDuration);
+        System.out.printf("Throughput:           %.0f msg/s%n", received * 1e9 / processingDuration);
+        System.out.printf("UpdateContext:        %d requests, %d context elements%n", stubServer.getUpdateContextCount(), stubServer.getContextElementCount());
+        System.out.printf("Connections:          %d opened, %d requests on reused connections, %d rejected requests%n",
+                transport.getOpenedConnectionCount(), transport.getReusedConnectionCount(), transport.getRejectedCount());
+        System.out.printf("Concurrency limit:    %d in-flight requests%n", transport.getConcurrencyLimit());
+        // Coalesced messages are not received by Orion and are counted as dropped
+        System.out.printf("Coalescing ratio:     %.2f updates per context element%n", ngsiManager.getCoalescingRatio());
+        System.out.printf("Journal:              %d pending, %d replayed%n", ngsiManager.getJournalPendingCount(), ngsiManager.getJournalReplayedCount());
+        if (received > 0) {
+            System.out.printf("Latency (ms):         p50 %.2f, p99 %.2f, p999 %.2f, max %.2f%n",
+                    percentile(receivedLatencies, received, 0.5), percentile(receivedLatencies, received, 0.99),
+                    percentile(receivedLatencies, received, 0.999), receivedLatencies[received - 1] / 1e6);
+        }
+    }
+
+    private static double percentile(long[] sortedValues, int count, double percentile) {
+        int index = (int) Math.min(count - 1, Math.ceil(percentile * count) - 1);
+        return sortedValues[Math.max(0, index)] / 1e6;
+    }
+
+    private static String deviceEUI(int device) {
+        return String.format("%016X", firstDeviceEUI + device);
+    }
+
+    /**
+     * Live Objects uplink message, the payload is the hexadecimal sequence number
+     */
+    private static byte[] uplink(String deviceEUI, long sequence) {
+        return ("{\"streamId\":\"urn:lora:" + deviceEUI + "!uplink\",\"timestamp\":\"2016-05-23T13:05:18.307Z\",\"model\":\"lora_v0\","
+                + "\"value\":{\"port\":1,\"fcnt\":" + sequence + ",\"signalLevel\":2,\"payload\":\"" + Long.toHexString(sequence) + "\"},"
+                + "\"tags\":[\"LoadTest\"],\"metadata\":{\"source\":\"urn:lora:" + deviceEUI + "\"}}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Decodes the sequence number of the payload into an attribute read by the stub context broker
+     */
+    private static class SequenceConverter implements OpenLpwaNgsiConverter {
+
+        @Override
+        public List<ContextAttribute> decodeData(String deviceEUI, String data) {
+            return Collections.singletonList(new ContextAttribute(sequenceAttribute, "integer", Long.toString(Long.parseLong(data, 16))));
+        }
+
+        @Override
+        public String encodeDataForCommand(String deviceEUI, String commandName, ContextAttribute attribute) {
+            return null;
+        }
+    }
+}
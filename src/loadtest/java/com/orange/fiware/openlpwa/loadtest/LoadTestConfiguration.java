@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.orange.ngsi.ConvertersConfiguration;
+import com.orange.ngsi.ProtocolRegistry;
+import com.orange.ngsi.client.NgsiClient;
+import org.springframework.context.annotation.*;
+import org.springframework.stereotype.Controller;
+
+/**
+ * Agent configuration of the load test: the agent components with the fake Mongo database of the tests,
+ * without the REST controllers
+ */
+@Configuration
+@ComponentScan(basePackages = "com.orange.fiware.openlpwa", basePackageClasses = NgsiClient.class,
+        excludeFilters = {
+                @ComponentScan.Filter(type = FilterType.REGEX, pattern = "com\\.orange\\.fiware\\.openlpwa\\.configuration\\.MongoConfiguration"),
+                @ComponentScan.Filter(type = FilterType.ANNOTATION, value = Controller.class)
+        })
+@Import({ProtocolRegistry.class, ConvertersConfiguration.class})
+@PropertySource("classpath:application.properties")
+public class LoadTestConfiguration {
+
+    @Bean
+    public ObjectMapper objectMapper() {
+        return new ObjectMapper();
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Stub of the context broker NGSI v1 API (updateContext, subscribeContext, unsubscribeContext)
+ * and of the Live Objects device API, on a single Http server
+ */
+class StubHttpServer {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final String sequenceAttribute;
+    private final LongConsumer sequenceConsumer;
+    private final long responseDelayMillis;
+    private final AtomicLong updateContextCount = new AtomicLong();
+    private final AtomicLong contextElementCount = new AtomicLong();
+    private final AtomicLong subscribeContextCount = new AtomicLong();
+
+    /**
+     * @param threads               Number of threads handling the requests
+     * @param responseDelayMillis   Delay before answering an updateContext request, to emulate the context broker latency
+     * @param sequenceAttribute     Name of the attribute holding the message sequence number in the updated context elements
+     * @param sequenceConsumer      Called with the sequence number of each updated context element
+     * @throws IOException          The server can't be started
+     */
+    StubHttpServer(int threads, long responseDelayMillis, String sequenceAttribute, LongConsumer sequenceConsumer) throws IOException {
+        this.responseDelayMillis = responseDelayMillis;
+        this.sequenceAttribute = sequenceAttribute;
+        this.sequenceConsumer = sequenceConsumer;
+        // Without TCP_NODELAY, the response headers and body are delayed by the client delayed acknowledgements
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        server.createContext("/", this::handle);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    long getUpdateContextCount() {
+        return updateContextCount.get();
+    }
+
+    long getContextElementCount() {
+        return contextElementCount.get();
+    }
+
+    long getSubscribeContextCount() {
+        return subscribeContextCount.get();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            if (path.endsWith("/updateContext")) {
+                handleUpdateContext(exchange);
+            } else if (path.endsWith("/subscribeContext")) {
+                long subscriptionNumber = subscribeContextCount.incrementAndGet();
+                drain(exchange.getRequestBody());
+                respond(exchange, 200, "{\"subscribeResponse\":{\"subscriptionId\":\"" + Long.toHexString(subscriptionNumber) + "\",\"duration\":\"P1M\"}}");
+            } else if (path.endsWith("/unsubscribeContext")) {
+                drain(exchange.getRequestBody());
+                respond(exchange, 200, "{\"statusCode\":{\"code\":\"200\",\"reasonPhrase\":\"OK\"}}");
+            } else if (path.contains("/vendors/lora/devices/")) {
+                String deviceEUI = path.substring(path.lastIndexOf('/') + 1);
+                respond(exchange, 200, "{\"devEUI\":\"" + deviceEUI + "\",\"deviceStatus\":\"ACTIVATED\"}");
+            } else {
+                respond(exchange, 404, "{}");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleUpdateContext(HttpExchange exchange) throws IOException {
+        updateContextCount.incrementAndGet();
+        JsonNode updateContext;
+        try (InputStream body = exchange.getRequestBody()) {
+            updateContext = mapper.readTree(body);
+        }
+        for (JsonNode contextElement : updateContext.path("contextElements")) {
+            contextElementCount.incrementAndGet();
+            for (JsonNode attribute : contextElement.path("attributes")) {
+                if (sequenceAttribute.equals(attribute.path("name").asText())) {
+                    sequenceConsumer.accept(attribute.path("value").asLong());
+                }
+            }
+        }
+        if (responseDelayMillis > 0) {
+            try {
+                Thread.sleep(responseDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        respond(exchange, 200, "{\"contextResponses\":[]}");
+    }
+
+    private static void drain(InputStream body) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (body.read(buffer) >= 0) {
+            // Request body ignored
+        }
+        body.close();
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(bytes);
+        }
+    }
+}
@@ -22,6 +22,7 @@ import com.orange.fiware.openlpwa.iotagent.Device;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -37,6 +38,9 @@ public class DeviceEntity {
     private String subscriptionId;
     private int port;
     private List<String> commands;
+    private Date subscriptionExpiresAt;
+    private Date subscriptionRenewAt;
+    private int subscriptionRenewalFailures;
 
     public DeviceEntity() {
     }
@@ -97,4 +101,37 @@ public class DeviceEntity {
     public void setPort(int port) {
         this.port = port;
     }
+
+    /**
+     * @return The date after which the subscription may have expired in the NGSI Context Broker
+     */
+    public Date getSubscriptionExpiresAt() {
+        return subscriptionExpiresAt;
+    }
+
+    public void setSubscriptionExpiresAt(Date subscriptionExpiresAt) {
+        this.subscriptionExpiresAt = subscriptionExpiresAt;
+    }
+
+    /**
+     * @return The date of the next renewal of the subscription (null to renew it as soon as possible)
+     */
+    public Date getSubscriptionRenewAt() {
+        return subscriptionRenewAt;
+    }
+
+    public void setSubscriptionRenewAt(Date subscriptionRenewAt) {
+        this.subscriptionRenewAt = subscriptionRenewAt;
+    }
+
+    /**
+     * @return The number of failed renewals since the last successful one
+     */
+    public int getSubscriptionRenewalFailures() {
+        return subscriptionRenewalFailures;
+    }
+
+    public void setSubscriptionRenewalFailures(int subscriptionRenewalFailures) {
+        this.subscriptionRenewalFailures = subscriptionRenewalFailures;
+    }
 }
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+package com.orange.fiware.openlpwa.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Represents a downlinkCommands collection: a command waiting for its device before being sent to the OpenLpwa provider
+ */
+@Document(collection = "downlinkCommands")
+public class DownlinkCommandEntity {
+
+    @Id
+    private String key;
+    private String owner;
+    private String deviceEUI;
+    private String entityName;
+    private String entityType;
+    private String commandName;
+    private String data;
+    private Integer port;
+    private Boolean confirmed;
+    private Date queuedAt;
+
+    public DownlinkCommandEntity() {
+    }
+
+    public DownlinkCommandEntity(String deviceEUI, String commandName, String data, Integer port, Boolean confirmed) {
+        this(null, deviceEUI, commandName, data, port, confirmed);
+    }
+
+    public DownlinkCommandEntity(String owner, String deviceEUI, String commandName, String data, Integer port, Boolean confirmed) {
+        this.key = key(owner, deviceEUI, commandName);
+        this.owner = owner;
+        this.deviceEUI = deviceEUI;
+        this.commandName = commandName;
+        this.data = data;
+        this.port = port;
+        this.confirmed = confirmed;
+        this.queuedAt = new Date();
+    }
+
+    /**
+     * @param deviceEUI     Device EUI
+     * @param commandName   Command name
+     * @return The key of a command, a device having at most one queued command of a name
+     */
+    public static String key(String deviceEUI, String commandName) {
+        return deviceEUI + ':' + commandName;
+    }
+
+    /**
+     * @param owner         Agent instance queuing the command (may be null)
+     * @param deviceEUI     Device EUI
+     * @param commandName   Command name
+     * @return The key of a command, prefixed by its owner so that the agent instances don't overwrite their commands
+     */
+    public static String key(String owner, String deviceEUI, String commandName) {
+        return owner != null ? owner + ':' + key(deviceEUI, commandName) : key(deviceEUI, commandName);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @return The agent instance which queued the command, the only one queuing it again at startup
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public String getDeviceEUI() {
+        return deviceEUI;
+    }
+
+    public void setDeviceEUI(String deviceEUI) {
+        this.deviceEUI = deviceEUI;
+    }
+
+    /**
+     * @return The name of the entity bound to the device, whose command status is updated
+     */
+    public String getEntityName() {
+        return entityName;
+    }
+
+    public void setEntityName(String entityName) {
+        this.entityName = entityName;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public void setEntityType(String entityType) {
+        this.entityType = entityType;
+    }
+
+    public String getCommandName() {
+        return commandName;
+    }
+
+    public void setCommandName(String commandName) {
+        this.commandName = commandName;
+    }
+
+    /**
+     * @return The encoded payload of the command
+     */
+    public String getData() {
+        return data;
+    }
+
+    public void setData(String data) {
+        this.data = data;
+    }
+
+    public Integer getPort() {
+        return port;
+    }
+
+    public void setPort(Integer port) {
+        this.port = port;
+    }
+
+    public Boolean getConfirmed() {
+        return confirmed;
+    }
+
+    public void setConfirmed(Boolean confirmed) {
+        this.confirmed = confirmed;
+    }
+
+    public Date getQueuedAt() {
+        return queuedAt;
+    }
+
+    public void setQueuedAt(Date queuedAt) {
+        this.queuedAt = queuedAt;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+package com.orange.fiware.openlpwa.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Represents a patternSubscriptions collection: a subscription to the commands of all the entities of a type
+ */
+@Document(collection = "patternSubscriptions")
+public class PatternSubscriptionEntity {
+
+    @Id
+    private String key;
+    private String type;
+    private List<String> commands;
+    private String subscriptionId;
+    private Date subscriptionExpiresAt;
+    private Date subscriptionRenewAt;
+
+    public PatternSubscriptionEntity() {
+    }
+
+    public PatternSubscriptionEntity(String key, String type, List<String> commands, String subscriptionId) {
+        this.key = key;
+        this.type = type;
+        this.commands = commands;
+        this.subscriptionId = subscriptionId;
+    }
+
+    /**
+     * @return The entity type and the commands identifying the subscription
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public List<String> getCommands() {
+        return commands;
+    }
+
+    public void setCommands(List<String> commands) {
+        this.commands = commands;
+    }
+
+    public String getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    public void setSubscriptionId(String subscriptionId) {
+        this.subscriptionId = subscriptionId;
+    }
+
+    public Date getSubscriptionExpiresAt() {
+        return subscriptionExpiresAt;
+    }
+
+    public void setSubscriptionExpiresAt(Date subscriptionExpiresAt) {
+        this.subscriptionExpiresAt = subscriptionExpiresAt;
+    }
+
+    public Date getSubscriptionRenewAt() {
+        return subscriptionRenewAt;
+    }
+
+    public void setSubscriptionRenewAt(Date subscriptionRenewAt) {
+        this.subscriptionRenewAt = subscriptionRenewAt;
+    }
+}
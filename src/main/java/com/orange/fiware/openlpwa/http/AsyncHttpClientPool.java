@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.http;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.ManagedNHttpClientConnectionFactory;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsAsyncClientHttpRequestFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of keep-alive Http connections served by a non-blocking Http client, shared by the Http clients of the agent.
+ * Each client configures its own pool; the owner evicts the idle connections periodically and closes the pool.
+ */
+public class AsyncHttpClientPool {
+
+    private static Logger logger = LoggerFactory.getLogger(AsyncHttpClientPool.class);
+    private final String name;
+    private final PoolingNHttpClientConnectionManager connectionManager;
+    private final CloseableHttpAsyncClient httpClient;
+    private final HttpComponentsAsyncClientHttpRequestFactory requestFactory;
+    private final long idleTimeoutMillis;
+
+    public AsyncHttpClientPool(String name,
+                               int maxConnections,
+                               int maxConnectionsPerRoute,
+                               int connectTimeoutMillis,
+                               int socketTimeoutMillis,
+                               long idleTimeoutMillis) throws IOReactorException {
+        this(name, maxConnections, maxConnectionsPerRoute, connectTimeoutMillis, socketTimeoutMillis, idleTimeoutMillis, null);
+    }
+
+    /**
+     * Creates and starts the pool
+     * @param name                      Name of the pool, used in the logs
+     * @param maxConnections            Maximum number of connections
+     * @param maxConnectionsPerRoute    Maximum number of connections to a same host
+     * @param connectTimeoutMillis      Connection timeout, also bounding the time spent waiting for a connection of the pool
+     * @param socketTimeoutMillis       Read timeout
+     * @param idleTimeoutMillis         Time after which an idle connection is evicted
+     * @param connectionListener        Called for each opened connection (optional)
+     * @throws IOReactorException if the I/O reactor can't be created
+     */
+    public AsyncHttpClientPool(String name,
+                               int maxConnections,
+                               int maxConnectionsPerRoute,
+                               int connectTimeoutMillis,
+                               int socketTimeoutMillis,
+                               long idleTimeoutMillis,
+                               Runnable connectionListener) throws IOReactorException {
+        this.name = name;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setSoTimeout(socketTimeoutMillis)
+                .setSoKeepAlive(true)
+                .setTcpNoDelay(true)
+                .build();
+        DefaultConnectingIOReactor ioReactor = new DefaultConnectingIOReactor(ioReactorConfig);
+        if (connectionListener == null) {
+            connectionManager = new PoolingNHttpClientConnectionManager(ioReactor);
+        } else {
+            connectionManager = new PoolingNHttpClientConnectionManager(ioReactor,
+                    (session, config) -> {
+                        connectionListener.run();
+                        return ManagedNHttpClientConnectionFactory.INSTANCE.create(session, config);
+                    });
+        }
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        // The connection request timeout bounds the time spent waiting for a connection of the pool
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setSocketTimeout(socketTimeoutMillis)
+                .setConnectionRequestTimeout(connectTimeoutMillis)
+                .build();
+        httpClient = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+        httpClient.start();
+        requestFactory = new HttpComponentsAsyncClientHttpRequestFactory(httpClient);
+        logger.debug("{} Http connection pool started (maxConnections:{}, maxConnectionsPerRoute:{}, connectTimeoutMs:{}, socketTimeoutMs:{}, idleTimeoutMs:{})",
+                name, maxConnections, maxConnectionsPerRoute, connectTimeoutMillis, socketTimeoutMillis, idleTimeoutMillis);
+    }
+
+    /**
+     * Request factory sending the requests through the pooled connections
+     * @return The request factory
+     */
+    public AsyncClientHttpRequestFactory getRequestFactory() {
+        return requestFactory;
+    }
+
+    /**
+     * Connection manager of the pool
+     * @return The connection manager
+     */
+    public PoolingNHttpClientConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    /**
+     * Statistics of the pool: leased, available and pending connections
+     * @return The statistics
+     */
+    public PoolStats getTotalStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Closes expired connections and connections idle for longer than the idle timeout
+     */
+    public void evictIdleConnections() {
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        PoolStats stats = connectionManager.getTotalStats();
+        logger.trace("{} Http connection pool (leased:{}, available:{}, pending:{}, max:{})",
+                name, stats.getLeased(), stats.getAvailable(), stats.getPending(), stats.getMax());
+    }
+
+    /**
+     * Closes the Http client and all its connections
+     */
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            logger.warn("Error while closing the {} Http client", name, e);
+        }
+    }
+}
@@ -22,6 +22,7 @@ import com.orange.fiware.openlpwa.domain.DeviceEntity;
 import com.orange.fiware.openlpwa.provider.OpenLpwaMqttProviderCallback;
 import com.orange.fiware.openlpwa.provider.OpenLpwaProvider;
 import com.orange.fiware.openlpwa.repository.DeviceEntityRepository;
+import com.orange.fiware.openlpwa.repository.RegisteredDeviceFilter;
 import com.orange.fiware.openlpwa.exception.AgentException;
 import com.orange.fiware.openlpwa.exception.ConfigurationException;
 import com.orange.fiware.openlpwa.provider.OpenLpwaMqttProvider;
@@ -31,18 +32,24 @@ import com.orange.fiware.openlpwa.provider.model.DeviceInfo;
 import com.orange.fiware.openlpwa.provider.model.RegisterDeviceCommandParameter;
 import com.orange.fiware.openlpwa.ngsi.NgsiManager;
 import com.orange.ngsi.model.ContextAttribute;
+import com.orange.ngsi.model.EntityId;
+import com.orange.ngsi.model.UnsubscribeContextResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.EnableScheduling;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Service;
+import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.util.concurrent.SuccessCallback;
 
-import java.util.Date;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import static com.orange.ngsi.model.CodeEnum.CODE_200;
 
@@ -57,13 +64,30 @@ public class Agent {
     private OpenLpwaMqttProvider openLpwaMqttProvider;
     @Autowired
     private DeviceEntityRepository deviceRepository;
+    @Autowired(required = false)
+    private RegisteredDeviceFilter deviceFilter;
     @Autowired
     private NgsiManager ngsiManager;
     @Autowired
     private AgentMqttProviderCallback mqttClientCallback;
+    @Autowired
+    private AgentReconnectionSupervisor reconnectionSupervisor;
+    @Autowired(required = false)
+    private SubscriptionRenewalScheduler subscriptionRenewalScheduler;
+    @Autowired(required = false)
+    private PatternSubscriptionManager patternSubscriptionManager;
+    @Autowired(required = false)
+    private DownlinkCommandQueue downlinkCommandQueue;
+    @Autowired(required = false)
+    private BulkSaveExecutor bulkSaveExecutor;
+    @Value("${agent.bulk.parallelism:16}")
+    private int bulkParallelism;
+    @Value("${agent.bulk.saveBatchSize:500}")
+    private int bulkSaveBatchSize;
+    @Value("${agent.bulk.deleteBatchSize:500}")
+    private int bulkDeleteBatchSize;
     private OpenLpwaNgsiConverter converter;
     private AgentConnectionLostCallback connectionLostCallback;
-    private boolean reconnecting = false;
 
     public void setConnectionLostCallback(AgentConnectionLostCallback connectionLostCallback) {
         this.connectionLostCallback = connectionLostCallback;
@@ -118,6 +142,9 @@ public class Agent {
      * @param failureCallback   Callback called when an error occurs
      */
     public void stop(AgentSuccessCallback successCallback, AgentFailureCallback failureCallback) {
+        if (reconnectionSupervisor != null) {
+            reconnectionSupervisor.cancel();
+        }
         // Disconnect from the Mqtt broker
         openLpwaMqttProvider.disconnect(
                 disconnectedClientId -> {
@@ -139,39 +166,32 @@ public class Agent {
      * @param failureCallback   Callback called when an error occurs
      */
     public void register(Device device, AgentSuccessCallback successCallback, AgentFailureCallback failureCallback) {
-        try {
-            checkDevice(device);
+        checkAndSubscribe(device,
+                subscriptionId -> {
+                    // We can save device without subscriptionId if it's only a sensor
+                    logger.debug("Device correctly registered (EUI: {})", device.getDeviceEUI());
+                    deviceRepository.save(newDeviceEntity(device, subscriptionId));
+                    logger.debug("Entity (EUI:{}) save in Mongo database.", device.getDeviceEUI());
+                    launchSuccessCallback(successCallback);
+                },
+                failureCallback);
+    }
 
-            // First check if the device is registered and activated in OpenLpwa provider
-            checkOpenLpwaProviderRegistration(device,
-                    () -> {
-                        try {
-                            subscribeToCommands(
-                                    device,
-                                    subscriptionId -> {
-                                        // We can save device without subscriptionId if it's only a sensor
-                                        logger.debug("Device correctly registered (EUI: {})", device.getDeviceEUI());
-                                        deviceRepository.save(new DeviceEntity(device, subscriptionId));
-                                        logger.debug("Entity (EUI:{}) save in Mongo database.", device.getDeviceEUI());
-                                        launchSuccessCallback(successCallback);
-                                    },
-                                    ex -> launchFailureCallback(failureCallback, new AgentException(ex.getMessage(), ex))
-                            );
-                        } catch (AgentException e) {
-                            launchFailureCallback(failureCallback, e);
-                        }
-                    },
-                    ex -> {
-                        String errorMsg = String.format("Error while checking OpenLpwa provider registration for device (%s)", device);
-                        logger.error(errorMsg, ex);
-                        launchFailureCallback(failureCallback, new AgentException(errorMsg, ex));
-                    }
-            );
-        } catch (ConfigurationException ex) {
-            String errorMsg = device != null ? String.format("Unable to register the device (%s)", device.getDeviceEUI()) : "Device to register is null";
-            logger.error(errorMsg, ex);
-            launchFailureCallback(failureCallback, new AgentException(errorMsg, ex));
+    /**
+     * Register several devices into the IoT agent.
+     * The OpenLpwa provider checks and the subscriptions of several devices run in parallel, and the devices are saved
+     * in the Mongo database by batches.
+     * @param devices           Devices to register
+     * @param resultCallback    Callback called with the result of each device (in the order of the devices)
+     *                          once all the devices are processed
+     */
+    public void registerAll(List<Device> devices, Consumer<List<DeviceRegistrationResult>> resultCallback) {
+        if (devices == null || devices.isEmpty()) {
+            resultCallback.accept(Collections.emptyList());
+            return;
         }
+        logger.debug("Registering {} devices (parallelism:{}, saveBatchSize:{})", devices.size(), bulkParallelism, bulkSaveBatchSize);
+        new BulkRegistration(devices, resultCallback).start();
     }
 
     /**
@@ -189,6 +209,7 @@ public class Agent {
                         () -> {
                             logger.debug("Device (EUI:{}) deleted.", registeredDevice.getDeviceEUI());
                             deviceRepository.delete(registeredDevice);
+                            discardQueuedCommands(registeredDevice.getDeviceEUI());
                             launchSuccessCallback(successCallback);
                         },
                         ex -> launchFailureCallback(failureCallback, new AgentException(ex.getMessage(), ex))
@@ -201,6 +222,87 @@ public class Agent {
         }
     }
 
+    /**
+     * Unregister several devices from the IoT agent.
+     * The subscriptions of several devices are cancelled in parallel, and the devices are deleted from the Mongo database
+     * by batches.
+     * @param deviceEUIs        Device EUIs to unregister
+     * @param resultCallback    Callback called with the result of each device (in the order of the device EUIs)
+     *                          once all the devices are processed
+     */
+    public void unregisterAll(List<String> deviceEUIs, Consumer<List<DeviceUnregistrationResult>> resultCallback) {
+        if (deviceEUIs == null || deviceEUIs.isEmpty()) {
+            resultCallback.accept(Collections.emptyList());
+            return;
+        }
+        // A single query for all the devices
+        Map<String, DeviceEntity> registeredDevices = new HashMap<>();
+        List<String> distinctDeviceEUIs = deviceEUIs.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        Iterable<DeviceEntity> foundDevices = deviceRepository.findAll(distinctDeviceEUIs);
+        if (foundDevices != null) {
+            foundDevices.forEach(device -> registeredDevices.put(device.getDeviceEUI(), device));
+        }
+        // A device EUI repeated in the list is unregistered once
+        List<DeviceEntity> devices = new ArrayList<>(deviceEUIs.size());
+        for (String deviceEUI : deviceEUIs) {
+            devices.add(registeredDevices.remove(deviceEUI));
+        }
+        logger.debug("Unregistering {} devices (parallelism:{}, deleteBatchSize:{})", deviceEUIs.size(), bulkParallelism, bulkDeleteBatchSize);
+        new BulkUnregistration(devices, deviceEUIs, resultCallback).start();
+    }
+
+    /**
+     * Unregister all the devices bound to entities of a type
+     * @param entityType        Entity type
+     * @param resultCallback    Callback called with the result of each device once all the devices are processed
+     */
+    public void unregisterAllByEntityType(String entityType, Consumer<List<DeviceUnregistrationResult>> resultCallback) {
+        List<DeviceEntity> devices = entityType != null ? deviceRepository.findByType(entityType) : null;
+        if (devices == null || devices.isEmpty()) {
+            resultCallback.accept(Collections.emptyList());
+            return;
+        }
+        List<String> deviceEUIs = devices.stream().map(DeviceEntity::getDeviceEUI).collect(Collectors.toList());
+        logger.debug("Unregistering {} devices of type {} (parallelism:{}, deleteBatchSize:{})", devices.size(), entityType, bulkParallelism, bulkDeleteBatchSize);
+        new BulkUnregistration(devices, deviceEUIs, resultCallback).start();
+    }
+
+    /**
+     * Check a device and its registration in OpenLpwa provider, then subscribe to its commands
+     * @param device                Device to register
+     * @param subscribedCallback    Callback called with the subscription id (null without command) when the device can be saved
+     * @param failureCallback       Callback called when an error occurs
+     */
+    private void checkAndSubscribe(Device device, SuccessCallback<String> subscribedCallback, AgentFailureCallback failureCallback) {
+        try {
+            checkDevice(device);
+
+            // First check if the device is registered and activated in OpenLpwa provider
+            checkOpenLpwaProviderRegistration(device,
+                    () -> {
+                        try {
+                            subscribeToCommands(
+                                    device,
+                                    subscribedCallback,
+                                    ex -> launchFailureCallback(failureCallback, new AgentException(ex.getMessage(), ex))
+                            );
+                        } catch (AgentException e) {
+                            launchFailureCallback(failureCallback, e);
+                        }
+                    },
+                    ex -> {
+                        String errorMsg = String.format("Error while checking OpenLpwa provider registration for device (%s)", device);
+                        logger.error(errorMsg, ex);
+                        launchFailureCallback(failureCallback, new AgentException(errorMsg, ex));
+                    }
+            );
+        } catch (ConfigurationException ex) {
+            String errorMsg = device != null ? String.format("Unable to register the device (%s)", device.getDeviceEUI()) : "Device to register is null";
+            logger.error(errorMsg, ex);
+            launchFailureCallback(failureCallback, new AgentException(errorMsg, ex));
+        }
+    }
+
     /**
      * Check if a device is valid to use the agent
      * @param device device to validate
@@ -235,7 +337,26 @@ public class Agent {
      */
     private void subscribeToCommands(Device device, SuccessCallback<String> successCallback, AgentFailureCallback failureCallback) throws AgentException {
         // If the device doesn't contain a command, the subscription is not necessary
-        if (device.getCommands() != null && device.getCommands().size() > 0) {
+        if (device.getCommands() != null && device.getCommands().size() > 0 && patternSubscriptionManager != null && patternSubscriptionManager.isEnabled()) {
+            // A single subscription for all the entities of the type with the same commands, the device has no own subscription
+            DeviceEntity registeredDevice = deviceRepository.findOne(device.getDeviceEUI());
+            patternSubscriptionManager.subscribe(device.getEntityType(), device.getCommands()).addCallback(
+                    subscription -> {
+                        logger.debug("Device (EUI:{}) commands subscribed by the pattern subscription {}", device.getDeviceEUI(), subscription.getSubscriptionId());
+                        if (registeredDevice != null) {
+                            releasePreviousSubscription(registeredDevice, subscription.getKey());
+                        }
+                        if (successCallback != null) {
+                            successCallback.onSuccess(null);
+                        }
+                    },
+                    ex -> {
+                        String errorMsg = String.format("Unable to subscribe device in the NGSI Context Broker (%s)", device.getDeviceEUI());
+                        logger.error(errorMsg, ex);
+                        launchFailureCallback(failureCallback, new AgentException(errorMsg, ex));
+                    }
+            );
+        } else if (device.getCommands() != null && device.getCommands().size() > 0) {
             ngsiManager.subscribeToCommands(device).addCallback(
                     result -> {
                         if (result != null && result.getSubscribeError() == null && result.getSubscribeResponse() != null) {
@@ -261,6 +382,31 @@ public class Agent {
         }
     }
 
+    /**
+     * Releases the subscription of a device registered again with a pattern subscription: its own subscription,
+     * created before the pattern subscriptions were enabled, is removed, or its previous pattern subscription is released
+     * @param registeredDevice  Device as registered before
+     * @param subscriptionKey   Key of the new pattern subscription of the device
+     */
+    private void releasePreviousSubscription(DeviceEntity registeredDevice, String subscriptionKey) {
+        if (registeredDevice.getSubscriptionId() == null) {
+            if (!subscriptionKey.equals(PatternSubscriptionManager.subscriptionKey(registeredDevice.getType(), registeredDevice.getCommands()))) {
+                patternSubscriptionManager.release(registeredDevice.getType(), registeredDevice.getCommands());
+            }
+            return;
+        }
+        try {
+            ListenableFuture<UnsubscribeContextResponse> future = ngsiManager.unsubscribe(registeredDevice.getSubscriptionId());
+            if (future != null) {
+                future.addCallback(
+                        result -> logger.debug("Own subscription of the device (EUI:{}) replaced by the pattern subscription", registeredDevice.getDeviceEUI()),
+                        ex -> logger.warn("Unable to remove the own subscription {} of the device (EUI:{})", registeredDevice.getSubscriptionId(), registeredDevice.getDeviceEUI(), ex));
+            }
+        } catch (AgentException e) {
+            logger.warn("Unable to remove the own subscription {} of the device (EUI:{})", registeredDevice.getSubscriptionId(), registeredDevice.getDeviceEUI(), e);
+        }
+    }
+
     /**
      * Unsubcribe to device's commands
      * @param device device
@@ -287,6 +433,10 @@ public class Agent {
                     }
             );
         } else {
+            // The pattern subscription of the device is removed once no device uses it
+            if (patternSubscriptionManager != null) {
+                patternSubscriptionManager.release(device.getType(), device.getCommands());
+            }
             launchSuccessCallback(successCallback);
         }
     }
@@ -357,6 +507,11 @@ public class Agent {
             command.setData(encodedPayload);
             command.setPort(device.getPort());
             command.setConfirmed(false);
+            if (downlinkCommandQueue != null && downlinkCommandQueue.isEnabled()) {
+                // Sent once the device can receive it
+                downlinkCommandQueue.enqueue(device.getDeviceEUI(), new EntityId(device.getName(), device.getType(), false), commandName, command, callback);
+                return;
+            }
             try {
                 openLpwaProvider.registerDeviceCommand(device.getDeviceEUI(), command).addCallback(
                         result -> {
@@ -387,55 +542,327 @@ public class Agent {
         }
     }
 
-    // Every 1st day of month at 1:10 AM
-    @Scheduled(cron = "0 10 1 1 * ?")
-    private void updateSubcriptions() {
-        for (DeviceEntity device : deviceRepository.findAll()) {
+    /**
+     * Discard the commands of an unregistered device not yet sent
+     * @param deviceEUI Device EUI
+     */
+    private void discardQueuedCommands(String deviceEUI) {
+        if (downlinkCommandQueue != null) {
+            downlinkCommandQueue.discard(deviceEUI);
+        }
+    }
+
+    /**
+     * Create the entity of a device subscribed now, with the date of its next subscription renewal
+     * @param device            Registered device
+     * @param subscriptionId    Subscription identifier (null without command)
+     * @return The entity to save
+     */
+    private DeviceEntity newDeviceEntity(Device device, String subscriptionId) {
+        DeviceEntity entity = new DeviceEntity(device, subscriptionId);
+        if (subscriptionRenewalScheduler != null) {
+            subscriptionRenewalScheduler.scheduleRenewal(entity);
+        }
+        return entity;
+    }
+
+    /**
+     * Runs a batch of a bulk registration or unregistration on the bulk save executor, or on the caller thread without executor
+     * @param batch Batch save or delete
+     */
+    private void runBatch(Runnable batch) {
+        if (bulkSaveExecutor != null) {
+            bulkSaveExecutor.execute(batch);
+        } else {
+            batch.run();
+        }
+    }
+
+    /**
+     * Registration of several devices: at most bulkParallelism devices are checked and subscribed at the same time,
+     * the devices ready to be saved are saved by batches of bulkSaveBatchSize devices on the bulk save executor.
+     * The subscriptions of the devices of a batch which can't be saved are removed.
+     */
+    private class BulkRegistration {
+
+        private final List<Device> devices;
+        private final Consumer<List<DeviceRegistrationResult>> resultCallback;
+        private final DeviceRegistrationResult[] results;
+        private final Set<String> deviceEUIs = ConcurrentHashMap.newKeySet();
+        private final BoundedParallelTasks tasks;
+        // Batches being saved, plus one until all the devices are subscribed
+        private final AtomicInteger pendingBatches = new AtomicInteger(1);
+        // Guarded by this
+        private List<DeviceEntity> batch = new ArrayList<>();
+        private List<Integer> batchIndexes = new ArrayList<>();
+
+        BulkRegistration(List<Device> devices, Consumer<List<DeviceRegistrationResult>> resultCallback) {
+            this.devices = devices;
+            this.resultCallback = resultCallback;
+            this.results = new DeviceRegistrationResult[devices.size()];
+            this.tasks = new BoundedParallelTasks(devices.size(), bulkParallelism, this::register, this::completed);
+        }
+
+        void start() {
+            tasks.start();
+        }
+
+        private void register(int index) {
+            Device device = devices.get(index);
+            if (device != null && device.getDeviceEUI() != null && !deviceEUIs.add(device.getDeviceEUI())) {
+                results[index] = new DeviceRegistrationResult(device.getDeviceEUI(), false, "Duplicate deviceEUI in the request");
+                tasks.taskCompleted();
+                return;
+            }
+            checkAndSubscribe(device,
+                    subscriptionId -> {
+                        List<DeviceEntity> fullBatch = null;
+                        List<Integer> fullBatchIndexes = null;
+                        synchronized (this) {
+                            batch.add(newDeviceEntity(device, subscriptionId));
+                            batchIndexes.add(index);
+                            if (batch.size() >= Math.max(1, bulkSaveBatchSize)) {
+                                fullBatch = batch;
+                                fullBatchIndexes = batchIndexes;
+                                batch = new ArrayList<>();
+                                batchIndexes = new ArrayList<>();
+                            }
+                        }
+                        if (fullBatch != null) {
+                            save(fullBatch, fullBatchIndexes);
+                        }
+                        tasks.taskCompleted();
+                    },
+                    ex -> {
+                        results[index] = new DeviceRegistrationResult(device != null ? device.getDeviceEUI() : null, false, ex.getMessage());
+                        tasks.taskCompleted();
+                    });
+        }
+
+        private void completed() {
+            List<DeviceEntity> lastBatch;
+            List<Integer> lastBatchIndexes;
+            synchronized (this) {
+                lastBatch = batch;
+                lastBatchIndexes = batchIndexes;
+                batch = new ArrayList<>();
+                batchIndexes = new ArrayList<>();
+            }
+            save(lastBatch, lastBatchIndexes);
+            batchCompleted();
+        }
+
+        private void batchCompleted() {
+            if (pendingBatches.decrementAndGet() == 0) {
+                long registeredCount = Arrays.stream(results).filter(DeviceRegistrationResult::isRegistered).count();
+                logger.debug("{} devices registered out of {}", registeredCount, devices.size());
+                resultCallback.accept(Arrays.asList(results));
+            }
+        }
+
+        private void save(List<DeviceEntity> entities, List<Integer> indexes) {
+            if (entities.isEmpty()) {
+                return;
+            }
+            pendingBatches.incrementAndGet();
+            runBatch(() -> {
+                String error = null;
+                try {
+                    deviceRepository.save(entities);
+                    logger.debug("{} entities saved in Mongo database.", entities.size());
+                } catch (RuntimeException e) {
+                    logger.error("Unable to save {} entities in Mongo database.", entities.size(), e);
+                    error = String.format("Unable to save the device in Mongo database (%s)", e.getMessage());
+                    entities.forEach(this::removeSubscription);
+                }
+                for (int i = 0; i < entities.size(); i++) {
+                    results[indexes.get(i)] = new DeviceRegistrationResult(entities.get(i).getDeviceEUI(), error == null, error);
+                }
+                batchCompleted();
+            });
+        }
+
+        /**
+         * Removes the subscription of a device which is not saved, the device can be registered again
+         * @param entity    Device not saved
+         */
+        private void removeSubscription(DeviceEntity entity) {
+            if (entity.getSubscriptionId() == null) {
+                if (patternSubscriptionManager != null) {
+                    patternSubscriptionManager.release(entity.getType(), entity.getCommands());
+                }
+                return;
+            }
             try {
-                if (device.getSubscriptionId() != null) {
-                    ngsiManager.updateSubscription(device.getSubscriptionId());
+                ListenableFuture<UnsubscribeContextResponse> future = ngsiManager.unsubscribe(entity.getSubscriptionId());
+                if (future != null) {
+                    future.addCallback(
+                            result -> logger.debug("Subscription of the unsaved device (EUI:{}) removed", entity.getDeviceEUI()),
+                            ex -> logger.warn("Unable to remove the subscription {} of the unsaved device (EUI:{})", entity.getSubscriptionId(), entity.getDeviceEUI(), ex));
                 }
             } catch (AgentException e) {
-                logger.error("Try to unsubscribe a device with a null subscriptionId ({})", device);
+                logger.warn("Unable to remove the subscription {} of the unsaved device (EUI:{})", entity.getSubscriptionId(), entity.getDeviceEUI(), e);
             }
         }
     }
 
+    /**
+     * Unregistration of several devices: at most bulkParallelism devices are unsubscribed at the same time,
+     * the unsubscribed devices are deleted by batches of bulkDeleteBatchSize devices on the bulk save executor.
+     */
+    private class BulkUnregistration {
+
+        private final List<DeviceEntity> devices;
+        private final Consumer<List<DeviceUnregistrationResult>> resultCallback;
+        private final DeviceUnregistrationResult[] results;
+        private final BoundedParallelTasks tasks;
+        // Batches being deleted, plus one until all the devices are unsubscribed
+        private final AtomicInteger pendingBatches = new AtomicInteger(1);
+        // Guarded by this
+        private List<DeviceEntity> batch = new ArrayList<>();
+        private List<Integer> batchIndexes = new ArrayList<>();
+
+        /**
+         * @param devices           Registered devices to unregister, a null device is an unknown device
+         * @param deviceEUIs        Device EUIs of the devices (used for the unknown devices)
+         * @param resultCallback    Callback called with the result of each device
+         */
+        BulkUnregistration(List<DeviceEntity> devices, List<String> deviceEUIs, Consumer<List<DeviceUnregistrationResult>> resultCallback) {
+            this.devices = devices;
+            this.resultCallback = resultCallback;
+            this.results = new DeviceUnregistrationResult[devices.size()];
+            Set<String> seenDeviceEUIs = new HashSet<>();
+            for (int i = 0; i < devices.size(); i++) {
+                String deviceEUI = deviceEUIs.get(i);
+                boolean duplicate = !seenDeviceEUIs.add(deviceEUI);
+                if (devices.get(i) == null) {
+                    String error = duplicate ? "Duplicate deviceEUI in the request" : "Unable to unregister an unknown device.";
+                    results[i] = new DeviceUnregistrationResult(deviceEUI, false, error);
+                }
+            }
+            this.tasks = new BoundedParallelTasks(devices.size(), bulkParallelism, this::unregister, this::completed);
+        }
+
+        void start() {
+            tasks.start();
+        }
+
+        private void unregister(int index) {
+            DeviceEntity device = devices.get(index);
+            if (device == null) {
+                tasks.taskCompleted();
+                return;
+            }
+            AgentFailureCallback failureCallback = ex -> {
+                results[index] = new DeviceUnregistrationResult(device.getDeviceEUI(), false, ex.getMessage());
+                tasks.taskCompleted();
+            };
+            try {
+                unsubscribeToCommands(device,
+                        () -> {
+                            List<DeviceEntity> fullBatch = null;
+                            List<Integer> fullBatchIndexes = null;
+                            synchronized (this) {
+                                batch.add(device);
+                                batchIndexes.add(index);
+                                if (batch.size() >= Math.max(1, bulkDeleteBatchSize)) {
+                                    fullBatch = batch;
+                                    fullBatchIndexes = batchIndexes;
+                                    batch = new ArrayList<>();
+                                    batchIndexes = new ArrayList<>();
+                                }
+                            }
+                            if (fullBatch != null) {
+                                delete(fullBatch, fullBatchIndexes);
+                            }
+                            tasks.taskCompleted();
+                        },
+                        failureCallback);
+            } catch (AgentException e) {
+                failureCallback.onFailure(e);
+            }
+        }
+
+        private void completed() {
+            List<DeviceEntity> lastBatch;
+            List<Integer> lastBatchIndexes;
+            synchronized (this) {
+                lastBatch = batch;
+                lastBatchIndexes = batchIndexes;
+                batch = new ArrayList<>();
+                batchIndexes = new ArrayList<>();
+            }
+            delete(lastBatch, lastBatchIndexes);
+            batchCompleted();
+        }
+
+        private void batchCompleted() {
+            if (pendingBatches.decrementAndGet() == 0) {
+                long unregisteredCount = Arrays.stream(results).filter(DeviceUnregistrationResult::isUnregistered).count();
+                logger.debug("{} devices unregistered out of {}", unregisteredCount, devices.size());
+                resultCallback.accept(Arrays.asList(results));
+            }
+        }
+
+        private void delete(List<DeviceEntity> entities, List<Integer> indexes) {
+            if (entities.isEmpty()) {
+                return;
+            }
+            pendingBatches.incrementAndGet();
+            runBatch(() -> {
+                String error = null;
+                try {
+                    deviceRepository.delete(entities);
+                    logger.debug("{} entities deleted from Mongo database.", entities.size());
+                } catch (RuntimeException e) {
+                    logger.error("Unable to delete {} entities from Mongo database.", entities.size(), e);
+                    error = String.format("Unable to delete the device from Mongo database (%s)", e.getMessage());
+                }
+                for (int i = 0; i < entities.size(); i++) {
+                    results[indexes.get(i)] = new DeviceUnregistrationResult(entities.get(i).getDeviceEUI(), error == null, error);
+                    if (error == null) {
+                        discardQueuedCommands(entities.get(i).getDeviceEUI());
+                    }
+                }
+                batchCompleted();
+            });
+        }
+    }
+
     /**
      * Manages Mqtt events
      */
     @Component
     class AgentMqttProviderCallback implements OpenLpwaMqttProviderCallback {
 
-        private int reconnectingDelay = 5000;
-
         @Override
         public void connectionLost(Throwable throwable) {
-            // Prevent a new connectionLost event while the reconnection
-            if (!reconnecting) {
-                logger.warn("Connection lost with the MQTT broker, waiting before reconnect", throwable);
-                try {
-                    Thread.sleep(reconnectingDelay);
-                } catch (InterruptedException e) {
-                }
-                logger.debug("Reconnecting to the MQTT broker");
-                reconnecting = true;
-                start(converter,
-                        () -> {
-                            logger.debug("Reconnected to the MQTT broker");
-                            reconnecting = false;
-                        },
-                        ex -> {
-                            logger.error("Reconnection failed to the MQTT broker", ex);
-                            reconnecting = false;
-                            if (connectionLostCallback != null) {
-                                connectionLostCallback.onConnectionLost();
-                            }
+            // The reconnection runs on the supervisor thread to release the Mqtt client thread
+            boolean started = reconnectionSupervisor.connectionLost(
+                    (successCallback, failureCallback) -> start(converter, successCallback, failureCallback),
+                    () -> {
+                        if (connectionLostCallback != null) {
+                            connectionLostCallback.onConnectionLost();
                         }
-                );
+                    });
+            if (started) {
+                logger.warn("Connection lost with the MQTT broker, reconnecting", throwable);
+            } else {
+                logger.debug("Connection lost with the MQTT broker while reconnecting", throwable);
             }
         }
 
+        @Override
+        public boolean acceptMessage(String deviceEUI) {
+            return deviceFilter == null || deviceFilter.mightBeRegistered(deviceEUI);
+        }
+
+        @Override
+        public boolean supportsPartialMessage() {
+            // Only the payload is read
+            return true;
+        }
+
         @Override
         public void newMessageArrived(String deviceEUI, DeviceIncomingMessage incomingMessage) {
             DeviceEntity device = deviceRepository.findOne(deviceEUI);
@@ -443,6 +870,10 @@ public class Agent {
                 logger.error("Device not registered, can't treat message (EUI:{})", deviceEUI);
                 return;
             }
+            if (downlinkCommandQueue != null) {
+                // The command sent before has been delivered with this uplink
+                downlinkCommandQueue.uplinkReceived(deviceEUI);
+            }
 
             String payload = null;
             if (incomingMessage != null && incomingMessage.getValue() != null && incomingMessage.getValue().getData() != null) {
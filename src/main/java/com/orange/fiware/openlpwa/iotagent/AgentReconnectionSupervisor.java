@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.iotagent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reconnects the agent to the Mqtt broker after a connection loss, on a dedicated scheduler thread.
+ * Failed attempts are retried with a jittered exponential backoff, capped by a maximum delay.
+ * A connection lost during an attempt (another connection of the agent) leads to one more attempt, since the running
+ * attempt may have checked this connection before its loss.
+ */
+@Component
+public class AgentReconnectionSupervisor {
+
+    /**
+     * Reconnection attempt
+     */
+    @FunctionalInterface
+    public interface ReconnectAction {
+
+        /**
+         * Tries to reconnect, calling one of the callbacks when done
+         * @param successCallback   Callback called when the agent is reconnected
+         * @param failureCallback   Callback called when the attempt fails
+         */
+        void reconnect(AgentSuccessCallback successCallback, AgentFailureCallback failureCallback);
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(AgentReconnectionSupervisor.class);
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final double multiplier;
+    private final double jitter;
+    private final int maxAttempts;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong attemptCount = new AtomicLong();
+    private final AtomicLong reconnectionCount = new AtomicLong();
+    private final AtomicLong lastTimeToReconnectMillis = new AtomicLong();
+    private final AtomicLong maxTimeToReconnectMillis = new AtomicLong();
+    // Reconnection in progress, guarded by this
+    private ReconnectAction action;
+    private Runnable giveUpCallback;
+    private int failedAttempts;
+    private long disconnectedAt;
+    private ScheduledFuture<?> nextAttempt;
+    // A connection has been lost during the running attempt
+    private boolean lostDuringAttempt;
+
+    /**
+     * @param initialDelayMillis    Delay before the first attempt
+     * @param maxDelayMillis        Maximum delay between two attempts
+     * @param multiplier            Factor applied to the delay after each failed attempt
+     * @param jitter                Part of the delay (0 to 1) randomly removed to spread the reconnections of several agents
+     * @param maxAttempts           Number of attempts before giving up (0 to retry until reconnected)
+     */
+    @Autowired
+    public AgentReconnectionSupervisor(@Value("${openLpwaProvider.reconnect.initialDelayMs:1000}") long initialDelayMillis,
+                                       @Value("${openLpwaProvider.reconnect.maxDelayMs:60000}") long maxDelayMillis,
+                                       @Value("${openLpwaProvider.reconnect.multiplier:2}") double multiplier,
+                                       @Value("${openLpwaProvider.reconnect.jitter:0.5}") double jitter,
+                                       @Value("${openLpwaProvider.reconnect.maxAttempts:0}") int maxAttempts) {
+        this.initialDelayMillis = Math.max(0, initialDelayMillis);
+        this.maxDelayMillis = Math.max(this.initialDelayMillis, maxDelayMillis);
+        this.multiplier = Math.max(1, multiplier);
+        this.jitter = Math.min(1, Math.max(0, jitter));
+        this.maxAttempts = maxAttempts;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "openlpwa-mqtt-reconnect");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts a reconnection, unless one is already in progress. A loss reported during an attempt is retried
+     * once the attempt is done.
+     * @param action            Reconnection attempt
+     * @param giveUpCallback    Called if the reconnection is abandoned after the maximum number of attempts (may be null)
+     * @return <code>false</code> if a reconnection is already in progress
+     */
+    public synchronized boolean connectionLost(ReconnectAction action, Runnable giveUpCallback) {
+        if (this.action != null) {
+            if (nextAttempt == null) {
+                // The running attempt may have checked the lost connection before its loss
+                lostDuringAttempt = true;
+            }
+            return false;
+        }
+        this.action = action;
+        this.giveUpCallback = giveUpCallback;
+        lostDuringAttempt = false;
+        failedAttempts = 0;
+        disconnectedAt = System.nanoTime();
+        scheduleAttempt();
+        return true;
+    }
+
+    /**
+     * Cancels the reconnection in progress
+     */
+    public synchronized void cancel() {
+        if (nextAttempt != null) {
+            nextAttempt.cancel(false);
+            nextAttempt = null;
+        }
+        action = null;
+        giveUpCallback = null;
+    }
+
+    public synchronized boolean isReconnecting() {
+        return action != null;
+    }
+
+    /**
+     * Reconnection attempts since the agent start
+     * @return The number of attempts
+     */
+    public long getAttemptCount() {
+        return attemptCount.get();
+    }
+
+    /**
+     * Successful reconnections since the agent start
+     * @return The number of reconnections
+     */
+    public long getReconnectionCount() {
+        return reconnectionCount.get();
+    }
+
+    /**
+     * Time between the last connection loss and the reconnection
+     * @return The time in milliseconds
+     */
+    public long getLastTimeToReconnectMillis() {
+        return lastTimeToReconnectMillis.get();
+    }
+
+    /**
+     * Longest time between a connection loss and the reconnection
+     * @return The time in milliseconds
+     */
+    public long getMaxTimeToReconnectMillis() {
+        return maxTimeToReconnectMillis.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cancel();
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Computes the delay before the next attempt: the initial delay multiplied after each failed attempt,
+     * capped by the maximum delay, minus a random part
+     * @param failedAttempts    Failed attempts of the current reconnection
+     * @return The delay in milliseconds
+     */
+    long nextDelayMillis(int failedAttempts) {
+        double delay = initialDelayMillis * Math.pow(multiplier, failedAttempts);
+        delay = Math.min(delay, maxDelayMillis);
+        return (long) (delay * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    private void scheduleAttempt() {
+        long delay = nextDelayMillis(failedAttempts);
+        logger.debug("Reconnecting to the MQTT broker in {} ms (failed attempts:{})", delay, failedAttempts);
+        ReconnectAction scheduledAction = action;
+        try {
+            nextAttempt = scheduler.schedule(() -> attempt(scheduledAction), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Supervisor shut down
+            action = null;
+        }
+    }
+
+    private void attempt(ReconnectAction scheduledAction) {
+        synchronized (this) {
+            if (action != scheduledAction) {
+                // Cancelled
+                return;
+            }
+            nextAttempt = null;
+            lostDuringAttempt = false;
+        }
+        attemptCount.incrementAndGet();
+        logger.debug("Reconnecting to the MQTT broker");
+        try {
+            scheduledAction.reconnect(() -> onAttemptSuccess(scheduledAction), ex -> onAttemptFailure(scheduledAction, ex));
+        } catch (RuntimeException e) {
+            onAttemptFailure(scheduledAction, e);
+        }
+    }
+
+    private void onAttemptSuccess(ReconnectAction scheduledAction) {
+        int attempts;
+        long timeToReconnect;
+        synchronized (this) {
+            if (action != scheduledAction) {
+                return;
+            }
+            if (lostDuringAttempt) {
+                logger.debug("Connection lost during the reconnection, reconnecting again");
+                failedAttempts = 0;
+                scheduleAttempt();
+                return;
+            }
+            action = null;
+            giveUpCallback = null;
+            attempts = failedAttempts + 1;
+            timeToReconnect = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - disconnectedAt);
+        }
+        reconnectionCount.incrementAndGet();
+        lastTimeToReconnectMillis.set(timeToReconnect);
+        maxTimeToReconnectMillis.accumulateAndGet(timeToReconnect, Math::max);
+        logger.info("Reconnected to the MQTT broker (attempts:{}, timeToReconnectMs:{})", attempts, timeToReconnect);
+    }
+
+    private void onAttemptFailure(ReconnectAction scheduledAction, Throwable throwable) {
+        Runnable callback;
+        int attempts;
+        synchronized (this) {
+            if (action != scheduledAction) {
+                return;
+            }
+            failedAttempts++;
+            if (maxAttempts <= 0 || failedAttempts < maxAttempts) {
+                logger.warn("Reconnection failed to the MQTT broker (failed attempts:{})", failedAttempts, throwable);
+                scheduleAttempt();
+                return;
+            }
+            callback = giveUpCallback;
+            attempts = failedAttempts;
+            action = null;
+            giveUpCallback = null;
+        }
+        logger.error("Reconnection to the MQTT broker abandoned after {} attempts", attempts, throwable);
+        if (callback != null) {
+            callback.run();
+        }
+    }
+}
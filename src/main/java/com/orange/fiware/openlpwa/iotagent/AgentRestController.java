@@ -21,6 +21,7 @@ package com.orange.fiware.openlpwa.iotagent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -29,6 +30,7 @@ import org.springframework.web.context.request.async.DeferredResult;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.List;
 
 /**
  * Manages convenience operations to register and unregister a device
@@ -40,6 +42,8 @@ public class AgentRestController {
     private static final Logger logger = LoggerFactory.getLogger(AgentRestController.class);
     @Autowired
     private Agent agent;
+    @Value("${agent.bulk.timeoutMs:600000}")
+    private long bulkTimeoutMs;
 
     /**
      * Register a device
@@ -76,6 +80,26 @@ public class AgentRestController {
         return deferredResult;
     }
 
+    /**
+     * Register several devices
+     * @param devices Devices to register
+     * @return A <code>DeferredResult</code> which contains the registration result of each device
+     */
+    @RequestMapping(method = RequestMethod.POST,
+            value = "/devices/bulk",
+            consumes = {MediaType.APPLICATION_JSON_VALUE})
+    final public DeferredResult<ResponseEntity<?>> registerAll(@RequestBody final List<Device> devices) {
+        // Registering many devices may take longer than the default asynchronous request timeout
+        final DeferredResult<ResponseEntity<?>> deferredResult = new DeferredResult<>(bulkTimeoutMs > 0 ? bulkTimeoutMs : null);
+
+        agent.registerAll(devices,
+                results -> {
+                    logger.debug("Bulk registration done ({} devices)", results.size());
+                    deferredResult.setResult(ResponseEntity.ok(results));
+                });
+        return deferredResult;
+    }
+
     /**
      * Unregister a device
      * @param deviceEUI Device EUI of the device to unregister
@@ -97,4 +121,42 @@ public class AgentRestController {
                 });
         return deferredResult;
     }
+
+    /**
+     * Unregister several devices
+     * @param deviceEUIs Device EUIs of the devices to unregister
+     * @return A <code>DeferredResult</code> which contains the unregistration result of each device
+     */
+    @RequestMapping(method = RequestMethod.POST,
+            value = "/devices/bulk/unregister",
+            consumes = {MediaType.APPLICATION_JSON_VALUE})
+    final public DeferredResult<ResponseEntity<?>> unregisterAll(@RequestBody final List<String> deviceEUIs) {
+        final DeferredResult<ResponseEntity<?>> deferredResult = new DeferredResult<>(bulkTimeoutMs > 0 ? bulkTimeoutMs : null);
+
+        agent.unregisterAll(deviceEUIs,
+                results -> {
+                    logger.debug("Bulk unregistration done ({} devices)", results.size());
+                    deferredResult.setResult(ResponseEntity.ok(results));
+                });
+        return deferredResult;
+    }
+
+    /**
+     * Unregister all the devices bound to entities of a type
+     * @param entityType Entity type
+     * @return A <code>DeferredResult</code> which contains the unregistration result of each device
+     */
+    @RequestMapping(method = RequestMethod.DELETE,
+            value = "/devices",
+            params = {"entityType"})
+    final public DeferredResult<ResponseEntity<?>> unregisterAllByEntityType(@RequestParam String entityType) {
+        final DeferredResult<ResponseEntity<?>> deferredResult = new DeferredResult<>(bulkTimeoutMs > 0 ? bulkTimeoutMs : null);
+
+        agent.unregisterAllByEntityType(entityType,
+                results -> {
+                    logger.debug("Bulk unregistration done ({} devices of type {})", results.size(), entityType);
+                    deferredResult.setResult(ResponseEntity.ok(results));
+                });
+        return deferredResult;
+    }
 }
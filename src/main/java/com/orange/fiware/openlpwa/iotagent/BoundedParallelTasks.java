@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.iotagent;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs indexed asynchronous tasks, at most a given number at the same time.
+ * A task calls {@link #taskCompleted()} when it is done, which starts the next task. The tasks are started
+ * by a single thread at a time, so that tasks completed synchronously don't lead to a deep recursion.
+ */
+class BoundedParallelTasks {
+
+    private final int taskCount;
+    private final int parallelism;
+    private final IntConsumer task;
+    private final Runnable completionCallback;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final AtomicInteger completedCount = new AtomicInteger();
+    private final AtomicInteger startRequests = new AtomicInteger();
+
+    /**
+     * @param taskCount             Number of tasks
+     * @param parallelism           Maximum number of tasks running at the same time
+     * @param task                  Task started with its index
+     * @param completionCallback    Callback called once all the tasks are completed
+     */
+    BoundedParallelTasks(int taskCount, int parallelism, IntConsumer task, Runnable completionCallback) {
+        this.taskCount = taskCount;
+        this.parallelism = Math.min(taskCount, Math.max(1, parallelism));
+        this.task = task;
+        this.completionCallback = completionCallback;
+    }
+
+    void start() {
+        if (taskCount == 0) {
+            completionCallback.run();
+            return;
+        }
+        for (int i = 0; i < parallelism; i++) {
+            startNext();
+        }
+    }
+
+    /**
+     * Called by a task when it is done
+     */
+    void taskCompleted() {
+        if (completedCount.incrementAndGet() == taskCount) {
+            completionCallback.run();
+        } else {
+            startNext();
+        }
+    }
+
+    private void startNext() {
+        if (startRequests.getAndIncrement() != 0) {
+            // The thread starting the tasks will start one more
+            return;
+        }
+        do {
+            int index = nextIndex.getAndIncrement();
+            if (index < taskCount) {
+                task.accept(index);
+            }
+        } while (startRequests.decrementAndGet() != 0);
+    }
+}
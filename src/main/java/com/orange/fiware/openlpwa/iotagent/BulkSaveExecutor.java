@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+package com.orange.fiware.openlpwa.iotagent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves and deletes the batches of the bulk registrations and unregistrations in the Mongo database, so that the
+ * blocking database calls don't run on the Http client threads completing the subscriptions.
+ */
+@Component
+public class BulkSaveExecutor implements Executor {
+
+    private static Logger logger = LoggerFactory.getLogger(BulkSaveExecutor.class);
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param threads   Number of threads saving the batches (0 to save them on the caller thread)
+     */
+    @Autowired
+    public BulkSaveExecutor(@Value("${agent.bulk.saveThreads:2}") int threads) {
+        if (threads > 0) {
+            AtomicInteger threadCount = new AtomicInteger();
+            // Unbounded queue: the number of batches is bounded by the size of the bulk requests
+            executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "openlpwa-bulk-save-" + threadCount.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        } else {
+            executor = null;
+        }
+        logger.debug("Bulk save executor started (threads:{})", threads);
+    }
+
+    /**
+     * Queues a batch, the batch is run on the caller thread if there is no thread or if the executor is stopped
+     * @param task  Batch save or delete
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (executor != null) {
+            try {
+                executor.execute(task);
+                return;
+            } catch (RejectedExecutionException e) {
+                logger.warn("Bulk save executor stopped, batch run on the caller thread");
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * Stops the threads once the queued batches are run
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return Number of batches waiting for a thread
+     */
+    public int getQueueDepth() {
+        return executor != null ? executor.getQueue().size() : 0;
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+package com.orange.fiware.openlpwa.iotagent;
+
+import com.orange.fiware.openlpwa.ngsi.NgsiManager;
+import com.orange.ngsi.model.ContextAttribute;
+import com.orange.ngsi.model.ContextMetadata;
+
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Collects the status of the commands launched from one notification, completed by any thread, and publishes all the
+ * statuses at once when the last command is completed.
+ * Each command owns a slot of the statuses, so that the completions only count down without locking.
+ */
+class CommandStatusAggregator {
+
+    /**
+     * Format of the date of a command status, thread-safe
+     */
+    static final DateTimeFormatter COMMAND_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US).withZone(ZoneOffset.UTC);
+    private final AtomicReferenceArray<ContextAttribute> statuses;
+    private final AtomicInteger remaining;
+    private final Consumer<List<ContextAttribute>> publisher;
+
+    /**
+     * @param commandCount  Number of launched commands
+     * @param publisher     Called once with the status of all the commands
+     */
+    CommandStatusAggregator(int commandCount, Consumer<List<ContextAttribute>> publisher) {
+        this.statuses = new AtomicReferenceArray<>(commandCount);
+        this.remaining = new AtomicInteger(commandCount);
+        this.publisher = publisher;
+    }
+
+    /**
+     * Called when a command is completed, a command completed twice is only counted once
+     * @param index         Index of the command
+     * @param commandName   Name of the command
+     * @param success       <code>true</code> if the command has been sent
+     * @param commandDate   Date of the command
+     */
+    void completed(int index, String commandName, boolean success, Date commandDate) {
+        if (!statuses.compareAndSet(index, null, commandStatus(commandName, success ? NgsiManager.COMMAND_SENT : NgsiManager.COMMAND_ERROR, commandDate))) {
+            return;
+        }
+        // The statuses set before each count down are visible to the thread completing the last command
+        if (remaining.decrementAndGet() == 0) {
+            ContextAttribute[] attributes = new ContextAttribute[statuses.length()];
+            for (int i = 0; i < attributes.length; i++) {
+                attributes[i] = statuses.get(i);
+            }
+            publisher.accept(Arrays.asList(attributes));
+        }
+    }
+
+    /**
+     * @param attributeName Name of a command attribute
+     * @return The name of the command, without the command suffix
+     */
+    static String commandName(String attributeName) {
+        return attributeName.substring(0, attributeName.length() - NgsiManager.COMMAND_SUFFIX.length());
+    }
+
+    /**
+     * @param commandName   Name of the command
+     * @param status        Status of the command (SENT, ERROR or PENDING)
+     * @param commandDate   Date of the command, now if null
+     * @return The status attribute of the command
+     */
+    static ContextAttribute commandStatus(String commandName, String status, Date commandDate) {
+        ContextAttribute statusAttribute = new ContextAttribute();
+        statusAttribute.setName(commandName + NgsiManager.COMMAND_STATUS_SUFFIX);
+        statusAttribute.setValue(status);
+        statusAttribute.setType("commandStatus");
+        ContextMetadata metadata = new ContextMetadata();
+        metadata.setName("commandDate");
+        metadata.setValue(COMMAND_DATE_FORMAT.format((commandDate != null ? commandDate : new Date()).toInstant()));
+        metadata.setType("date");
+        statusAttribute.addMetadata(metadata);
+        return statusAttribute;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.iotagent;
+
+/**
+ * Result of the unregistration of a device of a bulk unregistration
+ */
+public final class DeviceUnregistrationResult {
+
+    private String deviceEUI;
+    private boolean unregistered;
+    private String error;
+
+    public DeviceUnregistrationResult() {
+    }
+
+    public DeviceUnregistrationResult(String deviceEUI, boolean unregistered, String error) {
+        this.deviceEUI = deviceEUI;
+        this.unregistered = unregistered;
+        this.error = error;
+    }
+
+    public String getDeviceEUI() {
+        return deviceEUI;
+    }
+
+    public void setDeviceEUI(String deviceEUI) {
+        this.deviceEUI = deviceEUI;
+    }
+
+    public boolean isUnregistered() {
+        return unregistered;
+    }
+
+    public void setUnregistered(boolean unregistered) {
+        this.unregistered = unregistered;
+    }
+
+    /**
+     * @return The reason of the failure, null if the device is unregistered
+     */
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceUnregistrationResult{" +
+                "deviceEUI='" + deviceEUI + '\'' +
+                ", unregistered=" + unregistered +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
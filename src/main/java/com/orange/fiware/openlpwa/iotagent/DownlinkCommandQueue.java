@@ -0,0 +1,481 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+package com.orange.fiware.openlpwa.iotagent;
+
+import com.orange.fiware.openlpwa.domain.DownlinkCommandEntity;
+import com.orange.fiware.openlpwa.exception.AgentException;
+import com.orange.fiware.openlpwa.exception.ConfigurationException;
+import com.orange.fiware.openlpwa.ngsi.NgsiManager;
+import com.orange.fiware.openlpwa.provider.OpenLpwaProvider;
+import com.orange.fiware.openlpwa.provider.model.DeviceCommand;
+import com.orange.fiware.openlpwa.provider.model.RegisterDeviceCommandParameter;
+import com.orange.fiware.openlpwa.repository.DownlinkCommandRepository;
+import com.orange.ngsi.model.EntityId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Queues the commands of the devices before sending them to the OpenLpwa provider.
+ * A class A device only receives a downlink after an uplink, so a device has at most one command sent to the OpenLpwa
+ * provider and not yet delivered: the next command is sent after the next uplink of the device. A queued command replaces
+ * the queued command of the same name (the last command wins), and at most a given number of commands are sent at the same time.
+ * A device which doesn't send an uplink during a maximum delay after a command can receive its next command.
+ * The queued commands are written by batches in the database and queued again at startup by the agent instance which
+ * queued them.
+ * A command which can't be sent at once gets a PENDING status in the NGSI Context Broker. The final status of a command queued
+ * again at startup, which has lost its callback, is updated by the queue.
+ */
+@Component
+public class DownlinkCommandQueue {
+
+    private static Logger logger = LoggerFactory.getLogger(DownlinkCommandQueue.class);
+    private final OpenLpwaProvider openLpwaProvider;
+    private final DownlinkCommandRepository commandRepository;
+    private final NgsiManager ngsiManager;
+    private final boolean enabled;
+    private final int parallelism;
+    private final String owner;
+    private final long maxUplinkWaitNanos;
+    private final ConcurrentHashMap<String, DeviceCommands> devices = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<DeviceCommands> readyDevices = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger sendingCount = new AtomicInteger();
+    private final AtomicInteger dispatchRequests = new AtomicInteger();
+    // Latest write of each command not yet written in the database, an empty value to delete the command
+    private final ConcurrentHashMap<String, Optional<DownlinkCommandEntity>> pendingWrites = new ConcurrentHashMap<>();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicLong supersededCount = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * @param enabled               <code>false</code> to send the commands at once
+     * @param parallelism           Maximum number of commands sent to the OpenLpwa provider at the same time
+     * @param owner                 Identifier of this agent instance in the stored commands (null or empty for none)
+     * @param maxUplinkWaitMillis   Maximum delay (ms) waiting for an uplink after a command before sending the next one,
+     *                              0 to wait for the uplink
+     */
+    @Autowired
+    public DownlinkCommandQueue(OpenLpwaProvider openLpwaProvider,
+                                DownlinkCommandRepository commandRepository,
+                                NgsiManager ngsiManager,
+                                @Value("${agent.downlink.queue.enabled:false}") boolean enabled,
+                                @Value("${agent.downlink.queue.parallelism:8}") int parallelism,
+                                @Value("${agent.downlink.queue.owner:${openLpwaProvider.mqttClientId:}}") String owner,
+                                @Value("${agent.downlink.queue.maxUplinkWaitMs:3600000}") long maxUplinkWaitMillis) {
+        this.openLpwaProvider = openLpwaProvider;
+        this.commandRepository = commandRepository;
+        this.ngsiManager = ngsiManager;
+        this.enabled = enabled;
+        this.parallelism = Math.max(1, parallelism);
+        this.owner = owner != null && !owner.isEmpty() ? owner : null;
+        this.maxUplinkWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxUplinkWaitMillis));
+    }
+
+    /**
+     * Queues again the commands stored in the database by this agent instance, they are sent after the next uplink of
+     * their device or after the maximum uplink wait
+     */
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        List<DownlinkCommandEntity> entities = new ArrayList<>();
+        try {
+            entities.addAll(commandRepository.findByOwner(owner));
+        } catch (RuntimeException e) {
+            logger.error("Unable to read the queued downlink commands", e);
+            return;
+        }
+        entities.sort(Comparator.comparing(DownlinkCommandEntity::getQueuedAt, Comparator.nullsFirst(Comparator.naturalOrder())));
+        for (DownlinkCommandEntity entity : entities) {
+            DeviceCommands deviceCommands = devices.computeIfAbsent(entity.getDeviceEUI(), DeviceCommands::new);
+            synchronized (deviceCommands) {
+                // A command sent before the restart may still wait for the device
+                deviceCommands.awaitingUplink = true;
+                deviceCommands.awaitingSinceNanos = System.nanoTime();
+                if (deviceCommands.pending.put(entity.getCommandName(), new QueuedCommand(entity, null)) == null) {
+                    queuedCount.incrementAndGet();
+                }
+            }
+        }
+        logger.debug("{} downlink commands queued again", entities.size());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues a command, sent at once if the device doesn't wait for a command. Otherwise the command status is set to PENDING
+     * in the NGSI Context Broker until the command is sent.
+     * @param deviceEUI     Device EUI
+     * @param entityId      Entity bound to the device, whose command status is updated
+     * @param commandName   Command name
+     * @param command       Command to send to the OpenLpwa provider
+     * @param callback      Callback called with the command status and date once the command is sent, or with an error
+     *                      status if the command is replaced by a newer command of the same name
+     */
+    public void enqueue(String deviceEUI, EntityId entityId, String commandName, RegisterDeviceCommandParameter command, BiConsumer<Boolean, Date> callback) {
+        DownlinkCommandEntity entity = new DownlinkCommandEntity(owner, deviceEUI, commandName, command.getData(), command.getPort(), command.getConfirmed());
+        if (entityId != null) {
+            entity.setEntityName(entityId.getId());
+            entity.setEntityType(entityId.getType());
+        }
+        QueuedCommand queuedCommand = new QueuedCommand(entity, callback);
+        QueuedCommand supersededCommand;
+        boolean waiting;
+        while (true) {
+            DeviceCommands deviceCommands = devices.computeIfAbsent(deviceEUI, DeviceCommands::new);
+            synchronized (deviceCommands) {
+                if (deviceCommands.removed) {
+                    continue;
+                }
+                // Sent after the delivery of the previous command
+                waiting = deviceCommands.sending || deviceCommands.awaitingUplink;
+                supersededCommand = deviceCommands.pending.put(commandName, queuedCommand);
+                pendingWrites.put(queuedCommand.entity.getKey(), Optional.of(queuedCommand.entity));
+                scheduleDispatch(deviceCommands);
+            }
+            break;
+        }
+        if (supersededCommand != null) {
+            supersededCount.incrementAndGet();
+            logger.debug("Command {} of device (EUI:{}) replaced by a newer command", commandName, deviceEUI);
+            complete(supersededCommand, false, new Date());
+        } else {
+            queuedCount.incrementAndGet();
+        }
+        if (waiting) {
+            publishStatus(entity, NgsiManager.COMMAND_PENDING, new Date());
+        }
+        dispatchReadyDevices();
+    }
+
+    /**
+     * Called when a device sends an uplink: the command sent before has been delivered, the next command can be sent
+     * @param deviceEUI Device EUI
+     */
+    public void uplinkReceived(String deviceEUI) {
+        DeviceCommands deviceCommands = devices.get(deviceEUI);
+        if (deviceCommands == null) {
+            return;
+        }
+        synchronized (deviceCommands) {
+            if (!deviceCommands.sending) {
+                deviceCommands.awaitingUplink = false;
+                scheduleDispatch(deviceCommands);
+                removeIfIdle(deviceCommands);
+            }
+        }
+        dispatchReadyDevices();
+    }
+
+    /**
+     * Sends the next command of the devices without uplink during the maximum uplink wait after their last command:
+     * the command may have been lost, or the device may be silent for a long time
+     */
+    @Scheduled(initialDelay = 10000, fixedDelay = 10000)
+    public void releaseSilentDevices() {
+        if (!enabled || maxUplinkWaitNanos <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        boolean released = false;
+        for (DeviceCommands deviceCommands : devices.values()) {
+            synchronized (deviceCommands) {
+                if (deviceCommands.awaitingUplink && now - deviceCommands.awaitingSinceNanos >= maxUplinkWaitNanos) {
+                    logger.debug("No uplink of device (EUI:{}) after its last command, the next command is sent", deviceCommands.deviceEUI);
+                    deviceCommands.awaitingUplink = false;
+                    scheduleDispatch(deviceCommands);
+                    removeIfIdle(deviceCommands);
+                    released = true;
+                }
+            }
+        }
+        if (released) {
+            dispatchReadyDevices();
+        }
+    }
+
+    /**
+     * Discards the queued commands of an unregistered device, their callbacks are called with an error status
+     * @param deviceEUI Device EUI
+     */
+    public void discard(String deviceEUI) {
+        DeviceCommands deviceCommands = devices.get(deviceEUI);
+        if (deviceCommands == null) {
+            return;
+        }
+        List<QueuedCommand> discardedCommands;
+        synchronized (deviceCommands) {
+            discardedCommands = new ArrayList<>(deviceCommands.pending.values());
+            deviceCommands.pending.clear();
+            discardedCommands.forEach(command -> pendingWrites.put(command.entity.getKey(), Optional.empty()));
+            deviceCommands.awaitingUplink = false;
+            removeIfIdle(deviceCommands);
+        }
+        queuedCount.addAndGet(-discardedCommands.size());
+        discardedCommands.forEach(command -> complete(command, false, new Date()));
+    }
+
+    /**
+     * Writes the queued and sent commands in the database since the previous flush
+     */
+    @Scheduled(initialDelayString = "${agent.downlink.queue.flushIntervalMs:1000}", fixedDelayString = "${agent.downlink.queue.flushIntervalMs:1000}")
+    public synchronized void flush() {
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+        List<DownlinkCommandEntity> savedEntities = new ArrayList<>();
+        List<DownlinkCommandEntity> deletedEntities = new ArrayList<>();
+        for (String key : pendingWrites.keySet()) {
+            Optional<DownlinkCommandEntity> write = pendingWrites.remove(key);
+            if (write == null) {
+                continue;
+            }
+            if (write.isPresent()) {
+                savedEntities.add(write.get());
+            } else {
+                DownlinkCommandEntity deletedEntity = new DownlinkCommandEntity();
+                deletedEntity.setKey(key);
+                deletedEntities.add(deletedEntity);
+            }
+        }
+        try {
+            if (!savedEntities.isEmpty()) {
+                commandRepository.save(savedEntities);
+            }
+            if (!deletedEntities.isEmpty()) {
+                commandRepository.delete(deletedEntities);
+            }
+            logger.debug("{} downlink commands saved, {} deleted", savedEntities.size(), deletedEntities.size());
+        } catch (RuntimeException e) {
+            logger.error("Unable to write {} downlink commands in the database, retrying at the next flush", savedEntities.size() + deletedEntities.size(), e);
+            // Written again, unless a newer write is pending
+            savedEntities.forEach(entity -> pendingWrites.putIfAbsent(entity.getKey(), Optional.of(entity)));
+            deletedEntities.forEach(entity -> pendingWrites.putIfAbsent(entity.getKey(), Optional.empty()));
+        }
+    }
+
+    /**
+     * Writes the last changes of the queued commands before stopping
+     */
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * @return The number of commands waiting to be sent
+     */
+    public int getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    /**
+     * @return The number of commands replaced by a newer command of the same name before being sent
+     */
+    public long getSupersededCount() {
+        return supersededCount.get();
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Adds a device to the devices to dispatch if it can send a command, called with the lock of the device
+     */
+    private void scheduleDispatch(DeviceCommands deviceCommands) {
+        if (!deviceCommands.ready && !deviceCommands.sending && !deviceCommands.awaitingUplink && !deviceCommands.pending.isEmpty()) {
+            deviceCommands.ready = true;
+            readyDevices.add(deviceCommands);
+        }
+    }
+
+    /**
+     * Forgets a device without command, called with the lock of the device
+     */
+    private void removeIfIdle(DeviceCommands deviceCommands) {
+        if (!deviceCommands.ready && !deviceCommands.sending && !deviceCommands.awaitingUplink && deviceCommands.pending.isEmpty()) {
+            deviceCommands.removed = true;
+            devices.remove(deviceCommands.deviceEUI, deviceCommands);
+        }
+    }
+
+    /**
+     * Sends the next command of the ready devices, at most parallelism at the same time.
+     * The commands are sent by a single thread at a time, so that commands sent synchronously don't lead to a deep recursion.
+     */
+    private void dispatchReadyDevices() {
+        if (dispatchRequests.getAndIncrement() != 0) {
+            // The thread sending the commands will check the ready devices again
+            return;
+        }
+        do {
+            while (sendingCount.get() < parallelism) {
+                DeviceCommands deviceCommands = readyDevices.poll();
+                if (deviceCommands == null) {
+                    break;
+                }
+                sendingCount.incrementAndGet();
+                send(deviceCommands);
+            }
+        } while (dispatchRequests.decrementAndGet() != 0);
+    }
+
+    private void send(DeviceCommands deviceCommands) {
+        QueuedCommand command = null;
+        synchronized (deviceCommands) {
+            deviceCommands.ready = false;
+            if (!deviceCommands.sending && !deviceCommands.awaitingUplink && !deviceCommands.pending.isEmpty()) {
+                Iterator<QueuedCommand> iterator = deviceCommands.pending.values().iterator();
+                command = iterator.next();
+                iterator.remove();
+                deviceCommands.sending = true;
+                pendingWrites.put(command.entity.getKey(), Optional.empty());
+            } else {
+                removeIfIdle(deviceCommands);
+            }
+        }
+        if (command == null) {
+            sendingCount.decrementAndGet();
+            return;
+        }
+        queuedCount.decrementAndGet();
+        QueuedCommand sentCommand = command;
+        RegisterDeviceCommandParameter parameter = new RegisterDeviceCommandParameter();
+        parameter.setData(command.entity.getData());
+        parameter.setPort(command.entity.getPort());
+        parameter.setConfirmed(command.entity.getConfirmed());
+        try {
+            openLpwaProvider.registerDeviceCommand(deviceCommands.deviceEUI, parameter).addCallback(
+                    result -> {
+                        boolean success = result != null && result.getCommandStatus() == DeviceCommand.DeviceCommandStatus.SENT;
+                        sent(deviceCommands, sentCommand, success, success ? result.getCreationTs() : new Date(), null);
+                    },
+                    ex -> sent(deviceCommands, sentCommand, false, new Date(), ex));
+        } catch (ConfigurationException e) {
+            sent(deviceCommands, sentCommand, false, new Date(), e);
+        }
+    }
+
+    private void sent(DeviceCommands deviceCommands, QueuedCommand command, boolean success, Date commandDate, Throwable ex) {
+        if (success) {
+            sentCount.incrementAndGet();
+            logger.debug("Command {} sent to OpenLpwa provider for deviceEUI:{}", command.entity.getCommandName(), deviceCommands.deviceEUI);
+        } else {
+            failedCount.incrementAndGet();
+            logger.error("Error sending command {} to OpenLpwa provider for deviceEUI:{}", command.entity.getCommandName(), deviceCommands.deviceEUI, ex);
+        }
+        synchronized (deviceCommands) {
+            deviceCommands.sending = false;
+            // The device waits for a command only if the command has been accepted
+            deviceCommands.awaitingUplink = success;
+            deviceCommands.awaitingSinceNanos = System.nanoTime();
+            scheduleDispatch(deviceCommands);
+            removeIfIdle(deviceCommands);
+        }
+        complete(command, success, commandDate);
+        sendingCount.decrementAndGet();
+        dispatchReadyDevices();
+    }
+
+    private void complete(QueuedCommand command, boolean success, Date commandDate) {
+        if (command.callback == null) {
+            // Command queued again at startup
+            publishStatus(command.entity, success ? NgsiManager.COMMAND_SENT : NgsiManager.COMMAND_ERROR, commandDate);
+            return;
+        }
+        try {
+            command.callback.accept(success, commandDate);
+        } catch (RuntimeException e) {
+            logger.error("Unable to complete the command {} of device (EUI:{})", command.entity.getCommandName(), command.entity.getDeviceEUI(), e);
+        }
+    }
+
+    /**
+     * Updates the status of a command in the NGSI Context Broker
+     */
+    private void publishStatus(DownlinkCommandEntity entity, String status, Date commandDate) {
+        if (entity.getEntityName() == null || entity.getEntityType() == null) {
+            // Queued before the entity of the commands was stored
+            logger.debug("Status {} of the command {} of device (EUI:{}) not updated, unknown entity", status, entity.getCommandName(), entity.getDeviceEUI());
+            return;
+        }
+        EntityId entityId = new EntityId(entity.getEntityName(), entity.getEntityType(), false);
+        try {
+            ngsiManager.updateDeviceAttributes(entityId, Collections.singletonList(CommandStatusAggregator.commandStatus(entity.getCommandName(), status, commandDate)));
+        } catch (AgentException e) {
+            logger.error("Unable to update the status {} of the command {} of device (EUI:{})", status, entity.getCommandName(), entity.getDeviceEUI(), e);
+        }
+    }
+
+    /**
+     * Commands of a device, guarded by the lock of the instance
+     */
+    private static class DeviceCommands {
+
+        private final String deviceEUI;
+        // Commands waiting to be sent, by name, in their queuing order
+        private final LinkedHashMap<String, QueuedCommand> pending = new LinkedHashMap<>();
+        // In the devices to dispatch
+        private boolean ready;
+        // Command being sent to the OpenLpwa provider
+        private boolean sending;
+        // Command sent to the OpenLpwa provider and not yet delivered to the device, since awaitingSinceNanos
+        private boolean awaitingUplink;
+        private long awaitingSinceNanos;
+        // Removed from the devices, a new instance must be used
+        private boolean removed;
+
+        DeviceCommands(String deviceEUI) {
+            this.deviceEUI = deviceEUI;
+        }
+    }
+
+    private static class QueuedCommand {
+
+        private final DownlinkCommandEntity entity;
+        private final BiConsumer<Boolean, Date> callback;
+
+        QueuedCommand(DownlinkCommandEntity entity, BiConsumer<Boolean, Date> callback) {
+            this.entity = entity;
+            this.callback = callback;
+        }
+    }
+}
@@ -19,8 +19,10 @@
 package com.orange.fiware.openlpwa.iotagent;
 
 import com.orange.fiware.openlpwa.domain.DeviceEntity;
+import com.orange.fiware.openlpwa.domain.PatternSubscriptionEntity;
 import com.orange.fiware.openlpwa.exception.AgentException;
 import com.orange.fiware.openlpwa.ngsi.NgsiManager;
+import com.orange.fiware.openlpwa.repository.DeviceEntityIndex;
 import com.orange.fiware.openlpwa.repository.DeviceEntityRepository;
 import com.orange.ngsi.model.*;
 import com.orange.ngsi.server.NgsiRestBaseController;
@@ -33,13 +35,8 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletRequest;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
-import java.util.TimeZone;
-import java.util.stream.Collectors;
 
 /**
  * Manages notifyContext callback
@@ -55,6 +52,12 @@ public class NgsiRestController extends NgsiRestBaseController {
     private Agent agent;
     @Autowired
     private DeviceEntityRepository deviceRepository;
+    @Autowired(required = false)
+    private PatternSubscriptionManager patternSubscriptionManager;
+    @Autowired(required = false)
+    private DeviceEntityIndex entityIndex;
+    @Autowired(required = false)
+    private NotificationExecutor notificationExecutor;
 
     /**
      * Call /notifyContext
@@ -67,32 +70,127 @@ public class NgsiRestController extends NgsiRestBaseController {
     @RequestMapping(value = "/notifyContext/{deviceEUI}", method = RequestMethod.POST, consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
     final public ResponseEntity<NotifyContextResponse> notifyContextRequest(@RequestBody final NotifyContext notify, @PathVariable String deviceEUI, HttpServletRequest httpServletRequest) throws Exception {
         logger.debug("Receive /notifyContext for deviceEUI:{} with content:{}", deviceEUI, notify);
+        return acknowledgeNotifyContext(notify, () -> processNotifyContext(notify, deviceEUI));
+    }
+
+    /**
+     * Call /notifyContext for a pattern subscription, the devices are found from the notified entities
+     * @param notify NotifyContext
+     * @param httpServletRequest Servlet request
+     * @return Response
+     * @throws Exception
+     */
+    @RequestMapping(value = "/notifyContext", method = RequestMethod.POST, consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
+    final public ResponseEntity<NotifyContextResponse> notifyPatternContextRequest(@RequestBody final NotifyContext notify, HttpServletRequest httpServletRequest) throws Exception {
+        logger.debug("Receive /notifyContext with content:{}", notify);
+        return acknowledgeNotifyContext(notify, () -> processPatternNotifyContext(notify));
+    }
+
+    /**
+     * Validate a notifyContext and queue its processing, the notify is acknowledged without waiting for the processing
+     * @param notify NotifyContext
+     * @param processing Processing of the notify
+     * @return Response, with a 503 status code if too many notifications are queued
+     */
+    private ResponseEntity<NotifyContextResponse> acknowledgeNotifyContext(NotifyContext notify, Runnable processing) {
         NotifyContextResponse response = new NotifyContextResponse();
         if (notify == null || notify.getContextElementResponseList() == null) {
             response.setResponseCode(new StatusCode(CodeEnum.CODE_400));
+        } else if (notificationExecutor != null && !notificationExecutor.submit(processing)) {
+            response.setResponseCode(new StatusCode(CodeEnum.CODE_500, "Too many queued notifications"));
+            return new ResponseEntity<>(response, HttpStatus.SERVICE_UNAVAILABLE);
         } else {
-            response.setResponseCode(new StatusCode(CodeEnum.CODE_200));
-            // Check if subscriptionId is still valid for agent and device
-            DeviceEntity deviceRegistered = deviceRepository.findOne(deviceEUI);
-            if (deviceRegistered != null
-                    && !deviceRegistered.getSubscriptionId().equalsIgnoreCase(notify.getSubscriptionId())) {
-                logger.debug("Receive a notify for a non-valid subscriptionId, call unsubscribe (subscriptionId:{})", notify.getSubscriptionId());
-                manager.unsubscribe(notify.getSubscriptionId());
-            } else if (deviceRegistered != null) {
-                notify.getContextElementResponseList()
-                        .stream()
-                        .filter(elementResponse -> elementResponse.getStatusCode().getCode().equals(CodeEnum.CODE_200.getLabel()))
-                        .forEach(elementResponse -> handleNotifyContext(deviceEUI, elementResponse));
-            } else {
-                logger.warn("Receive a notify for a non registered device (EUI:{}, notify:{})", deviceEUI, notify);
-                logger.debug("Unsubscribe for a non registered device (EUI:{}, subscriptionId:{})", deviceEUI, notify.getSubscriptionId());
-                manager.unsubscribe(notify.getSubscriptionId());
+            if (notificationExecutor == null) {
+                processing.run();
             }
+            response.setResponseCode(new StatusCode(CodeEnum.CODE_200));
         }
 
         return new ResponseEntity<>(response, HttpStatus.OK);
     }
 
+    /**
+     * Treat a notifyContext of the subscription of a device
+     * @param notify NotifyContext
+     * @param deviceEUI Device EUI of the device
+     */
+    private void processNotifyContext(NotifyContext notify, String deviceEUI) {
+        // Check if subscriptionId is still valid for agent and device
+        DeviceEntity deviceRegistered = deviceRepository.findOne(deviceEUI);
+        if (deviceRegistered != null
+                && (deviceRegistered.getSubscriptionId() == null || !deviceRegistered.getSubscriptionId().equalsIgnoreCase(notify.getSubscriptionId()))) {
+            logger.debug("Receive a notify for a non-valid subscriptionId, call unsubscribe (subscriptionId:{})", notify.getSubscriptionId());
+            unsubscribe(notify.getSubscriptionId());
+        } else if (deviceRegistered != null) {
+            notify.getContextElementResponseList()
+                    .stream()
+                    .filter(elementResponse -> elementResponse.getStatusCode().getCode().equals(CodeEnum.CODE_200.getLabel()))
+                    .forEach(elementResponse -> handleNotifyContext(deviceEUI, elementResponse));
+        } else {
+            logger.warn("Receive a notify for a non registered device (EUI:{}, notify:{})", deviceEUI, notify);
+            logger.debug("Unsubscribe for a non registered device (EUI:{}, subscriptionId:{})", deviceEUI, notify.getSubscriptionId());
+            unsubscribe(notify.getSubscriptionId());
+        }
+    }
+
+    /**
+     * Treat a notifyContext of a pattern subscription
+     * @param notify NotifyContext
+     */
+    private void processPatternNotifyContext(NotifyContext notify) {
+        PatternSubscriptionEntity subscription = patternSubscriptionManager != null ? patternSubscriptionManager.findSubscription(notify.getSubscriptionId()) : null;
+        if (subscription == null) {
+            logger.debug("Receive a notify for an unknown pattern subscription, call unsubscribe (subscriptionId:{})", notify.getSubscriptionId());
+            unsubscribe(notify.getSubscriptionId());
+            return;
+        }
+        notify.getContextElementResponseList()
+                .stream()
+                .filter(elementResponse -> elementResponse.getStatusCode().getCode().equals(CodeEnum.CODE_200.getLabel()))
+                .forEach(elementResponse -> {
+                    EntityId entityId = elementResponse.getContextElement().getEntityId();
+                    String deviceEUI = entityIndex != null ? entityIndex.findDeviceEUI(entityId.getType(), entityId.getId()) : null;
+                    DeviceEntity deviceRegistered = deviceEUI != null ? deviceRepository.findOne(deviceEUI) : findEntityDevice(entityId);
+                    if (deviceRegistered != null) {
+                        deviceEUI = deviceRegistered.getDeviceEUI();
+                    }
+                    if (deviceRegistered == null) {
+                        logger.debug("Ignore a notify for an entity without registered device (entityId:{})", entityId);
+                    } else if (deviceRegistered.getSubscriptionId() != null
+                            || !subscription.getKey().equals(PatternSubscriptionManager.subscriptionKey(deviceRegistered.getType(), deviceRegistered.getCommands()))) {
+                        // The commands of the device are notified by its own subscription or by the pattern subscription of its commands
+                        logger.debug("Ignore a notify for a device subscribed by another subscription (EUI:{}, subscriptionId:{})", deviceEUI, notify.getSubscriptionId());
+                    } else {
+                        handleNotifyContext(deviceEUI, elementResponse);
+                    }
+                });
+    }
+
+    /**
+     * Finds in the database the device bound to an entity missing from the index (not built yet, or device registered
+     * by another agent), and adds it to the index
+     * @param entityId Entity identifier
+     * @return The device, null if no registered device is bound to the entity
+     */
+    private DeviceEntity findEntityDevice(EntityId entityId) {
+        List<DeviceEntity> devices = deviceRepository.findByNameAndType(entityId.getId(), entityId.getType());
+        if (devices == null || devices.isEmpty()) {
+            return null;
+        }
+        DeviceEntity device = devices.get(0);
+        if (entityIndex != null) {
+            entityIndex.put(device);
+        }
+        return device;
+    }
+
+    private void unsubscribe(String subscriptionId) {
+        try {
+            manager.unsubscribe(subscriptionId);
+        } catch (AgentException e) {
+            logger.error("Unable to unsubscribe (subscriptionId:{})", subscriptionId, e);
+        }
+    }
 
     /**
      * Treat a notifyContext for a device
@@ -102,54 +200,38 @@ public class NgsiRestController extends NgsiRestBaseController {
      */
     private void handleNotifyContext(String deviceEUI,
                                      ContextElementResponse contextElementResponse) {
-        List<ContextAttribute> commandAttributes =
-                contextElementResponse.getContextElement().getContextAttributeList().stream()
-                        .filter(contextAttribute -> contextAttribute.getName().endsWith(NgsiManager.COMMAND_SUFFIX))
-                        .collect(Collectors.toList());
-        commandAttributes.forEach(contextAttribute -> contextAttribute.setName(contextAttribute.getName().replaceAll(NgsiManager.COMMAND_SUFFIX, "")));
-
         // Build list of commands to launch
         List<ContextAttribute> commandsToLaunch = new ArrayList<>();
-        for (ContextAttribute attribute : commandAttributes) {
-            if (attribute.getName() != null && attribute.getValue() != null) {
+        for (ContextAttribute attribute : contextElementResponse.getContextElement().getContextAttributeList()) {
+            if (attribute.getName() == null || !attribute.getName().endsWith(NgsiManager.COMMAND_SUFFIX)) {
+                continue;
+            }
+            attribute.setName(CommandStatusAggregator.commandName(attribute.getName()));
+            if (attribute.getValue() != null) {
                 commandsToLaunch.add(attribute);
             } else {
                 logger.warn("Ignore notify because of a not valid attribute(name:{}, value:{})", attribute.getName(), attribute.getValue());
             }
         }
-        // Launch Commands
-        List<ContextAttribute> copyCommands = new ArrayList<>(commandsToLaunch);
-        List<ContextAttribute> attributeList = new ArrayList<>();
-
-        for (ContextAttribute attribute : copyCommands) {
-            agent.executeCommand(deviceEUI, attribute.getName(), attribute,
-                    (success, creationDate) -> {
-                        // create context attribute ngsi
-                        ContextAttribute responseAttribute = new ContextAttribute();
-                        responseAttribute.setName(attribute.getName() + NgsiManager.COMMAND_STATUS_SUFFIX);
-                        responseAttribute.setValue(success ? NgsiManager.COMMAND_SENT : NgsiManager.COMMAND_ERROR);
-                        responseAttribute.setType("commandStatus");
-                        ContextMetadata metadata = new ContextMetadata();
-                        metadata.setName("commandDate");
-                        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
-                        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-                        metadata.setValue(dateFormat.format(creationDate));
-                        metadata.setType("date");
-                        responseAttribute.addMetadata(metadata);
-                        attributeList.add(responseAttribute);
-                        // remove commands
-                        commandsToLaunch.remove(attribute);
-                        if (commandsToLaunch.isEmpty()) {
-                            logger.debug("All commands launched, call updateContext.");
-                            try {
-                                manager.updateDeviceAttributes(contextElementResponse.getContextElement().getEntityId(), attributeList);
-                            } catch (AgentException e) {
-                                logger.error("Unable to send update command state to broker (entityId:{}, attributes:{})",
-                                        contextElementResponse.getContextElement().getEntityId(),
-                                        attributeList);
-                            }
-                        }
-                    });
+        if (commandsToLaunch.isEmpty()) {
+            return;
+        }
+        // Launch Commands, the status of all the commands is sent at once
+        EntityId entityId = contextElementResponse.getContextElement().getEntityId();
+        CommandStatusAggregator aggregator = new CommandStatusAggregator(commandsToLaunch.size(), attributeList -> {
+            logger.debug("All commands launched, call updateContext.");
+            try {
+                manager.updateDeviceAttributes(entityId, attributeList);
+            } catch (AgentException e) {
+                logger.error("Unable to send update command state to broker (entityId:{}, attributes:{})", entityId, attributeList);
+            }
+        });
+        for (int i = 0; i < commandsToLaunch.size(); i++) {
+            int index = i;
+            ContextAttribute attribute = commandsToLaunch.get(i);
+            String commandName = attribute.getName();
+            agent.executeCommand(deviceEUI, commandName, attribute,
+                    (success, creationDate) -> aggregator.completed(index, commandName, success, creationDate));
         }
     }
 }
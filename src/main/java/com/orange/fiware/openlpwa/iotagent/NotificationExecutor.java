@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+package com.orange.fiware.openlpwa.iotagent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Processes the notifications of the NGSI Context Broker in the background, on a fixed set of threads with a bounded queue,
+ * so that the notifications are acknowledged without waiting for the database or the command dispatch.
+ */
+@Component
+public class NotificationExecutor {
+
+    private static Logger logger = LoggerFactory.getLogger(NotificationExecutor.class);
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * @param threads       Number of threads processing the notifications (0 to process them on the caller thread)
+     * @param queueCapacity Maximum number of notifications waiting for a thread, the other ones are rejected
+     */
+    @Autowired
+    public NotificationExecutor(@Value("${agent.notification.threads:4}") int threads,
+                                @Value("${agent.notification.queueCapacity:1000}") int queueCapacity) {
+        if (threads > 0) {
+            AtomicInteger threadCount = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "ngsi-notification-" + threadCount.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+        } else {
+            executor = null;
+        }
+        logger.debug("Notification executor started (threads:{}, queueCapacity:{})", threads, queueCapacity);
+    }
+
+    /**
+     * Queues the processing of a notification
+     * @param task  Notification processing
+     * @return <code>false</code> if the queue is full
+     */
+    public boolean submit(Runnable task) {
+        long submittedAt = System.nanoTime();
+        Runnable measuredTask = () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("Unable to process a notification", e);
+            } finally {
+                long latency = System.nanoTime() - submittedAt;
+                processedCount.incrementAndGet();
+                totalLatencyNanos.addAndGet(latency);
+                maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            }
+        };
+        if (executor == null) {
+            measuredTask.run();
+            return true;
+        }
+        try {
+            executor.execute(measuredTask);
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            logger.warn("Notification queue full, notification rejected");
+            return false;
+        }
+    }
+
+    /**
+     * Stops the threads, queued notifications are discarded
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return Number of notifications waiting for a thread
+     */
+    public int getQueueDepth() {
+        return executor != null ? executor.getQueue().size() : 0;
+    }
+
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    /**
+     * @return Number of notifications rejected because the queue was full
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return Average time (ms) between the acknowledgement of a notification and the end of its processing
+     */
+    public double getAverageLatencyMillis() {
+        long processed = processedCount.get();
+        return processed > 0 ? totalLatencyNanos.get() / 1e6 / processed : 0;
+    }
+
+    /**
+     * @return Maximum time (ms) between the acknowledgement of a notification and the end of its processing
+     */
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / 1e6;
+    }
+}
@@ -0,0 +1,381 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+package com.orange.fiware.openlpwa.iotagent;
+
+import com.orange.fiware.openlpwa.domain.DeviceEntity;
+import com.orange.fiware.openlpwa.domain.PatternSubscriptionEntity;
+import com.orange.fiware.openlpwa.exception.AgentException;
+import com.orange.fiware.openlpwa.ngsi.NgsiManager;
+import com.orange.fiware.openlpwa.repository.DeviceEntityRepository;
+import com.orange.fiware.openlpwa.repository.PatternSubscriptionRepository;
+import com.orange.ngsi.model.SubscribeContextResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import javax.annotation.PostConstruct;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Pattern subscriptions to the commands of the devices: a single subscription is created for all the entities of a type
+ * having the same commands, instead of one subscription per device. The device targeted by a notification is found
+ * from the notified entity.
+ * The subscriptions are stored in the database and renewed before they expire. A subscription is removed once no registered
+ * device uses it: the subscriptions released by the unregistered devices are checked on the next renewal run, and each
+ * subscription is checked before its renewal.
+ */
+@Component
+public class PatternSubscriptionManager {
+
+    private static Logger logger = LoggerFactory.getLogger(PatternSubscriptionManager.class);
+    // A single device is read to know if a subscription is used
+    private static final Pageable FIRST_DEVICE = new PageRequest(0, 1);
+    private final NgsiManager ngsiManager;
+    private final PatternSubscriptionRepository subscriptionRepository;
+    private final DeviceEntityRepository deviceRepository;
+    private final boolean enabled;
+    private final long renewBeforeMillis;
+    private final long releaseDelayMillis;
+    // Subscriptions created or being created, by key
+    private final Map<String, SettableListenableFuture<PatternSubscriptionEntity>> subscriptions = new ConcurrentHashMap<>();
+    private final Map<String, PatternSubscriptionEntity> subscriptionsById = new ConcurrentHashMap<>();
+    // Last request of a subscription by a registering device, by key
+    private final Map<String, Long> requestedAt = new ConcurrentHashMap<>();
+    // Subscriptions released by an unregistered device and not checked yet, by key
+    private final Map<String, Long> releasedAt = new ConcurrentHashMap<>();
+
+    /**
+     * @param enabled               <code>true</code> to subscribe to the commands of the devices with pattern subscriptions
+     * @param renewBeforeMillis     Delay (ms) between the renewal of a subscription and its expiry
+     * @param releaseDelayMillis    Minimum delay (ms) between the last request of a subscription and its removal,
+     *                              longer than the registration of a device
+     */
+    @Autowired
+    public PatternSubscriptionManager(NgsiManager ngsiManager,
+                                      PatternSubscriptionRepository subscriptionRepository,
+                                      DeviceEntityRepository deviceRepository,
+                                      @Value("${contextBroker.patternSubscription.enabled:false}") boolean enabled,
+                                      @Value("${agent.subscription.renewal.renewBeforeMs:259200000}") long renewBeforeMillis,
+                                      @Value("${contextBroker.patternSubscription.releaseDelayMs:600000}") long releaseDelayMillis) {
+        this.ngsiManager = ngsiManager;
+        this.subscriptionRepository = subscriptionRepository;
+        this.deviceRepository = deviceRepository;
+        this.enabled = enabled;
+        this.renewBeforeMillis = Math.min(SubscriptionRenewalScheduler.SUBSCRIPTION_LIFETIME_MILLIS, Math.max(0, renewBeforeMillis));
+        this.releaseDelayMillis = Math.max(0, releaseDelayMillis);
+    }
+
+    /**
+     * Loads the subscriptions created before
+     */
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            for (PatternSubscriptionEntity subscription : subscriptionRepository.findAll()) {
+                SettableListenableFuture<PatternSubscriptionEntity> future = new SettableListenableFuture<>();
+                future.set(subscription);
+                subscriptions.put(subscription.getKey(), future);
+                subscriptionsById.put(subscription.getSubscriptionId(), subscription);
+            }
+            logger.debug("{} pattern subscriptions loaded", subscriptionsById.size());
+        } catch (Exception e) {
+            logger.error("Unable to load the pattern subscriptions", e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Key of the subscription to the commands of the entities of a type
+     * @param entityType    Entity type
+     * @param commands      Commands
+     * @return The subscription key
+     */
+    public static String subscriptionKey(String entityType, List<String> commands) {
+        return entityType + ':' + (commands != null ? String.join(",", sortedCommands(commands)) : "");
+    }
+
+    /**
+     * Subscribes to the commands of the entities of a type, unless the subscription already exists
+     * @param entityType    Entity type
+     * @param commands      Commands
+     * @return A future for the subscription
+     */
+    public ListenableFuture<PatternSubscriptionEntity> subscribe(String entityType, List<String> commands) {
+        String key = subscriptionKey(entityType, commands);
+        requestedAt.put(key, System.currentTimeMillis());
+        SettableListenableFuture<PatternSubscriptionEntity> future = new SettableListenableFuture<>();
+        SettableListenableFuture<PatternSubscriptionEntity> existingFuture = subscriptions.putIfAbsent(key, future);
+        if (existingFuture != null) {
+            return existingFuture;
+        }
+        // The subscription may have been created by another agent sharing the database
+        PatternSubscriptionEntity subscription = null;
+        try {
+            subscription = subscriptionRepository.findOne(key);
+        } catch (Exception e) {
+            logger.warn("Unable to read the pattern subscription (key:{})", key, e);
+        }
+        if (subscription != null) {
+            subscriptionsById.put(subscription.getSubscriptionId(), subscription);
+            future.set(subscription);
+            return future;
+        }
+        PatternSubscriptionEntity newSubscription = new PatternSubscriptionEntity(key, entityType, sortedCommands(commands), null);
+        createSubscription(newSubscription,
+                createdSubscription -> {
+                    logger.debug("Pattern subscription created (key:{}, subscriptionId:{})", key, createdSubscription.getSubscriptionId());
+                    future.set(createdSubscription);
+                },
+                ex -> {
+                    subscriptions.remove(key, future);
+                    future.setException(ex);
+                });
+        return future;
+    }
+
+    /**
+     * Releases the subscription of a device which is unregistered, or registered again with another entity type or other commands.
+     * The subscription is removed on the next renewal run if no registered device uses it.
+     * @param entityType    Entity type of the device
+     * @param commands      Commands of the device
+     */
+    public void release(String entityType, List<String> commands) {
+        if (!enabled || commands == null || commands.isEmpty()) {
+            return;
+        }
+        releasedAt.putIfAbsent(subscriptionKey(entityType, commands), System.currentTimeMillis());
+    }
+
+    /**
+     * Finds a pattern subscription
+     * @param subscriptionId    Subscription identifier
+     * @return The subscription, null if it is not a pattern subscription of the agent
+     */
+    public PatternSubscriptionEntity findSubscription(String subscriptionId) {
+        if (subscriptionId == null) {
+            return null;
+        }
+        PatternSubscriptionEntity subscription = subscriptionsById.get(subscriptionId);
+        if (subscription == null) {
+            // Created or renewed by another agent sharing the database
+            subscription = subscriptionRepository.findBySubscriptionId(subscriptionId);
+            if (subscription != null) {
+                subscriptionsById.put(subscriptionId, subscription);
+            }
+        }
+        return subscription;
+    }
+
+    /**
+     * Renews the subscriptions close to their expiry, an expired or unknown subscription is created again.
+     * A failed renewal is retried on the next run.
+     */
+    @Scheduled(initialDelayString = "${agent.subscription.renewal.intervalMs:60000}", fixedDelayString = "${agent.subscription.renewal.intervalMs:60000}")
+    public void renewSubscriptions() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        removeReleasedSubscriptions(now);
+        for (SettableListenableFuture<PatternSubscriptionEntity> future : subscriptions.values()) {
+            PatternSubscriptionEntity subscription = completedSubscription(future);
+            if (subscription == null || (subscription.getSubscriptionRenewAt() != null && subscription.getSubscriptionRenewAt().getTime() > now)) {
+                continue;
+            }
+            // Subscriptions released by the devices unregistered by another agent or before a restart
+            if (removeIfUnused(subscription.getKey(), now)) {
+                continue;
+            }
+            if (subscription.getSubscriptionExpiresAt() != null && subscription.getSubscriptionExpiresAt().getTime() <= now) {
+                logger.warn("Pattern subscription expired (key:{}, subscriptionId:{})", subscription.getKey(), subscription.getSubscriptionId());
+                resubscribe(subscription);
+            } else {
+                renew(subscription);
+            }
+        }
+    }
+
+    /**
+     * Removes the released subscriptions which are not used anymore
+     */
+    private void removeReleasedSubscriptions(long now) {
+        Iterator<Map.Entry<String, Long>> iterator = releasedAt.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> released = iterator.next();
+            if (released.getValue() + releaseDelayMillis <= now) {
+                iterator.remove();
+                removeIfUnused(released.getKey(), now);
+            }
+        }
+    }
+
+    /**
+     * Removes a subscription from the NGSI Context Broker and the database if no registered device uses it
+     * and no device requested it for releaseDelayMillis
+     * @return <code>true</code> if the subscription is removed
+     */
+    private boolean removeIfUnused(String key, long now) {
+        Long lastRequestedAt = requestedAt.get(key);
+        if (lastRequestedAt != null && lastRequestedAt + releaseDelayMillis > now) {
+            return false;
+        }
+        SettableListenableFuture<PatternSubscriptionEntity> future = subscriptions.get(key);
+        PatternSubscriptionEntity subscription = completedSubscription(future);
+        if (subscription == null || isUsed(subscription)) {
+            return false;
+        }
+        if (!subscriptions.remove(key, future)) {
+            return false;
+        }
+        requestedAt.remove(key, lastRequestedAt);
+        subscriptionsById.remove(subscription.getSubscriptionId());
+        try {
+            subscriptionRepository.delete(key);
+        } catch (Exception e) {
+            logger.error("Unable to delete the pattern subscription (key:{})", key, e);
+        }
+        try {
+            ngsiManager.unsubscribe(subscription.getSubscriptionId()).addCallback(
+                    result -> logger.debug("Unused pattern subscription removed (key:{}, subscriptionId:{})", key, subscription.getSubscriptionId()),
+                    ex -> logger.warn("Unable to remove the unused pattern subscription (key:{}, subscriptionId:{})", key, subscription.getSubscriptionId(), ex));
+        } catch (AgentException e) {
+            logger.warn("Unable to remove the unused pattern subscription (key:{}, subscriptionId:{})", key, subscription.getSubscriptionId(), e);
+        }
+        return true;
+    }
+
+    /**
+     * @return <code>true</code> if a registered device without own subscription has the entity type and the commands of the subscription
+     */
+    private boolean isUsed(PatternSubscriptionEntity subscription) {
+        if (subscription.getCommands() == null || subscription.getCommands().isEmpty()) {
+            return false;
+        }
+        try {
+            // Reads a single device identifier instead of all the devices of the entity type
+            List<DeviceEntity> devices = deviceRepository.findPatternSubscriptionDevices(subscription.getType(),
+                    sortedCommands(subscription.getCommands()), FIRST_DEVICE);
+            return devices != null && !devices.isEmpty();
+        } catch (Exception e) {
+            logger.warn("Unable to check the devices of the pattern subscription (key:{})", subscription.getKey(), e);
+            return true;
+        }
+    }
+
+    private static PatternSubscriptionEntity completedSubscription(SettableListenableFuture<PatternSubscriptionEntity> future) {
+        try {
+            return future != null && future.isDone() ? future.get() : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void renew(PatternSubscriptionEntity subscription) {
+        try {
+            ngsiManager.updateSubscription(subscription.getSubscriptionId()).addCallback(
+                    result -> {
+                        if (result != null && result.getSubscribeResponse() != null) {
+                            scheduleRenewal(subscription);
+                            save(subscription);
+                            logger.debug("Pattern subscription renewed (key:{}, subscriptionId:{})", subscription.getKey(), subscription.getSubscriptionId());
+                        } else if (result != null && result.getSubscribeError() != null) {
+                            logger.warn("Pattern subscription not renewed (key:{}, error:{}), subscribing again", subscription.getKey(), result.getSubscribeError().getErrorCode());
+                            resubscribe(subscription);
+                        } else {
+                            logger.error("Unable to renew the pattern subscription (key:{})", subscription.getKey());
+                        }
+                    },
+                    ex -> logger.error("Unable to renew the pattern subscription (key:{})", subscription.getKey(), ex));
+        } catch (AgentException e) {
+            logger.error("Unable to renew the pattern subscription (key:{})", subscription.getKey(), e);
+        }
+    }
+
+    private void resubscribe(PatternSubscriptionEntity subscription) {
+        String previousSubscriptionId = subscription.getSubscriptionId();
+        createSubscription(subscription,
+                createdSubscription -> {
+                    subscriptionsById.remove(previousSubscriptionId);
+                    logger.debug("Pattern subscription created again (key:{}, subscriptionId:{})", subscription.getKey(), subscription.getSubscriptionId());
+                },
+                ex -> logger.error("Unable to create again the pattern subscription (key:{})", subscription.getKey(), ex));
+    }
+
+    /**
+     * Creates a subscription in the NGSI Context Broker, then saves it
+     */
+    private void createSubscription(PatternSubscriptionEntity subscription, Consumer<PatternSubscriptionEntity> successCallback, Consumer<AgentException> failureCallback) {
+        ListenableFuture<SubscribeContextResponse> responseFuture;
+        try {
+            responseFuture = ngsiManager.subscribeToCommands(subscription.getType(), subscription.getCommands());
+        } catch (AgentException e) {
+            failureCallback.accept(e);
+            return;
+        }
+        responseFuture.addCallback(
+                result -> {
+                    if (result != null && result.getSubscribeError() == null && result.getSubscribeResponse() != null) {
+                        subscription.setSubscriptionId(result.getSubscribeResponse().getSubscriptionId());
+                        scheduleRenewal(subscription);
+                        subscriptionsById.put(subscription.getSubscriptionId(), subscription);
+                        save(subscription);
+                        successCallback.accept(subscription);
+                    } else {
+                        failureCallback.accept(new AgentException("Unable to subscribe in the NGSI Context Broker."));
+                    }
+                },
+                ex -> failureCallback.accept(new AgentException(String.format("Unable to subscribe to the commands of the entity type in the NGSI Context Broker (%s)", subscription.getKey()), ex)));
+    }
+
+    private void scheduleRenewal(PatternSubscriptionEntity subscription) {
+        long now = System.currentTimeMillis();
+        subscription.setSubscriptionExpiresAt(new Date(now + SubscriptionRenewalScheduler.SUBSCRIPTION_LIFETIME_MILLIS));
+        subscription.setSubscriptionRenewAt(new Date(now + SubscriptionRenewalScheduler.SUBSCRIPTION_LIFETIME_MILLIS - renewBeforeMillis));
+    }
+
+    private void save(PatternSubscriptionEntity subscription) {
+        try {
+            subscriptionRepository.save(subscription);
+        } catch (Exception e) {
+            logger.error("Unable to save the pattern subscription (key:{})", subscription.getKey(), e);
+        }
+    }
+
+    private static List<String> sortedCommands(List<String> commands) {
+        return commands.stream().distinct().sorted().collect(Collectors.toList());
+    }
+}
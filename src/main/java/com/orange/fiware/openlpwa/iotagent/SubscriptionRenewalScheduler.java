@@ -0,0 +1,254 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.iotagent;
+
+import com.orange.fiware.openlpwa.domain.DeviceEntity;
+import com.orange.fiware.openlpwa.exception.AgentException;
+import com.orange.fiware.openlpwa.ngsi.NgsiManager;
+import com.orange.fiware.openlpwa.repository.DeviceEntityRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Renews the command subscriptions of the devices before they expire in the NGSI Context Broker.
+ * Each device holds the date of its next renewal, spread randomly before the expiry of its subscription. The devices
+ * to renew are streamed from the database at a regular interval and renewed, at most a given number at the same time.
+ * A failed renewal is retried with an exponential backoff, and an expired or unknown subscription is created again.
+ */
+@Component
+public class SubscriptionRenewalScheduler {
+
+    /**
+     * Lifetime of a subscription of one month (P1M), a month being at least 28 days
+     */
+    static final long SUBSCRIPTION_LIFETIME_MILLIS = TimeUnit.DAYS.toMillis(28);
+    private static Logger logger = LoggerFactory.getLogger(SubscriptionRenewalScheduler.class);
+    private final NgsiManager ngsiManager;
+    private final DeviceEntityRepository deviceRepository;
+    private final boolean enabled;
+    private final int maxPerRun;
+    private final int parallelism;
+    private final long renewBeforeMillis;
+    private final long spreadMillis;
+    private final long retryDelayMillis;
+    private final long maxRetryDelayMillis;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong renewedCount = new AtomicLong();
+    private final AtomicLong resubscribedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * @param enabled               <code>false</code> to never renew the subscriptions
+     * @param maxPerRun             Maximum number of subscriptions renewed by a run
+     * @param parallelism           Maximum number of subscriptions renewed at the same time
+     * @param renewBeforeMillis     Delay (ms) between the latest renewal of a subscription and its expiry
+     * @param spreadMillis          Random part (ms) removed from the renewal date to spread the renewals over time
+     * @param retryDelayMillis      Delay (ms) before retrying a failed renewal, doubled after each failure
+     * @param maxRetryDelayMillis   Maximum delay (ms) before retrying a failed renewal
+     */
+    @Autowired
+    public SubscriptionRenewalScheduler(NgsiManager ngsiManager,
+                                        DeviceEntityRepository deviceRepository,
+                                        @Value("${agent.subscription.renewal.enabled:true}") boolean enabled,
+                                        @Value("${agent.subscription.renewal.maxPerRun:1000}") int maxPerRun,
+                                        @Value("${agent.subscription.renewal.parallelism:8}") int parallelism,
+                                        @Value("${agent.subscription.renewal.renewBeforeMs:259200000}") long renewBeforeMillis,
+                                        @Value("${agent.subscription.renewal.spreadMs:172800000}") long spreadMillis,
+                                        @Value("${agent.subscription.renewal.retryDelayMs:60000}") long retryDelayMillis,
+                                        @Value("${agent.subscription.renewal.maxRetryDelayMs:3600000}") long maxRetryDelayMillis) {
+        this.ngsiManager = ngsiManager;
+        this.deviceRepository = deviceRepository;
+        this.enabled = enabled;
+        this.maxPerRun = Math.max(1, maxPerRun);
+        this.parallelism = Math.max(1, parallelism);
+        this.renewBeforeMillis = Math.min(SUBSCRIPTION_LIFETIME_MILLIS, Math.max(0, renewBeforeMillis));
+        this.spreadMillis = Math.min(SUBSCRIPTION_LIFETIME_MILLIS - this.renewBeforeMillis, Math.max(0, spreadMillis));
+        this.retryDelayMillis = Math.max(1, retryDelayMillis);
+        this.maxRetryDelayMillis = Math.max(this.retryDelayMillis, maxRetryDelayMillis);
+    }
+
+    /**
+     * Sets the expiry and the next renewal date of a device subscribed now
+     * @param device Device to update before saving it
+     */
+    public void scheduleRenewal(DeviceEntity device) {
+        if (device.getSubscriptionId() == null) {
+            device.setSubscriptionExpiresAt(null);
+            device.setSubscriptionRenewAt(null);
+        } else {
+            long now = System.currentTimeMillis();
+            long spread = spreadMillis > 0 ? ThreadLocalRandom.current().nextLong(spreadMillis + 1) : 0;
+            device.setSubscriptionExpiresAt(new Date(now + SUBSCRIPTION_LIFETIME_MILLIS));
+            device.setSubscriptionRenewAt(new Date(now + SUBSCRIPTION_LIFETIME_MILLIS - renewBeforeMillis - spread));
+        }
+        device.setSubscriptionRenewalFailures(0);
+    }
+
+    /**
+     * Renews the subscriptions to renew now, unless the previous run is still in progress
+     */
+    @Scheduled(initialDelayString = "${agent.subscription.renewal.intervalMs:60000}", fixedDelayString = "${agent.subscription.renewal.intervalMs:60000}")
+    public void renewSubscriptions() {
+        if (!enabled || !running.compareAndSet(false, true)) {
+            return;
+        }
+        List<DeviceEntity> devices;
+        try (Stream<DeviceEntity> stream = deviceRepository.streamSubscriptionsToRenew(new Date(), new Sort("subscriptionRenewAt"))) {
+            devices = stream.limit(maxPerRun).collect(Collectors.toList());
+        } catch (Exception e) {
+            logger.error("Unable to read the subscriptions to renew", e);
+            running.set(false);
+            return;
+        }
+        if (!devices.isEmpty()) {
+            logger.debug("Renewing {} subscriptions", devices.size());
+        }
+        BoundedParallelTasks[] tasks = new BoundedParallelTasks[1];
+        tasks[0] = new BoundedParallelTasks(devices.size(), parallelism,
+                index -> renew(devices.get(index), tasks[0]::taskCompleted),
+                () -> running.set(false));
+        tasks[0].start();
+    }
+
+    public long getRenewedCount() {
+        return renewedCount.get();
+    }
+
+    /**
+     * Subscriptions created again because they had expired or were unknown by the NGSI Context Broker
+     * @return The number of subscriptions created again
+     */
+    public long getResubscribedCount() {
+        return resubscribedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    private void renew(DeviceEntity device, Runnable completedCallback) {
+        if (device.getSubscriptionExpiresAt() != null && device.getSubscriptionExpiresAt().getTime() <= System.currentTimeMillis()) {
+            logger.warn("Subscription of device (EUI:{}) expired on {}", device.getDeviceEUI(), device.getSubscriptionExpiresAt());
+            resubscribe(device, completedCallback);
+            return;
+        }
+        String subscriptionId = device.getSubscriptionId();
+        try {
+            ngsiManager.updateSubscription(subscriptionId).addCallback(
+                    result -> {
+                        if (result != null && result.getSubscribeResponse() != null) {
+                            renewed(device, subscriptionId, subscriptionId);
+                            completedCallback.run();
+                        } else if (result != null && result.getSubscribeError() != null) {
+                            logger.warn("Subscription of device (EUI:{}) not renewed ({}), subscribing again", device.getDeviceEUI(), result.getSubscribeError().getErrorCode());
+                            resubscribe(device, completedCallback);
+                        } else {
+                            failed(device, subscriptionId, null);
+                            completedCallback.run();
+                        }
+                    },
+                    ex -> {
+                        failed(device, subscriptionId, ex);
+                        completedCallback.run();
+                    });
+        } catch (AgentException e) {
+            failed(device, subscriptionId, e);
+            completedCallback.run();
+        }
+    }
+
+    private void resubscribe(DeviceEntity device, Runnable completedCallback) {
+        String subscriptionId = device.getSubscriptionId();
+        Device subscribedDevice = new Device();
+        subscribedDevice.setDeviceEUI(device.getDeviceEUI());
+        subscribedDevice.setPort(device.getPort());
+        subscribedDevice.setEntityName(device.getName());
+        subscribedDevice.setEntityType(device.getType());
+        subscribedDevice.setCommands(device.getCommands());
+        try {
+            ngsiManager.subscribeToCommands(subscribedDevice).addCallback(
+                    result -> {
+                        if (result != null && result.getSubscribeError() == null && result.getSubscribeResponse() != null) {
+                            resubscribedCount.incrementAndGet();
+                            renewed(device, subscriptionId, result.getSubscribeResponse().getSubscriptionId());
+                        } else {
+                            failed(device, subscriptionId, null);
+                        }
+                        completedCallback.run();
+                    },
+                    ex -> {
+                        failed(device, subscriptionId, ex);
+                        completedCallback.run();
+                    });
+        } catch (AgentException e) {
+            failed(device, subscriptionId, e);
+            completedCallback.run();
+        }
+    }
+
+    private void renewed(DeviceEntity device, String previousSubscriptionId, String subscriptionId) {
+        renewedCount.incrementAndGet();
+        device.setSubscriptionId(subscriptionId);
+        scheduleRenewal(device);
+        logger.debug("Subscription of device (EUI:{}) renewed until {}", device.getDeviceEUI(), device.getSubscriptionExpiresAt());
+        save(device, previousSubscriptionId);
+    }
+
+    private void failed(DeviceEntity device, String subscriptionId, Throwable ex) {
+        failedCount.incrementAndGet();
+        int failures = device.getSubscriptionRenewalFailures() + 1;
+        long retryDelay = maxRetryDelayMillis;
+        if (failures <= 32) {
+            retryDelay = Math.min(maxRetryDelayMillis, retryDelayMillis << (failures - 1));
+        }
+        device.setSubscriptionRenewalFailures(failures);
+        device.setSubscriptionRenewAt(new Date(System.currentTimeMillis() + retryDelay));
+        logger.error("Unable to renew the subscription of device (EUI:{}), retry in {} ms (failures:{})", device.getDeviceEUI(), retryDelay, failures, ex);
+        save(device, subscriptionId);
+    }
+
+    /**
+     * Saves a renewed device, unless it has been unregistered or registered again during the renewal
+     */
+    private void save(DeviceEntity device, String subscriptionId) {
+        try {
+            DeviceEntity currentDevice = deviceRepository.findOne(device.getDeviceEUI());
+            if (currentDevice != null && Objects.equals(currentDevice.getSubscriptionId(), subscriptionId)) {
+                deviceRepository.save(device);
+            }
+        } catch (Exception e) {
+            logger.error("Unable to save the device (EUI:{}) after its subscription renewal", device.getDeviceEUI(), e);
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limit of the in-flight requests to the context broker.
+ * When adaptive, the limit follows an AIMD rule: it grows by one request per round trip while the recent latency
+ * stays below the baseline latency multiplied by the tolerance, and is multiplied by the backoff ratio
+ * when the recent latency rises above or a request fails (at most once per round trip).
+ * The recent latency is a moving average of the last tens of responses, the baseline latency a moving average
+ * of the last hundreds of responses, so that it follows a lasting change of the context broker latency.
+ * Requests over the limit wait for a slot, unless too many requests are already waiting: no thread is blocked,
+ * a waiting request is notified by the thread releasing a slot, or rejected by a timer once its timeout has elapsed.
+ */
+@Component
+public class NgsiConcurrencyLimiter {
+
+    private static Logger logger = LoggerFactory.getLogger(NgsiConcurrencyLimiter.class);
+    // Weights of a new latency sample in the moving averages
+    private final static double RECENT_LATENCY_WEIGHT = 0.1;
+    private final static double BASELINE_LATENCY_WEIGHT = 0.002;
+    private final boolean adaptive;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final double backoffRatio;
+    private final int maxQueued;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Rejects the waiting requests at their timeout
+    private final ScheduledThreadPoolExecutor timer;
+    // Guarded by lock
+    private final Queue<Waiter> waiters = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private double recentLatency;
+    private double baselineLatency;
+    private long lastDecreaseNanos = System.nanoTime();
+
+    /**
+     * @param adaptive          <code>false</code> for a fixed limit equal to the maximum limit
+     * @param maxLimit          Maximum number of in-flight requests
+     * @param initialLimit      Limit before the first adjustment
+     * @param minLimit          Minimum limit
+     * @param latencyTolerance  Latency (relative to the baseline latency) above which the limit decreases
+     * @param backoffRatio      Factor applied to the limit when it decreases
+     * @param maxQueued         Maximum number of requests waiting for a slot, the other ones are rejected
+     */
+    @Autowired
+    public NgsiConcurrencyLimiter(@Value("${contextBroker.limiter.adaptive:false}") boolean adaptive,
+                                  @Value("${contextBroker.http.maxInFlight:200}") int maxLimit,
+                                  @Value("${contextBroker.limiter.initialLimit:20}") int initialLimit,
+                                  @Value("${contextBroker.limiter.minLimit:1}") int minLimit,
+                                  @Value("${contextBroker.limiter.latencyTolerance:2}") double latencyTolerance,
+                                  @Value("${contextBroker.limiter.backoffRatio:0.9}") double backoffRatio,
+                                  @Value("${contextBroker.limiter.maxQueued:1000}") int maxQueued) {
+        this.adaptive = adaptive;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.minLimit = Math.min(this.maxLimit, Math.max(1, minLimit));
+        this.latencyTolerance = Math.max(1, latencyTolerance);
+        this.backoffRatio = Math.min(1, Math.max(0.1, backoffRatio));
+        this.maxQueued = Math.max(0, maxQueued);
+        this.limit = adaptive ? Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit)) : this.maxLimit;
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "ngsi-limiter-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // The timeouts of the requests granted a slot are cancelled, they must not stay in the queue of the timer
+        this.timer.setRemoveOnCancelPolicy(true);
+        logger.debug("Context broker concurrency limit (adaptive:{}, limit:{}, minLimit:{}, maxLimit:{})", adaptive, (int) limit, this.minLimit, this.maxLimit);
+    }
+
+    /**
+     * Creates a fixed limit
+     * @param limit Maximum number of in-flight requests
+     */
+    public NgsiConcurrencyLimiter(int limit) {
+        this(false, limit, limit, limit, 2, 0.9, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Acquires an in-flight slot if one is available and no request is waiting, without waiting
+     * @return <code>true</code> if a slot has been acquired
+     */
+    public boolean tryAcquire() {
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && inFlight < currentLimit()) {
+                inFlight++;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Acquires an in-flight slot without blocking the caller: the future completes at once if a slot is available,
+     * otherwise when a released slot is granted to the request
+     * @param timeoutMillis Maximum waiting time, the request is rejected when it elapses
+     * @return A future completed with <code>true</code> if a slot has been acquired, <code>false</code> if the timeout
+     * elapsed or if too many requests are already waiting
+     */
+    public ListenableFuture<Boolean> acquire(long timeoutMillis) {
+        SettableListenableFuture<Boolean> future = new SettableListenableFuture<>();
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && inFlight < currentLimit()) {
+                inFlight++;
+                future.set(true);
+                return future;
+            }
+            if (waiters.size() >= maxQueued) {
+                future.set(false);
+                return future;
+            }
+            Waiter waiter = new Waiter(future, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+            waiters.add(waiter);
+            waiter.timeout = scheduleTimeout(waiter, timeoutMillis);
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    /**
+     * Stops the timer, the waiting requests are rejected
+     */
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        List<Waiter> rejected;
+        lock.lock();
+        try {
+            rejected = new ArrayList<>(waiters);
+            waiters.clear();
+        } finally {
+            lock.unlock();
+        }
+        rejected.forEach(waiter -> waiter.future.set(false));
+    }
+
+    /**
+     * Schedules the rejection of a waiting request, called with the lock
+     * @return The scheduled rejection, null if the timer is stopped (the request is then rejected by a released slot)
+     */
+    private ScheduledFuture<?> scheduleTimeout(Waiter waiter, long timeoutMillis) {
+        try {
+            return timer.schedule(() -> {
+                boolean expired;
+                lock.lock();
+                try {
+                    expired = waiters.remove(waiter);
+                } finally {
+                    lock.unlock();
+                }
+                if (expired) {
+                    waiter.future.set(false);
+                }
+            }, Math.max(0, timeoutMillis), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Releases the slot of a request answered by the context broker
+     * @param startNanos    Time the request was sent
+     * @param latencyNanos  Time to get the response
+     */
+    public void onSuccess(long startNanos, long latencyNanos) {
+        List<Waiter> completed;
+        lock.lock();
+        try {
+            if (adaptive) {
+                addLatencySample(latencyNanos);
+                if (recentLatency > baselineLatency * latencyTolerance) {
+                    decrease(startNanos);
+                } else if (inFlight * 2 >= limit) {
+                    // The limit is only raised when it is used, one request more per round trip
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+            }
+            completed = release();
+        } finally {
+            lock.unlock();
+        }
+        complete(completed);
+    }
+
+    /**
+     * Releases the slot of a request which failed because of the context broker load (timeout, server error...)
+     * @param startNanos Time the request was sent
+     */
+    public void onDropped(long startNanos) {
+        List<Waiter> completed;
+        lock.lock();
+        try {
+            if (adaptive) {
+                decrease(startNanos);
+            }
+            completed = release();
+        } finally {
+            lock.unlock();
+        }
+        complete(completed);
+    }
+
+    /**
+     * Releases the slot of a request without adjusting the limit
+     */
+    public void onIgnored() {
+        List<Waiter> completed;
+        lock.lock();
+        try {
+            completed = release();
+        } finally {
+            lock.unlock();
+        }
+        complete(completed);
+    }
+
+    /**
+     * Current limit of the in-flight requests
+     * @return The limit
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return currentLimit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Requests waiting for a slot
+     * @return The number of requests
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    private int currentLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Releases a slot and grants the free slots to the waiting requests, in their arrival order
+     * @return The waiting requests granted a slot or expired, to complete once the lock is released
+     */
+    private List<Waiter> release() {
+        inFlight--;
+        if (waiters.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // The limit may have grown, several waiting requests may go
+        List<Waiter> completed = new ArrayList<>();
+        long nowNanos = System.nanoTime();
+        while (!waiters.isEmpty() && inFlight < currentLimit()) {
+            Waiter waiter = waiters.poll();
+            if (!waiter.isExpired(nowNanos)) {
+                inFlight++;
+                waiter.acquired = true;
+            }
+            completed.add(waiter);
+        }
+        return completed;
+    }
+
+    /**
+     * Completes the futures of waiting requests, out of the lock since the callers send their request at once
+     * @param completed Waiting requests granted a slot or expired
+     */
+    private static void complete(List<Waiter> completed) {
+        for (Waiter waiter : completed) {
+            if (waiter.timeout != null) {
+                waiter.timeout.cancel(false);
+            }
+            waiter.future.set(waiter.acquired);
+        }
+    }
+
+    /**
+     * Decreases the limit, unless the request was sent before the last decrease (its failure or its latency
+     * is already taken into account)
+     * @param startNanos Time the request was sent
+     */
+    private void decrease(long startNanos) {
+        if (startNanos - lastDecreaseNanos < 0) {
+            return;
+        }
+        limit = Math.max(minLimit, limit * backoffRatio);
+        lastDecreaseNanos = System.nanoTime();
+        logger.debug("Context broker concurrency limit decreased to {}", (int) limit);
+    }
+
+    private void addLatencySample(long latencyNanos) {
+        if (baselineLatency == 0) {
+            recentLatency = latencyNanos;
+            baselineLatency = latencyNanos;
+            return;
+        }
+        recentLatency += (latencyNanos - recentLatency) * RECENT_LATENCY_WEIGHT;
+        baselineLatency += (latencyNanos - baselineLatency) * BASELINE_LATENCY_WEIGHT;
+    }
+
+    /**
+     * Request waiting for a slot
+     */
+    private static class Waiter {
+
+        private final SettableListenableFuture<Boolean> future;
+        private final long deadlineNanos;
+        private boolean acquired;
+        // Scheduled rejection at the timeout
+        private ScheduledFuture<?> timeout;
+
+        Waiter(SettableListenableFuture<Boolean> future, long deadlineNanos) {
+            this.future = future;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        boolean isExpired(long nowNanos) {
+            return nowNanos - deadlineNanos >= 0;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import com.orange.fiware.openlpwa.exception.AgentException;
+import com.orange.fiware.openlpwa.http.AsyncHttpClientPool;
+import com.orange.ngsi.client.NgsiClient;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.AsyncRestTemplate;
+import org.springframework.web.client.HttpClientErrorException;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Http transport of the Ngsi requests sent to the context broker: keep-alive connections of a dedicated pool,
+ * per-request timeouts and a number of in-flight requests bounded by a concurrency limiter.
+ * Requests over the limit wait in a bounded queue and are sent when a response releases a slot.
+ */
+@Component
+public class NgsiHttpTransport {
+
+    private static Logger logger = LoggerFactory.getLogger(NgsiHttpTransport.class);
+    private final AsyncHttpClientPool pool;
+    private final NgsiConcurrencyLimiter limiter;
+    private final long acquireTimeoutMillis;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong openedConnectionCount = new AtomicLong();
+
+    public NgsiHttpTransport(int maxConnections,
+                             int maxConnectionsPerRoute,
+                             int connectTimeoutMillis,
+                             int requestTimeoutMillis,
+                             int maxInFlightRequests,
+                             long acquireTimeoutMillis,
+                             long idleTimeoutMillis) throws IOReactorException {
+        this(maxConnections, maxConnectionsPerRoute, connectTimeoutMillis, requestTimeoutMillis, acquireTimeoutMillis, idleTimeoutMillis,
+                new NgsiConcurrencyLimiter(maxInFlightRequests));
+    }
+
+    @Autowired
+    public NgsiHttpTransport(@Value("${contextBroker.http.maxConnections:50}") int maxConnections,
+                             @Value("${contextBroker.http.maxConnectionsPerRoute:50}") int maxConnectionsPerRoute,
+                             @Value("${contextBroker.http.connectTimeoutMs:2000}") int connectTimeoutMillis,
+                             @Value("${contextBroker.http.requestTimeoutMs:5000}") int requestTimeoutMillis,
+                             @Value("${contextBroker.http.acquireTimeoutMs:5000}") long acquireTimeoutMillis,
+                             @Value("${contextBroker.http.idleTimeoutMs:30000}") long idleTimeoutMillis,
+                             NgsiConcurrencyLimiter limiter) throws IOReactorException {
+        this.limiter = limiter;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+
+        // Connections are counted when created to measure their reuse
+        pool = new AsyncHttpClientPool("Context broker", maxConnections, maxConnectionsPerRoute, connectTimeoutMillis,
+                requestTimeoutMillis, idleTimeoutMillis, openedConnectionCount::incrementAndGet);
+        logger.debug("Context broker Http transport started (maxConnections:{}, maxConnectionsPerRoute:{}, connectTimeoutMs:{}, requestTimeoutMs:{}, maxInFlight:{})",
+                maxConnections, maxConnectionsPerRoute, connectTimeoutMillis, requestTimeoutMillis, limiter.getMaxLimit());
+    }
+
+    /**
+     * Creates a Ngsi client sending its requests through this transport
+     * @param template  Ngsi client providing the protocol registry and the message converters
+     * @return The Ngsi client
+     */
+    public NgsiClient newNgsiClient(NgsiClient template) {
+        AsyncRestTemplate asyncRestTemplate = new AsyncRestTemplate(pool.getRequestFactory());
+        if (template.asyncRestTemplate != null) {
+            asyncRestTemplate.setMessageConverters(template.asyncRestTemplate.getMessageConverters());
+        }
+        NgsiClient client = new TransportNgsiClient();
+        client.asyncRestTemplate = asyncRestTemplate;
+        client.protocolRegistry = template.protocolRegistry;
+        client.poolingNHttpClientConnectionManager = pool.getConnectionManager();
+        return client;
+    }
+
+    /**
+     * Requests sent to the context broker
+     * @return The number of requests
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Requests rejected because too many requests were waiting for an in-flight slot, or because they waited
+     * longer than the acquire timeout
+     * @return The number of rejected requests
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Connections opened to the context broker
+     * @return The number of opened connections
+     */
+    public long getOpenedConnectionCount() {
+        return openedConnectionCount.get();
+    }
+
+    /**
+     * Requests sent on an already opened connection
+     * @return The number of requests which reused a connection
+     */
+    public long getReusedConnectionCount() {
+        return Math.max(0, requestCount.get() - openedConnectionCount.get());
+    }
+
+    /**
+     * Requests waiting for their response
+     * @return The number of in-flight requests
+     */
+    public int getInFlightRequests() {
+        return limiter.getInFlight();
+    }
+
+    /**
+     * Requests waiting for an in-flight slot
+     * @return The number of waiting requests
+     */
+    public int getPendingRequests() {
+        return limiter.getQueued();
+    }
+
+    public int getMaxInFlightRequests() {
+        return limiter.getMaxLimit();
+    }
+
+    /**
+     * Current limit of the in-flight requests, lower than the maximum when the context broker is overloaded
+     * and the limiter is adaptive
+     * @return The limit
+     */
+    public int getConcurrencyLimit() {
+        return limiter.getLimit();
+    }
+
+    /**
+     * Connections currently used by a request
+     * @return The number of leased connections
+     */
+    public int getLeasedConnections() {
+        return pool.getTotalStats().getLeased();
+    }
+
+    /**
+     * Connections kept alive and ready to be reused
+     * @return The number of available connections
+     */
+    public int getAvailableConnections() {
+        return pool.getTotalStats().getAvailable();
+    }
+
+    /**
+     * Closes expired connections and connections idle for longer than the idle timeout
+     */
+    @Scheduled(initialDelayString = "${contextBroker.http.idleTimeoutMs:30000}", fixedDelayString = "${contextBroker.http.idleTimeoutMs:30000}")
+    public void evictIdleConnections() {
+        pool.evictIdleConnections();
+        logger.trace("Context broker Http transport (requests:{}, openedConnections:{}, inFlight:{}, limit:{}, rejected:{})",
+                requestCount.get(), openedConnectionCount.get(), getInFlightRequests(), limiter.getLimit(), rejectedCount.get());
+    }
+
+    /**
+     * Closes the Http client and all its connections
+     */
+    @PreDestroy
+    public void shutdown() {
+        pool.close();
+    }
+
+    private void reject(String url, SettableListenableFuture<?> responseFuture) {
+        rejectedCount.incrementAndGet();
+        logger.warn("Too many in-flight requests to the context broker, request rejected (url:{})", url);
+        responseFuture.setException(new AgentException(String.format("Too many in-flight requests to the context broker (limit:%d)", limiter.getLimit())));
+    }
+
+    /**
+     * Tells whether a request failed because of the context broker load: timeouts, connection errors, server errors
+     * and Http 429, but not the other client errors
+     * @param throwable Request failure
+     * @return <code>true</code> for an overload failure
+     */
+    private static boolean isOverload(Throwable throwable) {
+        if (throwable instanceof HttpClientErrorException) {
+            return ((HttpClientErrorException) throwable).getStatusCode() == HttpStatus.TOO_MANY_REQUESTS;
+        }
+        return true;
+    }
+
+    /**
+     * Ngsi client holding an in-flight slot for each request until its response.
+     * Requests over the limit wait in the limiter queue, they never block the calling thread.
+     */
+    private class TransportNgsiClient extends NgsiClient {
+
+        @Override
+        protected <T, U> ListenableFuture<T> request(HttpMethod method, String url, HttpHeaders httpHeaders, U body, Class<T> responseType) {
+            SettableListenableFuture<T> responseFuture = new SettableListenableFuture<>();
+            // Sent at once or by the thread releasing a slot
+            limiter.acquire(acquireTimeoutMillis).addCallback(acquired -> {
+                if (acquired) {
+                    send(method, url, httpHeaders, body, responseType, responseFuture);
+                } else {
+                    reject(url, responseFuture);
+                }
+            }, responseFuture::setException);
+            return responseFuture;
+        }
+
+        /**
+         * Sends a request holding an in-flight slot, the slot is released before the caller is notified of the response
+         */
+        private <T, U> void send(HttpMethod method, String url, HttpHeaders httpHeaders, U body, Class<T> responseType,
+                                 SettableListenableFuture<T> responseFuture) {
+            requestCount.incrementAndGet();
+            long startNanos = System.nanoTime();
+            ListenableFuture<T> future;
+            try {
+                future = super.request(method, url, httpHeaders, body, responseType);
+            } catch (RuntimeException e) {
+                limiter.onIgnored();
+                responseFuture.setException(e);
+                return;
+            }
+            future.addCallback(result -> {
+                limiter.onSuccess(startNanos, System.nanoTime() - startNanos);
+                responseFuture.set(result);
+            }, throwable -> {
+                if (isOverload(throwable)) {
+                    limiter.onDropped(startNanos);
+                } else {
+                    limiter.onIgnored();
+                }
+                responseFuture.setException(throwable);
+            });
+        }
+    }
+}
@@ -20,6 +20,7 @@ package com.orange.fiware.openlpwa.ngsi;
 
 import com.orange.fiware.openlpwa.domain.DeviceEntity;
 import com.orange.fiware.openlpwa.exception.AgentException;
+import com.orange.fiware.openlpwa.exception.ConfigurationException;
 import com.orange.fiware.openlpwa.iotagent.Device;
 import com.orange.fiware.openlpwa.repository.DeviceEntityRepository;
 import com.orange.ngsi.client.NgsiClient;
@@ -32,7 +33,12 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Service;
 import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.HttpClientErrorException;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
 import java.net.URI;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -48,6 +54,10 @@ public class NgsiManager {
     public final static String COMMAND_STATUS_SUFFIX = "_commandStatus";
     public final static String COMMAND_SENT = "SENT";
     public final static String COMMAND_ERROR = "ERROR";
+    // Status of a command queued until its device can receive it
+    public final static String COMMAND_PENDING = "PENDING";
+    // Status code of the updateContext requests journaled to be sent when the context broker is available
+    public final static String UPDATE_QUEUED_CODE = "202";
     @Value("${contextBroker.localUrl}")
     private String contextBrokerLocalUrl;
     @Value("${contextBroker.remoteUrl}")
@@ -58,10 +68,110 @@ public class NgsiManager {
     private String contextBrokerRemoteFiwareService;
     @Value("${contextBroker.remoteFiwareServicePath}")
     private String contextBrokerRemoteFiwareServicePath;
+    @Value("${contextBroker.batch.enabled:false}")
+    private boolean batchEnabled;
+    @Value("${contextBroker.batch.maxSize:100}")
+    private int batchMaxSize;
+    @Value("${contextBroker.batch.maxLingerMs:50}")
+    private long batchMaxLingerMs;
+    @Value("${contextBroker.coalescing.enabled:false}")
+    private boolean coalescingEnabled;
+    @Value("${contextBroker.coalescing.windowMs:1000}")
+    private long coalescingWindowMs;
+    @Value("${contextBroker.deadband.enabled:false}")
+    private boolean deadbandEnabled;
+    @Value("${contextBroker.deadband.threshold:0}")
+    private double deadbandThreshold;
+    @Value("${contextBroker.deadband.attributeThresholds:}")
+    private String deadbandAttributeThresholds;
+    @Value("${contextBroker.deadband.maxSilenceMs:3600000}")
+    private long deadbandMaxSilenceMs;
+    @Value("${contextBroker.journal.enabled:false}")
+    private boolean journalEnabled;
+    @Value("${contextBroker.journal.directory:}")
+    private String journalDirectory;
+    @Value("${contextBroker.journal.segmentSize:16777216}")
+    private int journalSegmentSize;
+    @Value("${contextBroker.journal.maxSegments:64}")
+    private int journalMaxSegments;
+    @Value("${contextBroker.journal.fsync:INTERVAL}")
+    private String journalFsync;
+    @Value("${contextBroker.journal.fsyncIntervalMs:1000}")
+    private long journalFsyncIntervalMs;
+    @Value("${contextBroker.journal.replayBatchSize:100}")
+    private int journalReplayBatchSize;
+    @Value("${contextBroker.journal.retryDelayMs:1000}")
+    private long journalRetryDelayMs;
+    @Value("${contextBroker.journal.maxRetryDelayMs:30000}")
+    private long journalMaxRetryDelayMs;
     @Autowired
     private NgsiClient ngsiClient;
     @Autowired
     private DeviceEntityRepository deviceRepository;
+    @Autowired(required = false)
+    private NgsiHttpTransport ngsiHttpTransport;
+    private UpdateContextBatcher updateContextBatcher;
+    private UpdateContextCoalescer updateContextCoalescer;
+    private UpdateDeadbandFilter updateDeadbandFilter;
+    private UpdateContextJournal updateContextJournal;
+    private UpdateContextReplayer updateContextReplayer;
+    private UpdateContextSequencer updateContextSequencer;
+
+    @PostConstruct
+    void init() throws ConfigurationException, IOException {
+        if (ngsiHttpTransport != null) {
+            // Requests to the context broker are sent through the agent transport instead of the shared Ngsi client
+            ngsiClient = ngsiHttpTransport.newNgsiClient(ngsiClient);
+        }
+        if (batchEnabled) {
+            logger.debug("UpdateContext batching enabled (maxSize:{}, maxLingerMs:{})", batchMaxSize, batchMaxLingerMs);
+            updateContextBatcher = new UpdateContextBatcher(batchMaxSize, batchMaxLingerMs, this::updateContext);
+        }
+        if (coalescingEnabled) {
+            logger.debug("Update coalescing enabled (windowMs:{})", coalescingWindowMs);
+            updateContextCoalescer = new UpdateContextCoalescer(coalescingWindowMs, this::updateContextElement);
+        }
+        if (deadbandEnabled) {
+            logger.debug("Deadband enabled (threshold:{}, attributeThresholds:{}, maxSilenceMs:{})", deadbandThreshold, deadbandAttributeThresholds, deadbandMaxSilenceMs);
+            updateDeadbandFilter = new UpdateDeadbandFilter(deadbandThreshold, parseThresholds(deadbandAttributeThresholds), deadbandMaxSilenceMs);
+        }
+        if (journalEnabled) {
+            if (journalDirectory == null || journalDirectory.isEmpty()) {
+                throw new ConfigurationException("contextBroker.journal.directory is required when the journal is enabled");
+            }
+            UpdateContextJournal.FsyncPolicy journalFsyncPolicy = UpdateContextJournal.FsyncPolicy.INTERVAL;
+            try {
+                if (journalFsync != null && !journalFsync.isEmpty()) {
+                    journalFsyncPolicy = UpdateContextJournal.FsyncPolicy.valueOf(journalFsync.trim().toUpperCase());
+                }
+            } catch (IllegalArgumentException e) {
+                throw new ConfigurationException("Invalid contextBroker.journal.fsync: " + journalFsync);
+            }
+            logger.debug("Journal enabled (directory:{}, segmentSize:{}, maxSegments:{}, fsync:{})", journalDirectory, journalSegmentSize, journalMaxSegments, journalFsyncPolicy);
+            updateContextJournal = new UpdateContextJournal(journalDirectory, journalSegmentSize, journalMaxSegments, journalFsyncPolicy);
+            updateContextJournal.open();
+            updateContextSequencer = new UpdateContextSequencer();
+            updateContextReplayer = new UpdateContextReplayer(updateContextJournal, journalReplayBatchSize, journalRetryDelayMs, journalMaxRetryDelayMs,
+                    journalFsyncPolicy == UpdateContextJournal.FsyncPolicy.INTERVAL ? journalFsyncIntervalMs : 0,
+                    context -> ngsiClient.updateContext(contextBrokerRemoteUrl, remoteHeaders(), context));
+            updateContextReplayer.start();
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        // Coalesced updates are flushed first, possibly into the last batch
+        if (updateContextCoalescer != null) {
+            updateContextCoalescer.shutdown();
+        }
+        if (updateContextBatcher != null) {
+            updateContextBatcher.shutdown();
+        }
+        if (updateContextReplayer != null) {
+            updateContextReplayer.shutdown();
+            updateContextJournal.close();
+        }
+    }
 
     /**
      * Subscribes a device into NGSI Context broker to receive commands
@@ -101,6 +211,34 @@ public class NgsiManager {
         return ngsiClient.subscribeContext(contextBrokerRemoteUrl, remoteHeaders(), context);
     }
 
+    /**
+     * Subscribes to the commands of all the entities of a type, with a single pattern subscription
+     * @param entityType    Entity type
+     * @param commands      Commands
+     * @return A future for a SubscribeContextResponse
+     * @throws AgentException when the entity type or the commands are missing
+     */
+    public ListenableFuture<SubscribeContextResponse> subscribeToCommands(String entityType, List<String> commands) throws AgentException {
+        if (entityType == null || commands == null || commands.isEmpty()) {
+            String errorMsg = String.format("Unable to subscribe to an entity type without commands (type:%s, commands:%s).", entityType, commands);
+            logger.error(errorMsg);
+            throw new AgentException(errorMsg);
+        }
+        SubscribeContext context = new SubscribeContext();
+        List<EntityId> entities = new ArrayList<>();
+        entities.add(new EntityId(".*", entityType, true));
+        context.setEntityIdList(entities);
+        context.setDuration("P1M");
+        List<NotifyCondition> conditions = new ArrayList<>();
+        List<String> attributesList = commands.stream().map(s -> s + COMMAND_SUFFIX).collect(Collectors.toList());
+        context.setAttributeList(attributesList);
+        context.setReference(URI.create(contextBrokerLocalUrl + "/v1/notifyContext"));
+        conditions.add(new NotifyCondition(NotifyConditionEnum.ONCHANGE, attributesList));
+        context.setNotifyConditionList(conditions);
+        logger.debug("Subscribe to Context Broker with a pattern (type:{}), url : {}", entityType, contextBrokerRemoteUrl);
+        return ngsiClient.subscribeContext(contextBrokerRemoteUrl, remoteHeaders(), context);
+    }
+
     /**
      * Updates a subscription
      * @param subscriptionId Subscription identifier
@@ -135,10 +273,12 @@ public class NgsiManager {
     }
 
     /**
-     * Updates device attributes sending an updateContext request to the context broker
+     * Updates device attributes sending an updateContext request to the context broker.
+     * When the deadband is enabled, only the changed attributes are sent.
      * @param device Device to update
      * @param attributes Attributes to update
-     * @return A future for UpdateContextResponse
+     * @return A future for UpdateContextResponse (null if no attribute has changed, a response checked by
+     * {@link #isQueued(UpdateContextResponse)} if the request has been journaled to be sent later)
      * @throws AgentException when the device is null
      */
     public ListenableFuture<UpdateContextResponse> updateDeviceAttributes(DeviceEntity device, List<ContextAttribute> attributes) throws AgentException {
@@ -147,14 +287,31 @@ public class NgsiManager {
             logger.error(errorMsg);
             throw new AgentException(errorMsg);
         }
-        return updateDeviceAttributes(new EntityId(device.getName(), device.getType(), false), attributes);
+        EntityId entityId = new EntityId(device.getName(), device.getType(), false);
+        if (updateDeadbandFilter != null && attributes != null && !attributes.isEmpty()) {
+            List<ContextAttribute> changedAttributes = updateDeadbandFilter.filter(entityId, attributes);
+            if (changedAttributes.isEmpty()) {
+                logger.debug("No changed attribute, updateContext not sent (entityId:{})", entityId);
+                SettableListenableFuture<UpdateContextResponse> future = new SettableListenableFuture<>();
+                future.set(null);
+                return future;
+            }
+            ListenableFuture<UpdateContextResponse> future = updateDeviceAttributes(entityId, changedAttributes);
+            if (future != null) {
+                // The values of a failed update are sent again with the next one
+                future.addCallback(response -> {}, ex -> updateDeadbandFilter.invalidate(entityId));
+            }
+            return future;
+        }
+        return updateDeviceAttributes(entityId, attributes);
     }
 
     /**
      * Updates device attributes sending an updateContext request to the context broker with the entityId
      * @param entityId Entity identifier
      * @param attributeList Attributes to update
-     * @return A future for UpdateContextResponse
+     * @return A future for UpdateContextResponse (a response checked by {@link #isQueued(UpdateContextResponse)}
+     * if the request has been journaled to be sent later)
      * @throws AgentException when the entityId is null or where there isn't an attribute to update
      */
     public ListenableFuture<UpdateContextResponse> updateDeviceAttributes(EntityId entityId, List<ContextAttribute> attributeList) throws AgentException {
@@ -163,16 +320,181 @@ public class NgsiManager {
             logger.error(errorMsg);
             throw new AgentException(errorMsg);
         }
-        UpdateContext context = new UpdateContext();
-        context.setUpdateAction(UpdateAction.APPEND);
-        List<ContextElement> elementList = new ArrayList<>();
         ContextElement element = new ContextElement();
         element.setEntityId(entityId);
         element.setContextAttributeList(attributeList);
+        if (updateContextCoalescer != null) {
+            // The element will be merged with the other updates of the entity received during the window
+            return updateContextCoalescer.add(element);
+        }
+        return updateContextElement(element);
+    }
+
+    /**
+     * Number of device updates per updateContext element sent to the context broker
+     * @return The coalescing ratio, 1 when the coalescing is disabled
+     */
+    public double getCoalescingRatio() {
+        return updateContextCoalescer != null ? updateContextCoalescer.getCoalescingRatio() : 1;
+    }
+
+    /**
+     * Device attributes not sent to the context broker because they haven't changed
+     * @return The number of attributes, 0 when the deadband is disabled
+     */
+    public long getSuppressedAttributeCount() {
+        return updateDeadbandFilter != null ? updateDeadbandFilter.getSuppressedCount() : 0;
+    }
+
+    /**
+     * UpdateContext requests waiting in the journal for the context broker
+     * @return The number of requests, 0 when the journal is disabled
+     */
+    public long getJournalPendingCount() {
+        return updateContextJournal != null ? updateContextJournal.getPendingCount() : 0;
+    }
+
+    /**
+     * Journaled updateContext requests accepted by the context broker since the start
+     * @return The number of requests, 0 when the journal is disabled
+     */
+    public long getJournalReplayedCount() {
+        return updateContextReplayer != null ? updateContextReplayer.getReplayedCount() : 0;
+    }
+
+    /**
+     * Sends the update of a context element, alone or in a batch
+     * @param element Context element to update
+     * @return A future for UpdateContextResponse
+     */
+    private ListenableFuture<UpdateContextResponse> updateContextElement(ContextElement element) {
+        if (updateContextBatcher != null) {
+            // The element will be sent with other pending elements
+            return updateContextBatcher.add(element);
+        }
+        UpdateContext context = new UpdateContext();
+        context.setUpdateAction(UpdateAction.APPEND);
+        List<ContextElement> elementList = new ArrayList<>();
         elementList.add(element);
         context.setContextElements(elementList);
-        logger.debug("Call updateContext (entityId:{}, context:{}, list:{})", entityId, context, attributeList);
-        return ngsiClient.updateContext(contextBrokerRemoteUrl, remoteHeaders(), context);
+        logger.debug("Call updateContext (entityId:{}, context:{}, list:{})", element.getEntityId(), context, element.getContextAttributeList());
+        return updateContext(context);
+    }
+
+    /**
+     * Sends an updateContext request to the context broker. With the journal, a failed request is journaled without
+     * the attributes of its entities already sent or journaled by a later request.
+     * @param context UpdateContext to send
+     * @return A future for UpdateContextResponse
+     */
+    private ListenableFuture<UpdateContextResponse> updateContext(UpdateContext context) {
+        if (updateContextJournal == null) {
+            return ngsiClient.updateContext(contextBrokerRemoteUrl, remoteHeaders(), context);
+        }
+        SettableListenableFuture<UpdateContextResponse> future = new SettableListenableFuture<>();
+        long sequence;
+        // The request is registered and journaled or sent atomically with the journaling of a failed request,
+        // so that the failed request either sees it or is journaled before it
+        synchronized (updateContextSequencer) {
+            sequence = updateContextSequencer.sent(context);
+            try {
+                // Sent after the requests already journaled, to keep the updates order
+                if (updateContextJournal.appendIfPending(context)) {
+                    updateContextSequencer.completed(context);
+                    updateContextReplayer.wakeUp();
+                    future.set(queuedResponse());
+                    return future;
+                }
+            } catch (IOException e) {
+                updateContextSequencer.completed(context);
+                logger.error("Unable to journal an updateContext request", e);
+                future.setException(e);
+                return future;
+            }
+        }
+        ListenableFuture<UpdateContextResponse> sentFuture = ngsiClient.updateContext(contextBrokerRemoteUrl, remoteHeaders(), context);
+        if (sentFuture == null) {
+            updateContextSequencer.completed(context);
+            return null;
+        }
+        sentFuture.addCallback(response -> {
+            updateContextSequencer.completed(context);
+            future.set(response);
+        }, ex -> {
+            if (ex instanceof HttpClientErrorException) {
+                // Rejected by the context broker, sending it again wouldn't help
+                updateContextSequencer.completed(context);
+                future.setException(ex);
+                return;
+            }
+            synchronized (updateContextSequencer) {
+                try {
+                    // The attributes sent or journaled by a later request are newer than the ones of this request
+                    UpdateContext remainingContext = updateContextSequencer.unsuperseded(sequence, context);
+                    if (remainingContext == null) {
+                        logger.warn("UpdateContext request failed, superseded by a later request ({})", ex.toString());
+                    } else {
+                        logger.warn("UpdateContext request failed, journaled to be sent again ({})", ex.toString());
+                        updateContextJournal.append(remainingContext);
+                        updateContextReplayer.wakeUp();
+                    }
+                    future.set(queuedResponse());
+                } catch (IOException e) {
+                    logger.error("Unable to journal an updateContext request", e);
+                    future.setException(ex);
+                } finally {
+                    updateContextSequencer.completed(context);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Tells whether an updateContext request has been journaled instead of being answered by the context broker
+     * @param response Response of an update
+     * @return <code>true</code> if the request will be sent when the context broker is available
+     */
+    public static boolean isQueued(UpdateContextResponse response) {
+        return response != null && response.getErrorCode() != null && UPDATE_QUEUED_CODE.equals(response.getErrorCode().getCode());
+    }
+
+    /**
+     * Response of an updateContext request journaled to be sent later
+     * @return The response, with the UPDATE_QUEUED_CODE status code
+     */
+    private static UpdateContextResponse queuedResponse() {
+        StatusCode statusCode = new StatusCode();
+        statusCode.setCode(UPDATE_QUEUED_CODE);
+        statusCode.setReasonPhrase("Accepted");
+        statusCode.setDetail("Journaled, sent when the context broker is available");
+        UpdateContextResponse response = new UpdateContextResponse();
+        response.setErrorCode(statusCode);
+        return response;
+    }
+
+    /**
+     * Parses attribute thresholds
+     * @param thresholds Thresholds formatted as name:threshold,name:threshold
+     * @return The thresholds by attribute name
+     */
+    private static Map<String, Double> parseThresholds(String thresholds) {
+        Map<String, Double> thresholdMap = new HashMap<>();
+        if (thresholds == null) {
+            return thresholdMap;
+        }
+        for (String threshold : thresholds.split(",")) {
+            int separator = threshold.lastIndexOf(':');
+            if (separator <= 0) {
+                continue;
+            }
+            try {
+                thresholdMap.put(threshold.substring(0, separator).trim(), Double.parseDouble(threshold.substring(separator + 1).trim()));
+            } catch (NumberFormatException e) {
+                logger.warn("Ignore invalid deadband threshold ({})", threshold);
+            }
+        }
+        return thresholdMap;
     }
 
     /**
@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import com.orange.ngsi.model.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Accumulates context elements to update and sends them in a single updateContext request
+ * when the batch is full or when the oldest pending element has waited for the linger time
+ */
+class UpdateContextBatcher {
+
+    private static Logger logger = LoggerFactory.getLogger(UpdateContextBatcher.class);
+    private final int maxBatchSize;
+    private final long maxLingerMillis;
+    private final Function<UpdateContext, ListenableFuture<UpdateContextResponse>> sender;
+    private final ScheduledExecutorService scheduler;
+    private List<PendingElement> pendingElements = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed;
+
+    /**
+     * Constructor
+     * @param maxBatchSize      Maximum number of context elements in a request
+     * @param maxLingerMillis   Maximum time a context element waits before being sent
+     * @param sender            Function sending an updateContext request
+     */
+    UpdateContextBatcher(int maxBatchSize, long maxLingerMillis, Function<UpdateContext, ListenableFuture<UpdateContextResponse>> sender) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxLingerMillis = Math.max(0, maxLingerMillis);
+        this.sender = sender;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ngsi-update-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Adds a context element to the next batch, or sends it at once after the shutdown
+     * @param element Context element to update
+     * @return A future for the UpdateContextResponse of this element
+     */
+    ListenableFuture<UpdateContextResponse> add(ContextElement element) {
+        PendingElement pendingElement = new PendingElement(element);
+        List<PendingElement> batch = null;
+        synchronized (this) {
+            if (closed) {
+                // The linger timer is stopped
+                batch = Collections.singletonList(pendingElement);
+            } else {
+                pendingElements.add(pendingElement);
+                if (pendingElements.size() >= maxBatchSize) {
+                    batch = drain();
+                } else if (scheduledFlush == null) {
+                    scheduledFlush = scheduler.schedule(this::flush, maxLingerMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        if (batch != null) {
+            send(batch);
+        }
+        return pendingElement.future;
+    }
+
+    /**
+     * Sends all pending context elements
+     */
+    void flush() {
+        List<PendingElement> batch;
+        synchronized (this) {
+            batch = drain();
+        }
+        send(batch);
+    }
+
+    /**
+     * Sends pending context elements and stops the linger timer, the elements added afterwards are sent one by one
+     */
+    void shutdown() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+        scheduler.shutdownNow();
+    }
+
+    synchronized int getPendingCount() {
+        return pendingElements.size();
+    }
+
+    private List<PendingElement> drain() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        List<PendingElement> batch = pendingElements;
+        pendingElements = new ArrayList<>();
+        return batch;
+    }
+
+    private void send(List<PendingElement> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        UpdateContext context = new UpdateContext();
+        context.setUpdateAction(UpdateAction.APPEND);
+        List<ContextElement> elementList = new ArrayList<>(batch.size());
+        batch.forEach(pendingElement -> elementList.add(pendingElement.element));
+        context.setContextElements(elementList);
+        logger.debug("Call batched updateContext ({} context elements)", elementList.size());
+
+        ListenableFuture<UpdateContextResponse> future;
+        try {
+            future = sender.apply(context);
+        } catch (Throwable e) {
+            batch.forEach(pendingElement -> pendingElement.future.setException(e));
+            return;
+        }
+        if (future == null) {
+            batch.forEach(pendingElement -> pendingElement.future.set(null));
+            return;
+        }
+        future.addCallback(
+                response -> dispatchResponse(batch, response),
+                ex -> batch.forEach(pendingElement -> pendingElement.future.setException(ex))
+        );
+    }
+
+    /**
+     * Completes the future of each element with its own part of the batch response
+     * @param batch     Sent elements
+     * @param response  Response of the batched request
+     */
+    private void dispatchResponse(List<PendingElement> batch, UpdateContextResponse response) {
+        List<ContextElementResponse> elementResponses = response != null ? response.getContextElementResponses() : null;
+        boolean matchByIndex = elementResponses != null && elementResponses.size() == batch.size();
+        for (int i = 0; i < batch.size(); i++) {
+            if (response == null) {
+                batch.get(i).future.set(null);
+                continue;
+            }
+            UpdateContextResponse elementResponse = new UpdateContextResponse();
+            elementResponse.setErrorCode(response.getErrorCode());
+            elementResponse.setContextElementResponses(matchByIndex ? Collections.singletonList(elementResponses.get(i)) : elementResponses);
+            batch.get(i).future.set(elementResponse);
+        }
+    }
+
+    /**
+     * Context element waiting to be sent
+     */
+    private static class PendingElement {
+
+        private final ContextElement element;
+        private final SettableListenableFuture<UpdateContextResponse> future = new SettableListenableFuture<>();
+
+        PendingElement(ContextElement element) {
+            this.element = element;
+        }
+    }
+}
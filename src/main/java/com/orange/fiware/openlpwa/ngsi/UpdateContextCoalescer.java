@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import com.orange.ngsi.model.ContextAttribute;
+import com.orange.ngsi.model.ContextElement;
+import com.orange.ngsi.model.EntityId;
+import com.orange.ngsi.model.UpdateContextResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Merges the updates of a same entity received during a window into a single context element
+ * (the last value of each attribute wins), so that a burst of messages of a device is sent as one update.
+ * An entity has at most one update in flight: updates received meanwhile are sent when it completes,
+ * so the context broker never receives older values after newer ones.
+ */
+class UpdateContextCoalescer {
+
+    private static Logger logger = LoggerFactory.getLogger(UpdateContextCoalescer.class);
+    private final long windowMillis;
+    private final Function<ContextElement, ListenableFuture<UpdateContextResponse>> sender;
+    private final ScheduledExecutorService scheduler;
+    // Entities with pending or in-flight updates, guarded by this
+    private final Map<String, EntityUpdates> entities = new HashMap<>();
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param windowMillis  Time the first update of an entity waits for the following ones
+     * @param sender        Function sending the update of a context element
+     */
+    UpdateContextCoalescer(long windowMillis, Function<ContextElement, ListenableFuture<UpdateContextResponse>> sender) {
+        this.windowMillis = Math.max(0, windowMillis);
+        this.sender = sender;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ngsi-update-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Adds the update of a context element, merged with the pending updates of the same entity
+     * @param element Context element to update
+     * @return A future for the UpdateContextResponse of the merged update
+     */
+    ListenableFuture<UpdateContextResponse> add(ContextElement element) {
+        receivedCount.incrementAndGet();
+        String key = key(element.getEntityId());
+        ListenableFuture<UpdateContextResponse> future;
+        boolean sendNow = false;
+        synchronized (this) {
+            EntityUpdates updates = entities.get(key);
+            if (updates == null) {
+                updates = new EntityUpdates(element.getEntityId());
+                entities.put(key, updates);
+            }
+            updates.merge(element.getContextAttributeList());
+            future = updates.future;
+            if (updates.scheduledFlush == null && !updates.inFlight) {
+                try {
+                    updates.scheduledFlush = scheduler.schedule(() -> flush(key), windowMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // Coalescer shut down, the update is sent without waiting
+                    sendNow = true;
+                }
+            }
+        }
+        if (sendNow) {
+            flush(key);
+        }
+        return future;
+    }
+
+    /**
+     * Sends the pending updates of all the entities, except those of the entities with an update in flight
+     */
+    void flush() {
+        List<String> keys;
+        synchronized (this) {
+            keys = new ArrayList<>(entities.keySet());
+        }
+        keys.forEach(this::flush);
+    }
+
+    /**
+     * Sends the pending updates and stops the window timer
+     */
+    void shutdown() {
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    /**
+     * Updates received since the start
+     * @return The number of updates
+     */
+    long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    /**
+     * Merged updates sent since the start
+     * @return The number of updates
+     */
+    long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * Number of received updates per sent update
+     * @return The coalescing ratio, 1 when no update was sent
+     */
+    double getCoalescingRatio() {
+        long sent = sentCount.get();
+        return sent > 0 ? (double) receivedCount.get() / sent : 1;
+    }
+
+    synchronized int getPendingEntityCount() {
+        return entities.size();
+    }
+
+    private void flush(String key) {
+        ContextElement element;
+        SettableListenableFuture<UpdateContextResponse> future;
+        synchronized (this) {
+            EntityUpdates updates = entities.get(key);
+            if (updates == null || updates.inFlight || updates.attributes.isEmpty()) {
+                return;
+            }
+            if (updates.scheduledFlush != null) {
+                updates.scheduledFlush.cancel(false);
+                updates.scheduledFlush = null;
+            }
+            element = new ContextElement();
+            element.setEntityId(updates.entityId);
+            element.setContextAttributeList(new ArrayList<>(updates.attributes.values()));
+            future = updates.future;
+            updates.attributes.clear();
+            updates.future = new SettableListenableFuture<>();
+            updates.inFlight = true;
+        }
+        sentCount.incrementAndGet();
+        logger.debug("Call coalesced update (entityId:{}, {} attributes)", element.getEntityId(), element.getContextAttributeList().size());
+
+        ListenableFuture<UpdateContextResponse> sentFuture;
+        try {
+            sentFuture = sender.apply(element);
+        } catch (Throwable e) {
+            sent(key);
+            future.setException(e);
+            return;
+        }
+        if (sentFuture == null) {
+            sent(key);
+            future.set(null);
+            return;
+        }
+        sentFuture.addCallback(
+                response -> {
+                    sent(key);
+                    future.set(response);
+                },
+                ex -> {
+                    sent(key);
+                    future.setException(ex);
+                }
+        );
+    }
+
+    /**
+     * Ends the in-flight update of an entity, sending the updates received meanwhile
+     * @param key Entity key
+     */
+    private void sent(String key) {
+        boolean pendingUpdates;
+        synchronized (this) {
+            EntityUpdates updates = entities.get(key);
+            updates.inFlight = false;
+            pendingUpdates = !updates.attributes.isEmpty();
+            if (!pendingUpdates) {
+                entities.remove(key);
+            }
+        }
+        if (pendingUpdates) {
+            // The window of these updates has already elapsed while the previous update was in flight
+            flush(key);
+        }
+    }
+
+    private static String key(EntityId entityId) {
+        return entityId.getId() + '\u0000' + entityId.getType() + '\u0000' + entityId.getIsPattern();
+    }
+
+    /**
+     * Pending and in-flight updates of an entity
+     */
+    private static class EntityUpdates {
+
+        private final EntityId entityId;
+        private final Map<String, ContextAttribute> attributes = new LinkedHashMap<>();
+        private SettableListenableFuture<UpdateContextResponse> future = new SettableListenableFuture<>();
+        private Future<?> scheduledFlush;
+        private boolean inFlight;
+
+        EntityUpdates(EntityId entityId) {
+            this.entityId = entityId;
+        }
+
+        void merge(List<ContextAttribute> attributeList) {
+            for (ContextAttribute attribute : attributeList) {
+                attributes.put(attribute.getName(), attribute);
+            }
+        }
+    }
+}
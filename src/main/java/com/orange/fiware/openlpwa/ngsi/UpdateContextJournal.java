@@ -0,0 +1,450 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.orange.fiware.openlpwa.provider.MappedFileMqttPersistence;
+import com.orange.ngsi.model.UpdateContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the updateContext requests not yet accepted by the context broker.
+ * The requests are stored in memory-mapped segment files of a fixed size; a new segment is started when the current
+ * one is full, and a segment is deleted once all its requests are removed. When the maximum number of segments is reached,
+ * the oldest segment is dropped with its requests, which bounds the disk usage.
+ * The position of the first pending request is kept in a checkpoint file: after a restart, the requests are read again
+ * from this position (a request may be read twice if the agent stops between its removal and the checkpoint write).
+ *
+ * Each record is made of its length, the CRC32 of the request and the request in Json. The length is written last,
+ * so that a record interrupted by a crash is ignored.
+ */
+class UpdateContextJournal {
+
+    /**
+     * When the written records are forced to the disk
+     */
+    enum FsyncPolicy {
+        // Left to the operating system
+        NONE,
+        // Every fsyncIntervalMs
+        INTERVAL,
+        // After each write
+        ALWAYS
+    }
+
+    /**
+     * Request read from the journal
+     */
+    static class Entry {
+
+        private final UpdateContext context;
+        private final long dropGeneration;
+        private final long nextSegment;
+        private final int nextPosition;
+
+        private Entry(UpdateContext context, long dropGeneration, long nextSegment, int nextPosition) {
+            this.context = context;
+            this.dropGeneration = dropGeneration;
+            this.nextSegment = nextSegment;
+            this.nextPosition = nextPosition;
+        }
+
+        /**
+         * @return The request, null if it can't be read
+         */
+        UpdateContext getContext() {
+            return context;
+        }
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(UpdateContextJournal.class);
+    private final static int MAGIC = 0x4F4C4A4E;
+    private final static int SEGMENT_HEADER_LENGTH = 4;
+    // Record length and CRC32
+    private final static int RECORD_HEADER_LENGTH = 4 + 4;
+    private final static String SEGMENT_SUFFIX = ".journal";
+    private final static String CHECKPOINT_FILE = "checkpoint";
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final FsyncPolicy fsyncPolicy;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final CRC32 crc = new CRC32();
+    // Mapped segments by sequence number, guarded by this
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private MappedByteBuffer checkpoint;
+    private long writeSegment;
+    private int writePosition;
+    private long readSegment;
+    private int readPosition;
+    private long pendingCount;
+    private long appendedCount;
+    private long droppedCount;
+    // Incremented when a segment is dropped, to ignore the removal of dropped entries
+    private long dropGeneration;
+    private boolean unforcedWrites;
+
+    /**
+     * Constructor
+     * @param directory     Directory of the segment files
+     * @param segmentSize   Size of a segment file in bytes
+     * @param maxSegments   Maximum number of segment files
+     * @param fsyncPolicy   When the written records are forced to the disk
+     */
+    UpdateContextJournal(String directory, int segmentSize, int maxSegments, FsyncPolicy fsyncPolicy) {
+        this.directory = Paths.get(directory);
+        this.segmentSize = Math.max(4096, segmentSize);
+        this.maxSegments = Math.max(2, maxSegments);
+        this.fsyncPolicy = fsyncPolicy != null ? fsyncPolicy : FsyncPolicy.INTERVAL;
+    }
+
+    /**
+     * Opens the journal, reading the pending requests left by a previous run
+     * @throws IOException The journal files can't be read or created
+     */
+    synchronized void open() throws IOException {
+        Files.createDirectories(directory);
+        checkpoint = map(directory.resolve(CHECKPOINT_FILE), 16);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                try {
+                    long sequence = Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+                    MappedByteBuffer segment = map(file, (int) Math.max(Files.size(file), SEGMENT_HEADER_LENGTH));
+                    if (segment.getInt(0) == MAGIC) {
+                        segments.put(sequence, segment);
+                        continue;
+                    }
+                    MappedFileMqttPersistence.unmap(segment);
+                } catch (NumberFormatException e) {
+                    // Not a segment file
+                }
+                logger.warn("Ignore invalid journal file {}", file);
+            }
+        }
+        if (segments.isEmpty()) {
+            createSegment(0);
+        } else {
+            writeSegment = segments.lastKey();
+            writePosition = SEGMENT_HEADER_LENGTH;
+            int length;
+            while ((length = readRecordLength(segments.get(writeSegment), writePosition)) >= 0) {
+                writePosition += RECORD_HEADER_LENGTH + length;
+            }
+        }
+        readSegment = checkpoint.getLong(0);
+        readPosition = checkpoint.getInt(8);
+        if (!segments.containsKey(readSegment) || readPosition < SEGMENT_HEADER_LENGTH) {
+            readSegment = segments.firstKey();
+            readPosition = SEGMENT_HEADER_LENGTH;
+        }
+        // Segments already read
+        while (segments.firstKey() < readSegment) {
+            deleteSegment(segments.firstKey());
+        }
+        pendingCount = countRecords(readSegment, readPosition, Long.MAX_VALUE);
+        logger.info("Journal opened (directory:{}, segments:{}, pending requests:{})", directory, segments.size(), pendingCount);
+    }
+
+    /**
+     * Appends a request
+     * @param context Request to append
+     * @throws IOException The request can't be serialized or written
+     */
+    synchronized void append(UpdateContext context) throws IOException {
+        checkIsOpen();
+        byte[] record = mapper.writeValueAsBytes(context);
+        int recordLength = RECORD_HEADER_LENGTH + record.length;
+        if (SEGMENT_HEADER_LENGTH + recordLength > segmentSize) {
+            throw new IOException(String.format("Request too large for the journal (%d bytes)", record.length));
+        }
+        if (writePosition + recordLength > segmentSize) {
+            rollSegment();
+        }
+        MappedByteBuffer segment = segments.get(writeSegment);
+        ByteBuffer target = segment.duplicate();
+        target.position(writePosition + RECORD_HEADER_LENGTH);
+        target.put(record);
+        crc.reset();
+        crc.update(record, 0, record.length);
+        segment.putInt(writePosition + 4, (int) crc.getValue());
+        // The length is written last: a partially written record is ignored when the segment is read
+        segment.putInt(writePosition, record.length);
+        writePosition += recordLength;
+        pendingCount++;
+        appendedCount++;
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            segment.force();
+        } else {
+            unforcedWrites = true;
+        }
+    }
+
+    /**
+     * Appends a request only if the journal has pending requests, to keep the requests order
+     * @param context Request to append
+     * @return <code>false</code> if the journal is empty and the request hasn't been appended
+     * @throws IOException The request can't be serialized or written
+     */
+    synchronized boolean appendIfPending(UpdateContext context) throws IOException {
+        if (pendingCount == 0) {
+            return false;
+        }
+        append(context);
+        return true;
+    }
+
+    /**
+     * Reads the oldest pending requests, without removing them
+     * @param maxCount Maximum number of requests to read
+     * @return The requests, oldest first
+     */
+    synchronized List<Entry> peek(int maxCount) {
+        checkIsOpen();
+        List<Entry> entries = new ArrayList<>(Math.min(maxCount, 1024));
+        long segmentNumber = readSegment;
+        int position = readPosition;
+        while (entries.size() < maxCount) {
+            MappedByteBuffer segment = segments.get(segmentNumber);
+            int length = readRecordLength(segment, position);
+            if (length < 0) {
+                // End of the segment
+                Long nextSegment = segments.higherKey(segmentNumber);
+                if (nextSegment == null) {
+                    break;
+                }
+                segmentNumber = nextSegment;
+                position = SEGMENT_HEADER_LENGTH;
+                continue;
+            }
+            byte[] record = new byte[length];
+            ByteBuffer source = segment.duplicate();
+            source.position(position + RECORD_HEADER_LENGTH);
+            source.get(record);
+            int nextPosition = position + RECORD_HEADER_LENGTH + length;
+            UpdateContext context;
+            try {
+                context = mapper.readValue(record, UpdateContext.class);
+            } catch (IOException e) {
+                logger.error("Unable to read a journaled request (segment:{}, position:{})", segmentNumber, position, e);
+                context = null;
+            }
+            entries.add(new Entry(context, dropGeneration, segmentNumber, nextPosition));
+            position = nextPosition;
+        }
+        return entries;
+    }
+
+    /**
+     * Removes the oldest pending requests, up to an entry returned by peek
+     * @param entries   Oldest requests, as returned by peek
+     * @param count     Number of requests to remove
+     */
+    synchronized void remove(List<Entry> entries, int count) {
+        checkIsOpen();
+        if (count <= 0) {
+            return;
+        }
+        Entry last = entries.get(count - 1);
+        if (last.dropGeneration != dropGeneration) {
+            // The entries have been dropped meanwhile
+            return;
+        }
+        readSegment = last.nextSegment;
+        readPosition = last.nextPosition;
+        pendingCount -= count;
+        while (segments.firstKey() < readSegment) {
+            deleteSegment(segments.firstKey());
+        }
+        checkpoint.putLong(0, readSegment);
+        checkpoint.putInt(8, readPosition);
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            checkpoint.force();
+        } else {
+            unforcedWrites = true;
+        }
+    }
+
+    /**
+     * Forces the written records and the checkpoint to the disk
+     */
+    synchronized void force() {
+        if (checkpoint != null && unforcedWrites) {
+            segments.get(writeSegment).force();
+            checkpoint.force();
+            unforcedWrites = false;
+        }
+    }
+
+    /**
+     * Forces the journal to the disk and releases the segment files
+     */
+    synchronized void close() {
+        force();
+        segments.values().forEach(MappedFileMqttPersistence::unmap);
+        segments.clear();
+        if (checkpoint != null) {
+            MappedFileMqttPersistence.unmap(checkpoint);
+        }
+        checkpoint = null;
+    }
+
+    synchronized long getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * Requests appended since the start
+     * @return The number of requests
+     */
+    synchronized long getAppendedCount() {
+        return appendedCount;
+    }
+
+    /**
+     * Requests lost because the journal was full
+     * @return The number of requests
+     */
+    synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    private void checkIsOpen() {
+        if (checkpoint == null) {
+            throw new IllegalStateException("Journal not opened");
+        }
+    }
+
+    /**
+     * Starts a new segment, dropping the oldest one if the journal is full
+     * @throws IOException The segment file can't be created
+     */
+    private void rollSegment() throws IOException {
+        if (fsyncPolicy != FsyncPolicy.NONE) {
+            segments.get(writeSegment).force();
+        }
+        createSegment(writeSegment + 1);
+        if (segments.size() > maxSegments) {
+            // The segments before the read one are deleted when read, the oldest segment is the read one
+            long droppedRecords = countRecords(readSegment, readPosition, readSegment);
+            logger.warn("Journal full, {} requests dropped (segment:{})", droppedRecords, readSegment);
+            droppedCount += droppedRecords;
+            pendingCount -= droppedRecords;
+            dropGeneration++;
+            deleteSegment(readSegment);
+            readSegment = segments.firstKey();
+            readPosition = SEGMENT_HEADER_LENGTH;
+        }
+    }
+
+    private void createSegment(long sequence) throws IOException {
+        Path file = segmentFile(sequence);
+        Files.deleteIfExists(file);
+        MappedByteBuffer segment = map(file, segmentSize);
+        segment.putInt(0, MAGIC);
+        segments.put(sequence, segment);
+        writeSegment = sequence;
+        writePosition = SEGMENT_HEADER_LENGTH;
+    }
+
+    private void deleteSegment(long sequence) {
+        // Unmapped before the deletion: a mapped file can't be deleted on Windows, and its disk space is only
+        // released on Linux when the buffer is garbage collected
+        MappedByteBuffer segment = segments.remove(sequence);
+        if (segment != null) {
+            MappedFileMqttPersistence.unmap(segment);
+        }
+        try {
+            Files.deleteIfExists(segmentFile(sequence));
+        } catch (IOException e) {
+            logger.warn("Unable to delete journal segment {}", sequence, e);
+        }
+    }
+
+    /**
+     * Counts the valid records from a position
+     * @param segmentNumber First segment
+     * @param position      Position in the first segment
+     * @param lastSegment   Last segment to read
+     * @return The number of records
+     */
+    private long countRecords(long segmentNumber, int position, long lastSegment) {
+        long count = 0;
+        Long current = segmentNumber;
+        while (current != null && current <= lastSegment) {
+            MappedByteBuffer segment = segments.get(current);
+            int length;
+            while ((length = readRecordLength(segment, position)) >= 0) {
+                count++;
+                position += RECORD_HEADER_LENGTH + length;
+            }
+            current = segments.higherKey(current);
+            position = SEGMENT_HEADER_LENGTH;
+        }
+        return count;
+    }
+
+    /**
+     * Reads the length of a record, checking its CRC
+     * @param segment   Segment of the record
+     * @param position  Position of the record
+     * @return The length of the request, -1 at the end of the segment or for a partially written record
+     */
+    private int readRecordLength(MappedByteBuffer segment, int position) {
+        if (position + RECORD_HEADER_LENGTH > segment.capacity()) {
+            return -1;
+        }
+        int length = segment.getInt(position);
+        if (length <= 0 || position + RECORD_HEADER_LENGTH + length > segment.capacity()) {
+            return -1;
+        }
+        ByteBuffer record = segment.duplicate();
+        record.position(position + RECORD_HEADER_LENGTH).limit(position + RECORD_HEADER_LENGTH + length);
+        crc.reset();
+        crc.update(record);
+        return (int) crc.getValue() == segment.getInt(position + 4) ? length : -1;
+    }
+
+    private Path segmentFile(long sequence) {
+        return directory.resolve(String.format("%020d%s", sequence, SEGMENT_SUFFIX));
+    }
+
+    private static MappedByteBuffer map(Path path, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+    }
+}
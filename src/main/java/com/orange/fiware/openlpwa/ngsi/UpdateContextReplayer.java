@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import com.orange.ngsi.model.ContextElement;
+import com.orange.ngsi.model.UpdateAction;
+import com.orange.ngsi.model.UpdateContext;
+import com.orange.ngsi.model.UpdateContextResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Sends the journaled updateContext requests to the context broker, oldest first.
+ * Consecutive requests with the same update action are merged into a single request to catch up quickly;
+ * a request is removed from the journal once the context broker has accepted it.
+ * After a failure, the same requests are sent again with an exponential backoff, except the requests rejected
+ * by the context broker (Http 4xx), which are dropped: the requests of a rejected merged request are sent again
+ * one by one to drop only the rejected ones.
+ */
+class UpdateContextReplayer {
+
+    private static Logger logger = LoggerFactory.getLogger(UpdateContextReplayer.class);
+    private final UpdateContextJournal journal;
+    private final int batchSize;
+    private final long retryDelayMillis;
+    private final long maxRetryDelayMillis;
+    private final long fsyncIntervalMillis;
+    private final Function<UpdateContext, ListenableFuture<UpdateContextResponse>> sender;
+    private final ScheduledExecutorService scheduler;
+    // A replay is scheduled or in progress
+    private final AtomicBoolean replaying = new AtomicBoolean();
+    private final AtomicLong replayedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    // Only one replay at a time, the scheduling orders the accesses to these fields
+    private long currentRetryDelayMillis;
+    // Requests sent one by one to find the ones rejected by the context broker
+    private int isolatedCount;
+
+    /**
+     * Constructor
+     * @param journal               Journal of the requests to send
+     * @param batchSize             Maximum number of journaled requests merged into a single request
+     * @param retryDelayMillis      Delay before sending the requests again after a failure
+     * @param maxRetryDelayMillis   Maximum delay between two attempts
+     * @param fsyncIntervalMillis   Interval between two journal fsyncs (0 to never force the journal)
+     * @param sender                Function sending an updateContext request
+     */
+    UpdateContextReplayer(UpdateContextJournal journal, int batchSize, long retryDelayMillis, long maxRetryDelayMillis,
+                          long fsyncIntervalMillis, Function<UpdateContext, ListenableFuture<UpdateContextResponse>> sender) {
+        this.journal = journal;
+        this.batchSize = Math.max(1, batchSize);
+        this.retryDelayMillis = Math.max(1, retryDelayMillis);
+        this.maxRetryDelayMillis = Math.max(this.retryDelayMillis, maxRetryDelayMillis);
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.sender = sender;
+        this.currentRetryDelayMillis = this.retryDelayMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ngsi-journal-replayer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts sending the requests left in the journal
+     */
+    void start() {
+        if (fsyncIntervalMillis > 0) {
+            scheduler.scheduleWithFixedDelay(journal::force, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        wakeUp();
+    }
+
+    /**
+     * Starts sending the journaled requests, unless it's already in progress
+     */
+    void wakeUp() {
+        if (replaying.compareAndSet(false, true)) {
+            schedule(0);
+        }
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Journaled requests accepted by the context broker since the start
+     * @return The number of requests
+     */
+    long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+    /**
+     * Journaled requests rejected by the context broker or unreadable
+     * @return The number of requests
+     */
+    long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private void schedule(long delayMillis) {
+        try {
+            scheduler.schedule(this::replay, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Replayer shut down
+            replaying.set(false);
+        }
+    }
+
+    private void replay() {
+        List<UpdateContextJournal.Entry> entries = journal.peek(isolatedCount > 0 ? 1 : batchSize);
+        if (entries.isEmpty()) {
+            replaying.set(false);
+            // A request may have been appended after the peek
+            if (journal.getPendingCount() > 0) {
+                wakeUp();
+            }
+            return;
+        }
+        UpdateContextJournal.Entry first = entries.get(0);
+        if (first.getContext() == null) {
+            rejectedCount.incrementAndGet();
+            journal.remove(entries, 1);
+            schedule(0);
+            return;
+        }
+        // Merges the following requests with the same update action
+        UpdateAction updateAction = first.getContext().getUpdateAction();
+        List<ContextElement> elements = new ArrayList<>();
+        int count = 0;
+        for (UpdateContextJournal.Entry entry : entries) {
+            if (entry.getContext() == null || entry.getContext().getUpdateAction() != updateAction) {
+                break;
+            }
+            if (entry.getContext().getContextElements() != null) {
+                elements.addAll(entry.getContext().getContextElements());
+            }
+            count++;
+        }
+        UpdateContext context = new UpdateContext(updateAction);
+        context.setContextElements(elements);
+        int sentCount = count;
+        logger.debug("Replay journaled updateContext ({} requests, {} context elements)", sentCount, elements.size());
+
+        ListenableFuture<UpdateContextResponse> future;
+        try {
+            future = sender.apply(context);
+        } catch (Throwable e) {
+            onFailure(entries, sentCount, e);
+            return;
+        }
+        if (future == null) {
+            onSuccess(entries, sentCount);
+            return;
+        }
+        future.addCallback(response -> onSuccess(entries, sentCount), ex -> onFailure(entries, sentCount, ex));
+    }
+
+    private void onSuccess(List<UpdateContextJournal.Entry> entries, int count) {
+        journal.remove(entries, count);
+        isolatedCount = Math.max(0, isolatedCount - count);
+        replayedCount.addAndGet(count);
+        currentRetryDelayMillis = retryDelayMillis;
+        schedule(0);
+    }
+
+    private void onFailure(List<UpdateContextJournal.Entry> entries, int count, Throwable throwable) {
+        if (throwable instanceof HttpClientErrorException && count > 1) {
+            logger.warn("Journaled requests rejected by the context broker, sent again one by one ({} requests)", count);
+            isolatedCount = count;
+            schedule(0);
+            return;
+        }
+        if (throwable instanceof HttpClientErrorException) {
+            isolatedCount = Math.max(0, isolatedCount - count);
+            logger.error("Journaled requests rejected by the context broker, dropped ({} requests)", count, throwable);
+            journal.remove(entries, count);
+            rejectedCount.addAndGet(count);
+            schedule(0);
+            return;
+        }
+        logger.warn("Unable to replay journaled requests, retry in {} ms (pending requests:{})", currentRetryDelayMillis, journal.getPendingCount(), throwable);
+        schedule(currentRetryDelayMillis);
+        currentRetryDelayMillis = Math.min(maxRetryDelayMillis, currentRetryDelayMillis * 2);
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import com.orange.ngsi.model.ContextAttribute;
+import com.orange.ngsi.model.ContextElement;
+import com.orange.ngsi.model.EntityId;
+import com.orange.ngsi.model.UpdateContext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tags the updateContext requests with a send sequence, so that a failed request journaled to be sent again
+ * doesn't overwrite the newer values of its entities: the attributes already sent or journaled by a later request
+ * are removed from it. The sequences of an entity are kept while one of its requests is in flight.
+ */
+class UpdateContextSequencer {
+
+    private long lastSequence;
+    // Entities with requests in flight, guarded by this
+    private final Map<String, EntitySequences> entities = new HashMap<>();
+
+    /**
+     * Registers a request sent or journaled, its attributes superseding the ones of the previous requests
+     * @param context UpdateContext request
+     * @return The send sequence of the request
+     */
+    synchronized long sent(UpdateContext context) {
+        long sequence = ++lastSequence;
+        for (ContextElement element : elements(context)) {
+            EntitySequences entitySequences = entities.computeIfAbsent(key(element.getEntityId()), key -> new EntitySequences());
+            entitySequences.inFlight++;
+            if (element.getContextAttributeList() != null) {
+                for (ContextAttribute attribute : element.getContextAttributeList()) {
+                    entitySequences.attributeSequences.put(attribute.getName(), sequence);
+                }
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Keeps the attributes of a request not superseded by a later request
+     * @param sequence  Send sequence of the request
+     * @param context   UpdateContext request
+     * @return The request with the remaining attributes, null if all of them are superseded
+     */
+    synchronized UpdateContext unsuperseded(long sequence, UpdateContext context) {
+        List<ContextElement> remainingElements = new ArrayList<>();
+        boolean superseded = false;
+        for (ContextElement element : elements(context)) {
+            EntitySequences entitySequences = entities.get(key(element.getEntityId()));
+            if (entitySequences == null || element.getContextAttributeList() == null) {
+                remainingElements.add(element);
+                continue;
+            }
+            List<ContextAttribute> remainingAttributes = new ArrayList<>();
+            for (ContextAttribute attribute : element.getContextAttributeList()) {
+                Long attributeSequence = entitySequences.attributeSequences.get(attribute.getName());
+                if (attributeSequence == null || attributeSequence <= sequence) {
+                    remainingAttributes.add(attribute);
+                }
+            }
+            if (remainingAttributes.size() == element.getContextAttributeList().size()) {
+                remainingElements.add(element);
+                continue;
+            }
+            superseded = true;
+            if (!remainingAttributes.isEmpty()) {
+                ContextElement remainingElement = new ContextElement();
+                remainingElement.setEntityId(element.getEntityId());
+                remainingElement.setContextAttributeList(remainingAttributes);
+                remainingElements.add(remainingElement);
+            }
+        }
+        if (!superseded) {
+            return context;
+        }
+        if (remainingElements.isEmpty()) {
+            return null;
+        }
+        UpdateContext remainingContext = new UpdateContext();
+        remainingContext.setUpdateAction(context.getUpdateAction());
+        remainingContext.setContextElements(remainingElements);
+        return remainingContext;
+    }
+
+    /**
+     * Unregisters a request answered by the context broker or journaled
+     * @param context UpdateContext request
+     */
+    synchronized void completed(UpdateContext context) {
+        for (ContextElement element : elements(context)) {
+            String key = key(element.getEntityId());
+            EntitySequences entitySequences = entities.get(key);
+            if (entitySequences != null && --entitySequences.inFlight <= 0) {
+                entities.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return Number of entities with requests in flight
+     */
+    synchronized int getInFlightEntityCount() {
+        return entities.size();
+    }
+
+    private static List<ContextElement> elements(UpdateContext context) {
+        List<ContextElement> elements = context.getContextElements();
+        return elements != null ? elements : new ArrayList<>();
+    }
+
+    private static String key(EntityId entityId) {
+        return entityId.getId() + '\u0000' + entityId.getType() + '\u0000' + entityId.getIsPattern();
+    }
+
+    /**
+     * Requests in flight of an entity and the last sequence of each of its attributes
+     */
+    private static class EntitySequences {
+
+        private int inFlight;
+        private final Map<String, Long> attributeSequences = new HashMap<>();
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import com.orange.ngsi.model.ContextAttribute;
+import com.orange.ngsi.model.EntityId;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Removes from the device updates the attributes whose value has not changed since it was last sent to the context broker,
+ * or whose numeric value has changed less than a deadband. An attribute is sent again anyway after a maximum silence.
+ * Only the attribute values are compared, not their metadata.
+ *
+ * The last sent values are kept in two longs per attribute (name hash, time and value type in the first one,
+ * numeric value or hash of the other values in the second one), so that a million devices fit in a few hundred megabytes.
+ */
+class UpdateDeadbandFilter {
+
+    private final static long NUMERIC_FLAG = 1L << 31;
+    private final static long SECONDS_MASK = NUMERIC_FLAG - 1;
+    private final double defaultThreshold;
+    private final Map<String, Double> attributeThresholds;
+    private final long maxSilenceSeconds;
+    private final LongSupplier clock;
+    private final long startMillis;
+    // Last sent attributes by entity: for each attribute, name hash << 32 | numeric flag | seconds since start, then value bits
+    private final ConcurrentHashMap<String, long[]> lastSentAttributes = new ConcurrentHashMap<>();
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong suppressedCount = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param defaultThreshold      Minimum change of a numeric value to send it (0 to send any change)
+     * @param attributeThresholds   Thresholds of specific attributes, by attribute name
+     * @param maxSilenceMillis      Time after which an attribute is sent even if its value has not changed (0 to never force it)
+     * @param clock                 Current time in milliseconds
+     */
+    UpdateDeadbandFilter(double defaultThreshold, Map<String, Double> attributeThresholds, long maxSilenceMillis, LongSupplier clock) {
+        this.defaultThreshold = Math.max(0, defaultThreshold);
+        this.attributeThresholds = attributeThresholds != null ? new HashMap<>(attributeThresholds) : Collections.emptyMap();
+        this.maxSilenceSeconds = maxSilenceMillis > 0 ? Math.max(1, maxSilenceMillis / 1000) : Long.MAX_VALUE;
+        this.clock = clock;
+        this.startMillis = clock.getAsLong();
+    }
+
+    UpdateDeadbandFilter(double defaultThreshold, Map<String, Double> attributeThresholds, long maxSilenceMillis) {
+        this(defaultThreshold, attributeThresholds, maxSilenceMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * Selects the attributes to send and records their value as the last sent one
+     * @param entityId      Updated entity
+     * @param attributes    Attributes of the update
+     * @return The changed attributes, in the same order, empty if no attribute has to be sent
+     */
+    List<ContextAttribute> filter(EntityId entityId, List<ContextAttribute> attributes) {
+        long now = Math.min(SECONDS_MASK, (clock.getAsLong() - startMillis) / 1000);
+        List<ContextAttribute> changedAttributes = new ArrayList<>(attributes.size());
+        lastSentAttributes.compute(key(entityId), (key, lastSent) -> {
+            long[] state = lastSent != null ? lastSent : new long[0];
+            for (ContextAttribute attribute : attributes) {
+                long nameHash = (long) Objects.hashCode(attribute.getName()) << 32;
+                Object value = attribute.getValue();
+                double numericValue = numericValue(value);
+                boolean numeric = !Double.isNaN(numericValue);
+                long valueBits = numeric ? Double.doubleToLongBits(numericValue) : hash(String.valueOf(value));
+                int index = indexOf(state, nameHash);
+                if (index >= 0 && !hasChanged(attribute.getName(), state[index], state[index + 1], numeric, numericValue, valueBits)
+                        && now - (state[index] & SECONDS_MASK) < maxSilenceSeconds) {
+                    continue;
+                }
+                if (index < 0) {
+                    state = Arrays.copyOf(state, state.length + 2);
+                    index = state.length - 2;
+                }
+                state[index] = nameHash | (numeric ? NUMERIC_FLAG : 0) | now;
+                state[index + 1] = valueBits;
+                changedAttributes.add(attribute);
+            }
+            return state;
+        });
+        receivedCount.addAndGet(attributes.size());
+        suppressedCount.addAndGet(attributes.size() - changedAttributes.size());
+        return changedAttributes;
+    }
+
+    /**
+     * Forgets the last sent values of an entity, for instance when its update failed
+     * @param entityId Entity
+     */
+    void invalidate(EntityId entityId) {
+        lastSentAttributes.remove(key(entityId));
+    }
+
+    /**
+     * Attributes received since the start
+     * @return The number of attributes
+     */
+    long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    /**
+     * Attributes not sent since the start
+     * @return The number of attributes
+     */
+    long getSuppressedCount() {
+        return suppressedCount.get();
+    }
+
+    int getEntityCount() {
+        return lastSentAttributes.size();
+    }
+
+    private boolean hasChanged(String name, long lastSentHeader, long lastSentValueBits, boolean numeric, double numericValue, long valueBits) {
+        boolean lastSentNumeric = (lastSentHeader & NUMERIC_FLAG) != 0;
+        if (numeric != lastSentNumeric) {
+            return true;
+        }
+        if (!numeric) {
+            return valueBits != lastSentValueBits;
+        }
+        double threshold = attributeThresholds.getOrDefault(name, defaultThreshold);
+        double change = Math.abs(numericValue - Double.longBitsToDouble(lastSentValueBits));
+        return threshold > 0 ? change >= threshold : change != 0;
+    }
+
+    private static int indexOf(long[] state, long nameHash) {
+        for (int i = 0; i < state.length; i += 2) {
+            if ((state[i] & 0xFFFFFFFF00000000L) == nameHash) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a numeric attribute value
+     * @param value Attribute value, a number or its string representation
+     * @return The value, or NaN if it isn't numeric
+     */
+    private static double numericValue(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (!(value instanceof String)) {
+            return Double.NaN;
+        }
+        String string = (String) value;
+        if (string.isEmpty()) {
+            return Double.NaN;
+        }
+        // Avoids parsing (and its exception) for values which obviously aren't numbers
+        char first = string.charAt(0);
+        if (!Character.isDigit(first) && first != '-' && first != '+' && first != '.') {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(string);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * 64 bits FNV-1a hash of a string
+     */
+    private static long hash(String string) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < string.length(); i++) {
+            hash ^= string.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static String key(EntityId entityId) {
+        return entityId.getId() + '\u0000' + entityId.getType();
+    }
+}
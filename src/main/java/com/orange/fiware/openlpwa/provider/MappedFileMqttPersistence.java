@@ -0,0 +1,383 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.provider;
+
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.eclipse.paho.client.mqttv3.internal.MqttPersistentData;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Mqtt client persistence storing the messages in a memory-mapped append-only file (one file per client).
+ * Each put appends a record and each remove flags it, without system call; the file is compacted
+ * (and grown if needed) when it is full. Records are written before their length, so a record interrupted
+ * by a crash is ignored when the file is read again.
+ * Written records survive a crash of the agent process, the file is only forced to the disk on close and compaction.
+ * A zero length after the last record marks the end of the file.
+ */
+public class MappedFileMqttPersistence implements MqttClientPersistence {
+
+    private final static int MAGIC = 0x4F4C4D50;
+    private final static int FILE_HEADER_LENGTH = 4;
+    // Record length, state, key length, header length, payload length
+    private final static int RECORD_HEADER_LENGTH = 4 + 1 + 4 + 4 + 4;
+    private final static byte RECORD_LIVE = 1;
+    private final static byte RECORD_REMOVED = 0;
+    private final File directory;
+    private final int initialCapacity;
+    private final Map<String, Integer> recordOffsets = new HashMap<>();
+    private Path file;
+    private FileChannel lockChannel;
+    private FileLock lock;
+    private MappedByteBuffer buffer;
+    private int position;
+    private int liveBytes;
+
+    /**
+     * @param directory         Directory of the persistence files
+     * @param initialCapacity   Initial size of a persistence file in bytes
+     */
+    public MappedFileMqttPersistence(String directory, int initialCapacity) {
+        this.directory = new File(directory);
+        this.initialCapacity = Math.max(4096, initialCapacity);
+    }
+
+    public MappedFileMqttPersistence(String directory) {
+        this(directory, 1024 * 1024);
+    }
+
+    @Override
+    public synchronized void open(String clientId, String serverURI) throws MqttPersistenceException {
+        if (buffer != null) {
+            throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_PERSISTENCE_IN_USE);
+        }
+        String fileName = sanitize(clientId + "-" + serverURI);
+        try {
+            Files.createDirectories(directory.toPath());
+            lockChannel = FileChannel.open(directory.toPath().resolve(fileName + ".lck"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                lock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // Locked by another client of the agent
+                lock = null;
+            }
+            if (lock == null) {
+                lockChannel.close();
+                throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_PERSISTENCE_IN_USE);
+            }
+            file = directory.toPath().resolve(fileName + ".mqtt");
+            if (Files.exists(file) && Files.size(file) > FILE_HEADER_LENGTH) {
+                buffer = map(file, (int) Files.size(file));
+                if (buffer.getInt(0) != MAGIC) {
+                    throw new IOException("Invalid Mqtt persistence file " + file);
+                }
+                readRecords();
+            } else {
+                buffer = map(file, initialCapacity);
+                buffer.putInt(0, MAGIC);
+                position = FILE_HEADER_LENGTH;
+            }
+        } catch (IOException e) {
+            release();
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws MqttPersistenceException {
+        if (buffer != null) {
+            buffer.force();
+            unmap(buffer);
+        }
+        release();
+    }
+
+    @Override
+    public synchronized void put(String key, MqttPersistable persistable) throws MqttPersistenceException {
+        checkIsOpen();
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int headerLength = persistable.getHeaderBytes() != null ? persistable.getHeaderLength() : 0;
+        int payloadLength = persistable.getPayloadBytes() != null ? persistable.getPayloadLength() : 0;
+        int recordLength = RECORD_HEADER_LENGTH + keyBytes.length + headerLength + payloadLength;
+
+        markRemoved(key);
+        ensureCapacity(recordLength);
+        int offset = position;
+        buffer.put(offset + 4, RECORD_LIVE);
+        buffer.putInt(offset + 5, keyBytes.length);
+        int index = offset + 9;
+        index = write(index, keyBytes, 0, keyBytes.length);
+        buffer.putInt(index, headerLength);
+        index = write(index + 4, persistable.getHeaderBytes(), persistable.getHeaderOffset(), headerLength);
+        buffer.putInt(index, payloadLength);
+        write(index + 4, persistable.getPayloadBytes(), persistable.getPayloadOffset(), payloadLength);
+        // End of file marker: the bytes after the record may hold an older record, ignored after an interrupted write
+        buffer.putInt(offset + recordLength, 0);
+        // The length is written last: a partially written record is ignored when the file is read
+        buffer.putInt(offset, recordLength);
+        position += recordLength;
+        liveBytes += recordLength;
+        recordOffsets.put(key, offset);
+    }
+
+    @Override
+    public synchronized MqttPersistable get(String key) throws MqttPersistenceException {
+        checkIsOpen();
+        Integer offset = recordOffsets.get(key);
+        if (offset == null) {
+            return null;
+        }
+        int index = offset + 5;
+        int keyLength = buffer.getInt(index);
+        index += 4 + keyLength;
+        byte[] header = read(index);
+        index += 4 + header.length;
+        byte[] payload = read(index);
+        return new MqttPersistentData(key, header, 0, header.length, payload, 0, payload.length);
+    }
+
+    @Override
+    public synchronized void remove(String key) throws MqttPersistenceException {
+        checkIsOpen();
+        markRemoved(key);
+    }
+
+    @Override
+    public synchronized Enumeration keys() throws MqttPersistenceException {
+        checkIsOpen();
+        return Collections.enumeration(new ArrayList<>(recordOffsets.keySet()));
+    }
+
+    @Override
+    public synchronized void clear() throws MqttPersistenceException {
+        checkIsOpen();
+        recordOffsets.clear();
+        liveBytes = 0;
+        compact(initialCapacity);
+    }
+
+    @Override
+    public synchronized boolean containsKey(String key) throws MqttPersistenceException {
+        checkIsOpen();
+        return recordOffsets.containsKey(key);
+    }
+
+    /**
+     * Size of the persistence file
+     * @return The size in bytes
+     */
+    synchronized int getCapacity() {
+        return buffer != null ? buffer.capacity() : 0;
+    }
+
+    private void checkIsOpen() throws MqttPersistenceException {
+        if (buffer == null) {
+            throw new MqttPersistenceException();
+        }
+    }
+
+    private void markRemoved(String key) {
+        Integer offset = recordOffsets.remove(key);
+        if (offset != null) {
+            buffer.put(offset + 4, RECORD_REMOVED);
+            liveBytes -= buffer.getInt(offset);
+        }
+    }
+
+    /**
+     * Makes room at the end of the file for a record, compacting and growing the file if needed
+     * @param recordLength  Length of the record to write
+     * @throws MqttPersistenceException The file can't be compacted
+     */
+    private void ensureCapacity(int recordLength) throws MqttPersistenceException {
+        // 4 bytes are kept after the last record for the end of file marker (length 0)
+        if (position + recordLength + 4 <= buffer.capacity()) {
+            return;
+        }
+        long required = FILE_HEADER_LENGTH + liveBytes + recordLength + 4;
+        long capacity = buffer.capacity();
+        // Keeps at least a third of the file free after the compaction
+        while (capacity < required + required / 2) {
+            capacity *= 2;
+        }
+        if (capacity > Integer.MAX_VALUE) {
+            throw new MqttPersistenceException(new IOException("Mqtt persistence file too large"));
+        }
+        compact((int) capacity);
+    }
+
+    /**
+     * Rewrites the live records in a new file, which replaces the current one
+     * @param capacity  Size of the new file
+     * @throws MqttPersistenceException The new file can't be written
+     */
+    private void compact(int capacity) throws MqttPersistenceException {
+        Path compactedFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.deleteIfExists(compactedFile);
+            MappedByteBuffer compacted = map(compactedFile, capacity);
+            compacted.putInt(0, MAGIC);
+            int compactedPosition = FILE_HEADER_LENGTH;
+            Map<String, Integer> compactedOffsets = new HashMap<>();
+            for (Map.Entry<String, Integer> entry : recordOffsets.entrySet()) {
+                int offset = entry.getValue();
+                int recordLength = buffer.getInt(offset);
+                ByteBuffer record = buffer.duplicate();
+                record.position(offset).limit(offset + recordLength);
+                ByteBuffer target = compacted.duplicate();
+                target.position(compactedPosition);
+                target.put(record);
+                compactedOffsets.put(entry.getKey(), compactedPosition);
+                compactedPosition += recordLength;
+            }
+            compacted.putInt(compactedPosition, 0);
+            compacted.force();
+            Files.move(compactedFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // The old file is unmapped at once rather than when the buffer is garbage collected
+            unmap(buffer);
+            buffer = compacted;
+            position = compactedPosition;
+            recordOffsets.clear();
+            recordOffsets.putAll(compactedOffsets);
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    /**
+     * Rebuilds the index of the live records from the file
+     */
+    private void readRecords() {
+        position = FILE_HEADER_LENGTH;
+        liveBytes = 0;
+        while (position + RECORD_HEADER_LENGTH <= buffer.capacity()) {
+            int recordLength = buffer.getInt(position);
+            if (recordLength < RECORD_HEADER_LENGTH || position + recordLength > buffer.capacity()) {
+                break;
+            }
+            if (buffer.get(position + 4) == RECORD_LIVE) {
+                byte[] keyBytes = read(position + 5);
+                recordOffsets.put(new String(keyBytes, StandardCharsets.UTF_8), position);
+                liveBytes += recordLength;
+            }
+            position += recordLength;
+        }
+    }
+
+    private int write(int index, byte[] bytes, int offset, int length) {
+        if (length > 0) {
+            ByteBuffer target = buffer.duplicate();
+            target.position(index);
+            target.put(bytes, offset, length);
+        }
+        return index + length;
+    }
+
+    /**
+     * Reads a byte array preceded by its length
+     * @param index Position of the length
+     * @return The byte array
+     */
+    private byte[] read(int index) {
+        byte[] bytes = new byte[buffer.getInt(index)];
+        ByteBuffer source = buffer.duplicate();
+        source.position(index + 4);
+        source.get(bytes);
+        return bytes;
+    }
+
+    private void release() {
+        buffer = null;
+        file = null;
+        recordOffsets.clear();
+        try {
+            if (lock != null) {
+                lock.release();
+            }
+            if (lockChannel != null) {
+                lockChannel.close();
+            }
+        } catch (IOException e) {
+            // Lock released when the channel is closed
+        }
+        lock = null;
+        lockChannel = null;
+    }
+
+    /**
+     * Releases the mapping of a buffer, which must not be used afterwards.
+     * Without access to the cleaner, the mapping is released when the buffer is garbage collected.
+     * Also used by the updateContext journal for its segments.
+     * @param mappedBuffer  Buffer to unmap
+     */
+    public static void unmap(MappedByteBuffer mappedBuffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                // Java 8: cleaner of the direct buffer
+                Method cleanerMethod = mappedBuffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(mappedBuffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+                return;
+            }
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), mappedBuffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Unmapped by the garbage collector
+        }
+    }
+
+    private static MappedByteBuffer map(Path path, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+    }
+
+    private static String sanitize(String name) {
+        StringBuilder builder = new StringBuilder(name.length());
+        for (char c : name.toCharArray()) {
+            builder.append(Character.isLetterOrDigit(c) || c == '-' || c == '_' ? c : '_');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.provider;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Releases the manual acknowledgements of a Mqtt connection in the receipt order of the messages (MQTT-4.6.0-2),
+ * although the device lanes complete them in any order: a completed message is only acknowledged once all the
+ * messages received before it on the connection are completed too.
+ */
+class MqttAcknowledgementSequencer {
+
+    /**
+     * Sends the acknowledgement of a message to the broker
+     */
+    @FunctionalInterface
+    interface Acknowledger {
+
+        void acknowledge(MqttMessage message);
+    }
+
+    private final Acknowledger acknowledger;
+    // Messages received and not acknowledged yet, in receipt order, guarded by this
+    private final Deque<PendingMessage> pendingMessages = new ArrayDeque<>();
+
+    /**
+     * @param acknowledger  Sends an acknowledgement, called in the receipt order of the messages
+     */
+    MqttAcknowledgementSequencer(Acknowledger acknowledger) {
+        this.acknowledger = acknowledger;
+    }
+
+    /**
+     * Registers a received message
+     * @param message   Mqtt message
+     * @return Completes the message, acknowledging it with the completed messages received after it if all the
+     * messages received before it are acknowledged
+     */
+    synchronized Runnable received(MqttMessage message) {
+        PendingMessage pendingMessage = new PendingMessage(message);
+        pendingMessages.addLast(pendingMessage);
+        return () -> complete(pendingMessage);
+    }
+
+    /**
+     * Forgets the pending messages when the connection is lost: the broker delivers them again on the new connection
+     * and the acknowledgements of the lost connection are not expected anymore
+     */
+    synchronized void reset() {
+        pendingMessages.clear();
+    }
+
+    /**
+     * @return Number of messages received and not acknowledged yet
+     */
+    synchronized int getPendingCount() {
+        return pendingMessages.size();
+    }
+
+    private synchronized void complete(PendingMessage pendingMessage) {
+        pendingMessage.completed = true;
+        // Acknowledged under the lock to keep the order, Paho only queues the acknowledgement
+        PendingMessage first;
+        while ((first = pendingMessages.peekFirst()) != null && first.completed) {
+            pendingMessages.removeFirst();
+            acknowledger.acknowledge(first.message);
+        }
+    }
+
+    private static class PendingMessage {
+
+        private final MqttMessage message;
+        private boolean completed;
+
+        PendingMessage(MqttMessage message) {
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatches incoming Mqtt messages to a fixed set of worker lanes with bounded queues.
+ * Tasks sharing the same partition key (the device EUI) always run on the same lane, in submission order.
+ */
+@Component
+public class MqttMessagePipeline {
+
+    /**
+     * Enum to manage the behavior when a lane queue is full
+     */
+    public enum OverflowPolicy {
+
+        // Wait until the lane has room (slows down the Mqtt callback thread)
+        BLOCK,
+        // Remove the oldest pending task of the lane to make room
+        DROP_OLDEST,
+        // Discard the new task
+        REJECT
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(MqttMessagePipeline.class);
+    private final OverflowPolicy overflowPolicy;
+    private final List<BlockingQueue<Runnable>> laneQueues = new ArrayList<>();
+    private final List<Thread> laneWorkers = new ArrayList<>();
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private volatile boolean running = true;
+
+    /**
+     * Creates a pipeline without lanes: tasks run on the caller thread
+     */
+    public MqttMessagePipeline() {
+        this(0, 1, OverflowPolicy.BLOCK);
+    }
+
+    @Autowired
+    public MqttMessagePipeline(@Value("${openLpwaProvider.pipeline.lanes:4}") int lanes,
+                               @Value("${openLpwaProvider.pipeline.queueCapacity:1000}") int queueCapacity,
+                               @Value("${openLpwaProvider.pipeline.overflowPolicy:BLOCK}") OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy != null ? overflowPolicy : OverflowPolicy.BLOCK;
+        for (int i = 0; i < lanes; i++) {
+            BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+            Thread worker = new Thread(() -> runLane(queue), "openlpwa-uplink-lane-" + i);
+            worker.setDaemon(true);
+            laneQueues.add(queue);
+            laneWorkers.add(worker);
+            worker.start();
+        }
+        logger.debug("Mqtt message pipeline started (lanes:{}, queueCapacity:{}, overflowPolicy:{})", lanes, queueCapacity, this.overflowPolicy);
+    }
+
+    /**
+     * Submits a task to the lane owning the partition key
+     * @param partitionKey  Key used to select the lane (may be null)
+     * @param task          Task to run
+     * @return <code>true</code> if the task has been accepted
+     */
+    public boolean submit(String partitionKey, Runnable task) {
+        return submit(partitionKey, task, null);
+    }
+
+    /**
+     * Submits a task to the lane owning the partition key
+     * @param partitionKey  Key used to select the lane (may be null)
+     * @param task          Task to run
+     * @param completion    Called once the task has run, or when it is dropped or rejected by the overflow policy,
+     *                      but not when it is discarded by the shutdown (may be null)
+     * @return <code>true</code> if the task has been accepted
+     */
+    public boolean submit(String partitionKey, Runnable task, Runnable completion) {
+        submittedCount.incrementAndGet();
+        if (laneQueues.isEmpty()) {
+            runTask(task);
+            complete(completion);
+            return true;
+        }
+        if (!running) {
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+        if (completion != null) {
+            task = new CompletedTask(task, completion);
+        }
+
+        BlockingQueue<Runnable> queue = laneQueues.get(laneIndex(partitionKey));
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                while (!queue.offer(task)) {
+                    Runnable droppedTask = queue.poll();
+                    if (droppedTask != null) {
+                        droppedCount.incrementAndGet();
+                        logger.warn("Pipeline lane full, oldest message dropped (key:{})", partitionKey);
+                        if (droppedTask instanceof CompletedTask) {
+                            complete(((CompletedTask) droppedTask).completion);
+                        }
+                    }
+                }
+                return true;
+            case REJECT:
+                if (!queue.offer(task)) {
+                    rejectedCount.incrementAndGet();
+                    logger.warn("Pipeline lane full, message rejected (key:{})", partitionKey);
+                    complete(completion);
+                    return false;
+                }
+                return true;
+            default:
+                try {
+                    queue.put(task);
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    rejectedCount.incrementAndGet();
+                    return false;
+                }
+        }
+    }
+
+    /**
+     * Stops the lane workers, pending tasks are discarded
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        laneWorkers.forEach(Thread::interrupt);
+    }
+
+    public int getLaneCount() {
+        return laneQueues.size();
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return Number of tasks waiting in all lanes
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (BlockingQueue<Runnable> queue : laneQueues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Select the lane of a partition key
+     * @param partitionKey  Partition key
+     * @return Lane index
+     */
+    int laneIndex(String partitionKey) {
+        int hash = partitionKey != null ? partitionKey.hashCode() : 0;
+        return (hash & Integer.MAX_VALUE) % laneQueues.size();
+    }
+
+    /**
+     * Worker loop of a lane
+     * @param queue Lane queue
+     */
+    private void runLane(BlockingQueue<Runnable> queue) {
+        while (running) {
+            try {
+                runTask(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static void complete(Runnable completion) {
+        if (completion != null) {
+            try {
+                completion.run();
+            } catch (Throwable e) {
+                logger.error("Unhandled exception while completing message.", e);
+            }
+        }
+    }
+
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable e) {
+            logger.error("Unhandled exception while processing message.", e);
+        } finally {
+            processedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Task followed by its completion
+     */
+    private static class CompletedTask implements Runnable {
+
+        private final Runnable task;
+        private final Runnable completion;
+
+        CompletedTask(Runnable task, Runnable completion) {
+            this.task = task;
+            this.completion = completion;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                complete(completion);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.provider;
+
+import com.orange.fiware.openlpwa.http.AsyncHttpClientPool;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+
+/**
+ * Pool of keep-alive Http connections to the OpenLpwa provider API, served by a non-blocking Http client.
+ * Idle connections are evicted periodically.
+ */
+@Component
+public class OpenLpwaHttpConnectionPool {
+
+    private final AsyncHttpClientPool pool;
+
+    @Autowired
+    public OpenLpwaHttpConnectionPool(@Value("${openLpwaProvider.http.maxConnections:20}") int maxConnections,
+                                      @Value("${openLpwaProvider.http.maxConnectionsPerRoute:20}") int maxConnectionsPerRoute,
+                                      @Value("${openLpwaProvider.http.connectTimeoutMs:5000}") int connectTimeoutMillis,
+                                      @Value("${openLpwaProvider.http.readTimeoutMs:10000}") int readTimeoutMillis,
+                                      @Value("${openLpwaProvider.http.idleTimeoutMs:30000}") long idleTimeoutMillis) throws IOReactorException {
+        pool = new AsyncHttpClientPool("OpenLpwa provider", maxConnections, maxConnectionsPerRoute, connectTimeoutMillis,
+                readTimeoutMillis, idleTimeoutMillis);
+    }
+
+    /**
+     * Request factory sending the requests through the pooled connections
+     * @return The request factory
+     */
+    public AsyncClientHttpRequestFactory getRequestFactory() {
+        return pool.getRequestFactory();
+    }
+
+    /**
+     * Connections currently used by a request
+     * @return The number of leased connections
+     */
+    public int getLeasedConnections() {
+        return pool.getTotalStats().getLeased();
+    }
+
+    /**
+     * Connections kept alive and ready to be reused
+     * @return The number of available connections
+     */
+    public int getAvailableConnections() {
+        return pool.getTotalStats().getAvailable();
+    }
+
+    /**
+     * Requests waiting for a connection
+     * @return The number of pending requests
+     */
+    public int getPendingRequests() {
+        return pool.getTotalStats().getPending();
+    }
+
+    /**
+     * Maximum number of connections of the pool
+     * @return The maximum number of connections
+     */
+    public int getMaxConnections() {
+        return pool.getTotalStats().getMax();
+    }
+
+    /**
+     * Closes expired connections and connections idle for longer than the idle timeout
+     */
+    @Scheduled(initialDelayString = "${openLpwaProvider.http.idleTimeoutMs:30000}", fixedDelayString = "${openLpwaProvider.http.idleTimeoutMs:30000}")
+    public void evictIdleConnections() {
+        pool.evictIdleConnections();
+    }
+
+    /**
+     * Closes the Http client and all its connections
+     */
+    @PreDestroy
+    public void shutdown() {
+        pool.close();
+    }
+}
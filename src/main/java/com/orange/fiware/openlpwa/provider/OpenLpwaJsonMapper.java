@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.provider;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.StdDateFormat;
+import com.orange.fiware.openlpwa.provider.model.DeviceIncomingMessage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.Date;
+
+/**
+ * Shared Json readers and writers of the OpenLpwa provider messages.
+ * Readers and writers are immutable and thread safe, they are built once instead of for each message.
+ */
+public final class OpenLpwaJsonMapper {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final ObjectReader incomingMessageReader = mapper.readerFor(DeviceIncomingMessage.class);
+    private static final ObjectReader providerErrorReader = mapper.readerFor(OpenLpwaProviderError.class);
+    private static final ObjectWriter writer = mapper.writer();
+    // StdDateFormat is not thread safe
+    private static final ThreadLocal<DateFormat> dateFormat = ThreadLocal.withInitial(StdDateFormat::new);
+
+    private OpenLpwaJsonMapper() {
+    }
+
+    /**
+     * Deserializes an incoming message with a streaming parser.
+     * Only the fields used by the agent are read (timestamp, value.payload, value.port, value.fcnt and metadata.source),
+     * the other known fields are skipped without being materialized.
+     * @param payload       Mqtt message payload
+     * @return The message
+     * @throws IOException  The payload is not a valid message
+     */
+    public static DeviceIncomingMessage readIncomingMessage(byte[] payload) throws IOException {
+        try (JsonParser parser = mapper.getFactory().createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw JsonMappingException.from(parser, "Incoming message must be a Json object");
+            }
+            DeviceIncomingMessage incomingMessage = new DeviceIncomingMessage();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                switch (fieldName) {
+                    case "timestamp":
+                        incomingMessage.setDate(readDate(parser, token));
+                        break;
+                    case "value":
+                        incomingMessage.setValue(readValue(parser, token, incomingMessage));
+                        break;
+                    case "metadata":
+                        incomingMessage.setMetadata(readMetadata(parser, token, incomingMessage));
+                        break;
+                    case "streamId":
+                    case "model":
+                    case "tags":
+                        parser.skipChildren();
+                        break;
+                    default:
+                        throw unknownField(parser, fieldName);
+                }
+            }
+            return incomingMessage;
+        }
+    }
+
+    /**
+     * Deserializes an incoming message with the data binding reader, all fields are read
+     * @param payload       Mqtt message payload
+     * @return The message
+     * @throws IOException  The payload is not a valid message
+     */
+    public static DeviceIncomingMessage bindIncomingMessage(byte[] payload) throws IOException {
+        return incomingMessageReader.readValue(payload);
+    }
+
+    /**
+     * Deserializes an OpenLpwa provider API error
+     * @param body          Http response body
+     * @return The error
+     * @throws IOException  The body is not a valid error
+     */
+    public static OpenLpwaProviderError readProviderError(InputStream body) throws IOException {
+        return providerErrorReader.readValue(body);
+    }
+
+    /**
+     * Serializes an object
+     * @param value         Object to serialize
+     * @return Json bytes
+     * @throws IOException  The object can't be serialized
+     */
+    public static byte[] writeValueAsBytes(Object value) throws IOException {
+        return writer.writeValueAsBytes(value);
+    }
+
+    private static DeviceIncomingMessage.DeviceIncomingMessageValue readValue(JsonParser parser, JsonToken token, DeviceIncomingMessage incomingMessage) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        checkObject(parser, token, "value");
+        DeviceIncomingMessage.DeviceIncomingMessageValue value = incomingMessage.new DeviceIncomingMessageValue();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken valueToken = parser.nextToken();
+            switch (fieldName) {
+                case "payload":
+                    value.setData(readString(parser, valueToken, fieldName));
+                    break;
+                case "port":
+                    value.setPort(readInteger(parser, valueToken, fieldName));
+                    break;
+                case "fcnt":
+                    value.setFrameCount(readInteger(parser, valueToken, fieldName));
+                    break;
+                case "signalLevel":
+                    parser.skipChildren();
+                    break;
+                default:
+                    throw unknownField(parser, fieldName);
+            }
+        }
+        return value;
+    }
+
+    private static DeviceIncomingMessage.DeviceIncomingMessageMetadata readMetadata(JsonParser parser, JsonToken token, DeviceIncomingMessage incomingMessage) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        checkObject(parser, token, "metadata");
+        DeviceIncomingMessage.DeviceIncomingMessageMetadata metadata = incomingMessage.new DeviceIncomingMessageMetadata();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken valueToken = parser.nextToken();
+            if ("source".equals(fieldName)) {
+                metadata.setSource(readString(parser, valueToken, fieldName));
+            } else {
+                throw unknownField(parser, fieldName);
+            }
+        }
+        return metadata;
+    }
+
+    private static String readString(JsonParser parser, JsonToken token, String fieldName) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!token.isScalarValue()) {
+            throw JsonMappingException.from(parser, String.format("Field %s must be a string", fieldName));
+        }
+        return parser.getValueAsString();
+    }
+
+    private static Integer readInteger(JsonParser parser, JsonToken token, String fieldName) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getIntValue();
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            try {
+                return Integer.valueOf(parser.getText().trim());
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+        }
+        throw JsonMappingException.from(parser, String.format("Field %s must be an integer", fieldName));
+    }
+
+    private static Date readDate(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return new Date(parser.getLongValue());
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            try {
+                return dateFormat.get().parse(parser.getText().trim());
+            } catch (ParseException e) {
+                throw JsonMappingException.from(parser, "Invalid timestamp", e);
+            }
+        }
+        throw JsonMappingException.from(parser, "Field timestamp must be a date");
+    }
+
+    private static void checkObject(JsonParser parser, JsonToken token, String fieldName) throws JsonMappingException {
+        if (token != JsonToken.START_OBJECT) {
+            throw JsonMappingException.from(parser, String.format("Field %s must be a Json object", fieldName));
+        }
+    }
+
+    private static JsonMappingException unknownField(JsonParser parser, String fieldName) {
+        return JsonMappingException.from(parser, String.format("Unrecognized field %s", fieldName));
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.provider;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Session, persistence and connection options of the OpenLpwa provider Mqtt interface
+ */
+@Component
+public class OpenLpwaMqttOptions {
+
+    public final static String DEFAULT_TOPIC = "router/~event/v1/data/new/urn/lora/#";
+    private final boolean cleanSession;
+    private final OpenLpwaMqttProvider.PersistenceType persistenceType;
+    private final String persistenceDirectory;
+    private final int connections;
+    private final String topic;
+    private final String sharedSubscriptionGroup;
+
+    /**
+     * Creates the default options: one connection with a clean session and an in-memory persistence
+     */
+    public OpenLpwaMqttOptions() {
+        this(true, OpenLpwaMqttProvider.PersistenceType.MEMORY, null, 1, DEFAULT_TOPIC, null);
+    }
+
+    /**
+     * @param cleanSession              <code>false</code> to keep the session (subscription and pending QoS 1 messages)
+     *                                  on the broker while the agent is disconnected
+     * @param persistenceType           Storage of the in-flight messages
+     * @param persistenceDirectory      Directory of the persistence files (FILE and MAPPED_FILE)
+     * @param connections               Number of Mqtt connections consuming the messages
+     * @param topic                     Topic filter of the subscription
+     * @param sharedSubscriptionGroup   Shared subscription group of the connections (empty to subscribe to the topic itself)
+     */
+    @Autowired
+    public OpenLpwaMqttOptions(@Value("${openLpwaProvider.mqtt.cleanSession:true}") boolean cleanSession,
+                               @Value("${openLpwaProvider.mqtt.persistence:MEMORY}") OpenLpwaMqttProvider.PersistenceType persistenceType,
+                               @Value("${openLpwaProvider.mqtt.persistenceDirectory:}") String persistenceDirectory,
+                               @Value("${openLpwaProvider.mqtt.connections:1}") int connections,
+                               @Value("${openLpwaProvider.mqtt.topic:" + DEFAULT_TOPIC + "}") String topic,
+                               @Value("${openLpwaProvider.mqtt.sharedSubscriptionGroup:}") String sharedSubscriptionGroup) {
+        this.cleanSession = cleanSession;
+        this.persistenceType = persistenceType != null ? persistenceType : OpenLpwaMqttProvider.PersistenceType.MEMORY;
+        this.persistenceDirectory = persistenceDirectory;
+        this.connections = Math.max(1, connections);
+        this.topic = topic != null && !topic.isEmpty() ? topic : DEFAULT_TOPIC;
+        this.sharedSubscriptionGroup = sharedSubscriptionGroup;
+    }
+
+    public boolean isCleanSession() {
+        return cleanSession;
+    }
+
+    public OpenLpwaMqttProvider.PersistenceType getPersistenceType() {
+        return persistenceType;
+    }
+
+    public String getPersistenceDirectory() {
+        return persistenceDirectory;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public String getSharedSubscriptionGroup() {
+        return sharedSubscriptionGroup;
+    }
+
+    /**
+     * Topic filter subscribed by each connection: the topic, prefixed by $share/{group}/ for a shared subscription
+     * (the broker then delivers each message to only one connection of the group)
+     * @return The topic filter
+     */
+    public String getSubscriptionTopic() {
+        if (sharedSubscriptionGroup == null || sharedSubscriptionGroup.isEmpty()) {
+            return topic;
+        }
+        return "$share/" + sharedSubscriptionGroup + "/" + topic;
+    }
+}
@@ -18,10 +18,11 @@
 
 package com.orange.fiware.openlpwa.provider;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.orange.fiware.openlpwa.exception.ConfigurationException;
 import com.orange.fiware.openlpwa.provider.model.DeviceIncomingMessage;
 import org.eclipse.paho.client.mqttv3.*;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,6 +31,14 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.concurrent.FailureCallback;
 import org.springframework.util.concurrent.SuccessCallback;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.eclipse.paho.client.mqttv3.MqttConnectOptions.MQTT_VERSION_3_1;
 
 /**
@@ -38,15 +47,36 @@ import static org.eclipse.paho.client.mqttv3.MqttConnectOptions.MQTT_VERSION_3_1
 @Service
 public class OpenLpwaMqttProvider implements MqttCallback {
 
+    /**
+     * Enum to manage the storage of the Mqtt client in-flight messages.
+     * Paho only stores the outbound messages and the QoS 2 inbound in-flight state: the uplinks, received with QoS 1,
+     * are kept by the broker session until acknowledged, whatever the persistence.
+     */
+    public enum PersistenceType {
+
+        // In-flight messages kept in memory, lost when the agent stops
+        MEMORY,
+        // Paho file persistence (one file per message)
+        FILE,
+        // Memory-mapped append-only file
+        MAPPED_FILE
+    }
+
     private static Logger logger = LoggerFactory.getLogger(OpenLpwaMqttProvider.class);
     private final static String userName = "payload";
-    private final static String topicPath = "router/~event/v1/data/new/urn/lora/#";
+    private final static String topicDeviceEUIPrefix = "urn/lora/";
     private final static int subscribeQOS = 1;
     private String serverUri;
     private String clientId;
     private String apiKey;
+    private OpenLpwaMqttOptions options;
     private OpenLpwaMqttProviderCallback clientCallback;
+    // First connection, the other ones are in additionalMqttAsyncClients
     private MqttAsyncClient mqttAsyncClient;
+    private List<MqttAsyncClient> additionalMqttAsyncClients = new ArrayList<>();
+    // Connections subscribed since their last connection
+    private final Set<MqttAsyncClient> subscribedClients = ConcurrentHashMap.newKeySet();
+    private MqttMessagePipeline pipeline;
 
     public String getClientId() {
         return clientId;
@@ -56,20 +86,50 @@ public class OpenLpwaMqttProvider implements MqttCallback {
         this.clientCallback = clientCallback;
     }
 
+    public MqttMessagePipeline getPipeline() {
+        return pipeline;
+    }
+
+    public OpenLpwaMqttOptions getOptions() {
+        return options;
+    }
+
+    public OpenLpwaMqttProvider(String serverUri,
+                                String clientId,
+                                String apiKey,
+                                OpenLpwaMqttProviderCallback clientCallback) throws ConfigurationException, MqttException {
+        this(serverUri, clientId, apiKey, clientCallback, new MqttMessagePipeline());
+    }
+
+    public OpenLpwaMqttProvider(String serverUri,
+                                String clientId,
+                                String apiKey,
+                                OpenLpwaMqttProviderCallback clientCallback,
+                                MqttMessagePipeline pipeline) throws ConfigurationException, MqttException {
+        this(serverUri, clientId, apiKey, clientCallback, pipeline, new OpenLpwaMqttOptions());
+    }
+
     @Autowired
     public OpenLpwaMqttProvider(@Value("${openLpwaProvider.mqttUri}") String serverUri,
                                 @Value("${openLpwaProvider.mqttClientId}") String clientId,
                                 @Value("${openLpwaProvider.apiKey}") String apiKey,
-                                OpenLpwaMqttProviderCallback clientCallback) throws ConfigurationException, MqttException {
+                                OpenLpwaMqttProviderCallback clientCallback,
+                                MqttMessagePipeline pipeline,
+                                OpenLpwaMqttOptions options) throws ConfigurationException, MqttException {
         this.serverUri = serverUri;
         this.clientId = clientId != null ? clientId : MqttAsyncClient.generateClientId();
         this.apiKey = apiKey;
         this.clientCallback = clientCallback;
+        this.pipeline = pipeline != null ? pipeline : new MqttMessagePipeline();
+        this.options = options != null ? options : new OpenLpwaMqttOptions();
 
         checkOpenLpwaMqttProviderInitialization();
 
-        mqttAsyncClient = new MqttAsyncClient(this.serverUri, this.clientId, null);
-        mqttAsyncClient.setCallback(this);
+        mqttAsyncClient = createClient(this.clientId);
+        // The other connections use stable client identifiers to find their session again
+        for (int i = 1; i < this.options.getConnections(); i++) {
+            additionalMqttAsyncClients.add(createClient(this.clientId + "-" + i));
+        }
     }
 
     /**
@@ -80,30 +140,24 @@ public class OpenLpwaMqttProvider implements MqttCallback {
     public void connect(SuccessCallback<String> successCallback, FailureCallback failureCallback) {
         MqttConnectOptions connectOptions = new MqttConnectOptions();
         connectOptions.setMqttVersion(MQTT_VERSION_3_1);
-        connectOptions.setCleanSession(true);
+        connectOptions.setCleanSession(options.isCleanSession());
         connectOptions.setKeepAliveInterval(30);
         connectOptions.setUserName(userName);
         connectOptions.setPassword(apiKey.toCharArray());
 
-        try {
-            mqttAsyncClient.connect(connectOptions, null, new IMqttActionListener() {
-                @Override
-                public void onSuccess(IMqttToken iMqttToken) {
-                    if (successCallback != null) {
-                        successCallback.onSuccess(clientId);
-                    }
-                }
-
-                @Override
-                public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
-                    if (failureCallback != null) {
-                        failureCallback.onFailure(throwable);
-                    }
-                }
-            });
-        } catch (MqttException e) {
-            if (failureCallback != null) {
-                failureCallback.onFailure(e);
+        List<MqttAsyncClient> clients = getClients();
+        ActionListener listener = new ActionListener(clients.size(), successCallback, failureCallback);
+        for (MqttAsyncClient client : clients) {
+            if (client.isConnected()) {
+                // Connection still alive after the loss of another one
+                listener.onSuccess(null);
+                continue;
+            }
+            subscribedClients.remove(client);
+            try {
+                client.connect(connectOptions, null, listener);
+            } catch (MqttException e) {
+                listener.onFailure(null, e);
             }
         }
     }
@@ -114,54 +168,50 @@ public class OpenLpwaMqttProvider implements MqttCallback {
      * @param failureCallback Callback when the disconnection fails
      */
     public void disconnect(SuccessCallback<String> successCallback, FailureCallback failureCallback) {
-        try {
-            mqttAsyncClient.disconnect(null, new IMqttActionListener() {
-                @Override
-                public void onSuccess(IMqttToken iMqttToken) {
-                    if (successCallback != null) {
-                        successCallback.onSuccess(clientId);
-                    }
-                }
-
-                @Override
-                public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
-                    if (failureCallback != null) {
-                        failureCallback.onFailure(throwable);
-                    }
-                }
-            });
-        } catch (MqttException e) {
-            if (failureCallback != null) {
-                failureCallback.onFailure(e);
+        List<MqttAsyncClient> clients = getClients();
+        ActionListener listener = new ActionListener(clients.size(), successCallback, failureCallback);
+        for (MqttAsyncClient client : clients) {
+            subscribedClients.remove(client);
+            try {
+                client.disconnect(null, listener);
+            } catch (MqttException e) {
+                listener.onFailure(null, e);
             }
         }
     }
 
     /**
-     * Subscribes to a topic to retrieve messages for all devices
+     * Subscribes to a topic to retrieve messages for all devices.
+     * Only the connections which are not subscribed yet (new or reconnected connections) subscribe.
      * @param successCallback Callback when the subscription succeeds
      * @param failureCallback Callback when the subscription fails
      */
     public void subscribe(SuccessCallback<String> successCallback, FailureCallback failureCallback) {
-        try {
-            mqttAsyncClient.subscribe(topicPath, subscribeQOS, null, new IMqttActionListener() {
-                @Override
-                public void onSuccess(IMqttToken iMqttToken) {
-                    if (successCallback != null) {
-                        successCallback.onSuccess(clientId);
+        List<MqttAsyncClient> clients = getClients();
+        clients.removeAll(subscribedClients);
+        if (clients.isEmpty()) {
+            if (successCallback != null) {
+                successCallback.onSuccess(clientId);
+            }
+            return;
+        }
+        ActionListener listener = new ActionListener(clients.size(), successCallback, failureCallback);
+        for (MqttAsyncClient client : clients) {
+            try {
+                client.subscribe(options.getSubscriptionTopic(), subscribeQOS, null, new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken iMqttToken) {
+                        subscribedClients.add(client);
+                        listener.onSuccess(iMqttToken);
                     }
-                }
 
-                @Override
-                public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
-                    if (failureCallback != null) {
-                        failureCallback.onFailure(throwable);
+                    @Override
+                    public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
+                        listener.onFailure(iMqttToken, throwable);
                     }
-                }
-            });
-        } catch (MqttException e) {
-            if (failureCallback != null) {
-                failureCallback.onFailure(e);
+                });
+            } catch (MqttException e) {
+                listener.onFailure(null, e);
             }
         }
     }
@@ -172,29 +222,46 @@ public class OpenLpwaMqttProvider implements MqttCallback {
      * @param failureCallback Callback when the unsubscription fails
      */
     public void unsubscribe(SuccessCallback<String> successCallback, FailureCallback failureCallback) {
-        try {
-            mqttAsyncClient.unsubscribe(topicPath, null, new IMqttActionListener() {
-                @Override
-                public void onSuccess(IMqttToken iMqttToken) {
-                    if (successCallback != null) {
-                        successCallback.onSuccess(clientId);
-                    }
-                }
-
-                @Override
-                public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
-                    if (failureCallback != null) {
-                        failureCallback.onFailure(throwable);
-                    }
-                }
-            });
-        } catch (MqttException e) {
-            if (failureCallback != null) {
-                failureCallback.onFailure(e);
+        List<MqttAsyncClient> clients = getClients();
+        ActionListener listener = new ActionListener(clients.size(), successCallback, failureCallback);
+        for (MqttAsyncClient client : clients) {
+            subscribedClients.remove(client);
+            try {
+                client.unsubscribe(options.getSubscriptionTopic(), null, listener);
+            } catch (MqttException e) {
+                listener.onFailure(null, e);
             }
         }
     }
 
+    /**
+     * All the Mqtt connections
+     * @return The Mqtt clients, the first connection first
+     */
+    private List<MqttAsyncClient> getClients() {
+        List<MqttAsyncClient> clients = new ArrayList<>(1 + additionalMqttAsyncClients.size());
+        clients.add(mqttAsyncClient);
+        clients.addAll(additionalMqttAsyncClients);
+        return clients;
+    }
+
+    /**
+     * Creates a Mqtt connection with its own persistence
+     * @param connectionClientId    Client identifier of the connection
+     * @return The Mqtt client
+     * @throws ConfigurationException   The persistence is not configured properly
+     * @throws MqttException            The client can't be created
+     */
+    private MqttAsyncClient createClient(String connectionClientId) throws ConfigurationException, MqttException {
+        MqttAsyncClient client = new MqttAsyncClient(serverUri, connectionClientId, createPersistence(options.getPersistenceType(), options.getPersistenceDirectory()));
+        // A message is only acknowledged once processed by its device lane, so that the broker delivers it again
+        // if the agent stops before (with a persistent session). The acknowledgements are released in the receipt
+        // order of the connection, a slow device lane holding back the acknowledgements of the next messages.
+        client.setManualAcks(true);
+        client.setCallback(new ConnectionCallback(client));
+        return client;
+    }
+
     /**
      * Check mandatory properties to use the class properly
      * @throws ConfigurationException A configuration problem occurred
@@ -207,6 +274,33 @@ public class OpenLpwaMqttProvider implements MqttCallback {
         if (apiKey == null || apiKey.isEmpty()) {
             throw new ConfigurationException("OpenLpwa provider API key us missing");
         }
+
+        // Without shared subscription, each connection would receive every message
+        String sharedSubscriptionGroup = options.getSharedSubscriptionGroup();
+        if (options.getConnections() > 1 && (sharedSubscriptionGroup == null || sharedSubscriptionGroup.isEmpty())) {
+            throw new ConfigurationException(String.format("OpenLpwa provider MQTT shared subscription group is missing for %d connections.",
+                    options.getConnections()));
+        }
+    }
+
+    /**
+     * Creates the storage of the Mqtt client in-flight messages
+     * @param persistenceType       Storage type (MEMORY if null)
+     * @param persistenceDirectory  Directory of the persistence files
+     * @return The persistence
+     * @throws ConfigurationException The directory is missing for a file persistence
+     */
+    private static MqttClientPersistence createPersistence(PersistenceType persistenceType, String persistenceDirectory) throws ConfigurationException {
+        if (persistenceType == null || persistenceType == PersistenceType.MEMORY) {
+            return new MemoryPersistence();
+        }
+        if (persistenceDirectory == null || persistenceDirectory.isEmpty()) {
+            throw new ConfigurationException("OpenLpwa provider MQTT persistence directory is missing.");
+        }
+        if (persistenceType == PersistenceType.FILE) {
+            return new MqttDefaultFilePersistence(persistenceDirectory);
+        }
+        return new MappedFileMqttPersistence(persistenceDirectory);
     }
 
     // MqttCallback implementation
@@ -219,34 +313,210 @@ public class OpenLpwaMqttProvider implements MqttCallback {
     }
 
     @Override
-    public void messageArrived(String s, MqttMessage mqttMessage) {
-        if (clientCallback != null) {
-            // Deserialize incoming message
+    public void messageArrived(String topic, MqttMessage mqttMessage) {
+        messageArrived(topic, mqttMessage, null);
+    }
+
+    /**
+     * Hands over a message to its device lane
+     * @param topic             Topic of the message
+     * @param mqttMessage       Message
+     * @param acknowledgement   Acknowledges the message once processed, ignored or dropped (may be null)
+     */
+    void messageArrived(String topic, MqttMessage mqttMessage, Runnable acknowledgement) {
+        OpenLpwaMqttProviderCallback callback = clientCallback;
+        if (callback == null) {
+            acknowledge(acknowledgement);
+            return;
+        }
+        try {
+            String deviceEUI = getDeviceEUIFromTopic(topic);
+            if (deviceEUI == null) {
+                // Unexpected topic: the message is deserialized to read the deviceEUI from the source metadata
+                DeviceIncomingMessage incomingMessage = readMessage(callback, mqttMessage.getPayload());
+                dispatchMessage(callback, getDeviceEUIFromMessage(incomingMessage), () -> incomingMessage, acknowledgement);
+            } else {
+                // The message is only deserialized by the device lane if the device is accepted
+                dispatchMessage(callback, deviceEUI, () -> readMessage(callback, mqttMessage.getPayload()), acknowledgement);
+            }
+        } catch (Throwable e) {
+            logger.error("Unhandled exception while reading message.", e);
+            acknowledge(acknowledgement);
+        }
+    }
+
+    @Override
+    public void deliveryComplete(IMqttDeliveryToken iMqttDeliveryToken) {
+        // Publish not implemented so deliveryComplete never called
+    }
+
+    /**
+     * Checks a message and hands it over to the device lane to release the Mqtt callback thread
+     * @param callback          Client callback
+     * @param deviceEUI         End device identifier
+     * @param messageReader     Supplies the deserialized message
+     * @param acknowledgement   Acknowledges the message (may be null)
+     */
+    private void dispatchMessage(OpenLpwaMqttProviderCallback callback, String deviceEUI, MessageReader messageReader, Runnable acknowledgement) {
+        if (!callback.acceptMessage(deviceEUI)) {
+            logger.trace("Message ignored for device (EUI:{})", deviceEUI);
+            acknowledge(acknowledgement);
+            return;
+        }
+        pipeline.submit(deviceEUI, () -> {
             DeviceIncomingMessage incomingMessage;
-            String deviceEUI = null;
             try {
-                incomingMessage = new ObjectMapper().readValue(mqttMessage.getPayload(), DeviceIncomingMessage.class);
-                if (incomingMessage != null) {
-                    // Retrieve the deviceEUI from the source metadata
-                    String source = incomingMessage.getMetadata().getSource();
-                    if (source != null) {
-                        String[] splitedSource = source.split(":");
-                        if (splitedSource.length == 3) {
-                            deviceEUI = splitedSource[2];
-                        }
-                    }
+                incomingMessage = messageReader.read();
+            } catch (IOException e) {
+                logger.error("Unable to read message (EUI:{}).", deviceEUI, e);
+                return;
+            }
+            callback.newMessageArrived(deviceEUI, incomingMessage);
+        }, acknowledgement);
+    }
+
+    private static void acknowledge(Runnable acknowledgement) {
+        if (acknowledgement != null) {
+            acknowledgement.run();
+        }
+    }
+
+    /**
+     * Deserializes an incoming message, with the streaming parser if the callback supports partial messages
+     * @param callback      Client callback
+     * @param payload       Mqtt message payload
+     * @return The message
+     * @throws IOException  The payload is not a valid message
+     */
+    private DeviceIncomingMessage readMessage(OpenLpwaMqttProviderCallback callback, byte[] payload) throws IOException {
+        if (callback.supportsPartialMessage()) {
+            return OpenLpwaJsonMapper.readIncomingMessage(payload);
+        }
+        return OpenLpwaJsonMapper.bindIncomingMessage(payload);
+    }
+
+    /**
+     * Retrieves the deviceEUI from the source metadata of a message (urn:lora:{deviceEUI})
+     * @param incomingMessage   Message
+     * @return deviceEUI or null if not found
+     */
+    private static String getDeviceEUIFromMessage(DeviceIncomingMessage incomingMessage) {
+        if (incomingMessage != null && incomingMessage.getMetadata() != null) {
+            String source = incomingMessage.getMetadata().getSource();
+            if (source != null) {
+                String[] splitedSource = source.split(":");
+                if (splitedSource.length == 3) {
+                    return splitedSource[2];
                 }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Retrieves the deviceEUI from a message topic (.../urn/lora/{deviceEUI}[/...]).
+     * The topic is scanned in place, the returned deviceEUI is the only allocation.
+     * @param topic Topic of the message
+     * @return deviceEUI or null if the topic does not contain a deviceEUI
+     */
+    static String getDeviceEUIFromTopic(String topic) {
+        if (topic == null) {
+            return null;
+        }
+        int start = topic.lastIndexOf(topicDeviceEUIPrefix);
+        if (start < 0) {
+            return null;
+        }
+        start += topicDeviceEUIPrefix.length();
+        int end = start;
+        while (end < topic.length()) {
+            char c = topic.charAt(end);
+            if (c == '/' || c == '!') {
+                break;
+            }
+            if (c == '#' || c == '+') {
+                return null;
+            }
+            end++;
+        }
+        return end > start ? topic.substring(start, end) : null;
+    }
+
+    /**
+     * Mqtt action listener shared by the connections: the success callback is called once all the connections
+     * succeeded, the failure callback on the first failure
+     */
+    private class ActionListener implements IMqttActionListener {
 
-                clientCallback.newMessageArrived(deviceEUI, incomingMessage);
+        private final AtomicInteger pendingActions;
+        private final AtomicBoolean failed = new AtomicBoolean();
+        private final SuccessCallback<String> successCallback;
+        private final FailureCallback failureCallback;
 
-            } catch (Throwable e) {
-                logger.error("Unhandled exception while reading message.", e);
+        ActionListener(int actions, SuccessCallback<String> successCallback, FailureCallback failureCallback) {
+            this.pendingActions = new AtomicInteger(actions);
+            this.successCallback = successCallback;
+            this.failureCallback = failureCallback;
+        }
+
+        @Override
+        public void onSuccess(IMqttToken iMqttToken) {
+            if (pendingActions.decrementAndGet() == 0 && !failed.get() && successCallback != null) {
+                successCallback.onSuccess(clientId);
+            }
+        }
+
+        @Override
+        public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
+            if (failed.compareAndSet(false, true) && failureCallback != null) {
+                failureCallback.onFailure(throwable);
             }
         }
     }
 
-    @Override
-    public void deliveryComplete(IMqttDeliveryToken iMqttDeliveryToken) {
-        // Publish not implemented so deliveryComplete never called
+    /**
+     * Mqtt callback of a connection, acknowledging the messages on this connection in their receipt order
+     */
+    private class ConnectionCallback implements MqttCallback {
+
+        private final MqttAsyncClient client;
+        private final MqttAcknowledgementSequencer sequencer;
+
+        ConnectionCallback(MqttAsyncClient client) {
+            this.client = client;
+            this.sequencer = new MqttAcknowledgementSequencer(mqttMessage -> {
+                try {
+                    client.messageArrivedComplete(mqttMessage.getId(), mqttMessage.getQos());
+                } catch (MqttException e) {
+                    logger.warn("Unable to acknowledge Mqtt message (id:{})", mqttMessage.getId(), e);
+                }
+            });
+        }
+
+        @Override
+        public void connectionLost(Throwable throwable) {
+            subscribedClients.remove(client);
+            sequencer.reset();
+            OpenLpwaMqttProvider.this.connectionLost(throwable);
+        }
+
+        @Override
+        public void messageArrived(String topic, MqttMessage mqttMessage) {
+            OpenLpwaMqttProvider.this.messageArrived(topic, mqttMessage, sequencer.received(mqttMessage));
+        }
+
+        @Override
+        public void deliveryComplete(IMqttDeliveryToken iMqttDeliveryToken) {
+            // Publish not implemented so deliveryComplete never called
+        }
+    }
+
+    /**
+     * Supplies a deserialized message
+     */
+    @FunctionalInterface
+    private interface MessageReader {
+
+        DeviceIncomingMessage read() throws IOException;
     }
 }
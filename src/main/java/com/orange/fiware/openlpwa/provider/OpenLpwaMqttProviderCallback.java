@@ -31,6 +31,24 @@ public interface OpenLpwaMqttProviderCallback {
      */
     void connectionLost(Throwable throwable);
 
+    /**
+     * Checks if the messages of a device must be processed, called before dispatching the message
+     * @param deviceEUI     End device Identifier of the device concerned by the message
+     * @return <code>false</code> to ignore the message
+     */
+    default boolean acceptMessage(String deviceEUI) {
+        return true;
+    }
+
+    /**
+     * Checks if the callback only reads the timestamp, value (payload, port and fcnt) and metadata source of the messages,
+     * allowing a faster deserialization which skips the other fields
+     * @return <code>true</code> if partial messages are supported
+     */
+    default boolean supportsPartialMessage() {
+        return false;
+    }
+
     /**
      * A new message is arrived
      * @param deviceEUI         End device Identifier of the device concerned by the message
@@ -45,18 +45,46 @@ public class OpenLpwaProvider {
     private String url;
     private String apiKey;
     private AsyncRestTemplate asyncRestTemplate;
+    private OpenLpwaHttpConnectionPool connectionPool;
+    private OpenLpwaRateLimiter rateLimiter;
 
     public OpenLpwaProvider() {
-        asyncRestTemplate = new AsyncRestTemplate();
+        this(null);
+    }
+
+    /**
+     * @param connectionPool Pool of Http connections (null to use a default request factory)
+     */
+    public OpenLpwaProvider(OpenLpwaHttpConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+        asyncRestTemplate = connectionPool != null ? new AsyncRestTemplate(connectionPool.getRequestFactory()) : new AsyncRestTemplate();
         // Replace the default response handler to manage OpenLpwa provider API errors
         asyncRestTemplate.setErrorHandler(new OpenLpwaResponseErrorHandler());
     }
 
+    public OpenLpwaProvider(String url, String apiKey) {
+        this(url, apiKey, null);
+    }
+
+    public OpenLpwaProvider(String url, String apiKey, OpenLpwaHttpConnectionPool connectionPool) {
+        this(url, apiKey, connectionPool, null);
+    }
+
+    /**
+     * @param url            OpenLpwa provider API URL
+     * @param apiKey         OpenLpwa provider API key
+     * @param connectionPool Pool of Http connections (null to use a default request factory)
+     * @param rateLimiter    Rate limit of the requests (null to send the requests without limit)
+     */
     @Autowired
-    public OpenLpwaProvider(@Value("${openLpwaProvider.restUrl}") String url, @Value("${openLpwaProvider.apiKey}") String apiKey) {
-        this();
+    public OpenLpwaProvider(@Value("${openLpwaProvider.restUrl}") String url,
+                            @Value("${openLpwaProvider.apiKey}") String apiKey,
+                            OpenLpwaHttpConnectionPool connectionPool,
+                            OpenLpwaRateLimiter rateLimiter) {
+        this(connectionPool);
         this.url = url;
         this.apiKey = apiKey;
+        this.rateLimiter = rateLimiter;
     }
 
     public String getApiKey() {
@@ -67,6 +95,14 @@ public class OpenLpwaProvider {
         this.apiKey = apiKey;
     }
 
+    public OpenLpwaHttpConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    public OpenLpwaRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
     public String getUrl() {
         return url;
     }
@@ -129,7 +165,7 @@ public class OpenLpwaProvider {
     }
 
     /**
-     * Build an Http request
+     * Build an Http request, sent when the rate limit allows it
      *
      * @param method       Http method
      * @param url          Url
@@ -141,7 +177,9 @@ public class OpenLpwaProvider {
      */
     private <T, U> ListenableFuture<T> request(HttpMethod method, String url, U body, Class<T> responseType) {
         HttpEntity<U> requestEntity = new HttpEntity<>(body, getHttpHeaders(body != null));
-        ListenableFuture<ResponseEntity<T>> future = asyncRestTemplate.exchange(url, method, requestEntity, responseType);
+        ListenableFuture<ResponseEntity<T>> future = rateLimiter != null
+                ? rateLimiter.execute(() -> asyncRestTemplate.exchange(url, method, requestEntity, responseType))
+                : asyncRestTemplate.exchange(url, method, requestEntity, responseType);
         return new ListenableFutureAdapter<T, ResponseEntity<T>>(future) {
             @Override
             protected T adapt(ResponseEntity<T> result) throws ExecutionException {
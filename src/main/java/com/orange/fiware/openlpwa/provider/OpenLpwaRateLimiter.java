@@ -0,0 +1,252 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.provider;
+
+import com.orange.fiware.openlpwa.exception.AgentException;
+import com.orange.fiware.openlpwa.provider.exception.OpenLpwaProviderThrottledException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Token bucket shared by the requests to the OpenLpwa provider API.
+ * A request is sent at once while the bucket holds a token, otherwise it is queued until a token is available.
+ * A request throttled by the API (Http 429) pauses all the requests during the Retry-After delay, then is sent again.
+ * The requests queued before the pause take a token again, so that they are spread at the sustained rate after it.
+ */
+@Component
+public class OpenLpwaRateLimiter {
+
+    private static Logger logger = LoggerFactory.getLogger(OpenLpwaRateLimiter.class);
+    private final boolean enabled;
+    private final double tokensPerNano;
+    private final double burst;
+    private final int maxQueued;
+    private final int maxRetries;
+    private final long retryAfterMillis;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicLong throttledCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    // Guarded by this, no token is refilled before refillNanos during a pause
+    private double tokens;
+    private long refillNanos = System.nanoTime();
+    private long pauseGeneration;
+
+    /**
+     * @param enabled           <code>false</code> to send the requests without limit
+     * @param requestsPerSecond Sustained request rate
+     * @param burst             Maximum number of requests sent at once after an idle period
+     * @param maxQueued         Maximum number of requests waiting for a token, the other ones are rejected
+     * @param maxRetries        Maximum number of attempts after a throttled request
+     * @param retryAfterMillis  Delay (ms) before sending requests again after a throttled request without Retry-After header
+     */
+    @Autowired
+    public OpenLpwaRateLimiter(@Value("${openLpwaProvider.rateLimit.enabled:false}") boolean enabled,
+                               @Value("${openLpwaProvider.rateLimit.requestsPerSecond:10}") double requestsPerSecond,
+                               @Value("${openLpwaProvider.rateLimit.burst:20}") int burst,
+                               @Value("${openLpwaProvider.rateLimit.maxQueued:1000}") int maxQueued,
+                               @Value("${openLpwaProvider.rateLimit.maxRetries:3}") int maxRetries,
+                               @Value("${openLpwaProvider.rateLimit.retryAfterMs:1000}") long retryAfterMillis) {
+        this.enabled = enabled;
+        this.tokensPerNano = Math.max(0.001, requestsPerSecond) / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.retryAfterMillis = Math.max(0, retryAfterMillis);
+        this.tokens = this.burst;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "openlpwa-rate-limiter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.debug("OpenLpwa provider rate limit (enabled:{}, requestsPerSecond:{}, burst:{}, maxQueued:{})", enabled, requestsPerSecond, burst, maxQueued);
+    }
+
+    /**
+     * Sends a request when the rate limit allows it
+     *
+     * @param request Function sending the request
+     * @param <T>     Type of the response
+     * @return A future for the response, failed with an AgentException if too many requests are queued
+     */
+    public <T> ListenableFuture<T> execute(Supplier<ListenableFuture<T>> request) {
+        if (!enabled) {
+            return request.get();
+        }
+        SettableListenableFuture<T> responseFuture = new SettableListenableFuture<>();
+        Reservation reservation = reserve(false);
+        if (reservation == null) {
+            rejectedCount.incrementAndGet();
+            responseFuture.setException(new AgentException(String.format("Too many queued requests to the OpenLpwa provider API (max:%d)", maxQueued)));
+            return responseFuture;
+        }
+        dispatch(request, responseFuture, reservation, 0);
+        return responseFuture;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Requests waiting for a token or for the end of a pause
+     * @return The number of queued requests
+     */
+    public int getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    /**
+     * Requests throttled by the OpenLpwa provider API
+     * @return The number of throttled requests
+     */
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    /**
+     * Requests rejected because too many requests were queued
+     * @return The number of rejected requests
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Takes a token
+     *
+     * @param force <code>true</code> to queue the request even if the queue is full
+     * @return The reservation of the token, null if the request must be rejected
+     */
+    private synchronized Reservation reserve(boolean force) {
+        long now = System.nanoTime();
+        if (now > refillNanos) {
+            tokens = Math.min(burst, tokens + (now - refillNanos) * tokensPerNano);
+            refillNanos = now;
+        }
+        long delayNanos = refillNanos - now + (tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano));
+        if (delayNanos > 0 && !force && queuedCount.get() >= maxQueued) {
+            return null;
+        }
+        // The bucket may go negative: the following requests wait for the reserved tokens to be refilled
+        tokens--;
+        return new Reservation(delayNanos, pauseGeneration);
+    }
+
+    /**
+     * Takes a token again for a queued request if the requests have been paused since its reservation
+     *
+     * @param reservation Reservation of the request
+     * @return The reservation, or a new one after the pause
+     */
+    private synchronized Reservation reserveAgainIfPaused(Reservation reservation) {
+        return reservation.pauseGeneration == pauseGeneration ? reservation : reserve(true);
+    }
+
+    /**
+     * Pauses the requests. The bucket is emptied and the tokens are only refilled after the pause; the tokens
+     * reserved before are forgotten, since the queued requests reserve a token again.
+     *
+     * @param pauseMillis Pause duration
+     */
+    private synchronized void pause(long pauseMillis) {
+        long now = System.nanoTime();
+        refillNanos = Math.max(refillNanos, now + TimeUnit.MILLISECONDS.toNanos(pauseMillis));
+        tokens = 0;
+        pauseGeneration++;
+    }
+
+    private <T> void dispatch(Supplier<ListenableFuture<T>> request, SettableListenableFuture<T> responseFuture, Reservation reservation, int attempt) {
+        if (reservation.delayNanos <= 0) {
+            send(request, responseFuture, attempt);
+            return;
+        }
+        queuedCount.incrementAndGet();
+        try {
+            scheduler.schedule(() -> {
+                queuedCount.decrementAndGet();
+                // A request throttled in the meantime has paused the others
+                Reservation currentReservation = reserveAgainIfPaused(reservation);
+                if (currentReservation != reservation) {
+                    dispatch(request, responseFuture, currentReservation, attempt);
+                } else {
+                    send(request, responseFuture, attempt);
+                }
+            }, reservation.delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            queuedCount.decrementAndGet();
+            responseFuture.setException(new AgentException("OpenLpwa provider rate limiter shut down", e));
+        }
+    }
+
+    private <T> void send(Supplier<ListenableFuture<T>> request, SettableListenableFuture<T> responseFuture, int attempt) {
+        ListenableFuture<T> future;
+        try {
+            future = request.get();
+        } catch (RuntimeException e) {
+            responseFuture.setException(e);
+            return;
+        }
+        future.addCallback(responseFuture::set, throwable -> {
+            if (throwable instanceof OpenLpwaProviderThrottledException) {
+                throttledCount.incrementAndGet();
+                if (attempt < maxRetries) {
+                    long retryAfter = ((OpenLpwaProviderThrottledException) throwable).getRetryAfterMillis();
+                    long pauseMillis = retryAfter >= 0 ? retryAfter : retryAfterMillis;
+                    logger.warn("Request throttled by the OpenLpwa provider API, requests paused for {} ms (attempt:{})", pauseMillis, attempt + 1);
+                    pause(pauseMillis);
+                    dispatch(request, responseFuture, reserve(true), attempt + 1);
+                    return;
+                }
+            }
+            responseFuture.setException(throwable);
+        });
+    }
+
+    /**
+     * Token reserved by a request
+     */
+    private static class Reservation {
+
+        private final long delayNanos;
+        // Pause generation when the token was reserved
+        private final long pauseGeneration;
+
+        Reservation(long delayNanos, long pauseGeneration) {
+            this.delayNanos = delayNanos;
+            this.pauseGeneration = pauseGeneration;
+        }
+    }
+}
@@ -18,13 +18,17 @@
 
 package com.orange.fiware.openlpwa.provider;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.orange.fiware.openlpwa.provider.exception.OpenLpwaProviderErrorException;
+import com.orange.fiware.openlpwa.provider.exception.OpenLpwaProviderThrottledException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.web.client.DefaultResponseErrorHandler;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
 /**
  * Class to manage OpenLpwa provider API errors with a specific Json stream
@@ -34,12 +38,15 @@ public class OpenLpwaResponseErrorHandler extends DefaultResponseErrorHandler {
     @Override
     public void handleError(ClientHttpResponse clientHttpResponse) throws IOException {
         HttpStatus statusCode = clientHttpResponse.getStatusCode();
+        if (statusCode == HttpStatus.TOO_MANY_REQUESTS) {
+            throw new OpenLpwaProviderThrottledException(parseRetryAfter(clientHttpResponse.getHeaders().getFirst("Retry-After")));
+        }
         // OpenLpwa provider API only returns JSON with error when the status code is 400 or 404
         if (statusCode == HttpStatus.BAD_REQUEST || statusCode == HttpStatus.NOT_FOUND) {
             // Get the response body to deserialize it in OpenLpwaProviderError object
             OpenLpwaProviderError error = null;
             try {
-                error = new ObjectMapper().readValue(clientHttpResponse.getBody(), OpenLpwaProviderError.class);
+                error = OpenLpwaJsonMapper.readProviderError(clientHttpResponse.getBody());
             } catch (Exception e) {
             }
 
@@ -51,4 +58,27 @@ public class OpenLpwaResponseErrorHandler extends DefaultResponseErrorHandler {
         // If it's not a 4xx error or the serialization has failed, fallback to the default handler process
         super.handleError(clientHttpResponse);
     }
+
+    /**
+     * Parse a Retry-After header value
+     *
+     * @param retryAfter Delay in seconds or Http date
+     * @return The delay (ms), -1 if the value is missing or invalid
+     */
+    static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return -1;
+        }
+        String value = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
 }
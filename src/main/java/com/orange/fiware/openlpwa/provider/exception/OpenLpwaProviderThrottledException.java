@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.provider.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+
+/**
+ * Exception triggered when the OpenLpwa provider API has rejected a request because of its rate limit (Http 429)
+ */
+public class OpenLpwaProviderThrottledException extends HttpClientErrorException {
+
+    private final long retryAfterMillis;
+
+    /**
+     * @param retryAfterMillis Delay (ms) before sending requests again, given by the Retry-After header (-1 if missing)
+     */
+    public OpenLpwaProviderThrottledException(long retryAfterMillis) {
+        super(HttpStatus.TOO_MANY_REQUESTS);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
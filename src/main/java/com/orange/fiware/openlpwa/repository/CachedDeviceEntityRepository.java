@@ -0,0 +1,335 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.repository;
+
+import com.orange.fiware.openlpwa.domain.DeviceEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Read-through cache of the devices collection, keyed by device EUI.
+ * All writes go through this repository to keep the cache, the registered devices filter and the device entity index
+ * coherent with the database.
+ * Cached entities are shared and must not be modified by callers.
+ * The writes of the other agents sharing the database are not seen by the cache, so the cached devices expire after a delay.
+ */
+@Repository
+@Primary
+public class CachedDeviceEntityRepository implements DeviceEntityRepository {
+
+    private static Logger logger = LoggerFactory.getLogger(CachedDeviceEntityRepository.class);
+    private final DeviceEntityRepository repository;
+    private final RegisteredDeviceFilter deviceFilter;
+    @Autowired(required = false)
+    private DeviceEntityIndex entityIndex;
+    private final int maxSize;
+    private final boolean preloadEnabled;
+    private final long ttlNanos;
+    private final Map<String, CachedDevice> cache;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    // Incremented on each write to discard database reads started before the write
+    private long generation = 0;
+
+    /**
+     * @param maxSize           Maximum number of cached devices, 0 to disable the cache
+     * @param preloadEnabled    <code>true</code> to load the devices in the cache at startup
+     * @param ttlMillis         Delay (ms) after which a cached device is read again from the database, 0 to keep it until evicted
+     */
+    @Autowired
+    public CachedDeviceEntityRepository(@Qualifier("deviceEntityRepository") DeviceEntityRepository repository,
+                                        RegisteredDeviceFilter deviceFilter,
+                                        @Value("${mongodb.cache.maxSize:100000}") int maxSize,
+                                        @Value("${mongodb.cache.preload:false}") boolean preloadEnabled,
+                                        @Value("${mongodb.cache.ttlMs:60000}") long ttlMillis) {
+        this.repository = repository;
+        this.deviceFilter = deviceFilter;
+        this.maxSize = Math.max(0, maxSize);
+        this.preloadEnabled = preloadEnabled;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ttlMillis));
+        // Access ordered map to evict the least recently used device
+        this.cache = new LinkedHashMap<String, CachedDevice>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedDevice> eldest) {
+                if (size() > CachedDeviceEntityRepository.this.maxSize) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Loads the devices collection into the cache at startup if enabled
+     */
+    @PostConstruct
+    void init() {
+        if (preloadEnabled) {
+            try {
+                logger.debug("{} devices preloaded in cache", preload());
+            } catch (Exception e) {
+                logger.error("Unable to preload the devices cache", e);
+            }
+        }
+    }
+
+    /**
+     * Loads the devices collection into the cache, up to the cache maximum size
+     * @return Number of cached devices
+     */
+    public int preload() {
+        for (DeviceEntity device : repository.findAll()) {
+            synchronized (this) {
+                if (cache.size() >= maxSize) {
+                    break;
+                }
+                cache.put(device.getDeviceEUI(), new CachedDevice(device));
+            }
+        }
+        return size();
+    }
+
+    /**
+     * Removes all devices from the cache
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        cache.clear();
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    // DeviceEntityRepository implementation
+
+    @Override
+    public DeviceEntity findOne(String deviceEUI) {
+        if (deviceEUI == null) {
+            return repository.findOne(deviceEUI);
+        }
+        if (deviceFilter != null && !deviceFilter.mightBeRegistered(deviceEUI)) {
+            return null;
+        }
+        long readGeneration;
+        synchronized (this) {
+            CachedDevice cachedDevice = cache.get(deviceEUI);
+            if (cachedDevice != null && !cachedDevice.isExpired()) {
+                hitCount.incrementAndGet();
+                return cachedDevice.device;
+            }
+            if (cachedDevice != null) {
+                // May have been unregistered or registered again by another agent
+                cache.remove(deviceEUI);
+            }
+            readGeneration = generation;
+        }
+        missCount.incrementAndGet();
+        DeviceEntity device = repository.findOne(deviceEUI);
+        if (device != null) {
+            synchronized (this) {
+                if (readGeneration == generation && maxSize > 0) {
+                    cache.put(deviceEUI, new CachedDevice(device));
+                }
+            }
+        }
+        return device;
+    }
+
+    @Override
+    public boolean exists(String deviceEUI) {
+        return findOne(deviceEUI) != null;
+    }
+
+    @Override
+    public <S extends DeviceEntity> S save(S device) {
+        S savedDevice = repository.save(device);
+        if (savedDevice != null && deviceFilter != null) {
+            deviceFilter.add(savedDevice.getDeviceEUI());
+        }
+        if (savedDevice != null && entityIndex != null) {
+            entityIndex.put(savedDevice);
+        }
+        synchronized (this) {
+            generation++;
+            if (savedDevice != null && maxSize > 0) {
+                cache.put(savedDevice.getDeviceEUI(), new CachedDevice(savedDevice));
+            }
+        }
+        return savedDevice;
+    }
+
+    @Override
+    public <S extends DeviceEntity> Iterable<S> save(Iterable<S> devices) {
+        Iterable<S> savedDevices = repository.save(devices);
+        if (savedDevices != null && deviceFilter != null) {
+            savedDevices.forEach(device -> deviceFilter.add(device.getDeviceEUI()));
+        }
+        if (savedDevices != null && entityIndex != null) {
+            savedDevices.forEach(entityIndex::put);
+        }
+        synchronized (this) {
+            generation++;
+            if (savedDevices != null && maxSize > 0) {
+                savedDevices.forEach(device -> cache.put(device.getDeviceEUI(), new CachedDevice(device)));
+            }
+        }
+        return savedDevices;
+    }
+
+    @Override
+    public Iterable<DeviceEntity> findAll() {
+        return repository.findAll();
+    }
+
+    @Override
+    public Iterable<DeviceEntity> findAll(Iterable<String> deviceEUIs) {
+        return repository.findAll(deviceEUIs);
+    }
+
+    @Override
+    public List<DeviceEntity> findByType(String type) {
+        return repository.findByType(type);
+    }
+
+    @Override
+    public List<DeviceEntity> findByNameAndType(String name, String type) {
+        return repository.findByNameAndType(name, type);
+    }
+
+    @Override
+    public List<DeviceEntity> findPatternSubscriptionDevices(String type, List<String> commands, Pageable pageable) {
+        return repository.findPatternSubscriptionDevices(type, commands, pageable);
+    }
+
+    @Override
+    public Stream<DeviceEntity> streamSubscriptionsToRenew(Date date, Sort sort) {
+        return repository.streamSubscriptionsToRenew(date, sort);
+    }
+
+    @Override
+    public long count() {
+        return repository.count();
+    }
+
+    @Override
+    public void delete(String deviceEUI) {
+        repository.delete(deviceEUI);
+        evict(deviceEUI);
+    }
+
+    @Override
+    public void delete(DeviceEntity device) {
+        repository.delete(device);
+        if (device != null) {
+            evict(device.getDeviceEUI());
+        }
+    }
+
+    @Override
+    public void delete(Iterable<? extends DeviceEntity> devices) {
+        repository.delete(devices);
+        synchronized (this) {
+            generation++;
+            devices.forEach(device -> cache.remove(device.getDeviceEUI()));
+        }
+        if (deviceFilter != null) {
+            devices.forEach(device -> deviceFilter.remove(device.getDeviceEUI()));
+        }
+        if (entityIndex != null) {
+            devices.forEach(device -> entityIndex.remove(device.getDeviceEUI()));
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        repository.deleteAll();
+        invalidateAll();
+        if (deviceFilter != null) {
+            deviceFilter.clear();
+        }
+        if (entityIndex != null) {
+            entityIndex.clear();
+        }
+    }
+
+    private void evict(String deviceEUI) {
+        synchronized (this) {
+            generation++;
+            cache.remove(deviceEUI);
+        }
+        if (deviceFilter != null) {
+            deviceFilter.remove(deviceEUI);
+        }
+        if (entityIndex != null) {
+            entityIndex.remove(deviceEUI);
+        }
+    }
+
+    /**
+     * Cached device with its expiry
+     */
+    private class CachedDevice {
+
+        private final DeviceEntity device;
+        private final long cachedAtNanos = System.nanoTime();
+
+        CachedDevice(DeviceEntity device) {
+            this.device = device;
+        }
+
+        boolean isExpired() {
+            return ttlNanos > 0 && System.nanoTime() - cachedAtNanos >= ttlNanos;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+package com.orange.fiware.openlpwa.repository;
+
+import com.mongodb.BasicDBObject;
+import com.orange.fiware.openlpwa.domain.DeviceEntity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory index of the registered devices by entity, used to find the device targeted by a notification
+ * of a pattern subscription without reading the database.
+ * The index is built at startup from the devices collection and updated on each device save or delete. Like the registered
+ * devices filter, it can also be rebuilt at a (long) regular interval.
+ */
+@Component
+public class DeviceEntityIndex extends RebuildableDeviceIndex {
+
+    // Device EUI by entity key, and entity key by device EUI to update the index when a device entity changes
+    private Map<String, String> deviceEUIs = new HashMap<>();
+    private Map<String, String> entityKeys = new HashMap<>();
+
+    /**
+     * @param enabled               <code>false</code> to never index the devices
+     * @param rebuildIntervalMillis Interval (ms) between two rebuilds of the index, 0 to only build it at startup
+     */
+    @Autowired
+    public DeviceEntityIndex(MongoOperations mongoOperations,
+                             @Value("${contextBroker.patternSubscription.enabled:false}") boolean enabled,
+                             @Value("${mongodb.filter.rebuildIntervalMs:3600000}") long rebuildIntervalMillis) {
+        super(mongoOperations, enabled, rebuildIntervalMillis, "device entity index");
+    }
+
+    /**
+     * Finds the device bound to an entity
+     * @param type  Entity type
+     * @param name  Entity name
+     * @return The device EUI, null if no registered device is bound to the entity
+     */
+    public synchronized String findDeviceEUI(String type, String name) {
+        return deviceEUIs.get(entityKey(type, name));
+    }
+
+    /**
+     * Adds or updates a registered device
+     * @param device Device entity
+     */
+    public void put(DeviceEntity device) {
+        if (isEnabled() && device != null && device.getDeviceEUI() != null) {
+            String deviceEUI = device.getDeviceEUI();
+            String entityKey = entityKey(device.getType(), device.getName());
+            write(() -> put(deviceEUIs, entityKeys, deviceEUI, entityKey));
+        }
+    }
+
+    /**
+     * Removes an unregistered device
+     * @param deviceEUI Device EUI
+     */
+    public void remove(String deviceEUI) {
+        if (isEnabled() && deviceEUI != null) {
+            write(() -> remove(deviceEUIs, entityKeys, deviceEUI));
+        }
+    }
+
+    /**
+     * Removes all devices until the next rebuild
+     */
+    public void clear() {
+        reset(() -> {
+            deviceEUIs = new HashMap<>();
+            entityKeys = new HashMap<>();
+        });
+    }
+
+    @Override
+    protected Runnable readDevices() {
+        Map<String, String> rebuiltDeviceEUIs = new HashMap<>();
+        Map<String, String> rebuiltEntityKeys = new HashMap<>();
+        forEachDevice(new BasicDBObject("_id", 1).append("name", 1).append("type", 1), device -> {
+            Object id = device.get("_id");
+            if (id != null) {
+                put(rebuiltDeviceEUIs, rebuiltEntityKeys, id.toString(), entityKey((String) device.get("type"), (String) device.get("name")));
+            }
+        });
+        return () -> {
+            deviceEUIs = rebuiltDeviceEUIs;
+            entityKeys = rebuiltEntityKeys;
+        };
+    }
+
+    @Override
+    public synchronized int size() {
+        return entityKeys.size();
+    }
+
+    private static String entityKey(String type, String name) {
+        return type + '\t' + name;
+    }
+
+    private static void put(Map<String, String> deviceEUIs, Map<String, String> entityKeys, String deviceEUI, String entityKey) {
+        remove(deviceEUIs, entityKeys, deviceEUI);
+        deviceEUIs.put(entityKey, deviceEUI);
+        entityKeys.put(deviceEUI, entityKey);
+    }
+
+    private static void remove(Map<String, String> deviceEUIs, Map<String, String> entityKeys, String deviceEUI) {
+        String previousEntityKey = entityKeys.remove(deviceEUI);
+        if (previousEntityKey != null) {
+            deviceEUIs.remove(previousEntityKey, deviceEUI);
+        }
+    }
+}
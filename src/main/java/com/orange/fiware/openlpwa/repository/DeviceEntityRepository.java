@@ -19,10 +19,54 @@
 package com.orange.fiware.openlpwa.repository;
 
 import com.orange.fiware.openlpwa.domain.DeviceEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
 /**
  * Repository for the devices
  */
 public interface DeviceEntityRepository extends CrudRepository<DeviceEntity, String> {
+
+    /**
+     * Find the devices bound to entities of a type
+     * @param type Entity type
+     * @return The devices
+     */
+    List<DeviceEntity> findByType(String type);
+
+    /**
+     * Find the devices bound to an entity
+     * @param name Entity name
+     * @param type Entity type
+     * @return The devices
+     */
+    List<DeviceEntity> findByNameAndType(String name, String type);
+
+    /**
+     * Find the identifiers of the devices without own subscription bound to entities of a type with exactly some
+     * commands (in any order), which are subscribed by the pattern subscription of these commands
+     * @param type      Entity type
+     * @param commands  Commands
+     * @param pageable  Page to read, a single device is enough to know the subscription is used
+     * @return The devices, with their identifier only
+     */
+    @Query(value = "{ 'type' : ?0, 'subscriptionId' : null, 'commands' : { '$all' : ?1, '$not' : { '$elemMatch' : { '$nin' : ?1 } } } }",
+            fields = "{ '_id' : 1 }")
+    List<DeviceEntity> findPatternSubscriptionDevices(String type, List<String> commands, Pageable pageable);
+
+    /**
+     * Stream the devices with a subscription to renew, read from the database with a cursor.
+     * The stream must be closed.
+     * @param date  Devices with a renewal date before this date, or without renewal date
+     * @param sort  Order of the devices
+     * @return The devices
+     */
+    @Query("{ 'subscriptionId' : { '$ne' : null }, '$or' : [ { 'subscriptionRenewAt' : null }, { 'subscriptionRenewAt' : { '$lte' : ?0 } } ] }")
+    Stream<DeviceEntity> streamSubscriptionsToRenew(Date date, Sort sort);
 }
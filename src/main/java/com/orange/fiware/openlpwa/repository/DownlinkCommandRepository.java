@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+package com.orange.fiware.openlpwa.repository;
+
+import com.orange.fiware.openlpwa.domain.DownlinkCommandEntity;
+import org.springframework.data.repository.CrudRepository;
+
+import java.util.List;
+
+/**
+ * Repository for the queued downlink commands
+ */
+public interface DownlinkCommandRepository extends CrudRepository<DownlinkCommandEntity, String> {
+
+    /**
+     * Find the commands queued by an agent instance
+     * @param owner Agent instance, null for the commands queued without owner
+     * @return The commands
+     */
+    List<DownlinkCommandEntity> findByOwner(String owner);
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+package com.orange.fiware.openlpwa.repository;
+
+import com.orange.fiware.openlpwa.domain.PatternSubscriptionEntity;
+import org.springframework.data.repository.CrudRepository;
+
+/**
+ * Repository for the pattern subscriptions
+ */
+public interface PatternSubscriptionRepository extends CrudRepository<PatternSubscriptionEntity, String> {
+
+    /**
+     * Find a pattern subscription
+     * @param subscriptionId    Subscription identifier in the NGSI Context Broker
+     * @return The pattern subscription, null if unknown
+     */
+    PatternSubscriptionEntity findBySubscriptionId(String subscriptionId);
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.repository;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.orange.fiware.openlpwa.domain.DeviceEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * In-memory structure built from the devices collection, updated on each device save or delete and rebuilt at a
+ * (long) regular interval.
+ * The collection is read without holding the lock: the writes done meanwhile are replayed on the rebuilt structure.
+ * The subclasses guard their structure with this.
+ */
+public abstract class RebuildableDeviceIndex {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    protected final MongoOperations mongoOperations;
+    private final boolean enabled;
+    private final long rebuildIntervalMillis;
+    private final String description;
+    private volatile boolean built;
+    private volatile long lastRebuildMillis;
+    // Writes done while a rebuild is reading the collection, replayed on the rebuilt structure
+    private List<Runnable> rebuildPendingWrites;
+
+    /**
+     * @param enabled               <code>false</code> to never build the structure
+     * @param rebuildIntervalMillis Interval (ms) between two rebuilds, 0 to only build it at startup
+     * @param description           Name of the structure in the logs
+     */
+    protected RebuildableDeviceIndex(MongoOperations mongoOperations, boolean enabled, long rebuildIntervalMillis, String description) {
+        this.mongoOperations = mongoOperations;
+        this.enabled = enabled;
+        this.rebuildIntervalMillis = Math.max(0, rebuildIntervalMillis);
+        this.description = description;
+    }
+
+    /**
+     * Builds the structure if it isn't built yet (at startup, after a failed build or after a clear), or rebuilds it
+     * once the rebuild interval has elapsed
+     */
+    @Scheduled(initialDelay = 0, fixedDelay = 60000)
+    public void rebuildIfNeeded() {
+        if (!built || (rebuildIntervalMillis > 0 && System.currentTimeMillis() - lastRebuildMillis >= rebuildIntervalMillis)) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Rebuilds the structure from the devices collection
+     */
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            rebuildPendingWrites = new ArrayList<>();
+        }
+        Runnable installation;
+        try {
+            installation = readDevices();
+        } catch (RuntimeException e) {
+            logger.error("Unable to rebuild the {}", description, e);
+            synchronized (this) {
+                rebuildPendingWrites = null;
+            }
+            return;
+        }
+        synchronized (this) {
+            installation.run();
+            rebuildPendingWrites.forEach(Runnable::run);
+            rebuildPendingWrites = null;
+            built = true;
+        }
+        lastRebuildMillis = System.currentTimeMillis();
+        logger.debug("Rebuilt the {} ({} devices)", description, size());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public abstract int size();
+
+    /**
+     * @return <code>true</code> once the structure is built, until a clear
+     */
+    protected boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * Applies a write to the structure, and to the structure being rebuilt
+     * @param write Write, reading the structure fields when run
+     */
+    protected synchronized void write(Runnable write) {
+        write.run();
+        if (rebuildPendingWrites != null) {
+            rebuildPendingWrites.add(write);
+        }
+    }
+
+    /**
+     * Empties the structure until the next rebuild
+     * @param reset Replaces the structure
+     */
+    protected synchronized void reset(Runnable reset) {
+        built = false;
+        reset.run();
+    }
+
+    /**
+     * Reads the devices collection into a new structure, without holding the lock
+     * @return Installs the new structure, run with the lock held
+     */
+    protected abstract Runnable readDevices();
+
+    /**
+     * Reads the devices collection with a cursor
+     * @param fields    Fields to read
+     * @param consumer  Consumes each device
+     */
+    protected void forEachDevice(BasicDBObject fields, Consumer<DBObject> consumer) {
+        String collectionName = mongoOperations.getCollectionName(DeviceEntity.class);
+        try (DBCursor cursor = mongoOperations.getCollection(collectionName).find(new BasicDBObject(), fields)) {
+            while (cursor.hasNext()) {
+                consumer.accept(cursor.next());
+            }
+        }
+    }
+}
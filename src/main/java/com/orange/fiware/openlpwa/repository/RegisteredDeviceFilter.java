@@ -0,0 +1,333 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.repository;
+
+import com.mongodb.BasicDBObject;
+import com.orange.fiware.openlpwa.domain.DeviceEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compact set of the registered device EUIs, used to reject messages of unknown devices
+ * without reading the database.
+ * The set is built at startup from the devices collection and updated on each device save or delete. It can also be rebuilt
+ * at a (long) regular interval, to catch up with devices written to the database by another process.
+ * A device missing from the set may have been registered by another agent sharing the database: it is looked up in the
+ * database, and a device not found there is rejected without reading the database again for a short delay.
+ * Until the first build succeeds, every device is considered as registered.
+ */
+@Component
+public class RegisteredDeviceFilter extends RebuildableDeviceIndex {
+
+    private static Logger logger = LoggerFactory.getLogger(RegisteredDeviceFilter.class);
+    // Maximum number of unregistered devices remembered, the least recently checked ones are forgotten
+    private static final int MAX_UNREGISTERED_DEVICES = 100000;
+    private final long unregisteredTtlNanos;
+    // Devices not found in the database, with the time of the lookup (guarded by this)
+    private final Map<String, Long> unregisteredDevices = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_UNREGISTERED_DEVICES;
+        }
+    };
+    // Incremented on each write to discard the lookups started before the write (guarded by this)
+    private long generation = 0;
+    private final AtomicLong acceptedCount = new AtomicLong();
+    private final AtomicLong filteredCount = new AtomicLong();
+    private EUISet registeredDevices = new EUISet();
+
+    /**
+     * @param enabled                   <code>false</code> to accept all devices
+     * @param rebuildIntervalMillis     Interval (ms) between two rebuilds of the set, 0 to only build it at startup
+     * @param unregisteredTtlMillis     Delay (ms) during which a device not found in the database is rejected without
+     *                                  reading the database again
+     */
+    @Autowired
+    public RegisteredDeviceFilter(MongoOperations mongoOperations,
+                                  @Value("${mongodb.filter.enabled:true}") boolean enabled,
+                                  @Value("${mongodb.filter.rebuildIntervalMs:3600000}") long rebuildIntervalMillis,
+                                  @Value("${mongodb.filter.unregisteredTtlMs:60000}") long unregisteredTtlMillis) {
+        super(mongoOperations, enabled, rebuildIntervalMillis, "registered devices filter");
+        this.unregisteredTtlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, unregisteredTtlMillis));
+    }
+
+    /**
+     * Checks if a device may be registered
+     * @param deviceEUI Device EUI
+     * @return <code>false</code> if the device is not registered for sure
+     */
+    public boolean mightBeRegistered(String deviceEUI) {
+        if (!isEnabled() || !isBuilt() || deviceEUI == null) {
+            return true;
+        }
+        boolean registered;
+        long lookupGeneration;
+        synchronized (this) {
+            registered = registeredDevices.contains(deviceEUI);
+            lookupGeneration = generation;
+            if (!registered) {
+                Long checkedAt = unregisteredDevices.get(deviceEUI);
+                if (checkedAt != null && System.nanoTime() - checkedAt < unregisteredTtlNanos) {
+                    filteredCount.incrementAndGet();
+                    return false;
+                }
+            }
+        }
+        if (!registered) {
+            registered = lookup(deviceEUI, lookupGeneration);
+        }
+        if (registered) {
+            acceptedCount.incrementAndGet();
+        } else {
+            filteredCount.incrementAndGet();
+        }
+        return registered;
+    }
+
+    /**
+     * Looks up a device missing from the set in the database
+     * @return <code>true</code> if the device is registered, or if the database can't be read
+     */
+    private boolean lookup(String deviceEUI, long lookupGeneration) {
+        boolean registered;
+        try {
+            registered = mongoOperations.exists(Query.query(Criteria.where("_id").is(deviceEUI)), DeviceEntity.class);
+        } catch (RuntimeException e) {
+            logger.warn("Unable to look up the device (EUI:{}) in the database", deviceEUI, e);
+            return true;
+        }
+        synchronized (this) {
+            // The device may have been saved or deleted during the lookup
+            if (lookupGeneration == generation) {
+                if (registered) {
+                    // Registered by another agent
+                    write(() -> registeredDevices.add(deviceEUI));
+                } else {
+                    unregisteredDevices.put(deviceEUI, System.nanoTime());
+                }
+            }
+        }
+        return registered;
+    }
+
+    /**
+     * Adds a registered device
+     * @param deviceEUI Device EUI
+     */
+    public synchronized void add(String deviceEUI) {
+        if (deviceEUI != null) {
+            generation++;
+            unregisteredDevices.remove(deviceEUI);
+            write(() -> registeredDevices.add(deviceEUI));
+        }
+    }
+
+    /**
+     * Removes an unregistered device
+     * @param deviceEUI Device EUI
+     */
+    public synchronized void remove(String deviceEUI) {
+        if (deviceEUI != null) {
+            generation++;
+            unregisteredDevices.put(deviceEUI, System.nanoTime());
+            write(() -> registeredDevices.remove(deviceEUI));
+        }
+    }
+
+    /**
+     * Removes all devices, the filter accepts all devices until the next rebuild
+     */
+    public synchronized void clear() {
+        generation++;
+        unregisteredDevices.clear();
+        reset(() -> registeredDevices = new EUISet());
+    }
+
+    @Override
+    protected Runnable readDevices() {
+        EUISet rebuiltDevices = new EUISet();
+        forEachDevice(new BasicDBObject("_id", 1), device -> {
+            Object id = device.get("_id");
+            if (id != null) {
+                rebuiltDevices.add(id.toString());
+            }
+        });
+        return () -> registeredDevices = rebuiltDevices;
+    }
+
+    public boolean isReady() {
+        return isBuilt();
+    }
+
+    @Override
+    public synchronized int size() {
+        return registeredDevices.size();
+    }
+
+    public long getAcceptedCount() {
+        return acceptedCount.get();
+    }
+
+    /**
+     * @return Number of messages rejected because the device is not registered
+     */
+    public long getFilteredCount() {
+        return filteredCount.get();
+    }
+
+    /**
+     * Set of device EUIs: 64 bits uppercase hexadecimal EUIs are stored as primitive longs in an open addressing table,
+     * other identifiers in a standard set
+     */
+    static class EUISet {
+
+        private static final int EUI_LENGTH = 16;
+        private long[] table = new long[16];
+        private int longCount = 0;
+        private boolean containsZero = false;
+        private final Set<String> otherIdentifiers = new HashSet<>();
+
+        boolean contains(String deviceEUI) {
+            if (!isHexEUI(deviceEUI)) {
+                return otherIdentifiers.contains(deviceEUI);
+            }
+            long key = parseEUI(deviceEUI);
+            if (key == 0) {
+                return containsZero;
+            }
+            int mask = table.length - 1;
+            for (int i = index(key, mask); table[i] != 0; i = (i + 1) & mask) {
+                if (table[i] == key) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(String deviceEUI) {
+            if (!isHexEUI(deviceEUI)) {
+                otherIdentifiers.add(deviceEUI);
+                return;
+            }
+            long key = parseEUI(deviceEUI);
+            if (key == 0) {
+                containsZero = true;
+            } else if (!contains(deviceEUI)) {
+                if ((longCount + 1) * 2 > table.length) {
+                    resize(table.length * 2);
+                }
+                insert(table, key);
+                longCount++;
+            }
+        }
+
+        void remove(String deviceEUI) {
+            if (!isHexEUI(deviceEUI)) {
+                otherIdentifiers.remove(deviceEUI);
+                return;
+            }
+            long key = parseEUI(deviceEUI);
+            if (key == 0) {
+                containsZero = false;
+                return;
+            }
+            int mask = table.length - 1;
+            int i = index(key, mask);
+            while (table[i] != key) {
+                if (table[i] == 0) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            // Backward shift deletion to keep probe sequences valid
+            int gap = i;
+            for (int j = (gap + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+                int home = index(table[j], mask);
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    table[gap] = table[j];
+                    gap = j;
+                }
+            }
+            table[gap] = 0;
+            longCount--;
+        }
+
+        int size() {
+            return longCount + (containsZero ? 1 : 0) + otherIdentifiers.size();
+        }
+
+        private void resize(int capacity) {
+            long[] resized = new long[capacity];
+            for (long key : table) {
+                if (key != 0) {
+                    insert(resized, key);
+                }
+            }
+            table = resized;
+        }
+
+        private static void insert(long[] table, long key) {
+            int mask = table.length - 1;
+            int i = index(key, mask);
+            while (table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = key;
+        }
+
+        private static int index(long key, int mask) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+        private static boolean isHexEUI(String deviceEUI) {
+            if (deviceEUI.length() != EUI_LENGTH) {
+                return false;
+            }
+            for (int i = 0; i < EUI_LENGTH; i++) {
+                char c = deviceEUI.charAt(i);
+                if ((c < '0' || c > '9') && (c < 'A' || c > 'F')) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static long parseEUI(String deviceEUI) {
+            long value = 0;
+            for (int i = 0; i < EUI_LENGTH; i++) {
+                value = (value << 4) | Character.digit(deviceEUI.charAt(i), 16);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * AsyncHttpClientPool unit tests
+ */
+public class AsyncHttpClientPoolTest {
+
+    private HttpServer server;
+    private AtomicInteger openedConnections = new AtomicInteger();
+    private AsyncHttpClientPool pool;
+
+    @Before
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = "ok".getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(body);
+            }
+        });
+        server.start();
+        pool = new AsyncHttpClientPool("Test", 10, 5, 1000, 1000, 0, openedConnections::incrementAndGet);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionReused() throws Exception {
+        AsyncRestTemplate restTemplate = new AsyncRestTemplate(pool.getRequestFactory());
+        String url = "http://localhost:" + server.getAddress().getPort() + "/test";
+        for (int i = 0; i < 3; i++) {
+            ResponseEntity<String> response = restTemplate.getForEntity(url, String.class).get();
+            assertEquals("ok", response.getBody());
+        }
+
+        assertEquals(1, openedConnections.get());
+        assertEquals(10, pool.getTotalStats().getMax());
+        assertEquals(0, pool.getTotalStats().getLeased());
+        assertEquals(1, pool.getTotalStats().getAvailable());
+    }
+
+    @Test
+    public void testEvictIdleConnections() throws Exception {
+        AsyncRestTemplate restTemplate = new AsyncRestTemplate(pool.getRequestFactory());
+        restTemplate.getForEntity("http://localhost:" + server.getAddress().getPort() + "/test", String.class).get();
+        assertEquals(1, pool.getTotalStats().getAvailable());
+
+        pool.evictIdleConnections();
+        assertEquals(0, pool.getTotalStats().getAvailable());
+    }
+}
@@ -30,6 +30,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
@@ -58,40 +59,52 @@ public class AgentMqttClientCallbackTest {
         callback = agent.new AgentMqttProviderCallback();
         ReflectionTestUtils.setField(agent, "deviceRepository", deviceRepository);
         ReflectionTestUtils.setField(agent, "ngsiManager", ngsiManager);
-        ReflectionTestUtils.setField(callback, "reconnectingDelay", 10);
+        ReflectionTestUtils.setField(agent, "reconnectionSupervisor", new AgentReconnectionSupervisor(0, 0, 2, 0, 2));
         ReflectionTestUtils.setField(agent, "connectionLostCallback", lostCallback);
         ReflectionTestUtils.setField(agent, "converter", converter);
     }
 
     @Test
     public void testConnectionLostOk() {
-        assertFalse((boolean) ReflectionTestUtils.getField(agent, "reconnecting"));
+        AgentReconnectionSupervisor supervisor = (AgentReconnectionSupervisor) ReflectionTestUtils.getField(agent, "reconnectionSupervisor");
+        assertFalse(supervisor.isReconnecting());
         ArgumentCaptor<AgentSuccessCallback> successCallback = ArgumentCaptor.forClass(AgentSuccessCallback.class);
         callback.connectionLost(new Exception());
-        assertTrue((boolean) ReflectionTestUtils.getField(agent, "reconnecting"));
-        verify(agent, times(1)).start(any(OpenLpwaNgsiConverter.class), successCallback.capture(), any(AgentFailureCallback.class));
+        assertTrue(supervisor.isReconnecting());
+        verify(agent, timeout(1000).times(1)).start(any(OpenLpwaNgsiConverter.class), successCallback.capture(), any(AgentFailureCallback.class));
         successCallback.getValue().onSuccess();
-        assertFalse((boolean) ReflectionTestUtils.getField(agent, "reconnecting"));
+        assertFalse(supervisor.isReconnecting());
+        assertEquals(1, supervisor.getReconnectionCount());
     }
 
     @Test
     public void testConnectionLostStartFailed() {
-        assertFalse((boolean) ReflectionTestUtils.getField(agent, "reconnecting"));
+        AgentReconnectionSupervisor supervisor = (AgentReconnectionSupervisor) ReflectionTestUtils.getField(agent, "reconnectionSupervisor");
+        assertFalse(supervisor.isReconnecting());
         ArgumentCaptor<AgentFailureCallback> failure = ArgumentCaptor.forClass(AgentFailureCallback.class);
         callback.connectionLost(new Exception());
-        assertTrue((boolean) ReflectionTestUtils.getField(agent, "reconnecting"));
-        verify(agent, times(1)).start(any(OpenLpwaNgsiConverter.class), any(AgentSuccessCallback.class), failure.capture());
+        assertTrue(supervisor.isReconnecting());
+        verify(agent, timeout(1000).times(1)).start(any(OpenLpwaNgsiConverter.class), any(AgentSuccessCallback.class), failure.capture());
         failure.getValue().onFailure(new Exception());
-        assertFalse((boolean) ReflectionTestUtils.getField(agent, "reconnecting"));
+        // The failed attempt is retried
+        assertTrue(supervisor.isReconnecting());
+        verify(lostCallback, never()).onConnectionLost();
+        verify(agent, timeout(1000).times(2)).start(any(OpenLpwaNgsiConverter.class), any(AgentSuccessCallback.class), failure.capture());
+        failure.getValue().onFailure(new Exception());
+        // Maximum number of attempts reached
+        assertFalse(supervisor.isReconnecting());
         verify(lostCallback, times(1)).onConnectionLost();
     }
 
     @Test
-    public void testConnectionLostAlreadyConnecting() {
-        assertFalse((boolean) ReflectionTestUtils.getField(agent, "reconnecting"));
+    public void testConnectionLostAlreadyConnecting() throws InterruptedException {
+        AgentReconnectionSupervisor supervisor = (AgentReconnectionSupervisor) ReflectionTestUtils.getField(agent, "reconnectionSupervisor");
+        assertFalse(supervisor.isReconnecting());
         callback.connectionLost(new Exception());
-        assertTrue((boolean) ReflectionTestUtils.getField(agent, "reconnecting"));
+        assertTrue(supervisor.isReconnecting());
+        verify(agent, timeout(1000).times(1)).start(any(OpenLpwaNgsiConverter.class), any(AgentSuccessCallback.class), any(AgentFailureCallback.class));
         callback.connectionLost(new Exception());
+        Thread.sleep(50);
         verify(agent, times(1)).start(any(OpenLpwaNgsiConverter.class), any(AgentSuccessCallback.class), any(AgentFailureCallback.class));
     }
 
@@ -113,6 +126,20 @@ public class AgentMqttClientCallbackTest {
         verify(ngsiManager, times(1)).updateDeviceAttributes(eq(device), anyListOf(ContextAttribute.class));
     }
 
+    @Test
+    public void testNewMessageArrivedWithDownlinkCommandQueue() throws AgentException {
+        DownlinkCommandQueue downlinkCommandQueue = mock(DownlinkCommandQueue.class);
+        ReflectionTestUtils.setField(agent, "downlinkCommandQueue", downlinkCommandQueue);
+        DeviceEntity device = new DeviceEntity();
+        device.setDeviceEUI("123");
+        when(deviceRepository.findOne("123")).thenReturn(device);
+        callback.newMessageArrived("123", new DeviceIncomingMessage());
+        callback.newMessageArrived("unknown", new DeviceIncomingMessage());
+        // The next command can be sent to the device
+        verify(downlinkCommandQueue, times(1)).uplinkReceived("123");
+        verify(downlinkCommandQueue, never()).uplinkReceived("unknown");
+    }
+
     @Test
     public void testNewMessageArrivedBadMessage() throws AgentException {
         String eui = "123";
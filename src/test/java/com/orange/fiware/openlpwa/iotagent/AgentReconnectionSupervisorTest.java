@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.iotagent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * AgentReconnectionSupervisor unit tests
+ */
+public class AgentReconnectionSupervisorTest {
+
+    private AgentReconnectionSupervisor supervisor;
+
+    @After
+    public void tearDown() {
+        if (supervisor != null) {
+            supervisor.shutdown();
+        }
+    }
+
+    @Test
+    public void testExponentialBackoffCapped() {
+        supervisor = new AgentReconnectionSupervisor(100, 1000, 2, 0, 0);
+        assertEquals(100, supervisor.nextDelayMillis(0));
+        assertEquals(200, supervisor.nextDelayMillis(1));
+        assertEquals(800, supervisor.nextDelayMillis(3));
+        assertEquals(1000, supervisor.nextDelayMillis(4));
+        assertEquals(1000, supervisor.nextDelayMillis(100));
+    }
+
+    @Test
+    public void testJitter() {
+        supervisor = new AgentReconnectionSupervisor(1000, 1000, 2, 0.5, 0);
+        for (int i = 0; i < 100; i++) {
+            long delay = supervisor.nextDelayMillis(i);
+            assertTrue(delay >= 500 && delay <= 1000);
+        }
+    }
+
+    @Test
+    public void testRetriedUntilReconnected() throws Exception {
+        supervisor = new AgentReconnectionSupervisor(1, 5, 2, 0.5, 0);
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch reconnected = new CountDownLatch(1);
+        assertTrue(supervisor.connectionLost((successCallback, failureCallback) -> {
+            if (attempts.incrementAndGet() < 5) {
+                failureCallback.onFailure(new Exception("Broker unavailable"));
+            } else {
+                successCallback.onSuccess();
+                reconnected.countDown();
+            }
+        }, () -> fail("Reconnection must not be abandoned")));
+
+        assertTrue(reconnected.await(5, TimeUnit.SECONDS));
+        assertFalse(supervisor.isReconnecting());
+        assertEquals(5, supervisor.getAttemptCount());
+        assertEquals(1, supervisor.getReconnectionCount());
+        assertTrue(supervisor.getMaxTimeToReconnectMillis() >= supervisor.getLastTimeToReconnectMillis());
+    }
+
+    @Test
+    public void testConnectionLostDuringAttemptRetried() throws Exception {
+        supervisor = new AgentReconnectionSupervisor(1, 5, 2, 0, 0);
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch reconnected = new CountDownLatch(1);
+        AgentReconnectionSupervisor.ReconnectAction action = (successCallback, failureCallback) -> {
+            if (attempts.incrementAndGet() == 1) {
+                // Another connection lost after being checked by this attempt
+                assertFalse(supervisor.connectionLost((success, failure) -> fail("Only the running reconnection must go on"), null));
+            } else {
+                reconnected.countDown();
+            }
+            successCallback.onSuccess();
+        };
+        assertTrue(supervisor.connectionLost(action, null));
+
+        assertTrue(reconnected.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertFalse(supervisor.isReconnecting());
+        assertEquals(2, attempts.get());
+        assertEquals(1, supervisor.getReconnectionCount());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        supervisor = new AgentReconnectionSupervisor(200, 200, 2, 0, 0);
+        AtomicInteger attempts = new AtomicInteger();
+        assertTrue(supervisor.connectionLost((successCallback, failureCallback) -> attempts.incrementAndGet(), null));
+        assertFalse(supervisor.connectionLost((successCallback, failureCallback) -> attempts.incrementAndGet(), null));
+        supervisor.cancel();
+        assertFalse(supervisor.isReconnecting());
+
+        Thread.sleep(400);
+        assertEquals(0, attempts.get());
+        assertEquals(0, supervisor.getAttemptCount());
+    }
+}
@@ -27,6 +27,10 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.context.request.async.DeferredResult;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.*;
 
@@ -88,6 +92,56 @@ public class AgentRestControllerTest {
         assertEquals(HttpStatus.OK, entity.getStatusCode());
     }
 
+    @Test
+    public void testRegisterAll() {
+        Device device = new Device();
+        device.setDeviceEUI("123");
+        List<Device> devices = Collections.singletonList(device);
+        List<DeviceRegistrationResult> results = Collections.singletonList(new DeviceRegistrationResult("123", true, null));
+        doAnswer(invocationOnMock -> {
+            Consumer<List<DeviceRegistrationResult>> originalArgument = invocationOnMock.getArgumentAt(1, Consumer.class);
+            originalArgument.accept(results);
+            return null;
+        }).when(mockAgent).registerAll(anyListOf(Device.class), any(Consumer.class));
+
+        DeferredResult<ResponseEntity<?>> deferredResult = agentRestController.registerAll(devices);
+        verify(mockAgent, times(1)).registerAll(eq(devices), any(Consumer.class));
+        ResponseEntity<?> entity = (ResponseEntity<?>) deferredResult.getResult();
+        assertEquals(HttpStatus.OK, entity.getStatusCode());
+        assertEquals(results, entity.getBody());
+    }
+
+    @Test
+    public void testUnregisterAll() {
+        List<String> deviceEUIs = Collections.singletonList("123");
+        List<DeviceUnregistrationResult> results = Collections.singletonList(new DeviceUnregistrationResult("123", true, null));
+        doAnswer(invocationOnMock -> {
+            Consumer<List<DeviceUnregistrationResult>> originalArgument = invocationOnMock.getArgumentAt(1, Consumer.class);
+            originalArgument.accept(results);
+            return null;
+        }).when(mockAgent).unregisterAll(anyListOf(String.class), any(Consumer.class));
+
+        DeferredResult<ResponseEntity<?>> deferredResult = agentRestController.unregisterAll(deviceEUIs);
+        verify(mockAgent, times(1)).unregisterAll(eq(deviceEUIs), any(Consumer.class));
+        ResponseEntity<?> entity = (ResponseEntity<?>) deferredResult.getResult();
+        assertEquals(HttpStatus.OK, entity.getStatusCode());
+        assertEquals(results, entity.getBody());
+    }
+
+    @Test
+    public void testUnregisterAllByEntityType() {
+        doAnswer(invocationOnMock -> {
+            Consumer<List<DeviceUnregistrationResult>> originalArgument = invocationOnMock.getArgumentAt(1, Consumer.class);
+            originalArgument.accept(Collections.emptyList());
+            return null;
+        }).when(mockAgent).unregisterAllByEntityType(anyString(), any(Consumer.class));
+
+        DeferredResult<ResponseEntity<?>> deferredResult = agentRestController.unregisterAllByEntityType("Room");
+        verify(mockAgent, times(1)).unregisterAllByEntityType(eq("Room"), any(Consumer.class));
+        ResponseEntity<?> entity = (ResponseEntity<?>) deferredResult.getResult();
+        assertEquals(HttpStatus.OK, entity.getStatusCode());
+    }
+
     @Test
     public void testUnregisterSuccess() {
         String deviceEUI = "123";
@@ -19,6 +19,7 @@
 package com.orange.fiware.openlpwa.iotagent;
 
 import com.orange.fiware.openlpwa.domain.DeviceEntity;
+import com.orange.fiware.openlpwa.domain.PatternSubscriptionEntity;
 import com.orange.fiware.openlpwa.exception.AgentException;
 import com.orange.fiware.openlpwa.exception.ConfigurationException;
 import com.orange.fiware.openlpwa.provider.OpenLpwaMqttProvider;
@@ -40,11 +41,17 @@ import org.mockito.Mock;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.util.concurrent.FailureCallback;
 import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
 import org.springframework.util.concurrent.SuccessCallback;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 import static com.orange.ngsi.model.CodeEnum.CODE_200;
 import static com.orange.ngsi.model.CodeEnum.CODE_500;
@@ -70,6 +77,8 @@ public class AgentTest {
     @Mock
     private OpenLpwaMqttProvider mockOpenLpwaMqttProvider;
     @Mock
+    private DownlinkCommandQueue mockDownlinkCommandQueue;
+    @Mock
     private SuccessCallback<Boolean> resultCallback;
     private Device device;
     private ContextAttribute commandAttribute;
@@ -95,7 +104,7 @@ public class AgentTest {
     @After
     public void teardown() {
         reset(mockDeviceRepository, mockNgsiManager,
-                mockLpwaProvider, mockOpenLpwaMqttProvider, resultCallback);
+                mockLpwaProvider, mockOpenLpwaMqttProvider, mockDownlinkCommandQueue, resultCallback);
     }
 
     @Test
@@ -303,6 +312,75 @@ public class AgentTest {
         verify(resultCallback).onSuccess(true);
     }
 
+    @Test
+    public void testRegisterDeviceWithPatternSubscription() throws Exception {
+        simulateOpenLpwaProviderGetDeviceInformationSuccess(DeviceInfo.DeviceStatus.ACTIVATED);
+        PatternSubscriptionManager mockPatternSubscriptionManager = mock(PatternSubscriptionManager.class);
+        when(mockPatternSubscriptionManager.isEnabled()).thenReturn(true);
+        SettableListenableFuture<PatternSubscriptionEntity> subscriptionFuture = new SettableListenableFuture<>();
+        subscriptionFuture.set(new PatternSubscriptionEntity("testEntityType:testCommand", "testEntityType", device.getCommands(), subscriptionId));
+        when(mockPatternSubscriptionManager.subscribe("testEntityType", device.getCommands())).thenReturn(subscriptionFuture);
+        ReflectionTestUtils.setField(agent, "patternSubscriptionManager", mockPatternSubscriptionManager);
+
+        agent.register(device,
+                () -> resultCallback.onSuccess(true),
+                exception -> fail("Failed callback unexpected call")
+        );
+
+        verify(resultCallback).onSuccess(true);
+        verify(mockNgsiManager, never()).subscribeToCommands(any(Device.class));
+        // The device has no own subscription
+        ArgumentCaptor<DeviceEntity> savedDevice = ArgumentCaptor.forClass(DeviceEntity.class);
+        verify(mockDeviceRepository).save(savedDevice.capture());
+        assertNull(savedDevice.getValue().getSubscriptionId());
+    }
+
+    @Test
+    public void testRegisterDeviceWithPatternSubscriptionReplacesOwnSubscription() throws Exception {
+        simulateOpenLpwaProviderGetDeviceInformationSuccess(DeviceInfo.DeviceStatus.ACTIVATED);
+        simulateNgsiManagerUnsubscribeSuccess(false);
+        PatternSubscriptionManager mockPatternSubscriptionManager = mock(PatternSubscriptionManager.class);
+        when(mockPatternSubscriptionManager.isEnabled()).thenReturn(true);
+        SettableListenableFuture<PatternSubscriptionEntity> subscriptionFuture = new SettableListenableFuture<>();
+        subscriptionFuture.set(new PatternSubscriptionEntity("testEntityType:testCommand", "testEntityType", device.getCommands(), "patternSubscription"));
+        when(mockPatternSubscriptionManager.subscribe("testEntityType", device.getCommands())).thenReturn(subscriptionFuture);
+        ReflectionTestUtils.setField(agent, "patternSubscriptionManager", mockPatternSubscriptionManager);
+        // Device registered with its own subscription before the pattern subscriptions were enabled
+        when(mockDeviceRepository.findOne(device.getDeviceEUI())).thenReturn(new DeviceEntity(device, subscriptionId));
+
+        agent.register(device,
+                () -> resultCallback.onSuccess(true),
+                exception -> fail("Failed callback unexpected call")
+        );
+
+        verify(resultCallback).onSuccess(true);
+        verify(mockNgsiManager).unsubscribe(subscriptionId);
+        verify(mockPatternSubscriptionManager, never()).release(anyString(), anyListOf(String.class));
+    }
+
+    @Test
+    public void testRegisterDeviceWithOtherCommandsReleasesPatternSubscription() throws Exception {
+        simulateOpenLpwaProviderGetDeviceInformationSuccess(DeviceInfo.DeviceStatus.ACTIVATED);
+        PatternSubscriptionManager mockPatternSubscriptionManager = mock(PatternSubscriptionManager.class);
+        when(mockPatternSubscriptionManager.isEnabled()).thenReturn(true);
+        SettableListenableFuture<PatternSubscriptionEntity> subscriptionFuture = new SettableListenableFuture<>();
+        subscriptionFuture.set(new PatternSubscriptionEntity("testEntityType:testCommand", "testEntityType", device.getCommands(), subscriptionId));
+        when(mockPatternSubscriptionManager.subscribe("testEntityType", device.getCommands())).thenReturn(subscriptionFuture);
+        ReflectionTestUtils.setField(agent, "patternSubscriptionManager", mockPatternSubscriptionManager);
+        Device previousDevice = newDevice(device.getDeviceEUI());
+        previousDevice.setCommands(Collections.singletonList("otherCommand"));
+        when(mockDeviceRepository.findOne(device.getDeviceEUI())).thenReturn(new DeviceEntity(previousDevice, null));
+
+        agent.register(device,
+                () -> resultCallback.onSuccess(true),
+                exception -> fail("Failed callback unexpected call")
+        );
+
+        verify(resultCallback).onSuccess(true);
+        verify(mockPatternSubscriptionManager).release("testEntityType", Collections.singletonList("otherCommand"));
+        verify(mockNgsiManager, never()).unsubscribe(anyString());
+    }
+
     @Test
     public void testRegisterDeviceWithGetDeviceInfoFailure() throws Exception {
         simulateOpenLpwaProviderGetDeviceInformationFailure();
@@ -402,6 +480,140 @@ public class AgentTest {
         verify(resultCallback).onSuccess(false);
     }
 
+    @Test
+    public void testRegisterAllDevices() throws Exception {
+        simulateOpenLpwaProviderGetDeviceInformationSuccess(DeviceInfo.DeviceStatus.ACTIVATED);
+        simulateNgsiManagerSubscribeToCommandsSuccess(false);
+        ReflectionTestUtils.setField(agent, "bulkParallelism", 2);
+        ReflectionTestUtils.setField(agent, "bulkSaveBatchSize", 2);
+        Device invalidDevice = newDevice("invalidDevEUI");
+        invalidDevice.setPort(null);
+        List<Device> devices = Arrays.asList(newDevice("devEUI1"), newDevice("devEUI2"), invalidDevice, newDevice("devEUI1"), newDevice("devEUI3"));
+
+        List<List<DeviceRegistrationResult>> results = new ArrayList<>();
+        agent.registerAll(devices, results::add);
+
+        assertEquals(1, results.size());
+        List<DeviceRegistrationResult> deviceResults = results.get(0);
+        assertEquals(5, deviceResults.size());
+        assertTrue(deviceResults.get(0).isRegistered());
+        assertEquals("devEUI1", deviceResults.get(0).getDeviceEUI());
+        assertTrue(deviceResults.get(1).isRegistered());
+        assertFalse(deviceResults.get(2).isRegistered());
+        assertNotNull(deviceResults.get(2).getError());
+        // Duplicate
+        assertFalse(deviceResults.get(3).isRegistered());
+        assertTrue(deviceResults.get(4).isRegistered());
+        assertEquals("devEUI3", deviceResults.get(4).getDeviceEUI());
+        // Saved by batches
+        ArgumentCaptor<Iterable> savedEntities = ArgumentCaptor.forClass(Iterable.class);
+        verify(mockDeviceRepository, times(2)).save(savedEntities.capture());
+        assertEquals(2, ((List<?>) savedEntities.getAllValues().get(0)).size());
+        assertEquals(1, ((List<?>) savedEntities.getAllValues().get(1)).size());
+        verify(mockDeviceRepository, never()).save(any(DeviceEntity.class));
+        verify(mockNgsiManager, times(3)).subscribeToCommands(any(Device.class));
+    }
+
+    @Test
+    public void testRegisterAllDevicesWithSaveFailure() throws Exception {
+        simulateOpenLpwaProviderGetDeviceInformationSuccess(DeviceInfo.DeviceStatus.ACTIVATED);
+        simulateNgsiManagerSubscribeToCommandsFailure();
+        ReflectionTestUtils.setField(agent, "bulkSaveBatchSize", 10);
+        when(mockDeviceRepository.save(any(Iterable.class))).thenThrow(new RuntimeException("Mongo unavailable"));
+        Device sensor = newDevice("devEUI2");
+        sensor.setCommands(null);
+        List<Device> devices = Arrays.asList(newDevice("devEUI1"), sensor);
+
+        List<List<DeviceRegistrationResult>> results = new ArrayList<>();
+        agent.registerAll(devices, results::add);
+
+        List<DeviceRegistrationResult> deviceResults = results.get(0);
+        // Subscription failure
+        assertFalse(deviceResults.get(0).isRegistered());
+        // Save failure
+        assertFalse(deviceResults.get(1).isRegistered());
+        assertTrue(deviceResults.get(1).getError().contains("Mongo unavailable"));
+    }
+
+    @Test
+    public void testRegisterAllDevicesWithSaveFailureUnsubscribes() throws Exception {
+        simulateOpenLpwaProviderGetDeviceInformationSuccess(DeviceInfo.DeviceStatus.ACTIVATED);
+        simulateNgsiManagerSubscribeToCommandsSuccess(false);
+        simulateNgsiManagerUnsubscribeSuccess(false);
+        when(mockDeviceRepository.save(any(Iterable.class))).thenThrow(new RuntimeException("Mongo unavailable"));
+
+        List<List<DeviceRegistrationResult>> results = new ArrayList<>();
+        agent.registerAll(Collections.singletonList(newDevice("devEUI1")), results::add);
+
+        assertFalse(results.get(0).get(0).isRegistered());
+        // The subscription of the device which is not saved is removed
+        verify(mockNgsiManager).unsubscribe(subscriptionId);
+    }
+
+    @Test
+    public void testRegisterAllDevicesSavedOnBulkSaveExecutor() throws Exception {
+        simulateOpenLpwaProviderGetDeviceInformationSuccess(DeviceInfo.DeviceStatus.ACTIVATED);
+        BulkSaveExecutor bulkSaveExecutor = new BulkSaveExecutor(1);
+        ReflectionTestUtils.setField(agent, "bulkSaveExecutor", bulkSaveExecutor);
+        ReflectionTestUtils.setField(agent, "bulkSaveBatchSize", 2);
+        Thread testThread = Thread.currentThread();
+        List<Thread> saveThreads = Collections.synchronizedList(new ArrayList<>());
+        when(mockDeviceRepository.save(any(Iterable.class))).thenAnswer(invocationOnMock -> {
+            saveThreads.add(Thread.currentThread());
+            return null;
+        });
+        List<Device> devices = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Device sensor = newDevice("devEUI" + i);
+            sensor.setCommands(null);
+            devices.add(sensor);
+        }
+
+        CountDownLatch completed = new CountDownLatch(1);
+        List<List<DeviceRegistrationResult>> results = Collections.synchronizedList(new ArrayList<>());
+        agent.registerAll(devices, deviceResults -> {
+            results.add(deviceResults);
+            completed.countDown();
+        });
+
+        try {
+            // The result is sent once all the batches are saved
+            assertTrue(completed.await(5, TimeUnit.SECONDS));
+            assertEquals(5, results.get(0).stream().filter(DeviceRegistrationResult::isRegistered).count());
+            assertEquals(3, saveThreads.size());
+            assertFalse(saveThreads.contains(testThread));
+        } finally {
+            bulkSaveExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRegisterManyDevices() throws Exception {
+        simulateOpenLpwaProviderGetDeviceInformationSuccess(DeviceInfo.DeviceStatus.ACTIVATED);
+        ReflectionTestUtils.setField(agent, "bulkParallelism", 4);
+        ReflectionTestUtils.setField(agent, "bulkSaveBatchSize", 500);
+        List<Device> devices = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            Device sensor = newDevice("devEUI" + i);
+            sensor.setCommands(null);
+            devices.add(sensor);
+        }
+
+        List<List<DeviceRegistrationResult>> results = new ArrayList<>();
+        // Registrations completed synchronously
+        agent.registerAll(devices, results::add);
+
+        assertEquals(20000, results.get(0).stream().filter(DeviceRegistrationResult::isRegistered).count());
+        verify(mockDeviceRepository, times(40)).save(any(Iterable.class));
+    }
+
+    @Test
+    public void testRegisterAllWithoutDevice() {
+        List<List<DeviceRegistrationResult>> results = new ArrayList<>();
+        agent.registerAll(null, results::add);
+        assertTrue(results.get(0).isEmpty());
+    }
+
     @Test
     public void testUnregisterDeviceWithSuccess() throws AgentException {
         simulateNgsiManagerUnsubscribeSuccess(false);
@@ -413,6 +625,23 @@ public class AgentTest {
         );
 
         verify(resultCallback).onSuccess(true);
+        verify(mockDownlinkCommandQueue, times(1)).discard(device.getDeviceEUI());
+    }
+
+    @Test
+    public void testUnregisterDeviceWithPatternSubscription() throws AgentException {
+        PatternSubscriptionManager mockPatternSubscriptionManager = mock(PatternSubscriptionManager.class);
+        ReflectionTestUtils.setField(agent, "patternSubscriptionManager", mockPatternSubscriptionManager);
+        when(mockDeviceRepository.findOne(anyString())).thenReturn(new DeviceEntity(device, null));
+
+        agent.unregister(device.getDeviceEUI(),
+                () -> resultCallback.onSuccess(true),
+                exception -> fail("Failed callback unexpected call")
+        );
+
+        verify(resultCallback).onSuccess(true);
+        verify(mockNgsiManager, never()).unsubscribe(anyString());
+        verify(mockPatternSubscriptionManager).release("testEntityType", device.getCommands());
     }
 
     @Test
@@ -497,6 +726,72 @@ public class AgentTest {
         verify(resultCallback).onSuccess(false);
     }
 
+    @Test
+    public void testUnregisterAllDevices() throws Exception {
+        simulateNgsiManagerUnsubscribeSuccess(false);
+        ReflectionTestUtils.setField(agent, "bulkParallelism", 2);
+        ReflectionTestUtils.setField(agent, "bulkDeleteBatchSize", 2);
+        DeviceEntity sensor = new DeviceEntity(newDevice("devEUI3"), null);
+        when(mockDeviceRepository.findAll(anyListOf(String.class))).thenReturn(Arrays.asList(
+                new DeviceEntity(newDevice("devEUI1"), subscriptionId), new DeviceEntity(newDevice("devEUI2"), subscriptionId), sensor));
+
+        List<List<DeviceUnregistrationResult>> results = new ArrayList<>();
+        agent.unregisterAll(Arrays.asList("devEUI1", "devEUI2", "unknown", "devEUI1", "devEUI3"), results::add);
+
+        assertEquals(1, results.size());
+        List<DeviceUnregistrationResult> deviceResults = results.get(0);
+        assertEquals(5, deviceResults.size());
+        assertTrue(deviceResults.get(0).isUnregistered());
+        assertTrue(deviceResults.get(1).isUnregistered());
+        assertFalse(deviceResults.get(2).isUnregistered());
+        assertEquals("unknown", deviceResults.get(2).getDeviceEUI());
+        // Duplicate
+        assertFalse(deviceResults.get(3).isUnregistered());
+        assertTrue(deviceResults.get(4).isUnregistered());
+        // Single query, sensor without subscription
+        verify(mockDeviceRepository, times(1)).findAll(anyListOf(String.class));
+        verify(mockNgsiManager, times(2)).unsubscribe(subscriptionId);
+        // Deleted by batches
+        ArgumentCaptor<Iterable> deletedEntities = ArgumentCaptor.forClass(Iterable.class);
+        verify(mockDeviceRepository, times(2)).delete(deletedEntities.capture());
+        assertEquals(2, ((List<?>) deletedEntities.getAllValues().get(0)).size());
+        assertEquals(Collections.singletonList(sensor), deletedEntities.getAllValues().get(1));
+    }
+
+    @Test
+    public void testUnregisterAllDevicesWithUnsubscriptionFailure() throws Exception {
+        simulateNgsiManagerUnsubscribeFailure();
+        DeviceEntity sensor = new DeviceEntity(newDevice("devEUI2"), null);
+        when(mockDeviceRepository.findAll(anyListOf(String.class))).thenReturn(Arrays.asList(new DeviceEntity(newDevice("devEUI1"), subscriptionId), sensor));
+
+        List<List<DeviceUnregistrationResult>> results = new ArrayList<>();
+        agent.unregisterAll(Arrays.asList("devEUI1", "devEUI2"), results::add);
+
+        List<DeviceUnregistrationResult> deviceResults = results.get(0);
+        assertFalse(deviceResults.get(0).isUnregistered());
+        assertNotNull(deviceResults.get(0).getError());
+        assertTrue(deviceResults.get(1).isUnregistered());
+        // The device with a subscription left is kept
+        verify(mockDeviceRepository, times(1)).delete(Collections.singletonList(sensor));
+    }
+
+    @Test
+    public void testUnregisterAllDevicesByEntityType() throws Exception {
+        simulateNgsiManagerUnsubscribeSuccess(false);
+        when(mockDeviceRepository.findByType("testEntityType")).thenReturn(Arrays.asList(
+                new DeviceEntity(newDevice("devEUI1"), subscriptionId), new DeviceEntity(newDevice("devEUI2"), subscriptionId)));
+
+        List<List<DeviceUnregistrationResult>> results = new ArrayList<>();
+        agent.unregisterAllByEntityType("testEntityType", results::add);
+
+        assertEquals(2, results.get(0).size());
+        assertEquals("devEUI2", results.get(0).get(1).getDeviceEUI());
+        assertTrue(results.get(0).stream().allMatch(DeviceUnregistrationResult::isUnregistered));
+
+        agent.unregisterAllByEntityType("unknownType", results::add);
+        assertTrue(results.get(1).isEmpty());
+    }
+
     @Test
     public void testExecuteCommandsWithUnregisteredDevice() {
         when(mockDeviceRepository.findOne(anyString())).thenReturn(null);
@@ -587,21 +882,34 @@ public class AgentTest {
     }
 
     @Test
-    public void testUpdateSubscriptions() throws AgentException {
-        List<DeviceEntity> devicesList = new ArrayList<>();
-        devicesList.add(new DeviceEntity(device, subscriptionId));
-        DeviceEntity secondDevice = new DeviceEntity();
-        secondDevice.setDeviceEUI("secondDevice");
-        secondDevice.setPort(2);
-        secondDevice.setSubscriptionId("secondDeviceSubscriptionId");
-        devicesList.add(secondDevice);
-        when(mockDeviceRepository.findAll()).thenReturn(devicesList);
+    public void testExecuteCommandsWithDownlinkCommandQueue() throws Exception {
+        simulateMqttConnectionSuccess();
+        simulateMqttSubscriptionSuccess();
+        when(mockDownlinkCommandQueue.isEnabled()).thenReturn(true);
+        when(mockDeviceRepository.findOne(anyString())).thenReturn(new DeviceEntity(device, subscriptionId));
+        BiConsumer<Boolean, Date> callback = (success, creationDate) -> {};
 
-        ReflectionTestUtils.invokeMethod(agent, "updateSubcriptions");
+        agent.start(new OpenLpwaNgsiConverterTest(false),
+                () -> agent.executeCommand(device.getDeviceEUI(), commandName, commandAttribute, callback),
+                exception -> fail("Failed callback unexpected call")
+        );
+        ArgumentCaptor<RegisterDeviceCommandParameter> command = ArgumentCaptor.forClass(RegisterDeviceCommandParameter.class);
+        ArgumentCaptor<EntityId> entityId = ArgumentCaptor.forClass(EntityId.class);
+        verify(mockDownlinkCommandQueue, times(1)).enqueue(eq(device.getDeviceEUI()), entityId.capture(), eq(commandName), command.capture(), eq(callback));
+        assertEquals(device.getPort(), command.getValue().getPort());
+        assertEquals(device.getEntityName(), entityId.getValue().getId());
+        assertEquals(device.getEntityType(), entityId.getValue().getType());
+        verify(mockLpwaProvider, never()).registerDeviceCommand(anyString(), any(RegisterDeviceCommandParameter.class));
+    }
 
-        verify(mockNgsiManager, times(2)).updateSubscription(anyString());
-        verify(mockNgsiManager, times(1)).updateSubscription(subscriptionId);
-        verify(mockNgsiManager, times(1)).updateSubscription(secondDevice.getSubscriptionId());
+    private static Device newDevice(String deviceEUI) {
+        Device newDevice = new Device();
+        newDevice.setDeviceEUI(deviceEUI);
+        newDevice.setPort(2);
+        newDevice.setEntityName("entity" + deviceEUI);
+        newDevice.setEntityType("testEntityType");
+        newDevice.setCommands(Collections.singletonList(commandName));
+        return newDevice;
     }
 
     private void simulateMqttConnectionSuccess() {
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.iotagent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * BoundedParallelTasks unit tests
+ */
+public class BoundedParallelTasksTest {
+
+    @Test
+    public void testParallelismBounded() {
+        List<Integer> runningTasks = new ArrayList<>();
+        AtomicInteger completions = new AtomicInteger();
+        BoundedParallelTasks[] tasks = new BoundedParallelTasks[1];
+        tasks[0] = new BoundedParallelTasks(10, 3, runningTasks::add, completions::incrementAndGet);
+
+        tasks[0].start();
+        assertEquals(3, runningTasks.size());
+        // Each completed task starts the next one
+        tasks[0].taskCompleted();
+        assertEquals(4, runningTasks.size());
+        for (int i = 0; i < 8; i++) {
+            tasks[0].taskCompleted();
+        }
+        assertEquals(10, runningTasks.size());
+        assertEquals(0, completions.get());
+        tasks[0].taskCompleted();
+        assertEquals(1, completions.get());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, runningTasks.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testSynchronousTasks() {
+        AtomicInteger runCount = new AtomicInteger();
+        AtomicInteger completions = new AtomicInteger();
+        BoundedParallelTasks[] tasks = new BoundedParallelTasks[1];
+        tasks[0] = new BoundedParallelTasks(100000, 2, index -> {
+            runCount.incrementAndGet();
+            tasks[0].taskCompleted();
+        }, completions::incrementAndGet);
+
+        tasks[0].start();
+        assertEquals(100000, runCount.get());
+        assertEquals(1, completions.get());
+    }
+
+    @Test
+    public void testWithoutTask() {
+        AtomicInteger completions = new AtomicInteger();
+        new BoundedParallelTasks(0, 2, index -> fail("Unexpected task"), completions::incrementAndGet).start();
+        assertEquals(1, completions.get());
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+package com.orange.fiware.openlpwa.iotagent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * BulkSaveExecutor unit tests
+ */
+public class BulkSaveExecutorTest {
+
+    private BulkSaveExecutor bulkSaveExecutor;
+
+    @After
+    public void tearDown() {
+        if (bulkSaveExecutor != null) {
+            bulkSaveExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBatchesRunInBackground() throws Exception {
+        bulkSaveExecutor = new BulkSaveExecutor(2);
+        CountDownLatch saved = new CountDownLatch(3);
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        for (int i = 0; i < 3; i++) {
+            bulkSaveExecutor.execute(() -> {
+                thread.set(Thread.currentThread());
+                saved.countDown();
+            });
+        }
+        assertTrue(saved.await(5, TimeUnit.SECONDS));
+        assertNotEquals(Thread.currentThread(), thread.get());
+        assertTrue(thread.get().getName().startsWith("openlpwa-bulk-save-"));
+    }
+
+    @Test
+    public void testBatchesRunOnCallerThreadWithoutThreads() {
+        bulkSaveExecutor = new BulkSaveExecutor(0);
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        bulkSaveExecutor.execute(() -> thread.set(Thread.currentThread()));
+        assertEquals(Thread.currentThread(), thread.get());
+        assertEquals(0, bulkSaveExecutor.getQueueDepth());
+    }
+
+    @Test
+    public void testBatchesRunOnCallerThreadAfterShutdown() {
+        bulkSaveExecutor = new BulkSaveExecutor(1);
+        bulkSaveExecutor.shutdown();
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        bulkSaveExecutor.execute(() -> thread.set(Thread.currentThread()));
+        assertEquals(Thread.currentThread(), thread.get());
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+package com.orange.fiware.openlpwa.iotagent;
+
+import com.orange.fiware.openlpwa.ngsi.NgsiManager;
+import com.orange.ngsi.model.ContextAttribute;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * CommandStatusAggregator unit tests
+ */
+public class CommandStatusAggregatorTest {
+
+    @Test
+    public void testStatusesPublishedOnceAllCommandsCompleted() {
+        List<List<ContextAttribute>> published = new ArrayList<>();
+        CommandStatusAggregator aggregator = new CommandStatusAggregator(2, published::add);
+
+        aggregator.completed(1, "led", false, new Date(0));
+        assertTrue(published.isEmpty());
+        // Completed twice
+        aggregator.completed(1, "led", true, new Date(0));
+        assertTrue(published.isEmpty());
+        aggregator.completed(0, "buzzer", true, new Date(1477000000000L));
+
+        assertEquals(1, published.size());
+        List<ContextAttribute> statuses = published.get(0);
+        assertEquals(2, statuses.size());
+        assertEquals("buzzer" + NgsiManager.COMMAND_STATUS_SUFFIX, statuses.get(0).getName());
+        assertEquals(NgsiManager.COMMAND_SENT, statuses.get(0).getValue());
+        assertEquals("commandStatus", statuses.get(0).getType());
+        assertEquals("commandDate", statuses.get(0).getMetadata().get(0).getName());
+        assertEquals("2016-10-20T21:46:40Z", statuses.get(0).getMetadata().get(0).getValue());
+        assertEquals("led" + NgsiManager.COMMAND_STATUS_SUFFIX, statuses.get(1).getName());
+        assertEquals(NgsiManager.COMMAND_ERROR, statuses.get(1).getValue());
+        assertEquals("1970-01-01T00:00:00Z", statuses.get(1).getMetadata().get(0).getValue());
+    }
+
+    @Test
+    public void testCommandsCompletedConcurrently() throws Exception {
+        int commandCount = 1000;
+        List<List<ContextAttribute>> published = new ArrayList<>();
+        CommandStatusAggregator aggregator = new CommandStatusAggregator(commandCount, statuses -> {
+            synchronized (published) {
+                published.add(statuses);
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < commandCount; i++) {
+                int index = i;
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    aggregator.completed(index, "command" + index, true, new Date());
+                });
+            }
+            start.countDown();
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(1, published.size());
+        List<ContextAttribute> statuses = published.get(0);
+        assertEquals(commandCount, statuses.size());
+        for (int i = 0; i < commandCount; i++) {
+            assertEquals("command" + i + NgsiManager.COMMAND_STATUS_SUFFIX, statuses.get(i).getName());
+        }
+    }
+
+    @Test
+    public void testCommandName() {
+        assertEquals("led", CommandStatusAggregator.commandName("led_command"));
+        assertEquals("led_command_on", CommandStatusAggregator.commandName("led_command_on_command"));
+    }
+}
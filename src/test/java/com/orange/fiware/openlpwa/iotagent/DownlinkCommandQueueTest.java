@@ -0,0 +1,339 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+package com.orange.fiware.openlpwa.iotagent;
+
+import com.orange.fiware.openlpwa.domain.DownlinkCommandEntity;
+import com.orange.fiware.openlpwa.ngsi.NgsiManager;
+import com.orange.fiware.openlpwa.provider.OpenLpwaProvider;
+import com.orange.fiware.openlpwa.provider.model.DeviceCommand;
+import com.orange.fiware.openlpwa.provider.model.RegisterDeviceCommandParameter;
+import com.orange.fiware.openlpwa.repository.DownlinkCommandRepository;
+import com.orange.ngsi.model.ContextAttribute;
+import com.orange.ngsi.model.EntityId;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * DownlinkCommandQueue unit tests
+ */
+public class DownlinkCommandQueueTest {
+
+    private OpenLpwaProvider mockProvider;
+    private DownlinkCommandRepository mockRepository;
+    private NgsiManager mockNgsiManager;
+    private DownlinkCommandQueue queue;
+    private List<String> sentCommands;
+    private List<SettableListenableFuture<DeviceCommand>> sentFutures;
+
+    @Before
+    public void setup() throws Exception {
+        mockProvider = mock(OpenLpwaProvider.class);
+        mockRepository = mock(DownlinkCommandRepository.class);
+        mockNgsiManager = mock(NgsiManager.class);
+        queue = new DownlinkCommandQueue(mockProvider, mockRepository, mockNgsiManager, true, 2, null, 0);
+        sentCommands = new ArrayList<>();
+        sentFutures = new ArrayList<>();
+        when(mockProvider.registerDeviceCommand(anyString(), any(RegisterDeviceCommandParameter.class))).thenAnswer(invocationOnMock -> {
+            sentCommands.add(invocationOnMock.getArgumentAt(0, String.class) + "/" + invocationOnMock.getArgumentAt(1, RegisterDeviceCommandParameter.class).getData());
+            SettableListenableFuture<DeviceCommand> future = new SettableListenableFuture<>();
+            sentFutures.add(future);
+            return future;
+        });
+    }
+
+    @Test
+    public void testNextCommandSentAfterUplink() {
+        Map<String, Boolean> statuses = new HashMap<>();
+        queue.enqueue("eui1", entityId("eui1"), "led", newCommand("led1"), statusCallback(statuses, "led1"));
+        assertEquals(Collections.singletonList("eui1/led1"), sentCommands);
+        sentFutures.get(0).set(newDeviceCommand(DeviceCommand.DeviceCommandStatus.SENT));
+        assertTrue(statuses.get("led1"));
+
+        // The device waits for the first command
+        queue.enqueue("eui1", entityId("eui1"), "led", newCommand("led2"), statusCallback(statuses, "led2"));
+        queue.enqueue("eui1", entityId("eui1"), "buzzer", newCommand("buzzer1"), statusCallback(statuses, "buzzer1"));
+        queue.enqueue("eui1", entityId("eui1"), "led", newCommand("led3"), statusCallback(statuses, "led3"));
+        assertEquals(1, sentCommands.size());
+        assertEquals(2, queue.getQueuedCount());
+        // The last command wins
+        assertFalse(statuses.get("led2"));
+        assertEquals(1, queue.getSupersededCount());
+
+        queue.uplinkReceived("eui1");
+        assertEquals(Arrays.asList("eui1/led1", "eui1/led3"), sentCommands);
+        sentFutures.get(1).set(newDeviceCommand(DeviceCommand.DeviceCommandStatus.SENT));
+        assertTrue(statuses.get("led3"));
+        queue.uplinkReceived("eui1");
+        assertEquals(Arrays.asList("eui1/led1", "eui1/led3", "eui1/buzzer1"), sentCommands);
+
+        // An uplink during the sending of a command doesn't send the next one
+        queue.enqueue("eui1", entityId("eui1"), "led", newCommand("led4"), null);
+        queue.uplinkReceived("eui1");
+        sentFutures.get(2).set(newDeviceCommand(DeviceCommand.DeviceCommandStatus.SENT));
+        assertEquals(3, sentCommands.size());
+        queue.uplinkReceived("eui1");
+        assertEquals(Arrays.asList("eui1/led1", "eui1/led3", "eui1/buzzer1", "eui1/led4"), sentCommands);
+        assertEquals(0, queue.getQueuedCount());
+        assertEquals(3, queue.getSentCount());
+    }
+
+    @Test
+    public void testCommandsSentWithBoundedParallelism() {
+        for (int i = 1; i <= 3; i++) {
+            queue.enqueue("eui" + i, entityId("eui" + i), "led", newCommand("led"), null);
+        }
+        assertEquals(Arrays.asList("eui1/led", "eui2/led"), sentCommands);
+        assertEquals(1, queue.getQueuedCount());
+
+        sentFutures.get(1).set(newDeviceCommand(DeviceCommand.DeviceCommandStatus.SENT));
+        assertEquals(Arrays.asList("eui1/led", "eui2/led", "eui3/led"), sentCommands);
+        assertEquals(0, queue.getQueuedCount());
+    }
+
+    @Test
+    public void testNextCommandSentAfterFailure() {
+        Map<String, Boolean> statuses = new HashMap<>();
+        queue.enqueue("eui1", entityId("eui1"), "led", newCommand("led1"), statusCallback(statuses, "led1"));
+        queue.enqueue("eui1", entityId("eui1"), "buzzer", newCommand("buzzer1"), statusCallback(statuses, "buzzer1"));
+        assertEquals(1, sentCommands.size());
+
+        sentFutures.get(0).setException(new RuntimeException("OpenLpwa provider unavailable"));
+        assertFalse(statuses.get("led1"));
+        assertEquals(1, queue.getFailedCount());
+        // Not delivered, the device can receive the next command
+        assertEquals(Arrays.asList("eui1/led1", "eui1/buzzer1"), sentCommands);
+    }
+
+    @Test
+    public void testWritesFlushedByBatches() {
+        queue.enqueue("eui1", entityId("eui1"), "led", newCommand("led1"), null);
+        queue.enqueue("eui2", entityId("eui2"), "led", newCommand("led1"), null);
+        sentFutures.get(0).set(newDeviceCommand(DeviceCommand.DeviceCommandStatus.SENT));
+        queue.enqueue("eui1", entityId("eui1"), "led", newCommand("led2"), null);
+        queue.enqueue("eui1", entityId("eui1"), "led", newCommand("led3"), null);
+        queue.enqueue("eui1", entityId("eui1"), "buzzer", newCommand("buzzer1"), null);
+        when(mockRepository.save(anyListOf(DownlinkCommandEntity.class))).thenThrow(new RuntimeException("Database unavailable")).thenReturn(null);
+
+        // Retried at the next flush
+        queue.flush();
+        queue.flush();
+        ArgumentCaptor<List> savedEntities = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<List> deletedEntities = ArgumentCaptor.forClass(List.class);
+        verify(mockRepository, times(2)).save(savedEntities.capture());
+        verify(mockRepository, times(1)).delete(deletedEntities.capture());
+        // A single write per command
+        List<DownlinkCommandEntity> saved = savedEntities.getValue();
+        assertEquals(2, saved.size());
+        saved.sort(Comparator.comparing(DownlinkCommandEntity::getKey));
+        assertEquals("eui1:buzzer", saved.get(0).getKey());
+        assertEquals("led3", saved.get(1).getData());
+        // The command sent at once is only deleted
+        List<DownlinkCommandEntity> deleted = deletedEntities.getValue();
+        assertEquals(1, deleted.size());
+        assertEquals(DownlinkCommandEntity.key("eui2", "led"), deleted.get(0).getKey());
+
+        queue.flush();
+        verify(mockRepository, times(2)).save(anyListOf(DownlinkCommandEntity.class));
+    }
+
+    @Test
+    public void testQueuedCommandsRestored() {
+        DownlinkCommandEntity led = new DownlinkCommandEntity("eui1", "led", "led1", 2, false);
+        led.setQueuedAt(new Date(1000));
+        DownlinkCommandEntity buzzer = new DownlinkCommandEntity("eui1", "buzzer", "buzzer1", 2, false);
+        buzzer.setQueuedAt(new Date(0));
+        when(mockRepository.findByOwner(null)).thenReturn(Arrays.asList(led, buzzer));
+
+        queue.init();
+        assertEquals(2, queue.getQueuedCount());
+        assertTrue(sentCommands.isEmpty());
+
+        queue.uplinkReceived("eui1");
+        assertEquals(Collections.singletonList("eui1/buzzer1"), sentCommands);
+    }
+
+    @Test
+    public void testOwnCommandsStoredAndRestored() {
+        queue = new DownlinkCommandQueue(mockProvider, mockRepository, mockNgsiManager, true, 2, "agent1", 0);
+        queue.enqueue("eui1", entityId("eui1"), "led", newCommand("led1"), null);
+        sentFutures.get(0).set(newDeviceCommand(DeviceCommand.DeviceCommandStatus.SENT));
+        queue.enqueue("eui1", entityId("eui1"), "buzzer", newCommand("buzzer1"), null);
+        reset(mockRepository);
+        queue.flush();
+
+        ArgumentCaptor<List> savedEntities = ArgumentCaptor.forClass(List.class);
+        verify(mockRepository).save(savedEntities.capture());
+        DownlinkCommandEntity entity = (DownlinkCommandEntity) savedEntities.getValue().get(0);
+        assertEquals("agent1", entity.getOwner());
+        assertEquals("agent1:eui1:buzzer", entity.getKey());
+
+        // Only the commands of this agent instance are queued again
+        queue = new DownlinkCommandQueue(mockProvider, mockRepository, mockNgsiManager, true, 2, "agent1", 0);
+        when(mockRepository.findByOwner("agent1")).thenReturn(Collections.singletonList(entity));
+        queue.init();
+        verify(mockRepository).findByOwner("agent1");
+        verify(mockRepository, never()).findAll();
+        assertEquals(1, queue.getQueuedCount());
+    }
+
+    @Test
+    public void testNextCommandSentAfterMaxUplinkWait() throws Exception {
+        queue = new DownlinkCommandQueue(mockProvider, mockRepository, mockNgsiManager, true, 2, null, 50);
+        queue.enqueue("eui1", entityId("eui1"), "led", newCommand("led1"), null);
+        sentFutures.get(0).set(newDeviceCommand(DeviceCommand.DeviceCommandStatus.SENT));
+        queue.enqueue("eui1", entityId("eui1"), "buzzer", newCommand("buzzer1"), null);
+        queue.releaseSilentDevices();
+        assertEquals(1, sentCommands.size());
+
+        // No uplink of the device
+        Thread.sleep(100);
+        queue.releaseSilentDevices();
+        assertEquals(Arrays.asList("eui1/led1", "eui1/buzzer1"), sentCommands);
+        assertEquals(0, queue.getQueuedCount());
+    }
+
+    @Test
+    public void testDiscardedCommands() {
+        Map<String, Boolean> statuses = new HashMap<>();
+        queue.enqueue("eui1", entityId("eui1"), "led", newCommand("led1"), null);
+        sentFutures.get(0).set(newDeviceCommand(DeviceCommand.DeviceCommandStatus.SENT));
+        queue.enqueue("eui1", entityId("eui1"), "buzzer", newCommand("buzzer1"), statusCallback(statuses, "buzzer1"));
+
+        queue.discard("eui1");
+        assertFalse(statuses.get("buzzer1"));
+        assertEquals(0, queue.getQueuedCount());
+        queue.uplinkReceived("eui1");
+        assertEquals(1, sentCommands.size());
+    }
+
+    @Test
+    public void testDisabled() {
+        queue = new DownlinkCommandQueue(mockProvider, mockRepository, mockNgsiManager, false, 2, null, 0);
+        queue.init();
+        assertFalse(queue.isEnabled());
+        verify(mockRepository, never()).findByOwner(anyString());
+    }
+
+    @Test
+    public void testPendingStatusOfWaitingCommands() throws Exception {
+        Map<String, Boolean> statuses = new HashMap<>();
+        queue.enqueue("eui1", entityId("eui1"), "led", newCommand("led1"), statusCallback(statuses, "led1"));
+        // Sent at once
+        verify(mockNgsiManager, never()).updateDeviceAttributes(any(EntityId.class), anyListOf(ContextAttribute.class));
+        sentFutures.get(0).set(newDeviceCommand(DeviceCommand.DeviceCommandStatus.SENT));
+
+        // Waits for the next uplink of the device
+        queue.enqueue("eui1", entityId("eui1"), "buzzer", newCommand("buzzer1"), statusCallback(statuses, "buzzer1"));
+        assertEquals(Arrays.asList("buzzer_commandStatus/PENDING"), publishedStatuses("entityeui1"));
+        assertNull(statuses.get("buzzer1"));
+    }
+
+    @Test
+    public void testStatusOfRestoredCommandsPublished() throws Exception {
+        DownlinkCommandEntity led = new DownlinkCommandEntity("eui1", "led", "led1", 2, false);
+        led.setEntityName("entityeui1");
+        led.setEntityType("Room");
+        led.setQueuedAt(new Date(0));
+        DownlinkCommandEntity buzzer = new DownlinkCommandEntity("eui1", "buzzer", "buzzer1", 2, false);
+        buzzer.setEntityName("entityeui1");
+        buzzer.setEntityType("Room");
+        buzzer.setQueuedAt(new Date(1000));
+        // Queued before the entity of the commands was stored
+        DownlinkCommandEntity oldCommand = new DownlinkCommandEntity("eui2", "led", "led1", 2, false);
+        when(mockRepository.findByOwner(null)).thenReturn(Arrays.asList(led, buzzer, oldCommand));
+        queue.init();
+
+        queue.uplinkReceived("eui1");
+        sentFutures.get(0).set(newDeviceCommand(DeviceCommand.DeviceCommandStatus.SENT));
+        assertEquals(Collections.singletonList("led_commandStatus/SENT"), publishedStatuses("entityeui1"));
+
+        // The remaining commands are dropped
+        queue.discard("eui1");
+        queue.discard("eui2");
+        assertEquals(Arrays.asList("led_commandStatus/SENT", "buzzer_commandStatus/ERROR"), publishedStatuses("entityeui1"));
+        verify(mockNgsiManager, times(2)).updateDeviceAttributes(any(EntityId.class), anyListOf(ContextAttribute.class));
+    }
+
+    @Test
+    public void testEntityOfQueuedCommandsStored() {
+        queue.enqueue("eui1", entityId("eui1"), "led", newCommand("led1"), null);
+        sentFutures.get(0).set(newDeviceCommand(DeviceCommand.DeviceCommandStatus.SENT));
+        queue.flush();
+        // Waits for the next uplink of the device
+        queue.enqueue("eui1", entityId("eui1"), "buzzer", newCommand("buzzer1"), null);
+        reset(mockRepository);
+        queue.flush();
+
+        ArgumentCaptor<List> savedEntities = ArgumentCaptor.forClass(List.class);
+        verify(mockRepository).save(savedEntities.capture());
+        DownlinkCommandEntity entity = (DownlinkCommandEntity) savedEntities.getValue().get(0);
+        assertEquals("entityeui1", entity.getEntityName());
+        assertEquals("Room", entity.getEntityType());
+    }
+
+    /**
+     * @return The statuses published for an entity, as name/value
+     */
+    private List<String> publishedStatuses(String entityName) throws Exception {
+        ArgumentCaptor<EntityId> entityIds = ArgumentCaptor.forClass(EntityId.class);
+        ArgumentCaptor<List> attributes = ArgumentCaptor.forClass(List.class);
+        verify(mockNgsiManager, atLeast(0)).updateDeviceAttributes(entityIds.capture(), attributes.capture());
+        List<String> statuses = new ArrayList<>();
+        for (int i = 0; i < entityIds.getAllValues().size(); i++) {
+            if (entityName.equals(entityIds.getAllValues().get(i).getId())) {
+                for (Object attribute : attributes.getAllValues().get(i)) {
+                    statuses.add(((ContextAttribute) attribute).getName() + "/" + ((ContextAttribute) attribute).getValue());
+                }
+            }
+        }
+        return statuses;
+    }
+
+    private static EntityId entityId(String deviceEUI) {
+        return new EntityId("entity" + deviceEUI, "Room", false);
+    }
+
+    private static RegisterDeviceCommandParameter newCommand(String data) {
+        RegisterDeviceCommandParameter command = new RegisterDeviceCommandParameter();
+        command.setData(data);
+        command.setPort(2);
+        command.setConfirmed(false);
+        return command;
+    }
+
+    private static DeviceCommand newDeviceCommand(DeviceCommand.DeviceCommandStatus status) {
+        DeviceCommand deviceCommand = new DeviceCommand();
+        deviceCommand.setCommandStatus(status);
+        deviceCommand.setCreationTs(new Date());
+        return deviceCommand;
+    }
+
+    private static BiConsumer<Boolean, Date> statusCallback(Map<String, Boolean> statuses, String data) {
+        return (success, commandDate) -> statuses.put(data, success);
+    }
+}
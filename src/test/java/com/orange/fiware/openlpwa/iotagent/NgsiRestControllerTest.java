@@ -19,8 +19,10 @@
 package com.orange.fiware.openlpwa.iotagent;
 
 import com.orange.fiware.openlpwa.domain.DeviceEntity;
+import com.orange.fiware.openlpwa.domain.PatternSubscriptionEntity;
 import com.orange.fiware.openlpwa.exception.AgentException;
 import com.orange.fiware.openlpwa.ngsi.NgsiManager;
+import com.orange.fiware.openlpwa.repository.DeviceEntityIndex;
 import com.orange.fiware.openlpwa.repository.DeviceEntityRepository;
 import com.orange.ngsi.model.*;
 import org.junit.Before;
@@ -34,6 +36,8 @@ import org.springframework.test.util.ReflectionTestUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.function.BiConsumer;
@@ -54,6 +58,10 @@ public class NgsiRestControllerTest {
     private Agent agent;
     @Mock
     private DeviceEntityRepository deviceRepository;
+    @Mock
+    private PatternSubscriptionManager patternSubscriptionManager;
+    @Mock
+    private DeviceEntityIndex entityIndex;
 
     @Before
     public void setup() {
@@ -102,6 +110,70 @@ public class NgsiRestControllerTest {
         verify(manager, times(2)).unsubscribe(anyString());
     }
 
+    @Test
+    public void testNotifyPatternContextRequest() throws Exception {
+        List<String> commands = Collections.singletonList("test");
+        when(patternSubscriptionManager.findSubscription("pattern")).thenReturn(
+                new PatternSubscriptionEntity(PatternSubscriptionManager.subscriptionKey("type", commands), "type", commands, "pattern"));
+        when(entityIndex.findDeviceEUI("type", "name1")).thenReturn("eui1");
+        when(entityIndex.findDeviceEUI("type", "name2")).thenReturn("eui2");
+        when(entityIndex.findDeviceEUI("type", "name3")).thenReturn("eui3");
+        // Missing from the index
+        DeviceEntity otherAgentDevice = newDeviceEntity("eui4", "name4", commands, null);
+        when(deviceRepository.findByNameAndType("name4", "type")).thenReturn(Collections.singletonList(otherAgentDevice));
+        when(deviceRepository.findOne("eui1")).thenReturn(newDeviceEntity("eui1", "name1", commands, null));
+        // Notified by the subscription of its commands
+        when(deviceRepository.findOne("eui2")).thenReturn(newDeviceEntity("eui2", "name2", Arrays.asList("test", "test2"), null));
+        // Notified by its own subscription
+        when(deviceRepository.findOne("eui3")).thenReturn(newDeviceEntity("eui3", "name3", commands, "own"));
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        NotifyContext context = new NotifyContext();
+        context.setSubscriptionId("pattern");
+        context.setContextElementResponseList(Arrays.asList(newCommandResponse("name1"), newCommandResponse("name2"), newCommandResponse("name3"), newCommandResponse("name4"), newCommandResponse("unknown")));
+        NotifyContext unknownSubscription = new NotifyContext();
+        unknownSubscription.setSubscriptionId("unknown");
+        unknownSubscription.setContextElementResponseList(Collections.singletonList(newCommandResponse("name1")));
+
+        assertEquals(HttpStatus.OK, ngsiRestController.notifyPatternContextRequest(null, request).getStatusCode());
+        assertEquals(HttpStatus.OK, ngsiRestController.notifyPatternContextRequest(context, request).getStatusCode());
+        assertEquals(HttpStatus.OK, ngsiRestController.notifyPatternContextRequest(unknownSubscription, request).getStatusCode());
+
+        verify(agent, times(2)).executeCommand(anyString(), anyString(), any(ContextAttribute.class), any(BiConsumer.class));
+        verify(agent, times(1)).executeCommand(eq("eui1"), eq("test"), any(ContextAttribute.class), any(BiConsumer.class));
+        verify(agent, times(1)).executeCommand(eq("eui4"), eq("test"), any(ContextAttribute.class), any(BiConsumer.class));
+        verify(entityIndex, times(1)).put(otherAgentDevice);
+        verify(manager, times(1)).unsubscribe(anyString());
+        verify(manager, times(1)).unsubscribe("unknown");
+    }
+
+    @Test
+    public void testNotifyContextRequestQueued() throws Exception {
+        NotificationExecutor notificationExecutor = mock(NotificationExecutor.class);
+        ReflectionTestUtils.setField(ngsiRestController, "notificationExecutor", notificationExecutor);
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        NotifyContext context = new NotifyContext();
+        context.setSubscriptionId("123");
+        context.setContextElementResponseList(new ArrayList<>());
+
+        // Acknowledged before the processing
+        when(notificationExecutor.submit(any(Runnable.class))).thenReturn(true);
+        ResponseEntity<NotifyContextResponse> queuedResponse = ngsiRestController.notifyContextRequest(context, "123", request);
+        assertEquals(HttpStatus.OK, queuedResponse.getStatusCode());
+        assertEquals(CodeEnum.CODE_200.getLabel(), queuedResponse.getBody().getResponseCode().getCode());
+        verify(deviceRepository, never()).findOne(anyString());
+
+        // Queue full
+        when(notificationExecutor.submit(any(Runnable.class))).thenReturn(false);
+        ResponseEntity<NotifyContextResponse> rejectedResponse = ngsiRestController.notifyContextRequest(context, "123", request);
+        ResponseEntity<NotifyContextResponse> rejectedPatternResponse = ngsiRestController.notifyPatternContextRequest(context, request);
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejectedResponse.getStatusCode());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejectedPatternResponse.getStatusCode());
+
+        // Invalid notify not queued
+        assertEquals(HttpStatus.OK, ngsiRestController.notifyContextRequest(null, "123", request).getStatusCode());
+        verify(notificationExecutor, times(3)).submit(any(Runnable.class));
+    }
+
     @Test
     public void testHandleNotifyContext() throws AgentException {
         String eui = "123";
@@ -132,4 +204,29 @@ public class NgsiRestControllerTest {
         verify(agent, times(1)).executeCommand(eq(eui), eq("test"), any(ContextAttribute.class), any(BiConsumer.class));
         verify(manager, times(1)).updateDeviceAttributes(any(EntityId.class), any(List.class));
     }
+
+    private static DeviceEntity newDeviceEntity(String eui, String name, List<String> commands, String subscriptionId) {
+        DeviceEntity device = new DeviceEntity();
+        device.setDeviceEUI(eui);
+        device.setName(name);
+        device.setType("type");
+        device.setPort(1);
+        device.setCommands(commands);
+        device.setSubscriptionId(subscriptionId);
+        return device;
+    }
+
+    private static ContextElementResponse newCommandResponse(String entityName) {
+        ContextAttribute attribute = new ContextAttribute();
+        attribute.setName("test_command");
+        attribute.setType("command");
+        attribute.setValue("value");
+        ContextElement element = new ContextElement();
+        element.setEntityId(new EntityId(entityName, "type", false));
+        element.setContextAttributeList(new ArrayList<>(Collections.singletonList(attribute)));
+        ContextElementResponse response = new ContextElementResponse();
+        response.setStatusCode(new StatusCode(CodeEnum.CODE_200));
+        response.setContextElement(element);
+        return response;
+    }
 }
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+package com.orange.fiware.openlpwa.iotagent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * NotificationExecutor unit tests
+ */
+public class NotificationExecutorTest {
+
+    private NotificationExecutor notificationExecutor;
+
+    @After
+    public void tearDown() {
+        if (notificationExecutor != null) {
+            notificationExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testNotificationsProcessedInBackground() throws Exception {
+        notificationExecutor = new NotificationExecutor(2, 10);
+        CountDownLatch processed = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(notificationExecutor.submit(processed::countDown));
+        }
+        assertTrue(processed.await(5, TimeUnit.SECONDS));
+        waitProcessed(5);
+        assertEquals(0, notificationExecutor.getRejectedCount());
+        assertTrue(notificationExecutor.getMaxLatencyMillis() >= notificationExecutor.getAverageLatencyMillis());
+    }
+
+    @Test
+    public void testNotificationsRejectedWhenQueueFull() throws Exception {
+        notificationExecutor = new NotificationExecutor(1, 2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        assertTrue(notificationExecutor.submit(() -> {
+            started.countDown();
+            try {
+                blocked.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(notificationExecutor.submit(() -> {}));
+        assertTrue(notificationExecutor.submit(() -> {}));
+        assertEquals(2, notificationExecutor.getQueueDepth());
+
+        assertFalse(notificationExecutor.submit(() -> {}));
+        assertEquals(1, notificationExecutor.getRejectedCount());
+
+        blocked.countDown();
+        waitProcessed(3);
+        assertEquals(0, notificationExecutor.getQueueDepth());
+    }
+
+    @Test
+    public void testFailedProcessingCounted() throws Exception {
+        notificationExecutor = new NotificationExecutor(1, 10);
+        assertTrue(notificationExecutor.submit(() -> {
+            throw new IllegalStateException("Processing failure");
+        }));
+        assertTrue(notificationExecutor.submit(() -> {}));
+        waitProcessed(2);
+    }
+
+    @Test
+    public void testWithoutThreads() {
+        notificationExecutor = new NotificationExecutor(0, 0);
+        AtomicInteger processed = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(notificationExecutor.submit(processed::incrementAndGet));
+        }
+        // Processed on the caller thread
+        assertEquals(3, processed.get());
+        assertEquals(3, notificationExecutor.getProcessedCount());
+        assertEquals(0, notificationExecutor.getQueueDepth());
+    }
+
+    private void waitProcessed(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (notificationExecutor.getProcessedCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, notificationExecutor.getProcessedCount());
+    }
+}
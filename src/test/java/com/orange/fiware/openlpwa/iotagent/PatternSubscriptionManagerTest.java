@@ -0,0 +1,258 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+package com.orange.fiware.openlpwa.iotagent;
+
+import com.orange.fiware.openlpwa.domain.DeviceEntity;
+import com.orange.fiware.openlpwa.domain.PatternSubscriptionEntity;
+import com.orange.fiware.openlpwa.exception.AgentException;
+import com.orange.fiware.openlpwa.ngsi.NgsiManager;
+import com.orange.fiware.openlpwa.repository.DeviceEntityRepository;
+import com.orange.fiware.openlpwa.repository.PatternSubscriptionRepository;
+import com.orange.ngsi.model.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * PatternSubscriptionManager unit tests
+ */
+public class PatternSubscriptionManagerTest {
+
+    private NgsiManager mockNgsiManager;
+    private PatternSubscriptionRepository mockSubscriptionRepository;
+    private DeviceEntityRepository mockDeviceRepository;
+    private PatternSubscriptionManager subscriptionManager;
+    private List<SettableListenableFuture<SubscribeContextResponse>> subscribeFutures;
+
+    @Before
+    public void setup() throws Exception {
+        mockNgsiManager = mock(NgsiManager.class);
+        mockSubscriptionRepository = mock(PatternSubscriptionRepository.class);
+        mockDeviceRepository = mock(DeviceEntityRepository.class);
+        subscriptionManager = new PatternSubscriptionManager(mockNgsiManager, mockSubscriptionRepository, mockDeviceRepository, true, TimeUnit.DAYS.toMillis(3), 0);
+        subscribeFutures = new ArrayList<>();
+        when(mockNgsiManager.subscribeToCommands(anyString(), anyListOf(String.class))).thenAnswer(invocationOnMock -> {
+            SettableListenableFuture<SubscribeContextResponse> future = new SettableListenableFuture<>();
+            subscribeFutures.add(future);
+            return future;
+        });
+    }
+
+    @Test
+    public void testSubscriptionKey() {
+        assertEquals("Room:led,thermostat", PatternSubscriptionManager.subscriptionKey("Room", Arrays.asList("thermostat", "led", "led")));
+        assertEquals(PatternSubscriptionManager.subscriptionKey("Room", Arrays.asList("led", "thermostat")),
+                PatternSubscriptionManager.subscriptionKey("Room", Arrays.asList("thermostat", "led")));
+    }
+
+    @Test
+    public void testSingleSubscriptionPerEntityTypeAndCommands() throws Exception {
+        ListenableFuture<PatternSubscriptionEntity> future = subscriptionManager.subscribe("Room", Arrays.asList("led", "thermostat"));
+        // Same commands, subscription in progress
+        ListenableFuture<PatternSubscriptionEntity> sameFuture = subscriptionManager.subscribe("Room", Arrays.asList("thermostat", "led"));
+        ListenableFuture<PatternSubscriptionEntity> otherFuture = subscriptionManager.subscribe("Room", Collections.singletonList("led"));
+        assertEquals(2, subscribeFutures.size());
+
+        subscribeFutures.get(0).set(subscribeResponse("subscription1"));
+        subscribeFutures.get(1).set(subscribeResponse("subscription2"));
+
+        assertEquals("subscription1", future.get().getSubscriptionId());
+        assertEquals("subscription1", sameFuture.get().getSubscriptionId());
+        assertEquals("subscription2", otherFuture.get().getSubscriptionId());
+        assertEquals("subscription1", subscriptionManager.subscribe("Room", Arrays.asList("led", "thermostat")).get().getSubscriptionId());
+        verify(mockNgsiManager, times(1)).subscribeToCommands("Room", Arrays.asList("led", "thermostat"));
+        verify(mockSubscriptionRepository, times(2)).save(any(PatternSubscriptionEntity.class));
+        assertNotNull(future.get().getSubscriptionRenewAt());
+        assertEquals("Room:led", subscriptionManager.findSubscription("subscription2").getKey());
+    }
+
+    @Test
+    public void testFailedSubscriptionCreatedAgain() throws Exception {
+        ListenableFuture<PatternSubscriptionEntity> future = subscriptionManager.subscribe("Room", Collections.singletonList("led"));
+        subscribeFutures.get(0).setException(new RuntimeException("Context broker unavailable"));
+        try {
+            future.get();
+            fail("Subscription succeeded");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AgentException);
+        }
+
+        future = subscriptionManager.subscribe("Room", Collections.singletonList("led"));
+        subscribeFutures.get(1).set(subscribeResponse("subscription1"));
+        assertEquals("subscription1", future.get().getSubscriptionId());
+    }
+
+    @Test
+    public void testSubscriptionCreatedByAnotherAgent() throws Exception {
+        PatternSubscriptionEntity subscription = new PatternSubscriptionEntity("Room:led", "Room", Collections.singletonList("led"), "subscription1");
+        when(mockSubscriptionRepository.findOne("Room:led")).thenReturn(subscription);
+        when(mockSubscriptionRepository.findBySubscriptionId("subscription2")).thenReturn(
+                new PatternSubscriptionEntity("Room:thermostat", "Room", Collections.singletonList("thermostat"), "subscription2"));
+
+        assertSame(subscription, subscriptionManager.subscribe("Room", Collections.singletonList("led")).get());
+        assertTrue(subscribeFutures.isEmpty());
+        assertEquals("Room:thermostat", subscriptionManager.findSubscription("subscription2").getKey());
+        assertNull(subscriptionManager.findSubscription("unknown"));
+    }
+
+    @Test
+    public void testRenewSubscriptions() throws Exception {
+        long now = System.currentTimeMillis();
+        PatternSubscriptionEntity dueSubscription = new PatternSubscriptionEntity("Room:led", "Room", Collections.singletonList("led"), "subscription1");
+        dueSubscription.setSubscriptionRenewAt(new Date(now - 1000));
+        dueSubscription.setSubscriptionExpiresAt(new Date(now + 1000));
+        PatternSubscriptionEntity unknownSubscription = new PatternSubscriptionEntity("Room:thermostat", "Room", Collections.singletonList("thermostat"), "subscription2");
+        PatternSubscriptionEntity laterSubscription = new PatternSubscriptionEntity("Desk:led", "Desk", Collections.singletonList("led"), "subscription3");
+        laterSubscription.setSubscriptionRenewAt(new Date(now + 60000));
+        when(mockSubscriptionRepository.findAll()).thenReturn(Arrays.asList(dueSubscription, unknownSubscription, laterSubscription));
+        when(mockDeviceRepository.findPatternSubscriptionDevices(eq("Room"), eq(Collections.singletonList("led")), any(Pageable.class)))
+                .thenReturn(Collections.singletonList(newDeviceEntity("devEUI1", "Room", "led")));
+        when(mockDeviceRepository.findPatternSubscriptionDevices(eq("Room"), eq(Collections.singletonList("thermostat")), any(Pageable.class)))
+                .thenReturn(Collections.singletonList(newDeviceEntity("devEUI2", "Room", "thermostat")));
+        when(mockNgsiManager.updateSubscription(anyString())).thenAnswer(invocationOnMock -> {
+            SettableListenableFuture<UpdateContextSubscriptionResponse> future = new SettableListenableFuture<>();
+            if ("subscription1".equals(invocationOnMock.getArgumentAt(0, String.class))) {
+                future.set(new UpdateContextSubscriptionResponse(new SubscribeResponse()));
+            } else {
+                SubscribeError subscribeError = new SubscribeError();
+                subscribeError.setErrorCode(new StatusCode(CodeEnum.CODE_470, "subscription2"));
+                future.set(new UpdateContextSubscriptionResponse(subscribeError));
+            }
+            return future;
+        });
+        subscriptionManager.init();
+
+        subscriptionManager.renewSubscriptions();
+        subscribeFutures.get(0).set(subscribeResponse("subscription4"));
+
+        verify(mockNgsiManager, times(2)).updateSubscription(anyString());
+        verify(mockNgsiManager, never()).updateSubscription("subscription3");
+        assertTrue(dueSubscription.getSubscriptionRenewAt().getTime() > now + TimeUnit.DAYS.toMillis(20));
+        assertEquals("subscription1", dueSubscription.getSubscriptionId());
+        // Unknown subscription created again
+        assertEquals("subscription4", unknownSubscription.getSubscriptionId());
+        assertSame(unknownSubscription, subscriptionManager.findSubscription("subscription4"));
+        assertNull(subscriptionManager.findSubscription("subscription2"));
+        verify(mockSubscriptionRepository, times(1)).save(dueSubscription);
+        verify(mockSubscriptionRepository, times(1)).save(unknownSubscription);
+    }
+
+    @Test
+    public void testDisabled() {
+        subscriptionManager = new PatternSubscriptionManager(mockNgsiManager, mockSubscriptionRepository, mockDeviceRepository, false, 0, 0);
+        subscriptionManager.init();
+        subscriptionManager.renewSubscriptions();
+        assertFalse(subscriptionManager.isEnabled());
+        verify(mockSubscriptionRepository, never()).findAll();
+    }
+
+    @Test
+    public void testReleasedSubscriptionRemovedWhenUnused() throws Exception {
+        ListenableFuture<PatternSubscriptionEntity> future = subscriptionManager.subscribe("Room", Collections.singletonList("led"));
+        subscribeFutures.get(0).set(subscribeResponse("subscription1"));
+        assertNotNull(future.get());
+        when(mockNgsiManager.unsubscribe("subscription1")).thenReturn(new SettableListenableFuture<>());
+        // Another device of the entity type with other commands
+        when(mockDeviceRepository.findPatternSubscriptionDevices(eq("Room"), eq(Collections.singletonList("thermostat")), any(Pageable.class)))
+                .thenReturn(Collections.singletonList(newDeviceEntity("devEUI2", "Room", "thermostat")));
+
+        subscriptionManager.release("Room", Collections.singletonList("led"));
+        subscriptionManager.renewSubscriptions();
+
+        verify(mockNgsiManager).unsubscribe("subscription1");
+        verify(mockSubscriptionRepository).delete("Room:led");
+        assertNull(subscriptionManager.findSubscription("subscription1"));
+        // Subscribed again by the next device
+        subscriptionManager.subscribe("Room", Collections.singletonList("led"));
+        assertEquals(2, subscribeFutures.size());
+    }
+
+    @Test
+    public void testReleasedSubscriptionKeptWhenUsed() throws Exception {
+        subscriptionManager.subscribe("Room", Collections.singletonList("led"));
+        subscribeFutures.get(0).set(subscribeResponse("subscription1"));
+        when(mockDeviceRepository.findPatternSubscriptionDevices(eq("Room"), eq(Collections.singletonList("led")), any(Pageable.class)))
+                .thenReturn(Collections.singletonList(newDeviceEntity("devEUI2", "Room", "led")));
+
+        subscriptionManager.release("Room", Collections.singletonList("led"));
+        subscriptionManager.renewSubscriptions();
+
+        verify(mockNgsiManager, never()).unsubscribe(anyString());
+        assertEquals("Room:led", subscriptionManager.findSubscription("subscription1").getKey());
+    }
+
+    @Test
+    public void testReleasedSubscriptionKeptWhenRecentlyRequested() throws Exception {
+        subscriptionManager = new PatternSubscriptionManager(mockNgsiManager, mockSubscriptionRepository, mockDeviceRepository, true, TimeUnit.DAYS.toMillis(3), 60000);
+        subscriptionManager.subscribe("Room", Collections.singletonList("led"));
+        subscribeFutures.get(0).set(subscribeResponse("subscription1"));
+
+        // The device being registered isn't saved yet
+        subscriptionManager.release("Room", Collections.singletonList("led"));
+        subscriptionManager.renewSubscriptions();
+
+        verify(mockNgsiManager, never()).unsubscribe(anyString());
+        verify(mockDeviceRepository, never()).findPatternSubscriptionDevices(anyString(), anyListOf(String.class), any(Pageable.class));
+    }
+
+    @Test
+    public void testUnusedSubscriptionRemovedInsteadOfRenewed() throws Exception {
+        PatternSubscriptionEntity dueSubscription = new PatternSubscriptionEntity("Room:led", "Room", Collections.singletonList("led"), "subscription1");
+        dueSubscription.setSubscriptionRenewAt(new Date(System.currentTimeMillis() - 1000));
+        when(mockSubscriptionRepository.findAll()).thenReturn(Collections.singletonList(dueSubscription));
+        when(mockNgsiManager.unsubscribe("subscription1")).thenReturn(new SettableListenableFuture<>());
+        // Devices unregistered by another agent or before a restart
+        when(mockDeviceRepository.findPatternSubscriptionDevices(eq("Room"), eq(Collections.singletonList("led")), any(Pageable.class)))
+                .thenReturn(Collections.emptyList());
+        subscriptionManager.init();
+
+        subscriptionManager.renewSubscriptions();
+
+        verify(mockNgsiManager, never()).updateSubscription(anyString());
+        verify(mockNgsiManager).unsubscribe("subscription1");
+        verify(mockSubscriptionRepository).delete("Room:led");
+    }
+
+    private static DeviceEntity newDeviceEntity(String deviceEUI, String entityType, String command) {
+        Device device = new Device();
+        device.setDeviceEUI(deviceEUI);
+        device.setPort(2);
+        device.setEntityName("entity" + deviceEUI);
+        device.setEntityType(entityType);
+        device.setCommands(Collections.singletonList(command));
+        return new DeviceEntity(device, null);
+    }
+
+    private static SubscribeContextResponse subscribeResponse(String subscriptionId) {
+        SubscribeResponse subscribeResponse = new SubscribeResponse();
+        subscribeResponse.setSubscriptionId(subscriptionId);
+        return new SubscribeContextResponse(subscribeResponse, null);
+    }
+}
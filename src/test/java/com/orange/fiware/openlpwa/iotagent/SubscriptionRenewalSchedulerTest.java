@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.iotagent;
+
+import com.orange.fiware.openlpwa.domain.DeviceEntity;
+import com.orange.fiware.openlpwa.ngsi.NgsiManager;
+import com.orange.fiware.openlpwa.repository.DeviceEntityRepository;
+import com.orange.ngsi.model.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.domain.Sort;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * SubscriptionRenewalScheduler unit tests
+ */
+public class SubscriptionRenewalSchedulerTest {
+
+    private static final long RENEW_BEFORE = TimeUnit.DAYS.toMillis(3);
+    private static final long SPREAD = TimeUnit.DAYS.toMillis(2);
+    private static final long RETRY_DELAY = 60000;
+    private NgsiManager mockNgsiManager;
+    private DeviceEntityRepository mockDeviceRepository;
+    private SubscriptionRenewalScheduler scheduler;
+    private Map<String, SettableListenableFuture<UpdateContextSubscriptionResponse>> updates;
+
+    @Before
+    public void setup() throws Exception {
+        mockNgsiManager = mock(NgsiManager.class);
+        mockDeviceRepository = mock(DeviceEntityRepository.class);
+        scheduler = new SubscriptionRenewalScheduler(mockNgsiManager, mockDeviceRepository, true, 1000, 2, RENEW_BEFORE, SPREAD, RETRY_DELAY, 4 * RETRY_DELAY);
+        updates = new HashMap<>();
+        when(mockNgsiManager.updateSubscription(anyString())).thenAnswer(invocationOnMock -> {
+            SettableListenableFuture<UpdateContextSubscriptionResponse> future = new SettableListenableFuture<>();
+            updates.put(invocationOnMock.getArgumentAt(0, String.class), future);
+            return future;
+        });
+    }
+
+    @Test
+    public void testScheduleRenewal() {
+        long now = System.currentTimeMillis();
+        Set<Long> renewalDates = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            DeviceEntity device = newDevice("eui" + i, "subscription" + i);
+            device.setSubscriptionRenewalFailures(3);
+            scheduler.scheduleRenewal(device);
+
+            long expiresAt = device.getSubscriptionExpiresAt().getTime();
+            long renewAt = device.getSubscriptionRenewAt().getTime();
+            assertTrue(expiresAt >= now + SubscriptionRenewalScheduler.SUBSCRIPTION_LIFETIME_MILLIS);
+            assertTrue(renewAt <= expiresAt - RENEW_BEFORE);
+            assertTrue(renewAt >= expiresAt - RENEW_BEFORE - SPREAD);
+            assertEquals(0, device.getSubscriptionRenewalFailures());
+            renewalDates.add(renewAt);
+        }
+        // Renewals spread over time
+        assertTrue(renewalDates.size() > 1);
+
+        DeviceEntity sensor = newDevice("sensor", null);
+        scheduler.scheduleRenewal(sensor);
+        assertNull(sensor.getSubscriptionRenewAt());
+    }
+
+    @Test
+    public void testRenewSubscriptionsWithBoundedConcurrency() {
+        List<DeviceEntity> devices = Arrays.asList(newDevice("eui1", "subscription1"), newDevice("eui2", "subscription2"), newDevice("eui3", "subscription3"));
+        streamDevices(devices);
+
+        scheduler.renewSubscriptions();
+        // At most 2 renewals at the same time
+        assertEquals(2, updates.size());
+        // A run in progress is not started again
+        scheduler.renewSubscriptions();
+        verify(mockDeviceRepository, times(1)).streamSubscriptionsToRenew(any(Date.class), any(Sort.class));
+
+        updates.get("subscription1").set(new UpdateContextSubscriptionResponse(new SubscribeResponse()));
+        assertEquals(3, updates.size());
+        updates.get("subscription2").set(new UpdateContextSubscriptionResponse(new SubscribeResponse()));
+        updates.get("subscription3").set(new UpdateContextSubscriptionResponse(new SubscribeResponse()));
+
+        assertEquals(3, scheduler.getRenewedCount());
+        for (DeviceEntity device : devices) {
+            verify(mockDeviceRepository, times(1)).save(device);
+            assertTrue(device.getSubscriptionRenewAt().getTime() > System.currentTimeMillis());
+        }
+        scheduler.renewSubscriptions();
+        verify(mockDeviceRepository, times(2)).streamSubscriptionsToRenew(any(Date.class), any(Sort.class));
+    }
+
+    @Test
+    public void testFailedRenewalRetriedWithBackoff() {
+        DeviceEntity device = newDevice("eui1", "subscription1");
+        streamDevices(Collections.singletonList(device));
+
+        for (int i = 1; i <= 4; i++) {
+            long now = System.currentTimeMillis();
+            scheduler.renewSubscriptions();
+            updates.get("subscription1").setException(new RuntimeException("Context broker unavailable"));
+            assertEquals(i, device.getSubscriptionRenewalFailures());
+            long retryDelay = Math.min(4 * RETRY_DELAY, RETRY_DELAY << (i - 1));
+            assertTrue(device.getSubscriptionRenewAt().getTime() >= now + retryDelay);
+            assertTrue(device.getSubscriptionRenewAt().getTime() <= System.currentTimeMillis() + retryDelay);
+        }
+        assertEquals(4, scheduler.getFailedCount());
+        assertEquals("subscription1", device.getSubscriptionId());
+
+        scheduler.renewSubscriptions();
+        updates.get("subscription1").set(new UpdateContextSubscriptionResponse(new SubscribeResponse()));
+        assertEquals(0, device.getSubscriptionRenewalFailures());
+    }
+
+    @Test
+    public void testExpiredOrUnknownSubscriptionSubscribedAgain() throws Exception {
+        DeviceEntity expiredDevice = newDevice("eui1", "subscription1");
+        expiredDevice.setSubscriptionExpiresAt(new Date(System.currentTimeMillis() - 1000));
+        DeviceEntity unknownDevice = newDevice("eui2", "subscription2");
+        streamDevices(Arrays.asList(expiredDevice, unknownDevice));
+        when(mockNgsiManager.subscribeToCommands(any(Device.class))).thenAnswer(invocationOnMock -> {
+            SubscribeResponse subscribeResponse = new SubscribeResponse();
+            subscribeResponse.setSubscriptionId("new" + invocationOnMock.getArgumentAt(0, Device.class).getDeviceEUI());
+            SettableListenableFuture<SubscribeContextResponse> future = new SettableListenableFuture<>();
+            future.set(new SubscribeContextResponse(subscribeResponse, null));
+            return future;
+        });
+
+        scheduler.renewSubscriptions();
+        SubscribeError subscribeError = new SubscribeError();
+        subscribeError.setErrorCode(new StatusCode(CodeEnum.CODE_470, "subscription2"));
+        updates.get("subscription2").set(new UpdateContextSubscriptionResponse(subscribeError));
+
+        verify(mockNgsiManager, never()).updateSubscription("subscription1");
+        verify(mockNgsiManager, times(2)).subscribeToCommands(any(Device.class));
+        assertEquals("neweui1", expiredDevice.getSubscriptionId());
+        assertEquals("neweui2", unknownDevice.getSubscriptionId());
+        assertTrue(expiredDevice.getSubscriptionExpiresAt().getTime() > System.currentTimeMillis());
+        assertEquals(2, scheduler.getResubscribedCount());
+        verify(mockDeviceRepository, times(1)).save(expiredDevice);
+        verify(mockDeviceRepository, times(1)).save(unknownDevice);
+    }
+
+    @Test
+    public void testUnregisteredDeviceNotSavedAgain() {
+        DeviceEntity device = newDevice("eui1", "subscription1");
+        streamDevices(Collections.singletonList(device));
+
+        scheduler.renewSubscriptions();
+        when(mockDeviceRepository.findOne("eui1")).thenReturn(null);
+        updates.get("subscription1").set(new UpdateContextSubscriptionResponse(new SubscribeResponse()));
+
+        verify(mockDeviceRepository, never()).save(any(DeviceEntity.class));
+    }
+
+    @Test
+    public void testDisabled() {
+        scheduler = new SubscriptionRenewalScheduler(mockNgsiManager, mockDeviceRepository, false, 1000, 2, RENEW_BEFORE, SPREAD, RETRY_DELAY, RETRY_DELAY);
+        scheduler.renewSubscriptions();
+        verify(mockDeviceRepository, never()).streamSubscriptionsToRenew(any(Date.class), any(Sort.class));
+    }
+
+    private void streamDevices(List<DeviceEntity> devices) {
+        when(mockDeviceRepository.streamSubscriptionsToRenew(any(Date.class), any(Sort.class))).thenAnswer(invocationOnMock -> devices.stream());
+        for (DeviceEntity device : devices) {
+            // The registered device keeps the subscription being renewed
+            String subscriptionId = device.getSubscriptionId();
+            when(mockDeviceRepository.findOne(device.getDeviceEUI())).thenAnswer(invocationOnMock -> newDevice(device.getDeviceEUI(), subscriptionId));
+        }
+    }
+
+    private static DeviceEntity newDevice(String deviceEUI, String subscriptionId) {
+        DeviceEntity device = new DeviceEntity();
+        device.setDeviceEUI(deviceEUI);
+        device.setName("Room_" + deviceEUI);
+        device.setType("Room");
+        device.setPort(2);
+        device.setCommands(Collections.singletonList("led"));
+        device.setSubscriptionId(subscriptionId);
+        return device;
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import org.junit.Test;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * NgsiConcurrencyLimiter unit tests
+ */
+public class NgsiConcurrencyLimiterTest {
+
+    private final static long LATENCY = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void testFixedLimit() throws Exception {
+        NgsiConcurrencyLimiter limiter = new NgsiConcurrencyLimiter(2);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        limiter.onDropped(System.nanoTime());
+        assertEquals(2, limiter.getLimit());
+        assertTrue(limiter.tryAcquire());
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    public void testLimitGrowsWithHealthyLatency() throws Exception {
+        NgsiConcurrencyLimiter limiter = new NgsiConcurrencyLimiter(true, 100, 10, 1, 2, 0.5, 100);
+        // Requests sent as soon as a slot is available, one request more per round trip
+        while (limiter.tryAcquire()) {
+        }
+        for (int i = 0; i < 100; i++) {
+            limiter.onSuccess(System.nanoTime(), LATENCY);
+            while (limiter.tryAcquire()) {
+            }
+        }
+        int limit = limiter.getLimit();
+        assertTrue(limit >= 15 && limit <= 18);
+        assertEquals(limit, limiter.getInFlight());
+
+        // A limit which isn't used doesn't grow
+        while (limiter.getInFlight() > 0) {
+            limiter.onIgnored();
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onSuccess(System.nanoTime(), LATENCY);
+        }
+        assertEquals(limit, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitDecreasesOncePerRoundTrip() throws Exception {
+        NgsiConcurrencyLimiter limiter = new NgsiConcurrencyLimiter(true, 100, 40, 1, 2, 0.5, 100);
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        // Requests sent together fail together
+        for (int i = 0; i < 10; i++) {
+            limiter.onDropped(startNanos + 1);
+        }
+        assertEquals(20, limiter.getLimit());
+
+        // Rising latency
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onSuccess(System.nanoTime(), LATENCY);
+        }
+        assertEquals(20, limiter.getLimit());
+        startNanos = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onSuccess(startNanos, LATENCY * 3);
+        }
+        assertEquals(10, limiter.getLimit());
+
+        // Minimum limit
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onDropped(System.nanoTime());
+        }
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    public void testExcessRequestsQueuedThenShed() throws Exception {
+        NgsiConcurrencyLimiter limiter = new NgsiConcurrencyLimiter(true, 10, 1, 1, 2, 0.5, 1);
+        assertTrue(limiter.acquire(5000).get());
+        // Waits without blocking the caller
+        ListenableFuture<Boolean> queuedRequest = limiter.acquire(5000);
+        assertFalse(queuedRequest.isDone());
+        assertEquals(1, limiter.getQueued());
+        // Queue full
+        assertFalse(limiter.acquire(5000).get());
+        // A waiting request goes first
+        assertFalse(limiter.tryAcquire());
+
+        // Slot granted by the releasing thread
+        limiter.onIgnored();
+        assertTrue(queuedRequest.get(0, TimeUnit.SECONDS));
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void testExpiredRequestsRejected() throws Exception {
+        NgsiConcurrencyLimiter limiter = new NgsiConcurrencyLimiter(1);
+        assertTrue(limiter.tryAcquire());
+        ListenableFuture<Boolean> expiredRequest = limiter.acquire(0);
+        ListenableFuture<Boolean> queuedRequest = limiter.acquire(5000);
+        // The released slot goes to the first request which hasn't expired
+        limiter.onSuccess(System.nanoTime(), LATENCY);
+        assertFalse(expiredRequest.get(0, TimeUnit.SECONDS));
+        assertTrue(queuedRequest.get(0, TimeUnit.SECONDS));
+        assertEquals(0, limiter.getQueued());
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    public void testWaitingRequestRejectedAtTimeout() throws Exception {
+        NgsiConcurrencyLimiter limiter = new NgsiConcurrencyLimiter(1);
+        assertTrue(limiter.tryAcquire());
+        long startNanos = System.nanoTime();
+        ListenableFuture<Boolean> request = limiter.acquire(50);
+
+        // Rejected by the timer, without any release
+        assertFalse(request.get(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(0, limiter.getQueued());
+
+        // The timeout of a request granted a slot has no effect
+        request = limiter.acquire(50);
+        limiter.onSuccess(System.nanoTime(), LATENCY);
+        assertTrue(request.get(0, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, limiter.getInFlight());
+        limiter.shutdown();
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import com.orange.fiware.openlpwa.exception.AgentException;
+import com.orange.ngsi.ProtocolRegistry;
+import com.orange.ngsi.client.NgsiClient;
+import com.orange.ngsi.model.*;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.*;
+
+/**
+ * NgsiHttpTransport unit tests
+ */
+public class NgsiHttpTransportTest {
+
+    private HttpServer server;
+    private CountDownLatch responseLatch = new CountDownLatch(0);
+    private NgsiClient template;
+
+    @Before
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            try (InputStream requestBody = exchange.getRequestBody()) {
+                while (requestBody.read() >= 0) {
+                    // Request body ignored
+                }
+                responseLatch.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "{\"contextResponses\":[]}".getBytes();
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(body);
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(2));
+        server.start();
+        template = new NgsiClient();
+        template.asyncRestTemplate = new AsyncRestTemplate();
+        template.protocolRegistry = new ProtocolRegistry();
+    }
+
+    @After
+    public void tearDown() {
+        responseLatch = new CountDownLatch(0);
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionReused() throws Exception {
+        NgsiHttpTransport transport = new NgsiHttpTransport(10, 10, 1000, 1000, 10, 1000, 30000);
+        try {
+            NgsiClient client = transport.newNgsiClient(template);
+            for (int i = 0; i < 3; i++) {
+                assertNotNull(client.updateContext(url(), headers(), updateContext()).get());
+            }
+
+            assertEquals(3, transport.getRequestCount());
+            assertEquals(1, transport.getOpenedConnectionCount());
+            assertEquals(2, transport.getReusedConnectionCount());
+            assertEquals(0, transport.getInFlightRequests());
+            assertEquals(0, transport.getRejectedCount());
+        } finally {
+            transport.shutdown();
+        }
+    }
+
+    @Test
+    public void testInFlightRequestsBounded() throws Exception {
+        NgsiHttpTransport transport = new NgsiHttpTransport(10, 10, 1000, 5000, 1, 5000, 30000);
+        try {
+            NgsiClient client = transport.newNgsiClient(template);
+            responseLatch = new CountDownLatch(1);
+            ListenableFuture<UpdateContextResponse> pendingFuture = client.updateContext(url(), headers(), updateContext());
+            assertEquals(1, transport.getInFlightRequests());
+
+            // The second request waits for the slot without blocking the caller
+            ListenableFuture<UpdateContextResponse> queuedFuture = client.updateContext(url(), headers(), updateContext());
+            assertFalse(queuedFuture.isDone());
+            assertEquals(1, transport.getPendingRequests());
+            assertEquals(1, transport.getRequestCount());
+
+            responseLatch.countDown();
+            assertNotNull(pendingFuture.get());
+            assertNotNull(queuedFuture.get());
+            assertEquals(2, transport.getRequestCount());
+            assertEquals(0, transport.getPendingRequests());
+            assertEquals(0, transport.getInFlightRequests());
+            assertEquals(0, transport.getRejectedCount());
+        } finally {
+            transport.shutdown();
+        }
+    }
+
+    @Test
+    public void testPendingRequestRejectedAfterAcquireTimeout() throws Exception {
+        NgsiHttpTransport transport = new NgsiHttpTransport(10, 10, 1000, 5000, 1, 50, 30000);
+        try {
+            NgsiClient client = transport.newNgsiClient(template);
+            responseLatch = new CountDownLatch(1);
+            ListenableFuture<UpdateContextResponse> pendingFuture = client.updateContext(url(), headers(), updateContext());
+            ListenableFuture<UpdateContextResponse> queuedFuture = client.updateContext(url(), headers(), updateContext());
+
+            // Rejected at the acquire timeout, while the first request is still in flight
+            try {
+                queuedFuture.get(5, TimeUnit.SECONDS);
+                fail("The second request must be rejected");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(AgentException.class));
+            }
+            assertEquals(1, transport.getRejectedCount());
+            assertEquals(0, transport.getPendingRequests());
+
+            responseLatch.countDown();
+            assertNotNull(pendingFuture.get());
+            assertEquals(1, transport.getRequestCount());
+            assertEquals(0, transport.getInFlightRequests());
+        } finally {
+            transport.shutdown();
+        }
+    }
+
+    @Test
+    public void testPendingRequestRejectedWhenQueueFull() throws Exception {
+        NgsiHttpTransport transport = new NgsiHttpTransport(10, 10, 1000, 5000, 5000, 30000,
+                new NgsiConcurrencyLimiter(false, 1, 1, 1, 2, 0.9, 0));
+        try {
+            NgsiClient client = transport.newNgsiClient(template);
+            responseLatch = new CountDownLatch(1);
+            ListenableFuture<UpdateContextResponse> pendingFuture = client.updateContext(url(), headers(), updateContext());
+            try {
+                client.updateContext(url(), headers(), updateContext()).get();
+                fail("The second request must be rejected");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(AgentException.class));
+            }
+            assertEquals(1, transport.getRejectedCount());
+
+            responseLatch.countDown();
+            assertNotNull(pendingFuture.get());
+        } finally {
+            transport.shutdown();
+        }
+    }
+
+    private String url() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    private static HttpHeaders headers() {
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+        httpHeaders.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+        return httpHeaders;
+    }
+
+    private static UpdateContext updateContext() {
+        ContextElement element = new ContextElement();
+        element.setEntityId(new EntityId("entity", "type", false));
+        element.setContextAttributeList(Collections.singletonList(new ContextAttribute("temperature", "float", "20.5")));
+        UpdateContext context = new UpdateContext();
+        context.setUpdateAction(UpdateAction.APPEND);
+        context.setContextElements(Collections.singletonList(element));
+        return context;
+    }
+}
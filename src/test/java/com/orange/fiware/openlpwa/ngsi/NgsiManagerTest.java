@@ -20,21 +20,29 @@ package com.orange.fiware.openlpwa.ngsi;
 
 import com.orange.fiware.openlpwa.domain.DeviceEntity;
 import com.orange.fiware.openlpwa.exception.AgentException;
+import com.orange.fiware.openlpwa.exception.ConfigurationException;
 import com.orange.fiware.openlpwa.iotagent.Agent;
 import com.orange.fiware.openlpwa.iotagent.Device;
 import com.orange.fiware.openlpwa.repository.DeviceEntityRepository;
 import com.orange.ngsi.client.NgsiClient;
 import com.orange.ngsi.model.*;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.http.HttpHeaders;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.ResourceAccessException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static junit.framework.TestCase.assertFalse;
@@ -48,6 +56,8 @@ import static org.mockito.Mockito.*;
  */
 public class NgsiManagerTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
     @InjectMocks
     private NgsiManager ngsiManager;
     @Mock
@@ -107,6 +117,27 @@ public class NgsiManagerTest {
         assertEquals("http://local/v1/notifyContext/" + eui, subscribe.getReference().toString());
     }
 
+    @Test
+    public void testSubscribeToEntityTypeCommands() throws AgentException {
+        ReflectionTestUtils.setField(ngsiManager, "contextBrokerLocalUrl", "http://local");
+        ngsiManager.subscribeToCommands("type", Arrays.asList("test", "test2"));
+
+        ArgumentCaptor<SubscribeContext> captor = ArgumentCaptor.forClass(SubscribeContext.class);
+        verify(ngsiClient, times(1)).subscribeContext(anyString(), any(HttpHeaders.class), captor.capture());
+        SubscribeContext subscribe = captor.getValue();
+        assertEquals(".*", subscribe.getEntityIdList().get(0).getId());
+        assertEquals("type", subscribe.getEntityIdList().get(0).getType());
+        assertTrue(subscribe.getEntityIdList().get(0).getIsPattern());
+        assertEquals(Arrays.asList("test_command", "test2_command"), subscribe.getAttributeList());
+        assertEquals("http://local/v1/notifyContext", subscribe.getReference().toString());
+        verify(deviceRepository, never()).findOne(anyString());
+    }
+
+    @Test(expected = AgentException.class)
+    public void testSubscribeToEntityTypeWithoutCommands() throws AgentException {
+        ngsiManager.subscribeToCommands("type", Collections.emptyList());
+    }
+
     @Test(expected = AgentException.class)
     public void testSubscribeToCommandsWithDeviceNull() throws AgentException {
         ngsiManager.subscribeToCommands(null);
@@ -162,6 +193,41 @@ public class NgsiManagerTest {
         assertEquals(UpdateAction.APPEND, captor.getValue().getUpdateAction());
     }
 
+    @Test
+    public void testUpdateDeviceAttributesWithBatching() throws Exception {
+        ReflectionTestUtils.setField(ngsiManager, "batchEnabled", true);
+        ReflectionTestUtils.setField(ngsiManager, "batchMaxSize", 2);
+        ReflectionTestUtils.setField(ngsiManager, "batchMaxLingerMs", 60000L);
+        ngsiManager.init();
+        List<ContextAttribute> list = new ArrayList<>();
+        list.add(new ContextAttribute("attribute", "type", "value"));
+        ngsiManager.updateDeviceAttributes(new EntityId("id1", "idType", false), list);
+        verify(ngsiClient, never()).updateContext(anyString(), any(HttpHeaders.class), any(UpdateContext.class));
+        ngsiManager.updateDeviceAttributes(new EntityId("id2", "idType", false), list);
+        ArgumentCaptor<UpdateContext> captor = ArgumentCaptor.forClass(UpdateContext.class);
+        verify(ngsiClient, times(1)).updateContext(anyString(), any(HttpHeaders.class), captor.capture());
+        assertEquals(2, captor.getValue().getContextElements().size());
+        assertEquals("id1", captor.getValue().getContextElements().get(0).getEntityId().getId());
+        assertEquals("id2", captor.getValue().getContextElements().get(1).getEntityId().getId());
+        ngsiManager.shutdown();
+    }
+
+    @Test
+    public void testUpdateDeviceAttributesWithCoalescing() throws Exception {
+        ReflectionTestUtils.setField(ngsiManager, "coalescingEnabled", true);
+        ReflectionTestUtils.setField(ngsiManager, "coalescingWindowMs", 60000L);
+        ngsiManager.init();
+        ngsiManager.updateDeviceAttributes(new EntityId("id1", "idType", false), Collections.singletonList(new ContextAttribute("attribute", "type", "value1")));
+        ngsiManager.updateDeviceAttributes(new EntityId("id1", "idType", false), Collections.singletonList(new ContextAttribute("attribute", "type", "value2")));
+        verify(ngsiClient, never()).updateContext(anyString(), any(HttpHeaders.class), any(UpdateContext.class));
+        ngsiManager.shutdown();
+        ArgumentCaptor<UpdateContext> captor = ArgumentCaptor.forClass(UpdateContext.class);
+        verify(ngsiClient, times(1)).updateContext(anyString(), any(HttpHeaders.class), captor.capture());
+        assertEquals(1, captor.getValue().getContextElements().size());
+        assertEquals("value2", captor.getValue().getContextElements().get(0).getContextAttributeList().get(0).getValue());
+        assertEquals(2, ngsiManager.getCoalescingRatio(), 0.001);
+    }
+
     @Test(expected = AgentException.class)
     public void testUpdateDeviceAttributesWithEntityIdNull() throws AgentException {
         EntityId idNull = null;
@@ -210,6 +276,92 @@ public class NgsiManagerTest {
         assertFalse(captor.getValue().getContextElements().get(0).getEntityId().getIsPattern());
     }
 
+    @Test
+    public void testUpdateDeviceAttributesWithDeadband() throws Exception {
+        ReflectionTestUtils.setField(ngsiManager, "deadbandEnabled", true);
+        ReflectionTestUtils.setField(ngsiManager, "deadbandAttributeThresholds", "temperature:0.5");
+        ngsiManager.init();
+        DeviceEntity device = new DeviceEntity();
+        device.setDeviceEUI("1234");
+        device.setType("type");
+        device.setName("name");
+        ngsiManager.updateDeviceAttributes(device, Arrays.asList(new ContextAttribute("temperature", "float", "20.0"), new ContextAttribute("state", "string", "ON")));
+        ngsiManager.updateDeviceAttributes(device, Arrays.asList(new ContextAttribute("temperature", "float", "20.2"), new ContextAttribute("state", "string", "ON")));
+        ngsiManager.updateDeviceAttributes(device, Arrays.asList(new ContextAttribute("temperature", "float", "20.2"), new ContextAttribute("state", "string", "OFF")));
+        ArgumentCaptor<UpdateContext> captor = ArgumentCaptor.forClass(UpdateContext.class);
+        verify(ngsiClient, times(2)).updateContext(anyString(), any(HttpHeaders.class), captor.capture());
+        assertEquals(2, captor.getAllValues().get(0).getContextElements().get(0).getContextAttributeList().size());
+        List<ContextAttribute> changedAttributes = captor.getAllValues().get(1).getContextElements().get(0).getContextAttributeList();
+        assertEquals(1, changedAttributes.size());
+        assertEquals("state", changedAttributes.get(0).getName());
+        assertEquals(3, ngsiManager.getSuppressedAttributeCount());
+    }
+
+    @Test
+    public void testUpdateDeviceAttributesWithJournal() throws Exception {
+        ReflectionTestUtils.setField(ngsiManager, "journalEnabled", true);
+        ReflectionTestUtils.setField(ngsiManager, "journalDirectory", folder.getRoot().getPath());
+        SettableListenableFuture<UpdateContextResponse> failedFuture = new SettableListenableFuture<>();
+        failedFuture.setException(new ResourceAccessException("Connection refused"));
+        SettableListenableFuture<UpdateContextResponse> acceptedFuture = new SettableListenableFuture<>();
+        acceptedFuture.set(new UpdateContextResponse());
+        when(ngsiClient.updateContext(anyString(), any(HttpHeaders.class), any(UpdateContext.class))).thenReturn(failedFuture, acceptedFuture);
+        ngsiManager.init();
+
+        // Journaled after the failure, then sent again
+        List<ContextAttribute> list = Collections.singletonList(new ContextAttribute("attribute", "type", "value"));
+        assertTrue(NgsiManager.isQueued(ngsiManager.updateDeviceAttributes(new EntityId("id1", "idType", false), list).get()));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ngsiManager.getJournalPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, ngsiManager.getJournalPendingCount());
+        assertEquals(1, ngsiManager.getJournalReplayedCount());
+        ArgumentCaptor<UpdateContext> captor = ArgumentCaptor.forClass(UpdateContext.class);
+        verify(ngsiClient, times(2)).updateContext(anyString(), any(HttpHeaders.class), captor.capture());
+        assertEquals("id1", captor.getAllValues().get(1).getContextElements().get(0).getEntityId().getId());
+        // Answered by the context broker
+        assertFalse(NgsiManager.isQueued(acceptedFuture.get()));
+        assertFalse(NgsiManager.isQueued(null));
+        ngsiManager.shutdown();
+    }
+
+    @Test
+    public void testFailedUpdateSupersededByLaterUpdate() throws Exception {
+        ReflectionTestUtils.setField(ngsiManager, "journalEnabled", true);
+        ReflectionTestUtils.setField(ngsiManager, "journalDirectory", folder.getRoot().getPath());
+        SettableListenableFuture<UpdateContextResponse> olderFuture = new SettableListenableFuture<>();
+        SettableListenableFuture<UpdateContextResponse> newerFuture = new SettableListenableFuture<>();
+        newerFuture.set(new UpdateContextResponse());
+        when(ngsiClient.updateContext(anyString(), any(HttpHeaders.class), any(UpdateContext.class))).thenReturn(olderFuture, newerFuture);
+        ngsiManager.init();
+
+        EntityId entityId = new EntityId("id1", "idType", false);
+        ListenableFuture<UpdateContextResponse> future = ngsiManager.updateDeviceAttributes(entityId,
+                Arrays.asList(new ContextAttribute("temperature", "type", "20"), new ContextAttribute("humidity", "type", "40")));
+        assertFalse(NgsiManager.isQueued(ngsiManager.updateDeviceAttributes(entityId,
+                Collections.singletonList(new ContextAttribute("temperature", "type", "21"))).get()));
+        // The older request fails after the newer one succeeded: only its attribute not sent again is journaled
+        olderFuture.setException(new ResourceAccessException("Read timed out"));
+        assertTrue(NgsiManager.isQueued(future.get()));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ngsiManager.getJournalReplayedCount() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        ArgumentCaptor<UpdateContext> captor = ArgumentCaptor.forClass(UpdateContext.class);
+        verify(ngsiClient, times(3)).updateContext(anyString(), any(HttpHeaders.class), captor.capture());
+        List<ContextAttribute> replayedAttributes = captor.getAllValues().get(2).getContextElements().get(0).getContextAttributeList();
+        assertEquals(1, replayedAttributes.size());
+        assertEquals("humidity", replayedAttributes.get(0).getName());
+        ngsiManager.shutdown();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testJournalWithoutDirectory() throws Exception {
+        ReflectionTestUtils.setField(ngsiManager, "journalEnabled", true);
+        ngsiManager.init();
+    }
+
     @Test(expected = AgentException.class)
     public void testUpdateDeviceAttributesWithDeviceNull() throws AgentException {
         DeviceEntity deviceNull = null;
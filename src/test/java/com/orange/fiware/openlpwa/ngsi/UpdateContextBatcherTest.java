@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import com.orange.ngsi.model.*;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * UpdateContextBatcher unit tests
+ */
+public class UpdateContextBatcherTest {
+
+    private final List<UpdateContext> sentContexts = Collections.synchronizedList(new ArrayList<>());
+    private final List<SettableListenableFuture<UpdateContextResponse>> sentFutures = Collections.synchronizedList(new ArrayList<>());
+    private UpdateContextBatcher batcher;
+
+    @After
+    public void teardown() {
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testFlushOnMaxBatchSize() throws Exception {
+        batcher = new UpdateContextBatcher(3, 60000, this::send);
+        ListenableFuture<UpdateContextResponse> future1 = batcher.add(element("entity1"));
+        ListenableFuture<UpdateContextResponse> future2 = batcher.add(element("entity2"));
+        assertTrue(sentContexts.isEmpty());
+        ListenableFuture<UpdateContextResponse> future3 = batcher.add(element("entity3"));
+
+        assertEquals(1, sentContexts.size());
+        assertEquals(3, sentContexts.get(0).getContextElements().size());
+        assertEquals(UpdateAction.APPEND, sentContexts.get(0).getUpdateAction());
+        assertEquals(0, batcher.getPendingCount());
+
+        sentFutures.get(0).set(response("entity1", "entity2", "entity3"));
+        assertEquals("entity1", future1.get().getContextElementResponses().get(0).getContextElement().getEntityId().getId());
+        assertEquals("entity2", future2.get().getContextElementResponses().get(0).getContextElement().getEntityId().getId());
+        assertEquals("entity3", future3.get().getContextElementResponses().get(0).getContextElement().getEntityId().getId());
+        assertEquals(1, future3.get().getContextElementResponses().size());
+    }
+
+    @Test
+    public void testFlushOnLinger() throws Exception {
+        batcher = new UpdateContextBatcher(100, 10, this::send);
+        ListenableFuture<UpdateContextResponse> future = batcher.add(element("entity1"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sentContexts.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, sentContexts.size());
+        sentFutures.get(0).set(response("entity1"));
+        assertNotNull(future.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailurePropagatedToEachElement() throws Exception {
+        batcher = new UpdateContextBatcher(2, 60000, this::send);
+        ListenableFuture<UpdateContextResponse> future1 = batcher.add(element("entity1"));
+        ListenableFuture<UpdateContextResponse> future2 = batcher.add(element("entity2"));
+        sentFutures.get(0).setException(new IllegalStateException("broker down"));
+        assertFailed(future1);
+        assertFailed(future2);
+    }
+
+    @Test
+    public void testShutdownFlushesPendingElements() {
+        batcher = new UpdateContextBatcher(100, 60000, this::send);
+        batcher.add(element("entity1"));
+        batcher.shutdown();
+        batcher = null;
+        assertEquals(1, sentContexts.size());
+    }
+
+    @Test
+    public void testElementSentAtOnceAfterShutdown() throws Exception {
+        batcher = new UpdateContextBatcher(100, 60000, this::send);
+        batcher.shutdown();
+        ListenableFuture<UpdateContextResponse> future = batcher.add(element("entity1"));
+        batcher = null;
+        assertEquals(1, sentContexts.size());
+        assertEquals(1, sentContexts.get(0).getContextElements().size());
+        sentFutures.get(0).set(response("entity1"));
+        assertNotNull(future.get(1, TimeUnit.SECONDS));
+    }
+
+    private void assertFailed(ListenableFuture<UpdateContextResponse> future) throws InterruptedException {
+        try {
+            future.get();
+            fail("Failure expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private ListenableFuture<UpdateContextResponse> send(UpdateContext context) {
+        SettableListenableFuture<UpdateContextResponse> future = new SettableListenableFuture<>();
+        sentContexts.add(context);
+        sentFutures.add(future);
+        return future;
+    }
+
+    private static ContextElement element(String entityName) {
+        ContextElement element = new ContextElement();
+        element.setEntityId(new EntityId(entityName, "type", false));
+        element.setContextAttributeList(Collections.singletonList(new ContextAttribute("temperature", "float", "21.5")));
+        return element;
+    }
+
+    private static UpdateContextResponse response(String... entityNames) {
+        UpdateContextResponse response = new UpdateContextResponse();
+        List<ContextElementResponse> elementResponses = new ArrayList<>();
+        for (String entityName : entityNames) {
+            elementResponses.add(new ContextElementResponse(element(entityName), new StatusCode(CodeEnum.CODE_200)));
+        }
+        response.setContextElementResponses(elementResponses);
+        return response;
+    }
+}
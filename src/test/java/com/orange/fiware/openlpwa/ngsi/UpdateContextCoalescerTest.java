@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import com.orange.ngsi.model.*;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * UpdateContextCoalescer unit tests
+ */
+public class UpdateContextCoalescerTest {
+
+    private final List<ContextElement> sentElements = Collections.synchronizedList(new ArrayList<>());
+    private final List<SettableListenableFuture<UpdateContextResponse>> sentFutures = Collections.synchronizedList(new ArrayList<>());
+    private UpdateContextCoalescer coalescer;
+
+    @After
+    public void teardown() {
+        if (coalescer != null) {
+            coalescer.shutdown();
+        }
+    }
+
+    @Test
+    public void testLastValueOfEachAttributeWins() throws Exception {
+        coalescer = new UpdateContextCoalescer(60000, this::send);
+        ListenableFuture<UpdateContextResponse> future1 = coalescer.add(element("entity1", attribute("temperature", "20"), attribute("humidity", "40")));
+        ListenableFuture<UpdateContextResponse> future2 = coalescer.add(element("entity1", attribute("temperature", "21")));
+        coalescer.add(element("entity2", attribute("temperature", "10")));
+        assertTrue(sentElements.isEmpty());
+        coalescer.flush();
+
+        assertEquals(2, sentElements.size());
+        ContextElement entity1 = sentElements.stream().filter(element -> element.getEntityId().getId().equals("entity1")).findFirst().get();
+        assertEquals(2, entity1.getContextAttributeList().size());
+        assertEquals("temperature", entity1.getContextAttributeList().get(0).getName());
+        assertEquals("21", entity1.getContextAttributeList().get(0).getValue());
+        assertEquals("humidity", entity1.getContextAttributeList().get(1).getName());
+        assertEquals("40", entity1.getContextAttributeList().get(1).getValue());
+
+        // Both merged updates get the response of the sent element
+        UpdateContextResponse response = new UpdateContextResponse();
+        sentFutures.get(sentElements.indexOf(entity1)).set(response);
+        assertSame(response, future1.get());
+        assertSame(response, future2.get());
+        assertEquals(1.5, coalescer.getCoalescingRatio(), 0.001);
+    }
+
+    @Test
+    public void testFlushAfterWindow() throws Exception {
+        coalescer = new UpdateContextCoalescer(10, this::send);
+        ListenableFuture<UpdateContextResponse> future = coalescer.add(element("entity1", attribute("temperature", "20")));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sentElements.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, sentElements.size());
+        sentFutures.get(0).set(new UpdateContextResponse());
+        assertNotNull(future.get(1, TimeUnit.SECONDS));
+        assertEquals(0, coalescer.getPendingEntityCount());
+    }
+
+    @Test
+    public void testUpdatesSentAfterInFlightUpdate() throws Exception {
+        coalescer = new UpdateContextCoalescer(60000, this::send);
+        coalescer.add(element("entity1", attribute("temperature", "20")));
+        coalescer.flush();
+        assertEquals(1, sentElements.size());
+
+        // Received while the first update is in flight
+        ListenableFuture<UpdateContextResponse> future = coalescer.add(element("entity1", attribute("temperature", "21")));
+        coalescer.add(element("entity1", attribute("temperature", "22")));
+        coalescer.flush();
+        assertEquals(1, sentElements.size());
+
+        sentFutures.get(0).set(new UpdateContextResponse());
+        assertEquals(2, sentElements.size());
+        assertEquals("22", sentElements.get(1).getContextAttributeList().get(0).getValue());
+        assertFalse(future.isDone());
+        sentFutures.get(1).set(new UpdateContextResponse());
+        assertTrue(future.isDone());
+        assertEquals(0, coalescer.getPendingEntityCount());
+        assertEquals(3, coalescer.getReceivedCount());
+        assertEquals(2, coalescer.getSentCount());
+    }
+
+    @Test
+    public void testFailurePropagatedToEachUpdate() throws Exception {
+        coalescer = new UpdateContextCoalescer(60000, this::send);
+        ListenableFuture<UpdateContextResponse> future1 = coalescer.add(element("entity1", attribute("temperature", "20")));
+        ListenableFuture<UpdateContextResponse> future2 = coalescer.add(element("entity1", attribute("temperature", "21")));
+        coalescer.flush();
+        sentFutures.get(0).setException(new IllegalStateException("broker down"));
+        assertFailed(future1);
+        assertFailed(future2);
+        assertEquals(0, coalescer.getPendingEntityCount());
+    }
+
+    @Test
+    public void testShutdownFlushesPendingUpdates() {
+        coalescer = new UpdateContextCoalescer(60000, this::send);
+        coalescer.add(element("entity1", attribute("temperature", "20")));
+        coalescer.shutdown();
+        assertEquals(1, sentElements.size());
+        // Updates received after the shutdown are not delayed
+        coalescer.add(element("entity2", attribute("temperature", "20")));
+        coalescer = null;
+        assertEquals(2, sentElements.size());
+    }
+
+    private void assertFailed(ListenableFuture<UpdateContextResponse> future) throws InterruptedException {
+        try {
+            future.get();
+            fail("Failure expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private ListenableFuture<UpdateContextResponse> send(ContextElement element) {
+        SettableListenableFuture<UpdateContextResponse> future = new SettableListenableFuture<>();
+        sentElements.add(element);
+        sentFutures.add(future);
+        return future;
+    }
+
+    private static ContextElement element(String entityName, ContextAttribute... attributes) {
+        ContextElement element = new ContextElement();
+        element.setEntityId(new EntityId(entityName, "type", false));
+        element.setContextAttributeList(Arrays.asList(attributes));
+        return element;
+    }
+
+    private static ContextAttribute attribute(String name, String value) {
+        return new ContextAttribute(name, "float", value);
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import com.orange.ngsi.model.*;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * UpdateContextJournal unit tests
+ */
+public class UpdateContextJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private UpdateContextJournal journal;
+
+    @Before
+    public void setup() throws Exception {
+        journal = newJournal(4);
+    }
+
+    @After
+    public void tearDown() {
+        journal.close();
+    }
+
+    @Test
+    public void testAppendPeekRemove() throws Exception {
+        assertFalse(journal.appendIfPending(context(0)));
+        journal.append(context(1));
+        assertTrue(journal.appendIfPending(context(2)));
+        journal.append(context(3));
+        assertEquals(3, journal.getPendingCount());
+
+        List<UpdateContextJournal.Entry> entries = journal.peek(2);
+        assertEquals(2, entries.size());
+        assertEquals("entity1", entityName(entries.get(0)));
+        assertEquals("21.5", entries.get(0).getContext().getContextElements().get(0).getContextAttributeList().get(0).getValue());
+        assertEquals(UpdateAction.APPEND, entries.get(0).getContext().getUpdateAction());
+        assertEquals("entity2", entityName(entries.get(1)));
+        // Peek doesn't remove
+        assertEquals(3, journal.peek(10).size());
+
+        journal.remove(entries, 1);
+        assertEquals(2, journal.getPendingCount());
+        assertEquals("entity2", entityName(journal.peek(1).get(0)));
+        journal.remove(journal.peek(10), 2);
+        assertEquals(0, journal.getPendingCount());
+        assertTrue(journal.peek(10).isEmpty());
+        assertEquals(3, journal.getAppendedCount());
+    }
+
+    @Test
+    public void testSegmentsRolledAndDeleted() throws Exception {
+        for (int i = 0; i < 60; i++) {
+            journal.append(context(i));
+        }
+        assertTrue(journal.getSegmentCount() > 1);
+        List<UpdateContextJournal.Entry> entries = journal.peek(100);
+        assertEquals(60, entries.size());
+        for (int i = 0; i < 60; i++) {
+            assertEquals("entity" + i, entityName(entries.get(i)));
+        }
+        journal.remove(entries, 60);
+        assertEquals(1, journal.getSegmentCount());
+        assertEquals(1, folder.getRoot().listFiles((dir, name) -> name.endsWith(".journal")).length);
+    }
+
+    @Test
+    public void testDeletedSegmentsUnmapped() throws Exception {
+        File maps = new File("/proc/self/maps");
+        Assume.assumeTrue(maps.canRead());
+        for (int i = 0; i < 60; i++) {
+            journal.append(context(i));
+        }
+        journal.remove(journal.peek(100), 60);
+        // A deleted file still mapped is listed as deleted by the system
+        String folderPath = folder.getRoot().getCanonicalPath();
+        List<String> deletedMappings = Files.readAllLines(maps.toPath()).stream()
+                .filter(line -> line.contains(folderPath) && line.endsWith("(deleted)"))
+                .collect(Collectors.toList());
+        assertEquals(Collections.emptyList(), deletedMappings);
+    }
+
+    @Test
+    public void testOldestSegmentDroppedWhenFull() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            journal.append(context(i));
+        }
+        assertEquals(4, journal.getSegmentCount());
+        assertTrue(journal.getDroppedCount() > 0);
+        assertEquals(200, journal.getPendingCount() + journal.getDroppedCount());
+        List<UpdateContextJournal.Entry> entries = journal.peek(200);
+        assertEquals(journal.getPendingCount(), entries.size());
+        // The newest requests are kept
+        assertEquals("entity199", entityName(entries.get(entries.size() - 1)));
+    }
+
+    @Test
+    public void testRemoveOfDroppedEntriesIgnored() throws Exception {
+        journal.append(context(0));
+        List<UpdateContextJournal.Entry> entries = journal.peek(1);
+        for (int i = 1; i < 200; i++) {
+            journal.append(context(i));
+        }
+        long pendingCount = journal.getPendingCount();
+        journal.remove(entries, 1);
+        assertEquals(pendingCount, journal.getPendingCount());
+    }
+
+    @Test
+    public void testPendingRequestsReadAfterRestart() throws Exception {
+        for (int i = 0; i < 60; i++) {
+            journal.append(context(i));
+        }
+        journal.remove(journal.peek(45), 45);
+        journal.close();
+
+        journal = newJournal(4);
+        assertEquals(15, journal.getPendingCount());
+        assertEquals("entity45", entityName(journal.peek(1).get(0)));
+        journal.append(context(60));
+        List<UpdateContextJournal.Entry> entries = journal.peek(100);
+        assertEquals(16, entries.size());
+        assertEquals("entity60", entityName(entries.get(15)));
+    }
+
+    @Test
+    public void testPartiallyWrittenRecordIgnored() throws Exception {
+        journal.append(context(0));
+        journal.append(context(1));
+        journal.close();
+        // Corrupts the second record
+        File segment = folder.getRoot().listFiles((dir, name) -> name.endsWith(".journal"))[0];
+        int secondRecordPosition;
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(4);
+            secondRecordPosition = 4 + 8 + file.readInt();
+            file.seek(secondRecordPosition + 8 + 10);
+            file.write('#');
+        }
+
+        journal = newJournal(4);
+        assertEquals(1, journal.getPendingCount());
+        // Overwritten by the next record
+        journal.append(context(2));
+        List<UpdateContextJournal.Entry> entries = journal.peek(10);
+        assertEquals(2, entries.size());
+        assertEquals("entity2", entityName(entries.get(1)));
+    }
+
+    private UpdateContextJournal newJournal(int maxSegments) throws Exception {
+        UpdateContextJournal newJournal = new UpdateContextJournal(folder.getRoot().getPath(), 4096, maxSegments, UpdateContextJournal.FsyncPolicy.NONE);
+        newJournal.open();
+        return newJournal;
+    }
+
+    private static String entityName(UpdateContextJournal.Entry entry) {
+        return entry.getContext().getContextElements().get(0).getEntityId().getId();
+    }
+
+    static UpdateContext context(int entity) {
+        ContextElement element = new ContextElement();
+        element.setEntityId(new EntityId("entity" + entity, "type", false));
+        element.setContextAttributeList(Collections.singletonList(new ContextAttribute("temperature", "float", "21.5")));
+        UpdateContext context = new UpdateContext(UpdateAction.APPEND);
+        context.setContextElements(Collections.singletonList(element));
+        return context;
+    }
+}
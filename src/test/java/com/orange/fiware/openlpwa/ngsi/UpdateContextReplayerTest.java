@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import com.orange.ngsi.model.UpdateContext;
+import com.orange.ngsi.model.UpdateContextResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static com.orange.fiware.openlpwa.ngsi.UpdateContextJournalTest.context;
+import static org.junit.Assert.*;
+
+/**
+ * UpdateContextReplayer unit tests
+ */
+public class UpdateContextReplayerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private final List<UpdateContext> sentContexts = Collections.synchronizedList(new ArrayList<>());
+    private UpdateContextJournal journal;
+    private UpdateContextReplayer replayer;
+
+    @Before
+    public void setup() throws Exception {
+        journal = new UpdateContextJournal(folder.getRoot().getPath(), 1024 * 1024, 4, UpdateContextJournal.FsyncPolicy.NONE);
+        journal.open();
+    }
+
+    @After
+    public void tearDown() {
+        if (replayer != null) {
+            replayer.shutdown();
+        }
+        journal.close();
+    }
+
+    @Test
+    public void testRequestsMergedAndRemoved() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            journal.append(context(i));
+        }
+        replayer = new UpdateContextReplayer(journal, 10, 10, 10, 0, this::accept);
+        replayer.start();
+        waitFor(() -> journal.getPendingCount() == 0);
+
+        assertEquals(3, sentContexts.size());
+        assertEquals(10, sentContexts.get(0).getContextElements().size());
+        assertEquals(5, sentContexts.get(2).getContextElements().size());
+        assertEquals("entity0", sentContexts.get(0).getContextElements().get(0).getEntityId().getId());
+        assertEquals("entity24", sentContexts.get(2).getContextElements().get(4).getEntityId().getId());
+        assertEquals(25, replayer.getReplayedCount());
+
+        // Requests journaled later
+        journal.append(context(25));
+        replayer.wakeUp();
+        waitFor(() -> journal.getPendingCount() == 0);
+        assertEquals(4, sentContexts.size());
+    }
+
+    @Test
+    public void testRetryAfterFailure() throws Exception {
+        journal.append(context(0));
+        AtomicInteger attempts = new AtomicInteger();
+        replayer = new UpdateContextReplayer(journal, 10, 5, 20, 0, context -> {
+            if (attempts.incrementAndGet() <= 3) {
+                return failed(new ResourceAccessException("Connection refused"));
+            }
+            return accept(context);
+        });
+        replayer.start();
+        waitFor(() -> journal.getPendingCount() == 0);
+        assertEquals(4, attempts.get());
+        assertEquals(1, replayer.getReplayedCount());
+        assertEquals(0, replayer.getRejectedCount());
+    }
+
+    @Test
+    public void testRejectedRequestsDropped() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            journal.append(context(i));
+        }
+        replayer = new UpdateContextReplayer(journal, 10, 5, 20, 0, context -> {
+            boolean invalid = context.getContextElements().stream().anyMatch(element -> element.getEntityId().getId().equals("entity1"));
+            return invalid ? failed(new HttpClientErrorException(HttpStatus.BAD_REQUEST)) : accept(context);
+        });
+        replayer.start();
+        waitFor(() -> journal.getPendingCount() == 0);
+        // Merged request rejected, then sent one by one
+        assertEquals(2, sentContexts.size());
+        assertEquals(2, replayer.getReplayedCount());
+        assertEquals(1, replayer.getRejectedCount());
+    }
+
+    private ListenableFuture<UpdateContextResponse> accept(UpdateContext context) {
+        sentContexts.add(context);
+        SettableListenableFuture<UpdateContextResponse> future = new SettableListenableFuture<>();
+        future.set(new UpdateContextResponse());
+        return future;
+    }
+
+    private static ListenableFuture<UpdateContextResponse> failed(Throwable throwable) {
+        SettableListenableFuture<UpdateContextResponse> future = new SettableListenableFuture<>();
+        future.setException(throwable);
+        return future;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import com.orange.ngsi.model.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * UpdateContextSequencer unit tests
+ */
+public class UpdateContextSequencerTest {
+
+    private final UpdateContextSequencer sequencer = new UpdateContextSequencer();
+
+    @Test
+    public void testNotSuperseded() {
+        UpdateContext context = context(element("entity1", "temperature", "humidity"));
+        long sequence = sequencer.sent(context);
+        sequencer.sent(context(element("entity2", "temperature")));
+
+        assertSame(context, sequencer.unsuperseded(sequence, context));
+    }
+
+    @Test
+    public void testSupersededAttributesRemoved() {
+        UpdateContext context = context(element("entity1", "temperature", "humidity"), element("entity2", "temperature"));
+        long sequence = sequencer.sent(context);
+        sequencer.sent(context(element("entity1", "temperature")));
+
+        UpdateContext remainingContext = sequencer.unsuperseded(sequence, context);
+        assertEquals(UpdateAction.APPEND, remainingContext.getUpdateAction());
+        assertEquals(2, remainingContext.getContextElements().size());
+        ContextElement remainingElement = remainingContext.getContextElements().get(0);
+        assertEquals("entity1", remainingElement.getEntityId().getId());
+        assertEquals(1, remainingElement.getContextAttributeList().size());
+        assertEquals("humidity", remainingElement.getContextAttributeList().get(0).getName());
+        assertSame(context.getContextElements().get(1), remainingContext.getContextElements().get(1));
+    }
+
+    @Test
+    public void testAllAttributesSuperseded() {
+        UpdateContext context = context(element("entity1", "temperature"));
+        long sequence = sequencer.sent(context);
+        sequencer.sent(context(element("entity1", "temperature", "humidity")));
+
+        assertNull(sequencer.unsuperseded(sequence, context));
+    }
+
+    @Test
+    public void testSequencesKeptWhileInFlight() {
+        UpdateContext firstContext = context(element("entity1", "temperature"));
+        UpdateContext secondContext = context(element("entity1", "temperature"));
+        long sequence = sequencer.sent(firstContext);
+        sequencer.sent(secondContext);
+        // The later request answered before the failure of the first one
+        sequencer.completed(secondContext);
+        assertNull(sequencer.unsuperseded(sequence, firstContext));
+
+        sequencer.completed(firstContext);
+        assertEquals(0, sequencer.getInFlightEntityCount());
+    }
+
+    private static UpdateContext context(ContextElement... elements) {
+        UpdateContext context = new UpdateContext();
+        context.setUpdateAction(UpdateAction.APPEND);
+        context.setContextElements(Arrays.asList(elements));
+        return context;
+    }
+
+    private static ContextElement element(String id, String... attributeNames) {
+        ContextElement element = new ContextElement();
+        element.setEntityId(new EntityId(id, "type", false));
+        element.setContextAttributeList(Arrays.stream(attributeNames)
+                .map(name -> new ContextAttribute(name, "string", "value"))
+                .collect(Collectors.toList()));
+        return element;
+    }
+}
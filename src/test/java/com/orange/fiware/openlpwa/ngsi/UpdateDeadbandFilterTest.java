@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.ngsi;
+
+import com.orange.ngsi.model.ContextAttribute;
+import com.orange.ngsi.model.EntityId;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * UpdateDeadbandFilter unit tests
+ */
+public class UpdateDeadbandFilterTest {
+
+    private final AtomicLong clock = new AtomicLong(1000000);
+    private final EntityId entity = new EntityId("entity1", "type", false);
+
+    @Test
+    public void testUnchangedAttributesSuppressed() {
+        UpdateDeadbandFilter filter = new UpdateDeadbandFilter(0, null, 0, clock::get);
+        assertEquals(2, filter.filter(entity, Arrays.asList(attribute("temperature", "21.5"), attribute("state", "ON"))).size());
+
+        List<ContextAttribute> changedAttributes = filter.filter(entity, Arrays.asList(attribute("temperature", "21.5"), attribute("state", "OFF")));
+        assertEquals(1, changedAttributes.size());
+        assertEquals("state", changedAttributes.get(0).getName());
+        assertTrue(filter.filter(entity, Arrays.asList(attribute("temperature", 21.5), attribute("state", "OFF"))).isEmpty());
+        // Other entity
+        assertEquals(2, filter.filter(new EntityId("entity2", "type", false), Arrays.asList(attribute("temperature", "21.5"), attribute("state", "OFF"))).size());
+
+        assertEquals(8, filter.getReceivedCount());
+        assertEquals(3, filter.getSuppressedCount());
+        assertEquals(2, filter.getEntityCount());
+    }
+
+    @Test
+    public void testNumericDeadband() {
+        UpdateDeadbandFilter filter = new UpdateDeadbandFilter(1, Collections.singletonMap("humidity", 5.0), 0, clock::get);
+        filter.filter(entity, Arrays.asList(attribute("temperature", "20"), attribute("humidity", "40")));
+
+        assertTrue(filter.filter(entity, Arrays.asList(attribute("temperature", "20.9"), attribute("humidity", "44"))).isEmpty());
+        // Compared with the last sent value, not with the last received one
+        List<ContextAttribute> changedAttributes = filter.filter(entity, Arrays.asList(attribute("temperature", "21.0"), attribute("humidity", "45.5")));
+        assertEquals(2, changedAttributes.size());
+        assertTrue(filter.filter(entity, Collections.singletonList(attribute("temperature", "20.5"))).isEmpty());
+        // Type change
+        assertEquals(1, filter.filter(entity, Collections.singletonList(attribute("temperature", "unknown"))).size());
+    }
+
+    @Test
+    public void testRefreshAfterMaxSilence() {
+        UpdateDeadbandFilter filter = new UpdateDeadbandFilter(0, null, 60000, clock::get);
+        filter.filter(entity, Collections.singletonList(attribute("temperature", "20")));
+        clock.addAndGet(59000);
+        assertTrue(filter.filter(entity, Collections.singletonList(attribute("temperature", "20"))).isEmpty());
+        clock.addAndGet(1000);
+        assertEquals(1, filter.filter(entity, Collections.singletonList(attribute("temperature", "20"))).size());
+        assertTrue(filter.filter(entity, Collections.singletonList(attribute("temperature", "20"))).isEmpty());
+    }
+
+    @Test
+    public void testInvalidate() {
+        UpdateDeadbandFilter filter = new UpdateDeadbandFilter(0, null, 0, clock::get);
+        filter.filter(entity, Collections.singletonList(attribute("temperature", "20")));
+        filter.invalidate(entity);
+        assertEquals(1, filter.filter(entity, Collections.singletonList(attribute("temperature", "20"))).size());
+    }
+
+    private static ContextAttribute attribute(String name, Object value) {
+        return new ContextAttribute(name, "string", value);
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.provider;
+
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.eclipse.paho.client.mqttv3.internal.MqttPersistentData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * MappedFileMqttPersistence unit tests
+ */
+public class MappedFileMqttPersistenceTest {
+
+    private static final String clientId = "testClientId";
+    private static final String serverUri = "tcp://localhost:1883";
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private MappedFileMqttPersistence persistence;
+
+    @Before
+    public void setup() throws Exception {
+        persistence = new MappedFileMqttPersistence(folder.getRoot().getPath(), 4096);
+        persistence.open(clientId, serverUri);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        persistence.close();
+    }
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        persistence.put("s-1", data("header", "payload"));
+        persistence.put("s-2", data("header2", null));
+
+        assertTrue(persistence.containsKey("s-1"));
+        assertEquals(asSet("s-1", "s-2"), keys());
+        assertData("header", "payload", persistence.get("s-1"));
+        assertData("header2", "", persistence.get("s-2"));
+
+        persistence.remove("s-1");
+        assertFalse(persistence.containsKey("s-1"));
+        assertNull(persistence.get("s-1"));
+        assertEquals(asSet("s-2"), keys());
+
+        persistence.clear();
+        assertEquals(Collections.emptySet(), keys());
+    }
+
+    @Test
+    public void testPutReplacesValue() throws Exception {
+        persistence.put("s-1", data("header", "payload"));
+        persistence.put("s-1", data("header", "other payload"));
+        assertData("header", "other payload", persistence.get("s-1"));
+        assertEquals(asSet("s-1"), keys());
+    }
+
+    @Test
+    public void testRecordsRestoredOnOpen() throws Exception {
+        persistence.put("s-1", data("header1", "payload1"));
+        persistence.put("s-2", data("header2", "payload2"));
+        persistence.remove("s-1");
+        persistence.close();
+
+        persistence = new MappedFileMqttPersistence(folder.getRoot().getPath(), 4096);
+        persistence.open(clientId, serverUri);
+        assertEquals(asSet("s-2"), keys());
+        assertData("header2", "payload2", persistence.get("s-2"));
+    }
+
+    @Test
+    public void testFileCompactedAndGrown() throws Exception {
+        StringBuilder payload = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            payload.append("0123456789");
+        }
+        // Removed records are dropped by the compaction
+        for (int i = 0; i < 100; i++) {
+            persistence.put("s-" + i, data("header", payload.toString()));
+            persistence.remove("s-" + i);
+        }
+        assertEquals(4096, persistence.getCapacity());
+
+        // Live records need a larger file
+        for (int i = 0; i < 20; i++) {
+            persistence.put("r-" + i, data("header", payload.toString() + i));
+        }
+        assertTrue(persistence.getCapacity() > 4096);
+        assertEquals(20, keys().size());
+        for (int i = 0; i < 20; i++) {
+            assertData("header", payload.toString() + i, persistence.get("r-" + i));
+        }
+    }
+
+    @Test
+    public void testInterruptedRecordOverwritten() throws Exception {
+        persistence.put("s-1", data("header1", "payload1"));
+        persistence.put("s-2", data("header2", "payload2"));
+        persistence.close();
+        // Simulates a write of s-1 interrupted before its length: s-2 is ignored when the file is read
+        try (FileChannel channel = FileChannel.open(persistenceFile(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4), 4);
+        }
+
+        persistence = new MappedFileMqttPersistence(folder.getRoot().getPath(), 4096);
+        persistence.open(clientId, serverUri);
+        assertEquals(Collections.emptySet(), keys());
+        // Same length as s-1: s-2 follows the new record and must not come back
+        persistence.put("s-3", data("header3", "payload3"));
+        persistence.close();
+
+        persistence = new MappedFileMqttPersistence(folder.getRoot().getPath(), 4096);
+        persistence.open(clientId, serverUri);
+        assertEquals(asSet("s-3"), keys());
+        assertData("header3", "payload3", persistence.get("s-3"));
+    }
+
+    @Test(expected = MqttPersistenceException.class)
+    public void testPersistenceInUse() throws Exception {
+        new MappedFileMqttPersistence(folder.getRoot().getPath(), 4096).open(clientId, serverUri);
+    }
+
+    @Test(expected = MqttPersistenceException.class)
+    public void testPersistenceClosed() throws Exception {
+        persistence.close();
+        persistence.put("s-1", data("header", "payload"));
+    }
+
+    private Path persistenceFile() throws IOException {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            return files.filter(path -> path.toString().endsWith(".mqtt")).findFirst().get();
+        }
+    }
+
+    private Set<Object> keys() throws MqttPersistenceException {
+        return new HashSet<>(Collections.list(persistence.keys()));
+    }
+
+    private static Set<Object> asSet(Object... keys) {
+        Set<Object> set = new HashSet<>();
+        Collections.addAll(set, keys);
+        return set;
+    }
+
+    private static MqttPersistable data(String header, String payload) {
+        // Offsets are used to check that only the given part of the arrays is stored
+        byte[] headerBytes = ("_" + header).getBytes();
+        byte[] payloadBytes = payload != null ? ("__" + payload).getBytes() : null;
+        return new MqttPersistentData("key", headerBytes, 1, headerBytes.length - 1,
+                payloadBytes, 2, payloadBytes != null ? payloadBytes.length - 2 : 0);
+    }
+
+    private static void assertData(String header, String payload, MqttPersistable persistable) throws MqttPersistenceException {
+        assertEquals(header, new String(persistable.getHeaderBytes(), persistable.getHeaderOffset(), persistable.getHeaderLength()));
+        assertEquals(payload, new String(persistable.getPayloadBytes(), persistable.getPayloadOffset(), persistable.getPayloadLength()));
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.provider;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * MqttAcknowledgementSequencer unit tests
+ */
+public class MqttAcknowledgementSequencerTest {
+
+    private List<Integer> acknowledged;
+    private MqttAcknowledgementSequencer sequencer;
+
+    @Before
+    public void setup() {
+        acknowledged = new ArrayList<>();
+        sequencer = new MqttAcknowledgementSequencer(message -> acknowledged.add(message.getId()));
+    }
+
+    @Test
+    public void testAcknowledgedInReceiptOrder() {
+        Runnable first = sequencer.received(message(1));
+        Runnable second = sequencer.received(message(2));
+        Runnable third = sequencer.received(message(3));
+
+        third.run();
+        second.run();
+        assertEquals(Collections.emptyList(), acknowledged);
+        assertEquals(3, sequencer.getPendingCount());
+
+        first.run();
+        assertEquals(Arrays.asList(1, 2, 3), acknowledged);
+        assertEquals(0, sequencer.getPendingCount());
+    }
+
+    @Test
+    public void testCompletedPrefixAcknowledged() {
+        Runnable first = sequencer.received(message(1));
+        Runnable second = sequencer.received(message(2));
+        sequencer.received(message(3));
+        Runnable fourth = sequencer.received(message(4));
+
+        fourth.run();
+        first.run();
+        second.run();
+        assertEquals(Arrays.asList(1, 2), acknowledged);
+        assertEquals(2, sequencer.getPendingCount());
+    }
+
+    @Test
+    public void testResetForgetsPendingMessages() {
+        Runnable first = sequencer.received(message(1));
+        Runnable second = sequencer.received(message(2));
+        second.run();
+
+        sequencer.reset();
+        assertEquals(0, sequencer.getPendingCount());
+        // Completions of the lost connection are ignored
+        first.run();
+        assertEquals(Collections.emptyList(), acknowledged);
+
+        sequencer.received(message(1)).run();
+        assertEquals(Collections.singletonList(1), acknowledged);
+    }
+
+    private static MqttMessage message(int id) {
+        MqttMessage message = new MqttMessage(new byte[0]);
+        message.setId(id);
+        message.setQos(1);
+        return message;
+    }
+}
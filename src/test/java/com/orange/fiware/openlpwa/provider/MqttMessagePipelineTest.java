@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.provider;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * MqttMessagePipeline unit tests
+ */
+public class MqttMessagePipelineTest {
+
+    private MqttMessagePipeline pipeline;
+
+    @After
+    public void teardown() {
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    public void testWithoutLanesRunsOnCallerThread() {
+        pipeline = new MqttMessagePipeline();
+        Thread caller = Thread.currentThread();
+        List<Thread> threads = new ArrayList<>();
+        assertTrue(pipeline.submit("device", () -> threads.add(Thread.currentThread())));
+        assertEquals(caller, threads.get(0));
+        assertEquals(1, pipeline.getProcessedCount());
+    }
+
+    @Test
+    public void testOrderPreservedPerDevice() throws Exception {
+        pipeline = new MqttMessagePipeline(4, 100, MqttMessagePipeline.OverflowPolicy.BLOCK);
+        int messageCount = 500;
+        List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(messageCount);
+        for (int i = 0; i < messageCount; i++) {
+            int index = i;
+            pipeline.submit("device", () -> {
+                received.add(index);
+                latch.countDown();
+            });
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < messageCount; i++) {
+            assertEquals(i, (int) received.get(i));
+        }
+        assertEquals(messageCount, pipeline.getSubmittedCount());
+    }
+
+    @Test
+    public void testSameDeviceSameLane() {
+        pipeline = new MqttMessagePipeline(8, 10, MqttMessagePipeline.OverflowPolicy.BLOCK);
+        assertEquals(pipeline.laneIndex("0018B20000000001"), pipeline.laneIndex("0018B20000000001"));
+        assertTrue(pipeline.laneIndex(null) >= 0);
+        assertTrue(pipeline.laneIndex("0018B20000000001") < pipeline.getLaneCount());
+    }
+
+    @Test
+    public void testRejectWhenLaneFull() throws Exception {
+        pipeline = new MqttMessagePipeline(1, 1, MqttMessagePipeline.OverflowPolicy.REJECT);
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        pipeline.submit("device", () -> {
+            started.countDown();
+            awaitQuietly(blocker);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(pipeline.submit("device", () -> { }));
+        assertFalse(pipeline.submit("device", () -> { }));
+        assertEquals(1, pipeline.getRejectedCount());
+        blocker.countDown();
+    }
+
+    @Test
+    public void testDropOldestWhenLaneFull() throws Exception {
+        pipeline = new MqttMessagePipeline(1, 1, MqttMessagePipeline.OverflowPolicy.DROP_OLDEST);
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch lastProcessed = new CountDownLatch(1);
+        List<String> processed = Collections.synchronizedList(new ArrayList<>());
+        pipeline.submit("device", () -> {
+            started.countDown();
+            awaitQuietly(blocker);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        pipeline.submit("device", () -> processed.add("old"));
+        assertTrue(pipeline.submit("device", () -> {
+            processed.add("new");
+            lastProcessed.countDown();
+        }));
+        blocker.countDown();
+        assertTrue(lastProcessed.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("new"), processed);
+        assertEquals(1, pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void testTaskExceptionDoesNotStopLane() throws Exception {
+        pipeline = new MqttMessagePipeline(1, 10, MqttMessagePipeline.OverflowPolicy.BLOCK);
+        CountDownLatch latch = new CountDownLatch(1);
+        pipeline.submit("device", () -> {
+            throw new IllegalStateException();
+        });
+        pipeline.submit("device", latch::countDown);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCompletionAfterTask() throws Exception {
+        pipeline = new MqttMessagePipeline(1, 10, MqttMessagePipeline.OverflowPolicy.BLOCK);
+        List<String> steps = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch completed = new CountDownLatch(2);
+        pipeline.submit("device", () -> steps.add("task"), () -> {
+            steps.add("completion");
+            completed.countDown();
+        });
+        pipeline.submit("device", () -> {
+            throw new IllegalStateException();
+        }, completed::countDown);
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("task", "completion"), steps);
+    }
+
+    @Test
+    public void testCompletionOfDroppedAndRejectedTasks() throws Exception {
+        pipeline = new MqttMessagePipeline(1, 1, MqttMessagePipeline.OverflowPolicy.DROP_OLDEST);
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch dropped = new CountDownLatch(1);
+        pipeline.submit("device", () -> {
+            started.countDown();
+            awaitQuietly(blocker);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        pipeline.submit("device", () -> fail("Dropped task must not run"), dropped::countDown);
+        pipeline.submit("device", () -> { });
+        assertEquals(0, dropped.getCount());
+        blocker.countDown();
+
+        MqttMessagePipeline rejectingPipeline = new MqttMessagePipeline(1, 1, MqttMessagePipeline.OverflowPolicy.REJECT);
+        try {
+            CountDownLatch rejectingStarted = new CountDownLatch(1);
+            CountDownLatch rejected = new CountDownLatch(1);
+            CountDownLatch rejectingBlocker = new CountDownLatch(1);
+            rejectingPipeline.submit("device", () -> {
+                rejectingStarted.countDown();
+                awaitQuietly(rejectingBlocker);
+            });
+            assertTrue(rejectingStarted.await(5, TimeUnit.SECONDS));
+            rejectingPipeline.submit("device", () -> { });
+            assertFalse(rejectingPipeline.submit("device", () -> { }, rejected::countDown));
+            assertEquals(0, rejected.getCount());
+            rejectingBlocker.countDown();
+        } finally {
+            rejectingPipeline.shutdown();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
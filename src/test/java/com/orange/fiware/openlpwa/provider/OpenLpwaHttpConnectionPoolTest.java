@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.provider;
+
+import com.orange.fiware.openlpwa.provider.model.DeviceInfo;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * OpenLpwaHttpConnectionPool unit tests
+ */
+public class OpenLpwaHttpConnectionPoolTest {
+
+    private HttpServer server;
+    private Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private OpenLpwaHttpConnectionPool connectionPool;
+
+    @Before
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] body = "{\"devEUI\":\"testdevice\",\"deviceStatus\":\"ACTIVATED\"}".getBytes();
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(body);
+            }
+        });
+        server.start();
+        connectionPool = new OpenLpwaHttpConnectionPool(10, 5, 1000, 1000, 0);
+    }
+
+    @After
+    public void tearDown() {
+        connectionPool.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionReused() throws Exception {
+        OpenLpwaProvider provider = new OpenLpwaProvider("http://localhost:" + server.getAddress().getPort(), "TESTOpenLpwaProvider", connectionPool);
+        assertSame(connectionPool, provider.getConnectionPool());
+        assertEquals(10, connectionPool.getMaxConnections());
+
+        for (int i = 0; i < 3; i++) {
+            DeviceInfo deviceInfo = provider.getDeviceInformation("testdevice").get();
+            assertEquals("testdevice", deviceInfo.getDeviceEUI());
+        }
+
+        // The three requests share a single keep-alive connection
+        assertEquals(1, clientPorts.size());
+        assertEquals(0, connectionPool.getLeasedConnections());
+        assertEquals(1, connectionPool.getAvailableConnections());
+        assertEquals(0, connectionPool.getPendingRequests());
+    }
+
+    @Test
+    public void testEvictIdleConnections() throws Exception {
+        OpenLpwaProvider provider = new OpenLpwaProvider("http://localhost:" + server.getAddress().getPort(), "TESTOpenLpwaProvider", connectionPool);
+        provider.getDeviceInformation("testdevice").get();
+        assertEquals(1, connectionPool.getAvailableConnections());
+
+        connectionPool.evictIdleConnections();
+        assertEquals(0, connectionPool.getAvailableConnections());
+    }
+}
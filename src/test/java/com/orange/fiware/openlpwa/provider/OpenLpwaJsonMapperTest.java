@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.provider;
+
+import com.orange.fiware.openlpwa.provider.model.DeviceIncomingMessage;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * OpenLpwaJsonMapper unit tests
+ */
+public class OpenLpwaJsonMapperTest {
+
+    private static final String jsonPayload = "{\"streamId\":\"urn:lora:testMQTTdevice!uplink\",\"timestamp\":\"2016-05-23T13:05:18.307Z\",\"model\":\"lora_v0\",\"value\":{\"port\":1,\"fcnt\":8,\"signalLevel\":2,\"payload\":\"ae2109000cf3\"},\"tags\":[\"Lyon\",\"Test\"],\"metadata\":{\"source\":\"urn:lora:testMQTTdevice\"}}";
+
+    @Test
+    public void testStreamingParserMatchesDataBinding() throws Exception {
+        DeviceIncomingMessage streamed = OpenLpwaJsonMapper.readIncomingMessage(jsonPayload.getBytes());
+        DeviceIncomingMessage bound = OpenLpwaJsonMapper.bindIncomingMessage(jsonPayload.getBytes());
+
+        assertEquals(bound.getDate(), streamed.getDate());
+        assertEquals("ae2109000cf3", streamed.getValue().getData());
+        assertEquals(bound.getValue().getData(), streamed.getValue().getData());
+        assertEquals(bound.getValue().getPort(), streamed.getValue().getPort());
+        assertEquals(bound.getValue().getFrameCount(), streamed.getValue().getFrameCount());
+        assertEquals(bound.getMetadata().getSource(), streamed.getMetadata().getSource());
+        // Fields unused by the agent are skipped
+        assertNull(streamed.getTags());
+        assertNull(streamed.getModel());
+        assertNull(streamed.getStreamId());
+    }
+
+    @Test
+    public void testStreamingParserEpochTimestamp() throws Exception {
+        DeviceIncomingMessage incomingMessage = OpenLpwaJsonMapper.readIncomingMessage("{\"timestamp\":1464008718307,\"value\":{\"port\":\"2\",\"payload\":null}}".getBytes());
+
+        assertEquals(1464008718307L, incomingMessage.getDate().getTime());
+        assertEquals(Integer.valueOf(2), incomingMessage.getValue().getPort());
+        assertNull(incomingMessage.getValue().getData());
+        assertNull(incomingMessage.getMetadata());
+    }
+
+    @Test(expected = IOException.class)
+    public void testStreamingParserUnknownField() throws Exception {
+        OpenLpwaJsonMapper.readIncomingMessage("{\"badf00d\":\"yes\"}".getBytes());
+    }
+
+    @Test(expected = IOException.class)
+    public void testStreamingParserInvalidJson() throws Exception {
+        OpenLpwaJsonMapper.readIncomingMessage("{\"value\":{\"port\":".getBytes());
+    }
+
+    @Test(expected = IOException.class)
+    public void testStreamingParserInvalidPort() throws Exception {
+        OpenLpwaJsonMapper.readIncomingMessage("{\"value\":{\"port\":\"one\"}}".getBytes());
+    }
+
+    @Test
+    public void testReadProviderError() throws Exception {
+        OpenLpwaProviderError error = OpenLpwaJsonMapper.readProviderError(new ByteArrayInputStream("{\"code\":40001,\"message\":\"error\"}".getBytes()));
+        assertEquals("error", error.getMessage());
+    }
+}
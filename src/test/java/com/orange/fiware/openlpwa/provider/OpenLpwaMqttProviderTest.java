@@ -27,11 +27,15 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestName;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.concurrent.FailureCallback;
+import org.springframework.util.concurrent.SuccessCallback;
 
 import java.util.Arrays;
 import java.util.List;
@@ -63,6 +67,7 @@ public class OpenLpwaMqttProviderTest {
     @Before
     public void setup() throws Exception {
         initMocks(this);
+        when(clientCallback.acceptMessage(anyString())).thenReturn(true);
         String methodName = testName.getMethodName();
         List<String> testsWithoutInitialization = Arrays.asList("testMqttWithoutApiKeyParameter",
                 "testMqttWithoutApiKeyParameter",
@@ -136,6 +141,102 @@ public class OpenLpwaMqttProviderTest {
                 });
     }
 
+    @Test
+    public void testMqttConnectWithPersistentSession() throws Exception {
+        mqttClient = new OpenLpwaMqttProvider(serverUri, clientId, apiKey, clientCallback, null,
+                new OpenLpwaMqttOptions(false, OpenLpwaMqttProvider.PersistenceType.MEMORY, null, 1, null, null));
+        ReflectionTestUtils.setField(mqttClient, "mqttAsyncClient", mockMqttAsyncClient);
+        mqttClient.connect(null, null);
+
+        ArgumentCaptor<MqttConnectOptions> connectOptions = ArgumentCaptor.forClass(MqttConnectOptions.class);
+        verify(mockMqttAsyncClient).connect(connectOptions.capture(), anyObject(), any(IMqttActionListener.class));
+        assertFalse(connectOptions.getValue().isCleanSession());
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testMqttWithoutPersistenceDirectory() throws Exception {
+        mqttClient = new OpenLpwaMqttProvider(serverUri, clientId, apiKey, clientCallback, null,
+                new OpenLpwaMqttOptions(false, OpenLpwaMqttProvider.PersistenceType.MAPPED_FILE, "", 1, null, null));
+    }
+
+    @Test
+    public void testMqttSubscribeWithSeveralConnections() throws Exception {
+        mqttClient = new OpenLpwaMqttProvider(serverUri, clientId, apiKey, clientCallback, null,
+                new OpenLpwaMqttOptions(true, OpenLpwaMqttProvider.PersistenceType.MEMORY, null, 3, null, "agents"));
+        List<MqttAsyncClient> clients = Arrays.asList(mock(MqttAsyncClient.class), mock(MqttAsyncClient.class), mock(MqttAsyncClient.class));
+        ReflectionTestUtils.setField(mqttClient, "mqttAsyncClient", clients.get(0));
+        ReflectionTestUtils.setField(mqttClient, "additionalMqttAsyncClients", clients.subList(1, 3));
+        SuccessCallback<String> successCallback = mock(SuccessCallback.class);
+        mqttClient.subscribe(successCallback, exception -> fail("Failure callback unexpected call"));
+
+        ArgumentCaptor<IMqttActionListener> listener = ArgumentCaptor.forClass(IMqttActionListener.class);
+        for (MqttAsyncClient client : clients) {
+            verify(client).subscribe(eq("$share/agents/router/~event/v1/data/new/urn/lora/#"), eq(1), anyObject(), listener.capture());
+        }
+        listener.getAllValues().get(0).onSuccess(null);
+        listener.getAllValues().get(1).onSuccess(null);
+        verify(successCallback, never()).onSuccess(anyString());
+        listener.getAllValues().get(2).onSuccess(null);
+        verify(successCallback).onSuccess(clientId);
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testMqttSeveralConnectionsWithoutSharedSubscriptionGroup() throws Exception {
+        mqttClient = new OpenLpwaMqttProvider(serverUri, clientId, apiKey, clientCallback, null,
+                new OpenLpwaMqttOptions(true, OpenLpwaMqttProvider.PersistenceType.MEMORY, null, 3, null, ""));
+    }
+
+    @Test
+    public void testMqttSubscribeOnlyReconnectedConnections() throws Exception {
+        mqttClient = new OpenLpwaMqttProvider(serverUri, clientId, apiKey, clientCallback, null,
+                new OpenLpwaMqttOptions(true, OpenLpwaMqttProvider.PersistenceType.MEMORY, null, 3, null, "agents"));
+        List<MqttAsyncClient> clients = Arrays.asList(mock(MqttAsyncClient.class), mock(MqttAsyncClient.class), mock(MqttAsyncClient.class));
+        ReflectionTestUtils.setField(mqttClient, "mqttAsyncClient", clients.get(0));
+        ReflectionTestUtils.setField(mqttClient, "additionalMqttAsyncClients", clients.subList(1, 3));
+        Answer<Void> subscribeAnswer = invocationOnMock -> {
+            ((IMqttActionListener) invocationOnMock.getArguments()[3]).onSuccess(null);
+            return null;
+        };
+        for (MqttAsyncClient client : clients) {
+            doAnswer(subscribeAnswer).when(client).subscribe(anyString(), anyInt(), anyObject(), any(IMqttActionListener.class));
+        }
+        mqttClient.subscribe(null, exception -> fail("Failure callback unexpected call"));
+
+        // Only the second connection was lost
+        when(clients.get(0).isConnected()).thenReturn(true);
+        when(clients.get(2).isConnected()).thenReturn(true);
+        mqttClient.connect(null, exception -> fail("Failure callback unexpected call"));
+        SuccessCallback<String> successCallback = mock(SuccessCallback.class);
+        mqttClient.subscribe(successCallback, exception -> fail("Failure callback unexpected call"));
+
+        verify(clients.get(0), times(1)).subscribe(anyString(), anyInt(), anyObject(), any(IMqttActionListener.class));
+        verify(clients.get(1), times(2)).subscribe(anyString(), anyInt(), anyObject(), any(IMqttActionListener.class));
+        verify(clients.get(2), times(1)).subscribe(anyString(), anyInt(), anyObject(), any(IMqttActionListener.class));
+        verify(successCallback).onSuccess(clientId);
+    }
+
+    @Test
+    public void testMqttConnectWithSeveralConnections() throws Exception {
+        mqttClient = new OpenLpwaMqttProvider(serverUri, clientId, apiKey, clientCallback, null,
+                new OpenLpwaMqttOptions(true, OpenLpwaMqttProvider.PersistenceType.MEMORY, null, 3, null, "agents"));
+        List<MqttAsyncClient> clients = Arrays.asList(mock(MqttAsyncClient.class), mock(MqttAsyncClient.class), mock(MqttAsyncClient.class));
+        ReflectionTestUtils.setField(mqttClient, "mqttAsyncClient", clients.get(0));
+        ReflectionTestUtils.setField(mqttClient, "additionalMqttAsyncClients", clients.subList(1, 3));
+        // The second connection is still alive
+        when(clients.get(1).isConnected()).thenReturn(true);
+        FailureCallback failureCallback = mock(FailureCallback.class);
+        mqttClient.connect(connectedClientId -> fail("Success callback unexpected call"), failureCallback);
+
+        ArgumentCaptor<IMqttActionListener> listener = ArgumentCaptor.forClass(IMqttActionListener.class);
+        verify(clients.get(0)).connect(any(MqttConnectOptions.class), anyObject(), listener.capture());
+        verify(clients.get(1), never()).connect(any(MqttConnectOptions.class), anyObject(), any(IMqttActionListener.class));
+        verify(clients.get(2)).connect(any(MqttConnectOptions.class), anyObject(), listener.capture());
+        listener.getAllValues().get(0).onFailure(null, new Exception());
+        listener.getAllValues().get(1).onFailure(null, new Exception());
+        // Failure reported once
+        verify(failureCallback, times(1)).onFailure(any(Throwable.class));
+    }
+
     @Test
     public void testMqttDisconnectWithSuccess() throws Exception {
         doAnswer(new Answer<Void>() {
@@ -337,6 +438,16 @@ public class OpenLpwaMqttProviderTest {
         verify(clientCallback, never()).newMessageArrived(anyString(), any(DeviceIncomingMessage.class));
     }
 
+    @Test
+    public void testMqttNewMessageArrivedForRejectedDevice() throws Exception {
+        when(clientCallback.acceptMessage(deviceEUI)).thenReturn(false);
+        String jsonPayload = "{\"streamId\":\"urn:lora:testMQTTdevice!uplink\",\"timestamp\":\"2016-05-23T13:05:18.307Z\",\"model\":\"lora_v0\",\"value\":{\"port\":1,\"fcnt\":8,\"signalLevel\":2,\"payload\":\"ae2109000cf3\"},\"tags\":[\"Lyon\",\"Test\"],\"metadata\":{\"source\":\"urn:lora:testMQTTdevice\"}}";
+
+        mqttClient.messageArrived("router/~event/v1/data/new/urn/lora/#", new MqttMessage(jsonPayload.getBytes()));
+        verify(clientCallback).acceptMessage(deviceEUI);
+        verify(clientCallback, never()).newMessageArrived(anyString(), any(DeviceIncomingMessage.class));
+    }
+
     @Test
     public void testMqttNewMessageArrivedWithInvalidPayload() throws Exception {
         String jsonPayload = "{\"badf00d\":\"yes\"}";
@@ -356,4 +467,93 @@ public class OpenLpwaMqttProviderTest {
         mqttClient.messageArrived("router/~event/v1/data/new/urn/lora/#", new MqttMessage(jsonPayload.getBytes()));
         verify(clientCallback, never()).newMessageArrived(anyString(), any(DeviceIncomingMessage.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testGetDeviceEUIFromTopic() {
+        assertEquals("0018B20000000001", OpenLpwaMqttProvider.getDeviceEUIFromTopic("router/~event/v1/data/new/urn/lora/0018B20000000001/!uplink"));
+        assertEquals("0018B20000000001", OpenLpwaMqttProvider.getDeviceEUIFromTopic("router/~event/v1/data/new/urn/lora/0018B20000000001!uplink"));
+        assertEquals("0018B20000000001", OpenLpwaMqttProvider.getDeviceEUIFromTopic("router/~event/v1/data/new/urn/lora/0018B20000000001"));
+        assertNull(OpenLpwaMqttProvider.getDeviceEUIFromTopic("router/~event/v1/data/new/urn/lora/#"));
+        assertNull(OpenLpwaMqttProvider.getDeviceEUIFromTopic("router/~event/v1/data/new/urn/lora/"));
+        assertNull(OpenLpwaMqttProvider.getDeviceEUIFromTopic("router/~event/v1/data/new"));
+        assertNull(OpenLpwaMqttProvider.getDeviceEUIFromTopic(null));
+    }
+
+    @Test
+    public void testMqttNewMessageArrivedOnDeviceTopic() throws Exception {
+        String jsonPayload = "{\"streamId\":\"urn:lora:testMQTTdevice!uplink\",\"timestamp\":\"2016-05-23T13:05:18.307Z\",\"model\":\"lora_v0\",\"value\":{\"port\":1,\"fcnt\":8,\"signalLevel\":2,\"payload\":\"ae2109000cf3\"},\"tags\":[\"Lyon\",\"Test\"],\"metadata\":{\"source\":\"urn:lora:testMQTTdevice\"}}";
+
+        mqttClient.messageArrived("router/~event/v1/data/new/urn/lora/" + deviceEUI + "/!uplink", new MqttMessage(jsonPayload.getBytes()));
+        verify(clientCallback).newMessageArrived(eq(deviceEUI), argThat(new ArgumentMatcher<DeviceIncomingMessage>() {
+            @Override
+            public boolean matches(Object o) {
+                return o instanceof DeviceIncomingMessage
+                        && ((DeviceIncomingMessage) o).getValue().getData().equals("ae2109000cf3");
+            }
+        }));
+    }
+
+    @Test
+    public void testMqttRejectedDeviceTopicNotDeserialized() throws Exception {
+        when(clientCallback.acceptMessage("unknownDevice")).thenReturn(false);
+        MqttMessage message = spy(new MqttMessage("{\"badf00d\":\"yes\"}".getBytes()));
+
+        mqttClient.messageArrived("router/~event/v1/data/new/urn/lora/unknownDevice/!uplink", message);
+        verify(clientCallback).acceptMessage("unknownDevice");
+        verify(message, never()).getPayload();
+        verify(clientCallback, never()).newMessageArrived(anyString(), any(DeviceIncomingMessage.class));
+    }
+
+    @Test
+    public void testMqttInvalidPayloadOnDeviceTopic() throws Exception {
+        mqttClient.messageArrived("router/~event/v1/data/new/urn/lora/" + deviceEUI + "/!uplink", new MqttMessage("{\"badf00d\":\"yes\"}".getBytes()));
+        verify(clientCallback, never()).newMessageArrived(anyString(), any(DeviceIncomingMessage.class));
+    }
+
+    @Test
+    public void testMqttPartialMessageOnDeviceTopic() throws Exception {
+        when(clientCallback.supportsPartialMessage()).thenReturn(true);
+        String jsonPayload = "{\"streamId\":\"urn:lora:testMQTTdevice!uplink\",\"timestamp\":\"2016-05-23T13:05:18.307Z\",\"model\":\"lora_v0\",\"value\":{\"port\":1,\"fcnt\":8,\"signalLevel\":2,\"payload\":\"ae2109000cf3\"},\"tags\":[\"Lyon\",\"Test\"],\"metadata\":{\"source\":\"urn:lora:testMQTTdevice\"}}";
+
+        mqttClient.messageArrived("router/~event/v1/data/new/urn/lora/" + deviceEUI + "/!uplink", new MqttMessage(jsonPayload.getBytes()));
+        verify(clientCallback).newMessageArrived(eq(deviceEUI), argThat(new ArgumentMatcher<DeviceIncomingMessage>() {
+            @Override
+            public boolean matches(Object o) {
+                if (o instanceof DeviceIncomingMessage) {
+                    DeviceIncomingMessage incomingMessage = (DeviceIncomingMessage) o;
+                    return incomingMessage.getDate() != null &&
+                            incomingMessage.getValue().getPort() == 1 &&
+                            incomingMessage.getValue().getFrameCount() == 8 &&
+                            incomingMessage.getValue().getData().equals("ae2109000cf3") &&
+                            incomingMessage.getTags() == null &&
+                            incomingMessage.getModel() == null;
+                }
+                return false;
+            }
+        }));
+    }
+
+    @Test
+    public void testMqttMessageAcknowledgedOnceProcessed() throws Exception {
+        String jsonPayload = "{\"streamId\":\"urn:lora:testMQTTdevice!uplink\",\"timestamp\":\"2016-05-23T13:05:18.307Z\",\"model\":\"lora_v0\",\"value\":{\"port\":1,\"fcnt\":8,\"signalLevel\":2,\"payload\":\"ae2109000cf3\"},\"tags\":[\"Lyon\",\"Test\"],\"metadata\":{\"source\":\"urn:lora:testMQTTdevice\"}}";
+        Runnable acknowledgement = mock(Runnable.class);
+
+        mqttClient.messageArrived("router/~event/v1/data/new/urn/lora/" + deviceEUI + "/!uplink", new MqttMessage(jsonPayload.getBytes()), acknowledgement);
+        InOrder inOrder = inOrder(clientCallback, acknowledgement);
+        inOrder.verify(clientCallback).newMessageArrived(eq(deviceEUI), any(DeviceIncomingMessage.class));
+        inOrder.verify(acknowledgement).run();
+    }
+
+    @Test
+    public void testMqttIgnoredMessagesAcknowledged() throws Exception {
+        when(clientCallback.acceptMessage("unknownDevice")).thenReturn(false);
+        Runnable acknowledgement = mock(Runnable.class);
+
+        mqttClient.messageArrived("router/~event/v1/data/new/urn/lora/unknownDevice/!uplink", new MqttMessage("{}".getBytes()), acknowledgement);
+        mqttClient.messageArrived("router/~event/v1/data/new/urn/lora/#", new MqttMessage("{\"badf00d\":".getBytes()), acknowledgement);
+        mqttClient.setClientCallback(null);
+        mqttClient.messageArrived("router/~event/v1/data/new/urn/lora/" + deviceEUI + "/!uplink", new MqttMessage("{}".getBytes()), acknowledgement);
+        verify(acknowledgement, times(3)).run();
+        verify(clientCallback, never()).newMessageArrived(anyString(), any(DeviceIncomingMessage.class));
+    }
+}
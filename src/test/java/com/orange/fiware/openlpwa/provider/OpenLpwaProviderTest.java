@@ -25,6 +25,7 @@ import com.orange.fiware.openlpwa.provider.model.DeviceInfo;
 import com.orange.fiware.openlpwa.provider.model.RegisterDeviceCommandParameter;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -36,13 +37,18 @@ import org.springframework.web.client.HttpServerErrorException;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.TimeZone;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.junit.Assert.*;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
 
 /**
@@ -187,6 +193,41 @@ public class OpenLpwaProviderTest {
         mockServer.verify();
     }
 
+    @Test
+    public void testGetDeviceInformationThrottled() throws Exception {
+        OpenLpwaRateLimiter rateLimiter = new OpenLpwaRateLimiter(true, 100, 10, 100, 3, 1000);
+        ReflectionTestUtils.setField(client, "rateLimiter", rateLimiter);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Retry-After", "0");
+        mockServer.expect(requestTo(String.format("%1$s/%2$s/vendors/lora/devices/%3$s", url, basePath, deviceEUI)))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withStatus(HttpStatus.TOO_MANY_REQUESTS).headers(headers));
+        mockServer.expect(requestTo(String.format("%1$s/%2$s/vendors/lora/devices/%3$s", url, basePath, deviceEUI)))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess("{\"devEUI\":\"testdevice\"}", MediaType.APPLICATION_JSON));
+
+        try {
+            // Sent again after the Retry-After delay
+            DeviceInfo response = client.getDeviceInformation(deviceEUI).get(5, TimeUnit.SECONDS);
+            assertEquals(deviceEUI, response.getDeviceEUI());
+            assertEquals(1, rateLimiter.getThrottledCount());
+            mockServer.verify();
+        } finally {
+            rateLimiter.shutdown();
+        }
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        assertEquals(-1, OpenLpwaResponseErrorHandler.parseRetryAfter(null));
+        assertEquals(-1, OpenLpwaResponseErrorHandler.parseRetryAfter("soon"));
+        assertEquals(120000, OpenLpwaResponseErrorHandler.parseRetryAfter("120"));
+        assertEquals(0, OpenLpwaResponseErrorHandler.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(60));
+        long retryAfter = OpenLpwaResponseErrorHandler.parseRetryAfter(date);
+        assertTrue(retryAfter > 50000 && retryAfter <= 60000);
+    }
+
     @Test
     public void testGetDeviceInformationWithInvalidJSONError() throws Exception {
         String responseBody = "{\"badf00d\":\"yes\"}";
@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.provider;
+
+import com.orange.fiware.openlpwa.exception.AgentException;
+import com.orange.fiware.openlpwa.provider.exception.OpenLpwaProviderThrottledException;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.*;
+
+/**
+ * OpenLpwaRateLimiter unit tests
+ */
+public class OpenLpwaRateLimiterTest {
+
+    private OpenLpwaRateLimiter rateLimiter;
+
+    @After
+    public void tearDown() {
+        if (rateLimiter != null) {
+            rateLimiter.shutdown();
+        }
+    }
+
+    @Test
+    public void testBurstThenSustainedRate() throws Exception {
+        rateLimiter = new OpenLpwaRateLimiter(true, 20, 5, 100, 3, 1000);
+        List<Long> sendTimes = new ArrayList<>();
+        List<ListenableFuture<String>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            futures.add(rateLimiter.execute(() -> {
+                synchronized (sendTimes) {
+                    sendTimes.add(System.nanoTime() - start);
+                }
+                return response("OK");
+            }));
+        }
+        // The burst is sent at once, the other requests are queued
+        assertEquals(5, sendTimes.size());
+        assertEquals(5, rateLimiter.getQueuedCount());
+        for (ListenableFuture<String> future : futures) {
+            assertEquals("OK", future.get(5, TimeUnit.SECONDS));
+        }
+        // 5 requests at 20 requests/s
+        assertTrue(sendTimes.get(9) >= TimeUnit.MILLISECONDS.toNanos(240));
+        assertEquals(0, rateLimiter.getQueuedCount());
+    }
+
+    @Test
+    public void testRequestsRejectedWhenQueueFull() throws Exception {
+        rateLimiter = new OpenLpwaRateLimiter(true, 1, 1, 2, 3, 1000);
+        rateLimiter.execute(() -> response("OK"));
+        rateLimiter.execute(() -> response("OK"));
+        rateLimiter.execute(() -> response("OK"));
+        ListenableFuture<String> future = rateLimiter.execute(() -> response("OK"));
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("Request not rejected");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(AgentException.class));
+        }
+        assertEquals(1, rateLimiter.getRejectedCount());
+    }
+
+    @Test
+    public void testThrottledRequestSentAgainAfterRetryAfter() throws Exception {
+        rateLimiter = new OpenLpwaRateLimiter(true, 1000, 10, 100, 3, 1000);
+        AtomicInteger attempts = new AtomicInteger();
+        long start = System.nanoTime();
+        ListenableFuture<String> future = rateLimiter.execute(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                return throttled(200);
+            }
+            return response("OK");
+        });
+        // Paused by the first request
+        ListenableFuture<String> otherFuture = rateLimiter.execute(() -> response("Other"));
+
+        assertEquals("OK", future.get(5, TimeUnit.SECONDS));
+        assertEquals("Other", otherFuture.get(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(2, attempts.get());
+        assertEquals(1, rateLimiter.getThrottledCount());
+    }
+
+    @Test
+    public void testQueuedRequestsSpreadAfterPause() throws Exception {
+        rateLimiter = new OpenLpwaRateLimiter(true, 50, 1, 100, 3, 1000);
+        SettableListenableFuture<String> throttledFuture = new SettableListenableFuture<>();
+        AtomicInteger attempts = new AtomicInteger();
+        List<Long> sendTimes = new ArrayList<>();
+        long start = System.nanoTime();
+        List<ListenableFuture<String>> futures = new ArrayList<>();
+        futures.add(rateLimiter.execute(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                return throttledFuture;
+            }
+            synchronized (sendTimes) {
+                sendTimes.add(System.nanoTime() - start);
+            }
+            return response("OK");
+        }));
+        for (int i = 0; i < 5; i++) {
+            futures.add(rateLimiter.execute(() -> {
+                synchronized (sendTimes) {
+                    sendTimes.add(System.nanoTime() - start);
+                }
+                return response("OK");
+            }));
+        }
+        // Throttled while the other requests are queued
+        throttledFuture.setException(new OpenLpwaProviderThrottledException(200));
+
+        for (ListenableFuture<String> future : futures) {
+            assertEquals("OK", future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(6, sendTimes.size());
+        // Sent after the pause at 50 requests/s, not at once when the pause ends
+        assertTrue(sendTimes.get(0) >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertTrue(sendTimes.get(5) - sendTimes.get(0) >= TimeUnit.MILLISECONDS.toNanos(75));
+    }
+
+    @Test
+    public void testThrottledRequestFailsAfterMaxRetries() throws Exception {
+        rateLimiter = new OpenLpwaRateLimiter(true, 1000, 10, 100, 2, 10);
+        AtomicInteger attempts = new AtomicInteger();
+        ListenableFuture<String> future = rateLimiter.execute(() -> {
+            attempts.incrementAndGet();
+            return throttled(-1);
+        });
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Throttled request succeeded");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(OpenLpwaProviderThrottledException.class));
+        }
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        rateLimiter = new OpenLpwaRateLimiter(false, 1, 1, 0, 3, 1000);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("OK", rateLimiter.execute(() -> response("OK")).get(1, TimeUnit.SECONDS));
+        }
+        ListenableFuture<String> future = rateLimiter.execute(() -> throttled(0));
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("Throttled request succeeded");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(OpenLpwaProviderThrottledException.class));
+        }
+    }
+
+    private static ListenableFuture<String> response(String response) {
+        SettableListenableFuture<String> future = new SettableListenableFuture<>();
+        future.set(response);
+        return future;
+    }
+
+    private static ListenableFuture<String> throttled(long retryAfterMillis) {
+        SettableListenableFuture<String> future = new SettableListenableFuture<>();
+        future.setException(new OpenLpwaProviderThrottledException(retryAfterMillis));
+        return future;
+    }
+}
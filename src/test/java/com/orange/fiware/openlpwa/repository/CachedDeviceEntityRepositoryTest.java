@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.repository;
+
+import com.orange.fiware.openlpwa.domain.DeviceEntity;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+/**
+ * CachedDeviceEntityRepository unit tests
+ */
+public class CachedDeviceEntityRepositoryTest {
+
+    @Mock
+    private DeviceEntityRepository repository;
+    private CachedDeviceEntityRepository cachedRepository;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+        cachedRepository = new CachedDeviceEntityRepository(repository, null, 2, false, 0);
+    }
+
+    @Test
+    public void testFindOneReadThrough() {
+        DeviceEntity device = device("eui1");
+        when(repository.findOne("eui1")).thenReturn(device);
+
+        assertSame(device, cachedRepository.findOne("eui1"));
+        assertSame(device, cachedRepository.findOne("eui1"));
+
+        verify(repository, times(1)).findOne("eui1");
+        assertEquals(1, cachedRepository.getMissCount());
+        assertEquals(1, cachedRepository.getHitCount());
+    }
+
+    @Test
+    public void testUnknownDeviceNotCached() {
+        assertNull(cachedRepository.findOne("unknown"));
+        assertNull(cachedRepository.findOne("unknown"));
+        verify(repository, times(2)).findOne("unknown");
+        assertEquals(0, cachedRepository.size());
+    }
+
+    @Test
+    public void testSaveUpdatesCache() {
+        DeviceEntity device = device("eui1");
+        when(repository.save(device)).thenReturn(device);
+
+        cachedRepository.save(device);
+
+        assertSame(device, cachedRepository.findOne("eui1"));
+        verify(repository, never()).findOne(anyString());
+    }
+
+    @Test
+    public void testDeleteEvictsDevice() {
+        DeviceEntity device = device("eui1");
+        when(repository.save(device)).thenReturn(device);
+        cachedRepository.save(device);
+
+        cachedRepository.delete(device);
+
+        verify(repository, times(1)).delete(device);
+        assertEquals(0, cachedRepository.size());
+        assertNull(cachedRepository.findOne("eui1"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        when(repository.findOne(anyString())).thenAnswer(invocation -> device((String) invocation.getArguments()[0]));
+
+        cachedRepository.findOne("eui1");
+        cachedRepository.findOne("eui2");
+        cachedRepository.findOne("eui1");
+        cachedRepository.findOne("eui3");
+
+        assertEquals(2, cachedRepository.size());
+        assertEquals(1, cachedRepository.getEvictionCount());
+        cachedRepository.findOne("eui1");
+        verify(repository, times(1)).findOne("eui1");
+        cachedRepository.findOne("eui2");
+        verify(repository, times(2)).findOne("eui2");
+    }
+
+    @Test
+    public void testExpiredDeviceReadAgain() throws Exception {
+        cachedRepository = new CachedDeviceEntityRepository(repository, null, 2, false, 50);
+        DeviceEntity device = device("eui1");
+        DeviceEntity updatedDevice = device("eui1");
+        updatedDevice.setName("otherName");
+        // Registered again by another agent
+        when(repository.findOne("eui1")).thenReturn(device, updatedDevice);
+
+        assertSame(device, cachedRepository.findOne("eui1"));
+        assertSame(device, cachedRepository.findOne("eui1"));
+        Thread.sleep(100);
+
+        assertSame(updatedDevice, cachedRepository.findOne("eui1"));
+        verify(repository, times(2)).findOne("eui1");
+        assertEquals(2, cachedRepository.getMissCount());
+    }
+
+    @Test
+    public void testPreload() {
+        when(repository.findAll()).thenReturn(Arrays.asList(device("eui1"), device("eui2"), device("eui3")));
+
+        assertEquals(2, cachedRepository.preload());
+
+        cachedRepository.findOne("eui1");
+        cachedRepository.findOne("eui2");
+        verify(repository, never()).findOne(anyString());
+    }
+
+    @Test
+    public void testDisabledCache() {
+        cachedRepository = new CachedDeviceEntityRepository(repository, null, 0, false, 0);
+        when(repository.findOne("eui1")).thenReturn(device("eui1"));
+
+        cachedRepository.findOne("eui1");
+        cachedRepository.findOne("eui1");
+
+        verify(repository, times(2)).findOne("eui1");
+    }
+
+    @Test
+    public void testFilteredDeviceNotRead() {
+        RegisteredDeviceFilter filter = mock(RegisteredDeviceFilter.class);
+        when(filter.mightBeRegistered("eui1")).thenReturn(false);
+        cachedRepository = new CachedDeviceEntityRepository(repository, filter, 2, false, 0);
+
+        assertNull(cachedRepository.findOne("eui1"));
+
+        verify(repository, never()).findOne(anyString());
+    }
+
+    @Test
+    public void testFilterUpdatedOnWrites() {
+        RegisteredDeviceFilter filter = mock(RegisteredDeviceFilter.class);
+        cachedRepository = new CachedDeviceEntityRepository(repository, filter, 2, false, 0);
+        DeviceEntity device = device("eui1");
+        when(repository.save(device)).thenReturn(device);
+
+        cachedRepository.save(device);
+        verify(filter, times(1)).add("eui1");
+        cachedRepository.delete(device);
+        verify(filter, times(1)).remove("eui1");
+    }
+
+    private static DeviceEntity device(String deviceEUI) {
+        DeviceEntity device = new DeviceEntity();
+        device.setDeviceEUI(deviceEUI);
+        device.setName("name");
+        device.setType("type");
+        device.setPort(1);
+        return device;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+package com.orange.fiware.openlpwa.repository;
+
+import com.mongodb.util.JSON;
+import com.orange.fiware.openlpwa.domain.DeviceEntity;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import static org.junit.Assert.*;
+
+/**
+ * DeviceEntityIndex unit tests
+ */
+@ContextConfiguration(classes = {FakeMongoConfiguration.class})
+@RunWith(SpringJUnit4ClassRunner.class)
+public class DeviceEntityIndexTest {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    private DeviceEntityIndex index;
+
+    @Before
+    public void setup() {
+        mongoTemplate.dropCollection("devices");
+        mongoTemplate.save(JSON.parse("{_id:\"0018B20000000001\",name:\"Room1\",type:\"Room\",port:1}"), "devices");
+        mongoTemplate.save(JSON.parse("{_id:\"testdevice\",name:\"Room2\",type:\"Room\",port:1}"), "devices");
+        index = new DeviceEntityIndex(mongoTemplate, true, 0);
+    }
+
+    @Test
+    public void testRebuild() {
+        assertNull(index.findDeviceEUI("Room", "Room1"));
+        index.rebuild();
+
+        assertEquals(2, index.size());
+        assertEquals("0018B20000000001", index.findDeviceEUI("Room", "Room1"));
+        assertEquals("testdevice", index.findDeviceEUI("Room", "Room2"));
+        assertNull(index.findDeviceEUI("Desk", "Room1"));
+    }
+
+    @Test
+    public void testPutAndRemove() {
+        index.rebuild();
+
+        // Entity renamed
+        index.put(newDevice("testdevice", "Room3"));
+        assertEquals("testdevice", index.findDeviceEUI("Room", "Room3"));
+        assertNull(index.findDeviceEUI("Room", "Room2"));
+        // Entity bound to another device
+        index.put(newDevice("0018B20000000002", "Room1"));
+        assertEquals("0018B20000000002", index.findDeviceEUI("Room", "Room1"));
+
+        index.remove("0018B20000000001");
+        assertEquals("0018B20000000002", index.findDeviceEUI("Room", "Room1"));
+        index.remove("0018B20000000002");
+        assertNull(index.findDeviceEUI("Room", "Room1"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testDisabled() {
+        index = new DeviceEntityIndex(mongoTemplate, false, 0);
+        index.rebuild();
+        index.put(newDevice("testdevice", "Room3"));
+        assertEquals(0, index.size());
+        assertNull(index.findDeviceEUI("Room", "Room2"));
+    }
+
+    private static DeviceEntity newDevice(String deviceEUI, String name) {
+        DeviceEntity device = new DeviceEntity();
+        device.setDeviceEUI(deviceEUI);
+        device.setName(name);
+        device.setType("Room");
+        return device;
+    }
+}
@@ -24,16 +24,26 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * DeviceEntityRepository unit tests
  */
-@ContextConfiguration(classes = {FakeMongoConfiguration.class})
+@ContextConfiguration(classes = {FakeMongoConfiguration.class, CachedDeviceEntityRepository.class, RegisteredDeviceFilter.class})
 @RunWith(SpringJUnit4ClassRunner.class)
 public class DeviceEntityRepositoryTest {
 
@@ -54,6 +64,72 @@ public class DeviceEntityRepositoryTest {
         checkDevice(device);
     }
 
+    @Test
+    public void testCachedRepositoryIsPrimary() {
+        assertTrue(deviceRepository instanceof CachedDeviceEntityRepository);
+        checkDevice(deviceRepository.findOne(deviceEUI));
+        checkDevice(deviceRepository.findOne(deviceEUI));
+        assertTrue(((CachedDeviceEntityRepository) deviceRepository).getHitCount() > 0);
+    }
+
+    @Test
+    public void testFindByType() {
+        assertEquals(1, deviceRepository.findByType("Room").size());
+        checkDevice(deviceRepository.findByType("Room").get(0));
+        assertTrue(deviceRepository.findByType("Desk").isEmpty());
+    }
+
+    @Test
+    public void testFindByNameAndType() {
+        assertEquals(1, deviceRepository.findByNameAndType("OpenSpace", "Room").size());
+        checkDevice(deviceRepository.findByNameAndType("OpenSpace", "Room").get(0));
+        assertTrue(deviceRepository.findByNameAndType("OpenSpace", "Desk").isEmpty());
+    }
+
+    @Test
+    public void testFindPatternSubscriptionDevices() {
+        mongoTemplate.save(JSON.parse("{_id:\"pattern1\",name:\"Desk1\",type:\"Desk\",commands:[\"thermostat\",\"led\"]}"), "devices");
+        mongoTemplate.save(JSON.parse("{_id:\"pattern2\",name:\"Desk2\",type:\"Desk\",commands:[\"led\",\"thermostat\"]}"), "devices");
+        mongoTemplate.save(JSON.parse("{_id:\"other\",name:\"Desk3\",type:\"Desk\",commands:[\"led\",\"thermostat\",\"alarm\"]}"), "devices");
+        PageRequest firstDevice = new PageRequest(0, 1);
+
+        // In any order, a single device read
+        List<DeviceEntity> devices = deviceRepository.findPatternSubscriptionDevices("Desk", Arrays.asList("led", "thermostat"), firstDevice);
+        assertEquals(1, devices.size());
+        assertTrue(devices.get(0).getDeviceEUI().startsWith("pattern"));
+        assertEquals(2, deviceRepository.findPatternSubscriptionDevices("Desk", Arrays.asList("led", "thermostat"), new PageRequest(0, 10)).size());
+        // Other commands
+        assertTrue(deviceRepository.findPatternSubscriptionDevices("Desk", Collections.singletonList("led"), firstDevice).isEmpty());
+        // Device with its own subscription
+        assertTrue(deviceRepository.findPatternSubscriptionDevices("Room", Arrays.asList("led", "thermostat"), firstDevice).isEmpty());
+    }
+
+    @Test
+    public void testStreamSubscriptionsToRenew() {
+        Date now = new Date();
+        DeviceEntity renewedDevice = newDevice("renewed", "renewedSubscriptionId", new Date(now.getTime() - 1000));
+        deviceRepository.save(renewedDevice);
+        deviceRepository.save(newDevice("later", "laterSubscriptionId", new Date(now.getTime() + 60000)));
+        deviceRepository.save(newDevice("sensor", null, null));
+
+        List<String> deviceEUIs;
+        try (Stream<DeviceEntity> devices = deviceRepository.streamSubscriptionsToRenew(now, new Sort("subscriptionRenewAt"))) {
+            deviceEUIs = devices.map(DeviceEntity::getDeviceEUI).collect(Collectors.toList());
+        } finally {
+            deviceRepository.delete(Arrays.asList("renewed", "later", "sensor").stream().map(eui -> newDevice(eui, null, null)).collect(Collectors.toList()));
+        }
+        // Device without renewal date first
+        assertEquals(Arrays.asList(deviceEUI, "renewed"), deviceEUIs);
+    }
+
+    private static DeviceEntity newDevice(String deviceEUI, String subscriptionId, Date renewAt) {
+        DeviceEntity device = new DeviceEntity();
+        device.setDeviceEUI(deviceEUI);
+        device.setSubscriptionId(subscriptionId);
+        device.setSubscriptionRenewAt(renewAt);
+        return device;
+    }
+
     private void insertDevice() {
         mongoTemplate.save(JSON.parse("{_id:\"testdevice\",name:\"OpenSpace\",type:\"Room\",subscriptionId:\"51c0ac9ed714fb3b37d7d5a8\",port:1,commands:[\"led\",\"thermostat\"]}"), "devices");
     }
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * * Created by agent on 17/10/2026.
+ */
+
+package com.orange.fiware.openlpwa.repository;
+
+import com.mongodb.util.JSON;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * RegisteredDeviceFilter unit tests
+ */
+@ContextConfiguration(classes = {FakeMongoConfiguration.class})
+@RunWith(SpringJUnit4ClassRunner.class)
+public class RegisteredDeviceFilterTest {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    private RegisteredDeviceFilter filter;
+
+    @Before
+    public void setup() {
+        mongoTemplate.dropCollection("devices");
+        mongoTemplate.save(JSON.parse("{_id:\"0018B20000000001\",name:\"Room1\",type:\"Room\",port:1}"), "devices");
+        mongoTemplate.save(JSON.parse("{_id:\"testdevice\",name:\"Room2\",type:\"Room\",port:1}"), "devices");
+        filter = new RegisteredDeviceFilter(mongoTemplate, true, 0, 60000);
+    }
+
+    @Test
+    public void testAcceptAllBeforeRebuild() {
+        assertFalse(filter.isReady());
+        assertTrue(filter.mightBeRegistered("0018B2FFFFFFFFFF"));
+        assertEquals(0, filter.getFilteredCount());
+    }
+
+    @Test
+    public void testRebuild() {
+        filter.rebuild();
+
+        assertTrue(filter.isReady());
+        assertEquals(2, filter.size());
+        assertTrue(filter.mightBeRegistered("0018B20000000001"));
+        assertTrue(filter.mightBeRegistered("testdevice"));
+        assertFalse(filter.mightBeRegistered("0018B2FFFFFFFFFF"));
+        assertFalse(filter.mightBeRegistered("unknown"));
+        assertEquals(2, filter.getAcceptedCount());
+        assertEquals(2, filter.getFilteredCount());
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        filter.rebuild();
+
+        filter.add("0018B2FFFFFFFFFF");
+        assertTrue(filter.mightBeRegistered("0018B2FFFFFFFFFF"));
+        filter.remove("0018B20000000001");
+        assertFalse(filter.mightBeRegistered("0018B20000000001"));
+        filter.remove("testdevice");
+        assertFalse(filter.mightBeRegistered("testdevice"));
+    }
+
+    @Test
+    public void testDeviceRegisteredByAnotherAgent() throws Exception {
+        filter = new RegisteredDeviceFilter(mongoTemplate, true, 0, 50);
+        filter.rebuild();
+        assertFalse(filter.mightBeRegistered("0018B20000000002"));
+
+        // Registered by another agent sharing the database
+        mongoTemplate.save(JSON.parse("{_id:\"0018B20000000002\",name:\"Room3\",type:\"Room\",port:1}"), "devices");
+        // Not read again from the database until the delay has elapsed
+        assertFalse(filter.mightBeRegistered("0018B20000000002"));
+        Thread.sleep(60);
+        assertTrue(filter.mightBeRegistered("0018B20000000002"));
+        assertEquals(3, filter.size());
+    }
+
+    @Test
+    public void testRebuildIfNeeded() throws Exception {
+        // Built at startup only
+        filter.rebuildIfNeeded();
+        assertTrue(filter.isReady());
+        mongoTemplate.save(JSON.parse("{_id:\"0018B20000000002\",name:\"Room3\",type:\"Room\",port:1}"), "devices");
+        filter.rebuildIfNeeded();
+        assertEquals(2, filter.size());
+        // Built again after a clear
+        filter.clear();
+        filter.rebuildIfNeeded();
+        assertEquals(3, filter.size());
+
+        // Rebuilt once the interval has elapsed
+        filter = new RegisteredDeviceFilter(mongoTemplate, true, 50, 60000);
+        filter.rebuildIfNeeded();
+        mongoTemplate.save(JSON.parse("{_id:\"0018B20000000003\",name:\"Room4\",type:\"Room\",port:1}"), "devices");
+        filter.rebuildIfNeeded();
+        assertEquals(3, filter.size());
+        Thread.sleep(60);
+        filter.rebuildIfNeeded();
+        assertEquals(4, filter.size());
+    }
+
+    @Test
+    public void testDisabledFilter() {
+        filter = new RegisteredDeviceFilter(mongoTemplate, false, 0, 60000);
+        filter.rebuild();
+
+        assertTrue(filter.mightBeRegistered("unknown"));
+    }
+
+    @Test
+    public void testEUISetMatchesHashSet() {
+        RegisteredDeviceFilter.EUISet euiSet = new RegisteredDeviceFilter.EUISet();
+        Set<String> expected = new HashSet<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            String deviceEUI = String.format("%016X", random.nextInt(5000));
+            if (random.nextBoolean()) {
+                euiSet.add(deviceEUI);
+                expected.add(deviceEUI);
+            } else {
+                euiSet.remove(deviceEUI);
+                expected.remove(deviceEUI);
+            }
+        }
+        assertEquals(expected.size(), euiSet.size());
+        for (int i = 0; i < 5000; i++) {
+            String deviceEUI = String.format("%016X", i);
+            assertEquals(expected.contains(deviceEUI), euiSet.contains(deviceEUI));
+        }
+        assertFalse(euiSet.contains("0018b20000000001"));
+    }
+}